@@ -21,6 +21,7 @@
 package com.apple.foundationdb.record;
 
 import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.query.plan.plans.PlanStatisticsCollector;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -37,8 +38,10 @@ import javax.annotation.Nullable;
 public class EvaluationContext {
     @Nonnull
     private final Bindings bindings;
+    @Nullable
+    private final PlanStatisticsCollector planStatisticsCollector;
 
-    public static final EvaluationContext EMPTY = new EvaluationContext(Bindings.EMPTY_BINDINGS);
+    public static final EvaluationContext EMPTY = new EvaluationContext(Bindings.EMPTY_BINDINGS, null);
 
     /**
      * Get an empty evaluation context.
@@ -49,8 +52,9 @@ public class EvaluationContext {
         return EMPTY;
     }
 
-    private EvaluationContext(@Nonnull Bindings bindings) {
+    private EvaluationContext(@Nonnull Bindings bindings, @Nullable PlanStatisticsCollector planStatisticsCollector) {
         this.bindings = bindings;
+        this.planStatisticsCollector = planStatisticsCollector;
     }
 
     /**
@@ -61,7 +65,7 @@ public class EvaluationContext {
      */
     @Nonnull
     public static EvaluationContext forBindings(@Nonnull Bindings bindings) {
-        return new EvaluationContext(bindings);
+        return new EvaluationContext(bindings, null);
     }
 
     /**
@@ -73,7 +77,7 @@ public class EvaluationContext {
      */
     @Nonnull
     public static EvaluationContext forBinding(@Nonnull String bindingName, @Nullable Object value) {
-        return new EvaluationContext(Bindings.newBuilder().set(bindingName, value).build());
+        return new EvaluationContext(Bindings.newBuilder().set(bindingName, value).build(), null);
     }
 
     /**
@@ -99,6 +103,34 @@ public class EvaluationContext {
         return bindings.get(name);
     }
 
+    /**
+     * Get the collector of per-plan execution statistics associated with this context, if any.
+     *
+     * @return the statistics collector or {@code null} if statistics are not being collected
+     * @see com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan#executePlan
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nullable
+    public PlanStatisticsCollector getPlanStatisticsCollector() {
+        return planStatisticsCollector;
+    }
+
+    /**
+     * Create a new <code>EvaluationContext</code> with the same bindings as this one that collects per-plan
+     * execution statistics into the given collector.
+     *
+     * @param planStatisticsCollector the collector to record statistics into or {@code null} to stop collecting them
+     * @return a new <code>EvaluationContext</code> with the given statistics collector
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public EvaluationContext withPlanStatisticsCollector(@Nullable PlanStatisticsCollector planStatisticsCollector) {
+        if (planStatisticsCollector == this.planStatisticsCollector) {
+            return this;
+        }
+        return new EvaluationContext(bindings, planStatisticsCollector);
+    }
+
     /**
      * Construct a builder from this context. This allows the user to create
      * a new <code>EvaluationContext</code> that has all of the same data
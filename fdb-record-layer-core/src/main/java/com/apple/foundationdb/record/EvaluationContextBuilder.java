@@ -21,6 +21,7 @@
 package com.apple.foundationdb.record;
 
 import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.query.plan.plans.PlanStatisticsCollector;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -35,12 +36,15 @@ import javax.annotation.Nullable;
 public class EvaluationContextBuilder {
     @Nonnull
     protected final Bindings.Builder bindings;
+    @Nullable
+    protected final PlanStatisticsCollector planStatisticsCollector;
 
     /**
      * Create an empty builder.
      */
     protected EvaluationContextBuilder() {
         this.bindings = Bindings.newBuilder();
+        this.planStatisticsCollector = null;
     }
 
     /**
@@ -52,6 +56,7 @@ public class EvaluationContextBuilder {
      */
     protected EvaluationContextBuilder(@Nonnull EvaluationContext original) {
         this.bindings = original.getBindings().childBuilder();
+        this.planStatisticsCollector = original.getPlanStatisticsCollector();
     }
 
     /**
@@ -96,6 +101,6 @@ public class EvaluationContextBuilder {
      */
     @Nonnull
     public EvaluationContext build() {
-        return EvaluationContext.forBindings(bindings.build());
+        return EvaluationContext.forBindings(bindings.build()).withPlanStatisticsCollector(planStatisticsCollector);
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * ParallelScanProperties.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Properties that control how a range scan is split into partitions that are read concurrently.
+ *
+ * <ul>
+ *     <li>{@code parallelism}: the maximum number of partitions that are read at the same time.</li>
+ *     <li>{@code bufferedBytesLimit}: the approximate number of bytes of results that may be read ahead of the consumer
+ *     across all partitions. Reading ahead stops once this many bytes are waiting to be returned.</li>
+ *     <li>{@code ordered}: whether results must be returned in the order of the underlying range. If not, results are
+ *     returned from whichever partition has them available first.</li>
+ * </ul>
+ *
+ * @see com.apple.foundationdb.record.provider.foundationdb.cursors.ParallelScanCursor
+ */
+@API(API.Status.EXPERIMENTAL)
+public class ParallelScanProperties {
+    public static final int DEFAULT_PARALLELISM = 8;
+    public static final long DEFAULT_BUFFERED_BYTES_LIMIT = 4 * 1024 * 1024;
+
+    public static final ParallelScanProperties ORDERED = new ParallelScanProperties(DEFAULT_PARALLELISM, DEFAULT_BUFFERED_BYTES_LIMIT, true);
+    public static final ParallelScanProperties UNORDERED = new ParallelScanProperties(DEFAULT_PARALLELISM, DEFAULT_BUFFERED_BYTES_LIMIT, false);
+
+    private final int parallelism;
+    private final long bufferedBytesLimit;
+    private final boolean ordered;
+
+    public ParallelScanProperties(int parallelism, long bufferedBytesLimit, boolean ordered) {
+        if (parallelism < 1) {
+            throw new RecordCoreArgumentException("parallelism must be positive", "parallelism", parallelism);
+        }
+        if (bufferedBytesLimit < 0) {
+            throw new RecordCoreArgumentException("buffered bytes limit must not be negative", "bufferedBytesLimit", bufferedBytesLimit);
+        }
+        this.parallelism = parallelism;
+        this.bufferedBytesLimit = bufferedBytesLimit;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Get the maximum number of partitions that are read concurrently.
+     * @return the maximum number of partitions that are read concurrently
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Get the approximate number of bytes of results that may be read ahead of the consumer.
+     * @return the read-ahead limit in bytes
+     */
+    public long getBufferedBytesLimit() {
+        return bufferedBytesLimit;
+    }
+
+    /**
+     * Get whether results are returned in the order of the scanned range.
+     * @return {@code true} if results are returned in order
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    @Nonnull
+    public ParallelScanProperties setParallelism(int parallelism) {
+        return new ParallelScanProperties(parallelism, bufferedBytesLimit, ordered);
+    }
+
+    @Nonnull
+    public ParallelScanProperties setBufferedBytesLimit(long bufferedBytesLimit) {
+        return new ParallelScanProperties(parallelism, bufferedBytesLimit, ordered);
+    }
+
+    @Nonnull
+    public ParallelScanProperties setOrdered(boolean ordered) {
+        return new ParallelScanProperties(parallelism, bufferedBytesLimit, ordered);
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelScanProperties(" + parallelism + ", " + bufferedBytesLimit + ", " + (ordered ? "ordered" : "unordered") + ")";
+    }
+}
@@ -34,6 +34,7 @@ import com.apple.foundationdb.record.cursors.ListCursor;
 import com.apple.foundationdb.record.cursors.MapCursor;
 import com.apple.foundationdb.record.cursors.MapPipelinedCursor;
 import com.apple.foundationdb.record.cursors.OrElseCursor;
+import com.apple.foundationdb.record.cursors.PipelineSizeAdjuster;
 import com.apple.foundationdb.record.cursors.RowLimitedCursor;
 import com.apple.foundationdb.record.cursors.SkipCursor;
 import com.apple.foundationdb.record.logging.CompletionExceptionLogHelper;
@@ -304,6 +305,34 @@ public interface RecordCursor<T> extends AutoCloseable, Iterator<T> {
     @Nonnull
     CompletableFuture<RecordCursorResult<T>> onNext();
 
+    /**
+     * Asynchronously return a batch of up to {@code maxSize} consecutive values from this cursor, with a single
+     * continuation after the last of them. This amortizes the cost of a future and a {@link RecordCursorResult} per
+     * value across the whole batch, which matters for long scans through several layers of cursors.
+     *
+     * <p>
+     * A batch always contains at least one value unless the cursor has stopped, in which case
+     * {@link RecordCursorBatch#hasStopped()} is {@code true} and the batch records why. A cursor may return fewer than
+     * {@code maxSize} values even if it has not stopped, for instance when getting more would mean waiting for another
+     * read from the database. Calls to this method may be freely mixed with calls to {@link #onNext()}.
+     * </p>
+     *
+     * <p>
+     * The default implementation adapts {@link #onNext()}. Cursors that can produce several values at once, such as
+     * {@link com.apple.foundationdb.record.provider.foundationdb.KeyValueCursor}, or that simply transform the values
+     * of a child cursor, such as {@link MapCursor}, override this to avoid per-value futures.
+     * </p>
+     *
+     * @param maxSize the maximum number of values to return
+     * @return a future for the next batch of values from this cursor
+     * @see RecordCursorBatch
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default CompletableFuture<RecordCursorBatch<T>> onNextBatch(int maxSize) {
+        return RecordCursorBatch.fromResults(this, maxSize);
+    }
+
     /**
      * Get the next result from this cursor. In many cases, this is a blocking operation and should <em>not</em> be
      * called within asynchronous contexts. The non-blocking version of this function, {@link #onNext()}, should
@@ -551,6 +580,20 @@ public interface RecordCursor<T> extends AutoCloseable, Iterator<T> {
         return new MapPipelinedCursor<>(this, func, pipelineSize);
     }
 
+    /**
+     * Get a new cursor by applying the given asynchronous function to the records in this cursor, with the number of
+     * futures to start ahead of time determined as the cursor runs.
+     * @param func the function to apply to each record
+     * @param pipelineSizeAdjuster the source of the number of futures to start ahead of time
+     * @param <V> the result type of the mapping function
+     * @return a new cursor that applies the given function to each record
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default <V> RecordCursor<V> mapPipelined(@Nonnull Function<T, CompletableFuture<V>> func, @Nonnull PipelineSizeAdjuster pipelineSizeAdjuster) {
+        return new MapPipelinedCursor<>(this, func, pipelineSizeAdjuster);
+    }
+
     /**
      * Get a new cursor by applying the given cursor generating function to the records in this cursor.
      * @param func the function to apply to each record
@@ -600,10 +643,33 @@ public interface RecordCursor<T> extends AutoCloseable, Iterator<T> {
                                                           @Nullable Function<T, byte[]> checker,
                                                           @Nullable byte[] continuation,
                                                           int pipelineSize) {
+        return flatMapPipelined(outerFunc, innerFunc, checker, continuation, PipelineSizeAdjuster.fixed(pipelineSize));
+    }
+
+    /**
+     * Resume a nested cursor with the given continuation or start if <code>null</code>, with the number of outer
+     * items to work ahead determined as the cursor runs.
+     * @param outerFunc a function that takes the outer continuation and returns the outer cursor.
+     * @param innerFunc a function that takes an outer record and an inner continuation and returns the inner cursor.
+     * @param checker a function that takes an outer record and returns a way of recognizing it again or <code>null</code>.
+     * @param continuation the continuation returned from a previous instance of this pipeline or <code>null</code> at start.
+     * @param pipelineSizeAdjuster the source of the number of outer items to work ahead
+     * @param <T> the result type of the outer cursor
+     * @param <V> the result type of the inner cursor produced by the mapping function
+     * @return a {@link FlatMapPipelinedCursor} that maps the inner function across the results of the outer function
+     * @see #flatMapPipelined(Function, BiFunction, Function, byte[], int)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    static <T, V> RecordCursor<V> flatMapPipelined(@Nonnull Function<byte[], ? extends RecordCursor<T>> outerFunc,
+                                                   @Nonnull BiFunction<T, byte[], ? extends RecordCursor<V>> innerFunc,
+                                                   @Nullable Function<T, byte[]> checker,
+                                                   @Nullable byte[] continuation,
+                                                   @Nonnull PipelineSizeAdjuster pipelineSizeAdjuster) {
         if (continuation == null) {
             return new FlatMapPipelinedCursor<>(outerFunc.apply(null), innerFunc, checker,
                     null, null, null,
-                    pipelineSize);
+                    pipelineSizeAdjuster);
         }
         RecordCursorProto.FlatMapContinuation parsed;
         try {
@@ -616,7 +682,7 @@ public interface RecordCursor<T> extends AutoCloseable, Iterator<T> {
         final byte[] innerContinuation = parsed.hasInnerContinuation() ? parsed.getInnerContinuation().toByteArray() : null;
         final byte[] checkValue = parsed.hasCheckValue() ? parsed.getCheckValue().toByteArray() : null;
         final RecordCursor<T> outerCursor = outerFunc.apply(outerContinuation);
-        return new FlatMapPipelinedCursor<>(outerCursor, innerFunc, checker, outerContinuation, checkValue, innerContinuation, pipelineSize);
+        return new FlatMapPipelinedCursor<>(outerCursor, innerFunc, checker, outerContinuation, checkValue, innerContinuation, pipelineSizeAdjuster);
     }
 
     /**
@@ -736,6 +802,33 @@ public interface RecordCursor<T> extends AutoCloseable, Iterator<T> {
         }), getExecutor()).thenApply(vignore -> holder.get());
     }
 
+    /**
+     * Call the given consumer with each batch of records as it becomes available. The returned future contains
+     * the final (possibly empty) batch after which the cursor stopped, which has already been given to the consumer
+     * if it has any values. This allows the caller to get a continuation for this cursor and determine why this
+     * cursor stopped producing values.
+     *
+     * @param maxBatchSize the maximum number of values in each batch
+     * @param consumer function to be applied to each non-empty batch
+     * @return a future that is complete when the consumer has been called on all remaining records
+     * @see #onNextBatch(int)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default CompletableFuture<RecordCursorBatch<T>> forEachBatch(int maxBatchSize, @Nonnull Consumer<RecordCursorBatch<T>> consumer) {
+        final AtomicReference<RecordCursorBatch<T>> holder = new AtomicReference<>();
+        return AsyncUtil.whileTrue(() -> onNextBatch(maxBatchSize).thenApply(batch -> {
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+            if (batch.hasStopped()) {
+                holder.set(batch);
+                return false;
+            }
+            return true;
+        }), getExecutor()).thenApply(vignore -> holder.get());
+    }
+
     /**
      * Call the function as each record becomes available. This will be ready when
      * all of the elements of this cursor have been read and when all of the futures
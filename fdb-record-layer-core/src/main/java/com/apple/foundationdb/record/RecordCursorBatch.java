@@ -0,0 +1,292 @@
+/*
+ * RecordCursorBatch.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A chunk of consecutive values obtained when a {@link RecordCursor} advances using {@link RecordCursor#onNextBatch(int)}.
+ *
+ * <p>
+ * Where a {@link RecordCursorResult} carries a single value together with its continuation, a batch carries any
+ * number of values and only the continuation after the last of them. This allows cursors that already have several
+ * values available locally (such as a range read that has received a whole chunk of key-values from the database)
+ * to hand them all to the consumer through one future instead of one future and one result per value.
+ * </p>
+ *
+ * <p>
+ * A batch is either:
+ * </p>
+ * <ol>
+ *     <li>
+ *         A non-empty list of values from a cursor that has not (yet) stopped. The continuation of the batch resumes
+ *         the cursor after the last value and is never an end continuation.
+ *     </li>
+ *     <li>
+ *         A possibly empty list of values from a cursor that stopped after producing them, together with the
+ *         {@link RecordCursor.NoNextReason} that the cursor stopped. The continuation of the batch is the continuation
+ *         of the result without a next value, i.e., it is an end continuation if and only if the reason is
+ *         {@link RecordCursor.NoNextReason#SOURCE_EXHAUSTED SOURCE_EXHAUSTED}.
+ *     </li>
+ * </ol>
+ *
+ * <p>
+ * A consumer that stops part-way through a batch does not have a continuation to resume at the exact point that it
+ * stopped, so callers that need per-record continuations should continue to use {@link RecordCursor#onNext()}.
+ * </p>
+ *
+ * @param <T> the type of values in the batch
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordCursorBatch<T> {
+    @Nonnull
+    private final List<T> values;
+    @Nonnull
+    private final RecordCursorContinuation continuation;
+    @Nullable
+    private final RecordCursor.NoNextReason noNextReason;
+
+    private RecordCursorBatch(@Nonnull List<T> values, @Nonnull RecordCursorContinuation continuation,
+                              @Nullable RecordCursor.NoNextReason noNextReason) {
+        this.values = values;
+        this.continuation = continuation;
+        this.noNextReason = noNextReason;
+    }
+
+    /**
+     * Get the values in this batch in cursor order.
+     * @return the values in this batch
+     */
+    @Nonnull
+    public List<T> getValues() {
+        return values;
+    }
+
+    /**
+     * Get the number of values in this batch.
+     * @return the number of values in this batch
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Get whether this batch has no values. This is only possible if the cursor has stopped.
+     * @return {@code true} if this batch has no values
+     */
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * Get the continuation after the last value in this batch or, if the cursor has stopped, the continuation of
+     * the result without a next value.
+     * @return the continuation of this batch
+     */
+    @Nonnull
+    public RecordCursorContinuation getContinuation() {
+        return continuation;
+    }
+
+    /**
+     * Get whether the cursor stopped after producing the values in this batch. If so, all further batches (and
+     * results) from the cursor will be empty.
+     * @return {@code true} if the cursor has stopped
+     */
+    public boolean hasStopped() {
+        return noNextReason != null;
+    }
+
+    /**
+     * Get the reason that the cursor stopped after producing the values in this batch.
+     * @return the reason that the cursor stopped
+     * @throws RecordCoreException if the cursor has not stopped
+     */
+    @Nonnull
+    public RecordCursor.NoNextReason getNoNextReason() {
+        if (noNextReason == null) {
+            throw new RecordCoreException("tried to get no next reason of batch from cursor that has not stopped");
+        }
+        return noNextReason;
+    }
+
+    /**
+     * Get the single result that the cursor would have returned last had it been advanced one value at a time.
+     * That is, the result without a next value if the cursor has stopped, and otherwise a result with the last value
+     * in this batch and the batch's continuation.
+     * @return the last result represented by this batch
+     */
+    @Nonnull
+    public RecordCursorResult<T> getLastResult() {
+        if (noNextReason != null) {
+            return RecordCursorResult.withoutNextValue(continuation, noNextReason);
+        } else {
+            return RecordCursorResult.withNextValue(values.get(values.size() - 1), continuation);
+        }
+    }
+
+    /**
+     * Apply a function to each value in this batch, keeping the same continuation and stopping state.
+     * @param func the function to apply
+     * @param <U> the result type of the function
+     * @return a new batch with the function applied to each value
+     */
+    @Nonnull
+    public <U> RecordCursorBatch<U> map(@Nonnull Function<? super T, ? extends U> func) {
+        final List<U> mapped = new ArrayList<>(values.size());
+        for (T value : values) {
+            mapped.add(func.apply(value));
+        }
+        return new RecordCursorBatch<>(mapped, continuation, noNextReason);
+    }
+
+    @Override
+    public String toString() {
+        if (noNextReason == null) {
+            return "Batch(size=" + values.size() + ", cont=" + continuation + ")";
+        } else {
+            return "Batch(size=" + values.size() + ", cont=" + continuation + ", reason=" + noNextReason + ")";
+        }
+    }
+
+    /**
+     * Create a batch from a cursor that has not stopped.
+     * @param values the values, which must not be empty
+     * @param continuation the continuation after the last value
+     * @param <T> the type of values
+     * @return a new batch
+     */
+    @Nonnull
+    public static <T> RecordCursorBatch<T> withValues(@Nonnull List<T> values, @Nonnull RecordCursorContinuation continuation) {
+        if (values.isEmpty()) {
+            throw new RecordCoreException("cannot return empty batch from cursor that has not stopped");
+        }
+        if (continuation.isEnd()) {
+            throw new RecordCoreException("cannot return end continuation with next value");
+        }
+        return new RecordCursorBatch<>(values, continuation, null);
+    }
+
+    /**
+     * Create a batch from a cursor that stopped after producing the given values.
+     * @param values the values produced before the cursor stopped, possibly empty
+     * @param noNextResult the result without a next value that stopped the cursor
+     * @param <T> the type of values
+     * @return a new batch
+     */
+    @Nonnull
+    public static <T> RecordCursorBatch<T> stopped(@Nonnull List<T> values, @Nonnull RecordCursorResult<?> noNextResult) {
+        return new RecordCursorBatch<>(values, noNextResult.getContinuation(), noNextResult.getNoNextReason());
+    }
+
+    /**
+     * Create an empty batch from a cursor that had already stopped.
+     * @param noNextResult the result without a next value that stopped the cursor
+     * @param <T> the type of values
+     * @return a new empty batch
+     */
+    @Nonnull
+    public static <T> RecordCursorBatch<T> stopped(@Nonnull RecordCursorResult<?> noNextResult) {
+        return stopped(Collections.emptyList(), noNextResult);
+    }
+
+    /**
+     * Check that the requested maximum size of a batch is valid.
+     * @param maxSize the maximum number of values requested
+     */
+    public static void validateMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new RecordCoreArgumentException("Invalid batch size: " + maxSize);
+        }
+    }
+
+    /**
+     * Adapt a cursor that does not natively produce batches by advancing it one result at a time.
+     * While each result from the cursor is already available, the batch is filled without any further
+     * future composition.
+     * @param cursor the cursor to advance
+     * @param maxSize the maximum number of values to put in the batch
+     * @param <T> the type of values
+     * @return a future that completes to a batch of up to {@code maxSize} values
+     */
+    @Nonnull
+    public static <T> CompletableFuture<RecordCursorBatch<T>> fromResults(@Nonnull RecordCursor<T> cursor, int maxSize) {
+        validateMaxSize(maxSize);
+        return new ResultCollector<>(cursor, maxSize).collect();
+    }
+
+    private static class ResultCollector<T> {
+        @Nonnull
+        private final RecordCursor<T> cursor;
+        private final int maxSize;
+        @Nonnull
+        private final List<T> values;
+        @Nullable
+        private RecordCursorResult<T> lastResult;
+
+        ResultCollector(@Nonnull RecordCursor<T> cursor, int maxSize) {
+            this.cursor = cursor;
+            this.maxSize = maxSize;
+            this.values = new ArrayList<>(Math.min(maxSize, 16));
+        }
+
+        @Nonnull
+        CompletableFuture<RecordCursorBatch<T>> collect() {
+            while (values.size() < maxSize) {
+                final CompletableFuture<RecordCursorResult<T>> resultFuture = cursor.onNext();
+                if (!resultFuture.isDone() || resultFuture.isCompletedExceptionally()) {
+                    return resultFuture.thenCompose(result -> add(result) ? collect() : CompletableFuture.completedFuture(build()));
+                }
+                if (!add(resultFuture.join())) {
+                    break;
+                }
+            }
+            return CompletableFuture.completedFuture(build());
+        }
+
+        private boolean add(@Nonnull RecordCursorResult<T> result) {
+            lastResult = result;
+            if (result.hasNext()) {
+                values.add(result.get());
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Nonnull
+        private RecordCursorBatch<T> build() {
+            if (lastResult.hasNext()) {
+                return withValues(values, lastResult.getContinuation());
+            } else {
+                return stopped(values, lastResult);
+            }
+        }
+    }
+}
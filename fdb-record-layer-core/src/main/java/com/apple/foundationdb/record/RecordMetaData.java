@@ -567,6 +567,9 @@ public class RecordMetaData implements RecordMetaDataProvider {
             if (recordType.getSinceVersion() != null) {
                 typeBuilder.setSinceVersion(recordType.getSinceVersion());
             }
+            if (recordType.getSplitRecordSize() != 0) {
+                typeBuilder.setSplitRecordSize(recordType.getSplitRecordSize());
+            }
             if (recordType.hasExplicitRecordTypeKey()) {
                 typeBuilder.setExplicitKey(LiteralKeyExpression.toProtoValue(recordType.getExplicitRecordTypeKey()));
             }
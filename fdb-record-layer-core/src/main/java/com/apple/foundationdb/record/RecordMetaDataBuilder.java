@@ -276,6 +276,9 @@ public class RecordMetaDataBuilder implements RecordMetaDataProvider {
             if (typeProto.hasSinceVersion()) {
                 typeBuilder.setSinceVersion(typeProto.getSinceVersion());
             }
+            if (typeProto.hasSplitRecordSize()) {
+                typeBuilder.setSplitRecordSize(typeProto.getSplitRecordSize());
+            }
             if (typeProto.hasExplicitKey()) {
                 typeBuilder.setRecordTypeKey(LiteralKeyExpression.fromProtoValue(typeProto.getExplicitKey()));
             }
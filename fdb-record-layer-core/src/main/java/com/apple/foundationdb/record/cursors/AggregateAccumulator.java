@@ -0,0 +1,116 @@
+/*
+ * AggregateAccumulator.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.tuple.Tuple;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The partial state of a list of {@link AggregateOperation}s for a single group.
+ */
+@API(API.Status.EXPERIMENTAL)
+public class AggregateAccumulator {
+    @Nonnull
+    private final List<AggregateOperation> operations;
+    @Nonnull
+    private final Object[] states;
+
+    /**
+     * Create an accumulator for a group with no values.
+     * @param operations the operations to compute
+     */
+    public AggregateAccumulator(@Nonnull List<AggregateOperation> operations) {
+        this.operations = operations;
+        this.states = new Object[operations.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = operations.get(i).initialState();
+        }
+    }
+
+    /**
+     * Create an accumulator from a state previously returned by {@link #getState}.
+     * @param operations the operations to compute
+     * @param state the saved state
+     */
+    public AggregateAccumulator(@Nonnull List<AggregateOperation> operations, @Nonnull Tuple state) {
+        if (state.size() != operations.size()) {
+            throw new RecordCoreException("aggregate state does not match operations")
+                    .addLogInfo(LogMessageKeys.EXPECTED_COLUMN_SIZE, operations.size())
+                    .addLogInfo(LogMessageKeys.ACTUAL_COLUMN_SIZE, state.size());
+        }
+        this.operations = operations;
+        this.states = new Object[operations.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = operations.get(i).restoreState(state.get(i));
+        }
+    }
+
+    /**
+     * Add one row of values to the group.
+     * The value at each position is given to the operation at the same position. Missing values at the end are
+     * treated as {@code null}, so that an operation such as {@link AggregateOperation#COUNT} need not have one.
+     * @param values the values to add
+     */
+    public void accumulate(@Nonnull List<Object> values) {
+        for (int i = 0; i < states.length; i++) {
+            states[i] = operations.get(i).accumulate(states[i], i < values.size() ? values.get(i) : null);
+        }
+    }
+
+    /**
+     * Combine the state for some other part of the same group into this one.
+     * @param other the state for the other part of the group
+     */
+    public void merge(@Nonnull AggregateAccumulator other) {
+        for (int i = 0; i < states.length; i++) {
+            states[i] = operations.get(i).merge(states[i], other.states[i]);
+        }
+    }
+
+    /**
+     * Get the partial state, which can be used to construct an equivalent accumulator.
+     * @return a tuple with the partial state of each operation
+     */
+    @Nonnull
+    public Tuple getState() {
+        // Copy the states, since they change as more values are accumulated.
+        return Tuple.from(states.clone());
+    }
+
+    /**
+     * Get the result of each operation for the values accumulated so far.
+     * @return a list of results, one for each operation
+     */
+    @Nonnull
+    public List<Object> getResults() {
+        final List<Object> results = new ArrayList<>(states.length);
+        for (int i = 0; i < states.length; i++) {
+            results.add(operations.get(i).result(states[i]));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * AggregateOperation.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.FunctionNames;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.tuple.Tuple;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * An operation computed over the values in a group by {@link StreamingAggregateCursor} or {@link HashAggregateCursor}.
+ *
+ * <p>
+ * Each operation keeps a partial state that can be updated one value at a time and combined with the partial state
+ * for some other part of the same group. Partial states are represented by values that can be stored in a
+ * {@link Tuple}, so that they can be saved in continuations or written to files.
+ * </p>
+ *
+ * <p>
+ * Except for {@link #COUNT}, operations ignore {@code null} values. The result of {@link #SUM}, {@link #MIN},
+ * {@link #MAX} and {@link #AVG} for a group that has only {@code null} values is {@code null}.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public enum AggregateOperation {
+    /**
+     * The number of values, including {@code null}s.
+     */
+    COUNT(FunctionNames.COUNT),
+    /**
+     * The number of values that are not {@code null}.
+     */
+    COUNT_NOT_NULL(FunctionNames.COUNT_NOT_NULL),
+    /**
+     * The sum of the values, as a {@code long} if they are all integers and a {@code double} otherwise.
+     * An integer sum that does not fit in a {@code long} is a {@link BigInteger} instead.
+     */
+    SUM(FunctionNames.SUM),
+    /**
+     * The least value, comparing numbers by value and anything else in {@link Tuple} order.
+     */
+    MIN(FunctionNames.MIN),
+    /**
+     * The greatest value, comparing numbers by value and anything else in {@link Tuple} order.
+     */
+    MAX(FunctionNames.MAX),
+    /**
+     * The mean of the values, as a {@code double}.
+     */
+    AVG("avg");
+
+    @Nonnull
+    private final String functionName;
+
+    AggregateOperation(@Nonnull String functionName) {
+        this.functionName = functionName;
+    }
+
+    /**
+     * Get the name of this operation, which matches the name of the corresponding aggregate index function, if any.
+     * @return the name of this operation
+     */
+    @Nonnull
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    /**
+     * Get the partial state for a group with no values.
+     * @return the initial state
+     */
+    @Nullable
+    Object initialState() {
+        switch (this) {
+            case COUNT:
+            case COUNT_NOT_NULL:
+                return 0L;
+            case AVG:
+                return Tuple.from(0.0, 0L);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the partial state from an item of a {@link Tuple} that was saved and restored.
+     * @param item the item as returned from the tuple
+     * @return the state
+     */
+    @Nullable
+    Object restoreState(@Nullable Object item) {
+        if (this == AVG && item instanceof List) {
+            // Unpacked tuples hold nested tuples as lists.
+            return Tuple.fromList((List<?>)item);
+        }
+        return item;
+    }
+
+    /**
+     * Update a partial state with another value.
+     * @param state the current state
+     * @param value the value to add to the group
+     * @return the new state
+     */
+    @Nullable
+    Object accumulate(@Nullable Object state, @Nullable Object value) {
+        if (this == COUNT) {
+            return (Long)state + 1;
+        }
+        if (value == null) {
+            return state;
+        }
+        switch (this) {
+            case COUNT_NOT_NULL:
+                return (Long)state + 1;
+            case SUM:
+                return state == null ? sum(0L, value) : sum(state, value);
+            case MIN:
+                return state == null || compare(value, state) < 0 ? value : state;
+            case MAX:
+                return state == null || compare(value, state) > 0 ? value : state;
+            case AVG:
+                final Tuple avg = (Tuple)state;
+                return Tuple.from(avg.getDouble(0) + toNumber(value).doubleValue(), avg.getLong(1) + 1);
+            default:
+                throw new RecordCoreException("unknown aggregate operation")
+                        .addLogInfo(LogMessageKeys.FUNCTION, functionName);
+        }
+    }
+
+    /**
+     * Combine two partial states for different parts of the same group.
+     * @param state the state for one part
+     * @param other the state for the other part
+     * @return the state for the whole
+     */
+    @Nullable
+    Object merge(@Nullable Object state, @Nullable Object other) {
+        if (state == null) {
+            return other;
+        }
+        if (other == null) {
+            return state;
+        }
+        switch (this) {
+            case COUNT:
+            case COUNT_NOT_NULL:
+                return (Long)state + (Long)other;
+            case SUM:
+                return sum(state, other);
+            case MIN:
+                return compare(other, state) < 0 ? other : state;
+            case MAX:
+                return compare(other, state) > 0 ? other : state;
+            case AVG:
+                final Tuple avg = (Tuple)state;
+                final Tuple otherAvg = (Tuple)other;
+                return Tuple.from(avg.getDouble(0) + otherAvg.getDouble(0), avg.getLong(1) + otherAvg.getLong(1));
+            default:
+                throw new RecordCoreException("unknown aggregate operation")
+                        .addLogInfo(LogMessageKeys.FUNCTION, functionName);
+        }
+    }
+
+    /**
+     * Get the final value from a partial state.
+     * @param state the state for the whole group
+     * @return the result of this operation for the group
+     */
+    @Nullable
+    Object result(@Nullable Object state) {
+        if (this == AVG) {
+            final Tuple avg = (Tuple)state;
+            final long count = avg.getLong(1);
+            return count == 0 ? null : avg.getDouble(0) / count;
+        }
+        return state;
+    }
+
+    @Nonnull
+    private Object sum(@Nonnull Object value1, @Nonnull Object value2) {
+        final Number number1 = toNumber(value1);
+        final Number number2 = toNumber(value2);
+        if (isIntegral(number1) && isIntegral(number2)) {
+            if (number1 instanceof BigInteger || number2 instanceof BigInteger) {
+                final BigInteger sum = toBigInteger(number1).add(toBigInteger(number2));
+                return sum.bitLength() < Long.SIZE ? (Object)sum.longValue() : sum;
+            }
+            try {
+                return Math.addExact(number1.longValue(), number2.longValue());
+            } catch (ArithmeticException ex) {
+                return BigInteger.valueOf(number1.longValue()).add(BigInteger.valueOf(number2.longValue()));
+            }
+        } else {
+            return number1.doubleValue() + number2.doubleValue();
+        }
+    }
+
+    @Nonnull
+    private Number toNumber(@Nonnull Object value) {
+        if (value instanceof Number) {
+            return (Number)value;
+        }
+        throw new RecordCoreException("aggregate operand is not a number")
+                .addLogInfo(LogMessageKeys.FUNCTION, functionName)
+                .addLogInfo(LogMessageKeys.VALUE, value);
+    }
+
+    private static boolean isIntegral(@Nonnull Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte ||
+               number instanceof BigInteger;
+    }
+
+    @Nonnull
+    private static BigInteger toBigInteger(@Nonnull Number number) {
+        return number instanceof BigInteger ? (BigInteger)number : BigInteger.valueOf(number.longValue());
+    }
+
+    private static int compare(@Nonnull Object value1, @Nonnull Object value2) {
+        if (value1 instanceof Number && value2 instanceof Number) {
+            // Tuple order puts all integers before all floating point numbers.
+            final Number number1 = (Number)value1;
+            final Number number2 = (Number)value2;
+            if (number1 instanceof BigInteger || number2 instanceof BigInteger) {
+                if (isIntegral(number1) && isIntegral(number2)) {
+                    return toBigInteger(number1).compareTo(toBigInteger(number2));
+                }
+                return Double.compare(number1.doubleValue(), number2.doubleValue());
+            } else if (isIntegral(number1) && isIntegral(number2)) {
+                return Long.compare(number1.longValue(), number2.longValue());
+            } else {
+                return Double.compare(number1.doubleValue(), number2.doubleValue());
+            }
+        }
+        return Tuple.from(value1).compareTo(Tuple.from(value2));
+    }
+}
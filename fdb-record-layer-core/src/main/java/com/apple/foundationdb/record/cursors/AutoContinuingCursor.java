@@ -132,6 +132,9 @@ public class AutoContinuingCursor<T> implements RecordCursor<T> {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Open context and generate a cursor");
         }
+        if (currentCursor != null) {
+            currentCursor.close();
+        }
         if (currentContext != null) {
             currentContext.close();
         }
@@ -183,6 +186,9 @@ public class AutoContinuingCursor<T> implements RecordCursor<T> {
         if (nextFuture != null) {
             nextFuture.cancel(true);
         }
+        if (currentCursor != null) {
+            currentCursor.close();
+        }
         if (currentContext != null) {
             currentContext.close();
         }
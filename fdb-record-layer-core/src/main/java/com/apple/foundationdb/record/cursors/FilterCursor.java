@@ -23,15 +23,19 @@ package com.apple.foundationdb.record.cursors;
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.async.AsyncUtil;
 import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorBatch;
 import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.RecordCursorVisitor;
 import com.apple.foundationdb.annotation.SpotBugsSuppressWarnings;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 /**
@@ -75,6 +79,42 @@ public class FilterCursor<T> implements RecordCursor<T> {
         });
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorBatch<T>> onNextBatch(int maxSize) {
+        RecordCursorBatch.validateMaxSize(maxSize);
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(RecordCursorBatch.stopped(nextResult));
+        }
+        mayGetContinuation = false;
+        final AtomicReference<RecordCursorBatch<T>> holder = new AtomicReference<>();
+        return AsyncUtil.whileTrue(() -> inner.onNextBatch(maxSize).thenApply(innerBatch -> {
+            final List<T> innerValues = innerBatch.getValues();
+            final List<T> values = new ArrayList<>(innerValues.size());
+            for (T value : innerValues) {
+                if (Boolean.TRUE.equals(pred.apply(value))) {
+                    values.add(value);
+                }
+            }
+            if (values.size() == innerValues.size()) {
+                holder.set(innerBatch);
+            } else if (innerBatch.hasStopped()) {
+                holder.set(RecordCursorBatch.stopped(values, innerBatch.getLastResult()));
+            } else if (!values.isEmpty()) {
+                holder.set(RecordCursorBatch.withValues(values, innerBatch.getContinuation()));
+            } else {
+                return true; // keep looping only if we might find more records and we filtered all of them out
+            }
+            return false;
+        }), getExecutor()).thenApply(vignore -> {
+            final RecordCursorBatch<T> batch = holder.get();
+            nextResult = batch.getLastResult();
+            hasNext = nextResult.hasNext();
+            mayGetContinuation = !hasNext;
+            return batch;
+        });
+    }
+
     @Nonnull
     @Override
     @Deprecated
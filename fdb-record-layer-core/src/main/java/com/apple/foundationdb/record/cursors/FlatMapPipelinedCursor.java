@@ -40,6 +40,7 @@ import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -48,7 +49,8 @@ import java.util.function.Function;
  *
  * <p>
  * The cursor is <i>pipelined</i>, that is, it maintains up to a specified number of open cursors ahead of what it has returned,
- * so that work is done in parallel.
+ * so that work is done in parallel. The number can be fixed or can be determined as the cursor runs by a
+ * {@link PipelineSizeAdjuster}.
  * </p>
  * @param <T> the type of elements of the source cursor
  * @param <V> the type of elements of the cursor produced by the function
@@ -67,9 +69,15 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
     private final byte[] initialCheckValue;
     @Nullable
     private byte[] initialInnerContinuation;
-    private final int pipelineSize;
+    @Nonnull
+    private final PipelineSizeAdjuster pipelineSizeAdjuster;
     @Nonnull
     private final Queue<PipelineQueueEntry> pipeline;
+    // Only used with an adaptive adjuster.
+    @Nullable
+    private final AtomicLong highestCompleted;
+    private long nextSequence = 0;
+    private long askedNanos;
     @Nullable
     private CompletableFuture<Boolean> nextFuture;
     @Nullable
@@ -90,6 +98,19 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
                                   @Nullable byte[] initialCheckValue,
                                   @Nullable byte[] initialInnerContinuation,
                                   int pipelineSize) {
+        this(outerCursor, innerCursorFunction, checkValueFunction, outerContinuation, initialCheckValue, initialInnerContinuation,
+                PipelineSizeAdjuster.fixed(pipelineSize));
+    }
+
+    @API(API.Status.EXPERIMENTAL)
+    @SpotBugsSuppressWarnings("EI_EXPOSE_REP2")
+    public FlatMapPipelinedCursor(@Nonnull RecordCursor<T> outerCursor,
+                                  @Nonnull BiFunction<T, byte[], ? extends RecordCursor<V>> innerCursorFunction,
+                                  @Nullable Function<T, byte[]> checkValueFunction,
+                                  @Nullable byte[] outerContinuation,
+                                  @Nullable byte[] initialCheckValue,
+                                  @Nullable byte[] initialInnerContinuation,
+                                  @Nonnull PipelineSizeAdjuster pipelineSizeAdjuster) {
         this.outerCursor = outerCursor;
         this.innerCursorFunction = innerCursorFunction;
         this.checkValueFunction = checkValueFunction;
@@ -103,8 +124,9 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
         }
         this.initialInnerContinuation = initialInnerContinuation;
         this.initialCheckValue = initialCheckValue;
-        this.pipelineSize = pipelineSize;
-        this.pipeline = new ArrayDeque<>(pipelineSize);
+        this.pipelineSizeAdjuster = pipelineSizeAdjuster;
+        this.pipeline = new ArrayDeque<>(pipelineSizeAdjuster.getPipelineSize());
+        this.highestCompleted = pipelineSizeAdjuster.isAdaptive() ? new AtomicLong(-1) : null;
     }
 
     @Nonnull
@@ -114,9 +136,15 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
             return CompletableFuture.completedFuture(lastResult);
         }
         mayGetContinuation = false;
+        if (highestCompleted != null) {
+            askedNanos = System.nanoTime();
+        }
         return AsyncUtil.whileTrue(this::tryToFillPipeline, getExecutor()).thenApply(vignore -> {
             lastResult = pipeline.peek().nextResult();
             mayGetContinuation = !lastResult.hasNext();
+            if (!lastResult.hasNext()) {
+                pipelineSizeAdjuster.release();
+            }
             return lastResult;
         });
     }
@@ -165,6 +193,7 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
             outerNextFuture.cancel(false);
             outerNextFuture = null;
         }
+        pipelineSizeAdjuster.release();
         outerCursor.close();
     }
 
@@ -199,6 +228,7 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
             pipeline.remove().close();
         }
         
+        final int pipelineSize = pipelineSizeAdjuster.reservePipelineSize();
         while (!outerExhausted && pipeline.size() < pipelineSize) {
             if (outerNextFuture == null) {
                 outerNextFuture = outerCursor.onNext();
@@ -236,12 +266,13 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
                 }
                 final RecordCursor<V> innerCursor = innerCursorFunction.apply(outerValue, innerContinuation);
                 outerContinuation = outerResult.getContinuation();
-                pipeline.add(new PipelineQueueEntry(innerCursor, priorOuterContinuation, outerResult, outerCheckValue));
+                final PipelineEntryTiming timing = highestCompleted == null ? null : new PipelineEntryTiming(nextSequence++);
+                pipeline.add(new PipelineQueueEntry(innerCursor, priorOuterContinuation, outerResult, outerCheckValue, timing));
                 outerNextFuture = null; // done with this future, advance outer cursor next time
                 // keep looping to fill pipeline
             } else { // don't have next, and won't ever with this cursor
                 // Add sentinel to end of pipeline
-                pipeline.add(new PipelineQueueEntry(null, outerContinuation, outerResult, null));
+                pipeline.add(new PipelineQueueEntry(null, outerContinuation, outerResult, null, null));
                 outerExhausted = true;
                 // Wait for next entry, as if pipeline were full
                 break;
@@ -261,17 +292,21 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
         final RecordCursorContinuation priorOuterContinuation;
         final RecordCursorResult<T> outerResult;
         final byte[] outerCheckValue;
+        // Timing of the first result of the inner cursor, until it is reported.
+        PipelineEntryTiming timing;
 
         private CompletableFuture<RecordCursorResult<V>> innerFuture;
 
         public PipelineQueueEntry(RecordCursor<V> innerCursor,
                                   RecordCursorContinuation priorOuterContinuation,
                                   RecordCursorResult<T> outerResult,
-                                  byte[] outerCheckValue) {
+                                  byte[] outerCheckValue,
+                                  PipelineEntryTiming timing) {
             this.innerCursor = innerCursor;
             this.priorOuterContinuation = priorOuterContinuation;
             this.outerResult = outerResult;
             this.outerCheckValue = outerCheckValue;
+            this.timing = timing;
         }
 
         @Nonnull
@@ -279,6 +314,9 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
             if (innerFuture == null) {
                 if (innerCursor == null) {
                     innerFuture = CompletableFuture.completedFuture(RecordCursorResult.exhausted());
+                } else if (timing != null) {
+                    final PipelineEntryTiming firstTiming = timing;
+                    innerFuture = innerCursor.onNext().whenComplete((vignore, errignore) -> firstTiming.complete(highestCompleted));
                 } else {
                     innerFuture = innerCursor.onNext();
                 }
@@ -314,6 +352,12 @@ public class FlatMapPipelinedCursor<T, V> implements RecordCursor<V> {
             // Only called after the future from getNextInnerPipelineFuture() has completed, so this join() is non-blocking.
             final RecordCursorResult<V> innerResult = innerFuture.join();
             final RecordCursorResult<V> result;
+            if (timing != null) {
+                if (innerResult.hasNext()) {
+                    timing.report(pipelineSizeAdjuster, innerResult.get(), askedNanos);
+                }
+                timing = null;
+            }
             if (innerResult.hasNext()) {
                 result = RecordCursorResult.withNextValue(innerResult.get(), toContinuation());
             } else {
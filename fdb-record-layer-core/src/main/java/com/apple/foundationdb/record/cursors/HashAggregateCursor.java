@@ -0,0 +1,514 @@
+/*
+ * HashAggregateCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.sorting.FileSortAdapter;
+import com.apple.foundationdb.record.sorting.FileSortCursor;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A cursor that aggregates the values of another cursor into groups held in a hash table, for input that is not
+ * ordered by the grouping key.
+ *
+ * <p>
+ * This cursor returns partial aggregates: whenever the groups in memory exceed an approximate size limit, they are all
+ * returned and the table is cleared, so the same group may be returned more than once. {@link #create} combines
+ * this cursor with a {@link FileSortCursor}, which sorts the partial aggregates by grouping key, using local files
+ * if there are too many of them for memory, and a {@link StreamingAggregateCursor}, which merges the partial aggregates
+ * of each group into its final result. So when all the groups fit in memory, nothing is written to files, and when
+ * they do not, only one partial aggregate per group is written for each time the table is cleared.
+ * </p>
+ *
+ * <p>
+ * The continuation includes the partial aggregates in memory, whose size is bounded by the same limit. When all the
+ * groups fit in memory, resuming from the continuation of a group reads the input again, once: the sort then writes
+ * the groups to a file, so that paging through the groups reads the input at most twice. Any files
+ * belong to the {@link FileSortCursor}, which names them by id rather than by path and keeps them for as long as a
+ * returned continuation may refer to them, until they are removed with {@link FileSortCursor#deleteAbandonedRuns}.
+ * </p>
+ *
+ * @param <T> the type of values being aggregated
+ */
+@API(API.Status.EXPERIMENTAL)
+public class HashAggregateCursor<T> implements RecordCursor<HashAggregateCursor.PartialAggregate> {
+    // Approximate memory used by a group apart from its grouping key and state.
+    private static final long GROUP_OVERHEAD = 64;
+    // Approximate memory used by the state of each operation.
+    private static final long OPERATION_OVERHEAD = 16;
+
+    @Nonnull
+    private final Function<T, Tuple> groupFunction;
+    @Nonnull
+    private final BiConsumer<AggregateAccumulator, T> accumulateFunction;
+    @Nonnull
+    private final List<AggregateOperation> operations;
+    private final long maxBytesInMemory;
+    @Nonnull
+    private final Executor executor;
+    @Nullable
+    private final StoreTimer timer;
+
+    // The input, until it has been exhausted.
+    @Nullable
+    private RecordCursor<T> inputCursor;
+    @Nullable
+    private RecordCursorContinuation inputContinuation;
+    @Nonnull
+    private final Map<Tuple, AggregateAccumulator> groups;
+    private long groupsBytes;
+    // Partial aggregates taken from the table that remain to be returned.
+    @Nullable
+    private List<PartialAggregate> pending;
+    private int pendingPosition;
+
+    @Nullable
+    private CompletableFuture<Boolean> hasNextFuture;
+    @Nullable
+    private RecordCursorResult<PartialAggregate> nextResult;
+    // for detecting incorrect cursor usage
+    private boolean mayGetContinuation = false;
+
+    private HashAggregateCursor(@Nonnull Function<T, Tuple> groupFunction,
+                                @Nonnull BiConsumer<AggregateAccumulator, T> accumulateFunction,
+                                @Nonnull List<AggregateOperation> operations, long maxBytesInMemory,
+                                @Nonnull Executor executor, @Nullable StoreTimer timer,
+                                @Nullable RecordCursor<T> inputCursor, @Nonnull List<PartialAggregate> partials) {
+        this.groupFunction = groupFunction;
+        this.accumulateFunction = accumulateFunction;
+        this.operations = operations;
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.executor = executor;
+        this.timer = timer;
+        this.inputCursor = inputCursor;
+        this.groups = new HashMap<>();
+        if (inputCursor == null) {
+            pending = partials;
+        } else {
+            for (PartialAggregate partial : partials) {
+                groups.put(partial.getGroup(), partial.getAccumulator());
+                groupsBytes += getSizeInMemory(partial.getGroup());
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<PartialAggregate>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        mayGetContinuation = false;
+        if (pending != null) {
+            nextResult = nextPending();
+            mayGetContinuation = !nextResult.hasNext();
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        return AsyncUtil.whileTrue(() -> inputCursor.onNext().thenApply(this::addInput), executor).thenApply(vignore -> {
+            nextResult = nextPending();
+            mayGetContinuation = !nextResult.hasNext();
+            return nextResult;
+        });
+    }
+
+    /**
+     * Add the next result from the input to the table.
+     * @param inputResult the result from the input cursor
+     * @return {@code true} to keep reading input or {@code false} if there are partial aggregates to return or
+     * {@link #nextResult} has been set to stop this cursor
+     */
+    private boolean addInput(@Nonnull RecordCursorResult<T> inputResult) {
+        if (!inputResult.hasNext()) {
+            inputCursor.close();
+            inputCursor = null;
+            if (inputResult.getNoNextReason().isSourceExhausted()) {
+                pending = takeGroups();
+                inputContinuation = null;
+            } else {
+                final List<PartialAggregate> partials = takeGroups();
+                nextResult = RecordCursorResult.withoutNextValue(
+                        new Continuation(false, inputResult.getContinuation(), partials),
+                        inputResult.getNoNextReason());
+            }
+            return false;
+        }
+        inputContinuation = inputResult.getContinuation();
+        final T value = inputResult.get();
+        final Tuple group = groupFunction.apply(value);
+        AggregateAccumulator accumulator = groups.get(group);
+        if (accumulator == null) {
+            accumulator = new AggregateAccumulator(operations);
+            groups.put(group, accumulator);
+            groupsBytes += getSizeInMemory(group);
+        }
+        accumulateFunction.accept(accumulator, value);
+        if (groupsBytes > maxBytesInMemory) {
+            if (timer != null) {
+                timer.increment(FDBStoreTimer.Counts.QUERY_AGGREGATE_PARTIAL_FLUSHES);
+            }
+            pending = takeGroups();
+            return false;
+        }
+        return true;
+    }
+
+    @Nonnull
+    private List<PartialAggregate> takeGroups() {
+        final List<PartialAggregate> partials = new ArrayList<>(groups.size());
+        for (Map.Entry<Tuple, AggregateAccumulator> entry : groups.entrySet()) {
+            partials.add(new PartialAggregate(entry.getKey(), entry.getValue()));
+        }
+        groups.clear();
+        groupsBytes = 0;
+        return partials;
+    }
+
+    @Nonnull
+    private RecordCursorResult<PartialAggregate> nextPending() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return nextResult;
+        }
+        if (pendingPosition < pending.size()) {
+            final PartialAggregate partial = pending.get(pendingPosition);
+            pendingPosition++;
+            final List<PartialAggregate> remaining = pending.subList(pendingPosition, pending.size());
+            final boolean inputExhausted = inputCursor == null;
+            if (pendingPosition == pending.size() && !inputExhausted) {
+                // Go back to reading the input next time.
+                pending = null;
+                pendingPosition = 0;
+            }
+            return RecordCursorResult.withNextValue(partial, new Continuation(inputExhausted, inputContinuation, remaining));
+        }
+        return RecordCursorResult.exhausted();
+    }
+
+    private long getSizeInMemory(@Nonnull Tuple group) {
+        return GROUP_OVERHEAD + group.getPackedSize() + OPERATION_OVERHEAD * operations.size();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public CompletableFuture<Boolean> onHasNext() {
+        if (hasNextFuture == null) {
+            hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+        }
+        return hasNextFuture;
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public PartialAggregate next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNextFuture = null;
+        mayGetContinuation = true;
+        return nextResult.get();
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public byte[] getContinuation() {
+        IllegalContinuationAccessChecker.check(mayGetContinuation);
+        return nextResult.getContinuation().toBytes();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public NoNextReason getNoNextReason() {
+        return nextResult.getNoNextReason();
+    }
+
+    @Override
+    public void close() {
+        if (inputCursor != null) {
+            inputCursor.close();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this) && inputCursor != null) {
+            inputCursor.accept(visitor);
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Create a cursor returning the partial aggregates of the input held in a hash table.
+     * @param groupFunction a function to get the grouping key of an input value
+     * @param accumulateFunction a function to add an input value to the state of its group
+     * @param operations the operations to compute for each group
+     * @param maxBytesInMemory the approximate number of bytes of groups to hold in memory
+     * @param inputFunction a function to produce the input cursor from a continuation
+     * @param continuation any continuation from a previous cursor returned by this method
+     * @param executor the executor used to compose futures
+     * @param timer the timer used to count when the table is cleared
+     * @param <T> the type of values being aggregated
+     * @return a cursor returning partial aggregates of the input, in no particular order
+     */
+    @SuppressWarnings("PMD.PreserveStackTrace")
+    @Nonnull
+    public static <T> HashAggregateCursor<T> createPartial(@Nonnull Function<T, Tuple> groupFunction,
+                                                           @Nonnull BiConsumer<AggregateAccumulator, T> accumulateFunction,
+                                                           @Nonnull List<AggregateOperation> operations,
+                                                           long maxBytesInMemory,
+                                                           @Nonnull Function<byte[], RecordCursor<T>> inputFunction,
+                                                           @Nullable byte[] continuation,
+                                                           @Nonnull Executor executor,
+                                                           @Nullable StoreTimer timer) {
+        if (maxBytesInMemory <= 0) {
+            throw new RecordCoreArgumentException("hash aggregate memory limit must be positive",
+                    LogMessageKeys.LIMIT, maxBytesInMemory);
+        }
+        if (continuation == null) {
+            return new HashAggregateCursor<>(groupFunction, accumulateFunction, operations, maxBytesInMemory, executor, timer,
+                    inputFunction.apply(null), new ArrayList<>());
+        }
+        final RecordCursorProto.HashAggregateContinuation parsed;
+        try {
+            parsed = RecordCursorProto.HashAggregateContinuation.parseFrom(continuation);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RecordCoreException("invalid continuation", ex)
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+        }
+        final List<PartialAggregate> partials = new ArrayList<>(parsed.getPartialsCount());
+        for (RecordCursorProto.PartialAggregate partial : parsed.getPartialsList()) {
+            partials.add(new PartialAggregate(Tuple.fromBytes(partial.getGroup().toByteArray()),
+                    new AggregateAccumulator(operations, Tuple.fromBytes(partial.getState().toByteArray()))));
+        }
+        final RecordCursor<T> inputCursor;
+        if (parsed.getInputExhausted()) {
+            inputCursor = null;
+        } else {
+            inputCursor = inputFunction.apply(parsed.hasChildContinuation() ? parsed.getChildContinuation().toByteArray() : null);
+        }
+        return new HashAggregateCursor<>(groupFunction, accumulateFunction, operations, maxBytesInMemory, executor, timer,
+                inputCursor, partials);
+    }
+
+    /**
+     * Create a hash aggregate cursor, which returns the final result of each group in order of grouping key.
+     * Half of the memory limit is given to the hash table and half to sorting the partial aggregates.
+     * @param groupFunction a function to get the grouping key of an input value
+     * @param accumulateFunction a function to add an input value to the state of its group, usually by calling
+     * {@link AggregateAccumulator#accumulate}
+     * @param operations the operations to compute for each group
+     * @param maxBytesInMemory the approximate number of bytes of groups to hold in memory, at least 2
+     * @param directory the directory in which to create files or {@code null} to use the default temporary-file directory
+     * @param inputFunction a function to produce the input cursor from a continuation
+     * @param continuation any continuation from a previous cursor returned by this method
+     * @param executor the executor used to write files and compose futures
+     * @param timer the timer used to count groups and files
+     * @param <T> the type of values being aggregated
+     * @return a cursor returning the grouping key and aggregate results of each group of the input
+     */
+    @Nonnull
+    public static <T> RecordCursor<Tuple> create(@Nonnull Function<T, Tuple> groupFunction,
+                                                 @Nonnull BiConsumer<AggregateAccumulator, T> accumulateFunction,
+                                                 @Nonnull List<AggregateOperation> operations,
+                                                 long maxBytesInMemory,
+                                                 @Nullable Path directory,
+                                                 @Nonnull Function<byte[], RecordCursor<T>> inputFunction,
+                                                 @Nullable byte[] continuation,
+                                                 @Nonnull Executor executor,
+                                                 @Nullable StoreTimer timer) {
+        if (maxBytesInMemory < 2) {
+            throw new RecordCoreArgumentException("hash aggregate memory limit must be at least 2, half for each of hashing and sorting",
+                    LogMessageKeys.LIMIT, maxBytesInMemory);
+        }
+        final long halfMaxBytesInMemory = maxBytesInMemory / 2;
+        final FileSortAdapter<PartialAggregate> sortAdapter = new PartialAggregateSortAdapter(operations, halfMaxBytesInMemory, directory);
+        return StreamingAggregateCursor.create(PartialAggregate::getGroup,
+                (accumulator, partial) -> accumulator.merge(partial.getAccumulator()),
+                operations, false,
+                sortContinuation -> FileSortCursor.create(sortAdapter,
+                        partialContinuation -> createPartial(groupFunction, accumulateFunction, operations, halfMaxBytesInMemory,
+                                inputFunction, partialContinuation, executor, timer),
+                        sortContinuation, executor, timer),
+                continuation, executor, timer);
+    }
+
+    /**
+     * The state of some part of a single group.
+     */
+    public static class PartialAggregate {
+        @Nonnull
+        private final Tuple group;
+        @Nonnull
+        private final AggregateAccumulator accumulator;
+
+        public PartialAggregate(@Nonnull Tuple group, @Nonnull AggregateAccumulator accumulator) {
+            this.group = group;
+            this.accumulator = accumulator;
+        }
+
+        @Nonnull
+        public Tuple getGroup() {
+            return group;
+        }
+
+        @Nonnull
+        public AggregateAccumulator getAccumulator() {
+            return accumulator;
+        }
+    }
+
+    private static class PartialAggregateSortAdapter implements FileSortAdapter<PartialAggregate> {
+        @Nonnull
+        private final List<AggregateOperation> operations;
+        private final long maxBytesInMemory;
+        @Nullable
+        private final Path directory;
+
+        PartialAggregateSortAdapter(@Nonnull List<AggregateOperation> operations, long maxBytesInMemory, @Nullable Path directory) {
+            this.operations = operations;
+            this.maxBytesInMemory = maxBytesInMemory;
+            this.directory = directory;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] getKey(@Nonnull PartialAggregate partial) {
+            return partial.getGroup().pack();
+        }
+
+        @Override
+        public boolean isReverse() {
+            return false;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeValue(@Nonnull PartialAggregate partial) {
+            return Tuple.from(partial.getGroup(), partial.getAccumulator().getState()).pack();
+        }
+
+        @Nonnull
+        @Override
+        public PartialAggregate deserializeValue(@Nonnull byte[] bytes) {
+            final Tuple tuple = Tuple.fromBytes(bytes);
+            return new PartialAggregate(tuple.getNestedTuple(0), new AggregateAccumulator(operations, tuple.getNestedTuple(1)));
+        }
+
+        @Override
+        public long getSizeInMemory(@Nonnull PartialAggregate partial) {
+            return GROUP_OVERHEAD + partial.getGroup().getPackedSize() + OPERATION_OVERHEAD * operations.size();
+        }
+
+        @Override
+        public long getMaxBytesInMemory() {
+            return maxBytesInMemory;
+        }
+
+        @Nullable
+        @Override
+        public Path getDirectory() {
+            return directory;
+        }
+    }
+
+    private static class Continuation implements RecordCursorContinuation {
+        private final boolean inputExhausted;
+        @Nullable
+        private final RecordCursorContinuation inputContinuation;
+        @Nonnull
+        private final List<PartialAggregate> partials;
+        @Nullable
+        private byte[] cachedBytes;
+
+        Continuation(boolean inputExhausted, @Nullable RecordCursorContinuation inputContinuation,
+                     @Nonnull List<PartialAggregate> partials) {
+            this.inputExhausted = inputExhausted;
+            this.inputContinuation = inputContinuation;
+            this.partials = partials;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            if (cachedBytes == null) {
+                final RecordCursorProto.HashAggregateContinuation.Builder builder = RecordCursorProto.HashAggregateContinuation.newBuilder();
+                if (inputExhausted) {
+                    builder.setInputExhausted(true);
+                } else if (inputContinuation != null) {
+                    final byte[] inputBytes = inputContinuation.toBytes();
+                    if (inputBytes != null) {
+                        builder.setChildContinuation(ByteString.copyFrom(inputBytes));
+                    }
+                }
+                for (PartialAggregate partial : partials) {
+                    builder.addPartials(RecordCursorProto.PartialAggregate.newBuilder()
+                            .setGroup(ByteString.copyFrom(partial.getGroup().pack()))
+                            .setState(ByteString.copyFrom(partial.getAccumulator().getState().pack())));
+                }
+                cachedBytes = builder.build().toByteArray();
+            }
+            return cachedBytes;
+        }
+
+        @Override
+        public boolean isEnd() {
+            // This continuation is only returned with a value or when the input stops early, never when this cursor
+            // is exhausted, so it is never the end, per the contract of RecordCursorResult. This is the case even for
+            // the last partial aggregate, after which a resumed cursor is immediately exhausted.
+            return false;
+        }
+    }
+}
@@ -22,6 +22,7 @@ package com.apple.foundationdb.record.cursors;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorBatch;
 import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.RecordCursorVisitor;
 
@@ -71,6 +72,22 @@ public class MapCursor<T, V> implements RecordCursor<V> {
                 });
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorBatch<V>> onNextBatch(int maxSize) {
+        RecordCursorBatch.validateMaxSize(maxSize);
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(RecordCursorBatch.stopped(nextResult));
+        }
+        mayGetContinuation = false;
+        return inner.onNextBatch(maxSize).thenApply(innerBatch -> {
+            final RecordCursorBatch<V> batch = innerBatch.map(func);
+            mayGetContinuation = batch.hasStopped();
+            nextResult = batch.getLastResult();
+            return batch;
+        });
+    }
+
     @Nonnull
     @Override
     @Deprecated
@@ -31,11 +31,13 @@ import com.apple.foundationdb.annotation.SpotBugsSuppressWarnings;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
@@ -43,7 +45,8 @@ import java.util.function.Function;
  *
  * <p>
  * The cursor is <i>pipelined</i>, that is, it maintains up to a specified number of pending futures ahead of what it has returned,
- * so that work is done in parallel.
+ * so that work is done in parallel. The number can be fixed or can be determined as the cursor runs by a
+ * {@link PipelineSizeAdjuster}.
  * </p>
  * @param <T> the type of elements of the source cursor
  * @param <V> the type of elements of the cursor after applying the function and completing the future it returns
@@ -54,9 +57,17 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
     private final RecordCursor<T> inner;
     @Nonnull
     private final Function<T, CompletableFuture<V>> func;
-    private final int pipelineSize;
+    @Nonnull
+    private final PipelineSizeAdjuster pipelineSizeAdjuster;
     @Nonnull
     private final Queue<CompletableFuture<RecordCursorResult<V>>> pipeline;
+    // Only used with an adaptive adjuster: the timings of the entries in the pipeline that have a next value.
+    @Nullable
+    private final Deque<PipelineEntryTiming> timings;
+    @Nullable
+    private final AtomicLong highestCompleted;
+    private long nextSequence = 0;
+    private long askedNanos;
     @Nullable
     private CompletableFuture<Boolean> nextFuture;
     @Nullable
@@ -73,10 +84,23 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
 
     public MapPipelinedCursor(@Nonnull RecordCursor<T> inner, @Nonnull Function<T, CompletableFuture<V>> func,
                               int pipelineSize) {
+        this(inner, func, PipelineSizeAdjuster.fixed(pipelineSize));
+    }
+
+    @API(API.Status.EXPERIMENTAL)
+    public MapPipelinedCursor(@Nonnull RecordCursor<T> inner, @Nonnull Function<T, CompletableFuture<V>> func,
+                              @Nonnull PipelineSizeAdjuster pipelineSizeAdjuster) {
         this.inner = inner;
         this.func = func;
-        this.pipelineSize = pipelineSize;
-        this.pipeline = new ArrayDeque<>(pipelineSize);
+        this.pipelineSizeAdjuster = pipelineSizeAdjuster;
+        this.pipeline = new ArrayDeque<>(pipelineSizeAdjuster.getPipelineSize());
+        if (pipelineSizeAdjuster.isAdaptive()) {
+            this.timings = new ArrayDeque<>();
+            this.highestCompleted = new AtomicLong(-1);
+        } else {
+            this.timings = null;
+            this.highestCompleted = null;
+        }
     }
 
     @Nonnull
@@ -86,12 +110,20 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
             return CompletableFuture.completedFuture(nextResult);
         }
         mayGetContinuation = false;
+        if (timings != null) {
+            askedNanos = System.nanoTime();
+        }
         return AsyncUtil.whileTrue(this::tryToFillPipeline, getExecutor())
                 // pipeline will necessarily contain something if we stopped looping, so pipeline.remove() is nonnull
                 .thenCompose(vignore -> pipeline.peek()) // future should already be (nearly) ready if we stopped looping
                 .thenApply(result -> {
                     if (result.hasNext()) {
                         pipeline.remove();
+                        if (timings != null) {
+                            timings.remove().report(pipelineSizeAdjuster, result.get(), askedNanos);
+                        }
+                    } else {
+                        pipelineSizeAdjuster.release();
                     }
                     mayGetContinuation = !result.hasNext();
                     nextResult = result;
@@ -151,6 +183,7 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
             innerFuture.cancel(false);
             innerFuture = null;
         }
+        pipelineSizeAdjuster.release();
         inner.close();
     }
 
@@ -173,6 +206,7 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
      * @return a future that will complete with {@code false} if an item is available or none will ever be, or with {@code true} if this method should be called to try again
      */
     protected CompletableFuture<Boolean> tryToFillPipeline() {
+        final int pipelineSize = pipelineSizeAdjuster.reservePipelineSize();
         while (!innerExhausted && pipeline.size() < pipelineSize) {
             // try to add a future to the pipeline
             if (waitInnerFuture == null) {
@@ -191,7 +225,13 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
             }
 
             final RecordCursorResult<T> innerResult = waitInnerFuture.join(); // future is ready, doesn't block
-            pipeline.add(innerResult.mapAsync(func));
+            if (timings != null && innerResult.hasNext()) {
+                final PipelineEntryTiming timing = new PipelineEntryTiming(nextSequence++);
+                timings.add(timing);
+                pipeline.add(innerResult.mapAsync(func).whenComplete((vignore, errignore) -> timing.complete(highestCompleted)));
+            } else {
+                pipeline.add(innerResult.mapAsync(func));
+            }
 
             if (innerResult.hasNext()) { // just added something to the pipeline, so pipeline will contain an entry
                 waitInnerFuture = null; // done with this future, should advanced cursor next time
@@ -231,6 +271,11 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
                 // Once we have found an entry that is not done, cancel that and all remaining
                 // futures, remove them from the pipeline, and do *not* update the continuation.
                 while (true) {
+                    if (timings != null && iter.hasNext()) {
+                        // All the entries from here on are removed. Only the last one, which is the inner cursor's
+                        // final result, does not have a timing.
+                        timings.removeLast();
+                    }
                     iter.remove();
                     pendingEntry.cancel(false);
                     if (!iter.hasNext()) {
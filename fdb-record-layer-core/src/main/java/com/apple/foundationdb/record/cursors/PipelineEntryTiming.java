@@ -0,0 +1,60 @@
+/*
+ * PipelineEntryTiming.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When one entry of a pipelined cursor started and completed, for reporting to an adaptive {@link PipelineSizeAdjuster}.
+ */
+class PipelineEntryTiming {
+    private final long sequence;
+    private final long startNanos;
+    private volatile long endNanos;
+    private volatile boolean completedOutOfOrder;
+
+    PipelineEntryTiming(long sequence) {
+        this.sequence = sequence;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Note that the entry has completed.
+     * @param highestCompleted the highest sequence number of any entry of the same pipeline that has completed
+     */
+    void complete(@Nonnull AtomicLong highestCompleted) {
+        endNanos = System.nanoTime();
+        completedOutOfOrder = highestCompleted.getAndAccumulate(sequence, Math::max) > sequence;
+    }
+
+    /**
+     * Report the entry to the adjuster, as its result is being returned.
+     * @param adjuster the adjuster for the pipeline
+     * @param value the value being returned
+     * @param askedNanos when the consumer of the cursor asked for the next result
+     */
+    void report(@Nonnull PipelineSizeAdjuster adjuster, @Nullable Object value, long askedNanos) {
+        final long end = endNanos;
+        adjuster.entryCompleted(value, end - startNanos, Math.max(0, end - Math.max(askedNanos, startNanos)), completedOutOfOrder);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * PipelineSizeAdjuster.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nullable;
+
+/**
+ * Determines the size of the pipeline of a {@link MapPipelinedCursor} or {@link FlatMapPipelinedCursor} while it runs.
+ *
+ * <p>
+ * The cursor reserves the pipeline size each time it considers starting more entries, so the size can change from
+ * one entry to the next. If the adjuster {@linkplain #isAdaptive is adaptive}, the cursor also reports how each entry
+ * went as it is returned, which the adjuster can use to decide on later sizes.
+ * </p>
+ *
+ * @see com.apple.foundationdb.record.provider.foundationdb.AdaptivePipelineSizer
+ */
+@API(API.Status.EXPERIMENTAL)
+public interface PipelineSizeAdjuster {
+    /**
+     * Get the maximum number of entries to have in the pipeline now.
+     * This has no effect on the adjuster, so it gives the same answer until something else changes.
+     * @return the current pipeline size, which must be positive
+     */
+    int getPipelineSize();
+
+    /**
+     * Get the maximum number of entries to have in the pipeline now and hold whatever a pipeline of that size needs,
+     * until this is called again or the adjuster is {@linkplain #release released}.
+     * The cursor calls this each time it considers starting more entries.
+     * @return the current pipeline size, which must be positive
+     */
+    default int reservePipelineSize() {
+        return getPipelineSize();
+    }
+
+    /**
+     * Get whether this adjuster uses the feedback from {@link #entryCompleted}. If not, the cursor does not
+     * bother to time its entries.
+     * @return {@code true} if the cursor should report on its entries
+     */
+    default boolean isAdaptive() {
+        return true;
+    }
+
+    /**
+     * Called when the result of a pipeline entry is returned by the cursor.
+     * For a {@link FlatMapPipelinedCursor}, this is the first result of the entry's inner cursor.
+     * @param value the value being returned
+     * @param latencyNanos the time from when the entry was started until its result was ready
+     * @param waitNanos the time that the consumer of the cursor spent waiting for this result, which is zero if the
+     * result was ready before it was asked for
+     * @param completedOutOfOrder whether an entry that was started after this one completed before it did
+     */
+    void entryCompleted(@Nullable Object value, long latencyNanos, long waitNanos, boolean completedOutOfOrder);
+
+    /**
+     * Called when the cursor is done with its pipeline, because it was closed or it has returned its last result.
+     * This may be called more than once.
+     */
+    default void release() {
+    }
+
+    /**
+     * Get an adjuster that always gives the same pipeline size.
+     * @param pipelineSize the pipeline size
+     * @return an adjuster for a pipeline of fixed size
+     */
+    static PipelineSizeAdjuster fixed(int pipelineSize) {
+        return new PipelineSizeAdjuster() {
+            @Override
+            public int getPipelineSize() {
+                return pipelineSize;
+            }
+
+            @Override
+            public boolean isAdaptive() {
+                return false;
+            }
+
+            @Override
+            public void entryCompleted(@Nullable Object value, long latencyNanos, long waitNanos, boolean completedOutOfOrder) {
+                // Size is fixed, so nothing to learn.
+            }
+        };
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * RecordCursorPublisher.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.foundationdb.FDBDatabaseRunner;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * A publisher of the elements of a {@link RecordCursor}, driven by the demand of its subscribers.
+ *
+ * <p>
+ * This follows the protocol of {@code java.util.concurrent.Flow} and Reactive Streams. Since the Record Layer still
+ * supports Java 8, {@link Subscriber} and {@link Subscription} are declared here, with the same methods as their
+ * {@code Flow} counterparts, so that adapting them to those interfaces only requires delegating each method.
+ * </p>
+ *
+ * <p>
+ * Each subscriber gets its own cursor from the given supplier. Elements are pulled from the cursor one at a time,
+ * as long as there is outstanding demand from {@link Subscription#request}. In addition, up to {@code prefetch}
+ * elements are read ahead of demand, once the subscriber has made its first request, so that the next request
+ * can be satisfied without waiting on the database. So, no more than {@code prefetch} elements are ever held by
+ * the publisher. When the cursor is exhausted, the subscriber is completed; if the cursor fails, the subscriber
+ * gets the error. In either case, and when the subscription is cancelled, the cursor is closed, which releases the
+ * underlying scan.
+ * </p>
+ *
+ * <p>
+ * A cursor that stops because of a scan limit ends the stream. To stream a result set that is too large for a single
+ * transaction, use {@link #autoContinuing}, which continues the cursor in new transactions as needed.
+ * </p>
+ *
+ * @param <T> the type of elements of the cursor
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordCursorPublisher<T> {
+    @Nonnull
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordCursorPublisher.class);
+
+    @Nonnull
+    private final Supplier<RecordCursor<T>> cursorSupplier;
+    private final int prefetch;
+
+    /**
+     * Create a new publisher.
+     * @param cursorSupplier a supplier of a new cursor for each subscriber
+     * @param prefetch the maximum number of elements to read ahead of demand
+     */
+    public RecordCursorPublisher(@Nonnull Supplier<RecordCursor<T>> cursorSupplier, int prefetch) {
+        if (prefetch < 0) {
+            throw new RecordCoreArgumentException("prefetch must not be negative",
+                    LogMessageKeys.LIMIT, prefetch);
+        }
+        this.cursorSupplier = cursorSupplier;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Create a new publisher that gives each subscriber an {@link AutoContinuingCursor}, which opens a new
+     * transaction and resumes from the continuation whenever the cursor in the current transaction reaches a limit.
+     * The subscriber's demand therefore determines how quickly transactions are used up, not how much is held in memory.
+     * @param runner the runner from which to open new contexts
+     * @param nextCursorGenerator a function to create a cursor from a record context and a continuation
+     * @param prefetch the maximum number of elements to read ahead of demand
+     * @param <T> the type of elements of the cursor
+     * @return a new publisher
+     */
+    @Nonnull
+    public static <T> RecordCursorPublisher<T> autoContinuing(@Nonnull FDBDatabaseRunner runner,
+                                                              @Nonnull BiFunction<FDBRecordContext, byte[], RecordCursor<T>> nextCursorGenerator,
+                                                              int prefetch) {
+        return new RecordCursorPublisher<>(() -> new AutoContinuingCursor<>(runner, nextCursorGenerator), prefetch);
+    }
+
+    /**
+     * Subscribe to the elements of a new cursor.
+     * @param subscriber the subscriber to receive the elements
+     */
+    public void subscribe(@Nonnull Subscriber<? super T> subscriber) {
+        final RecordCursor<T> cursor;
+        try {
+            cursor = cursorSupplier.get();
+        } catch (RuntimeException ex) {
+            subscriber.onSubscribe(CancelledSubscription.INSTANCE);
+            subscriber.onError(ex);
+            return;
+        }
+        final CursorSubscription<T> subscription = new CursorSubscription<>(cursor, subscriber, prefetch);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * A receiver of elements from a {@link RecordCursorPublisher}.
+     * This has the same methods as {@code java.util.concurrent.Flow.Subscriber}.
+     * @param <T> the type of elements received
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called before any other method, with the subscription through which to request elements.
+         * @param subscription the new subscription
+         */
+        void onSubscribe(@Nonnull Subscription subscription);
+
+        /**
+         * Called with the next element, no more often than requested.
+         * @param item the next element
+         */
+        void onNext(@Nonnull T item);
+
+        /**
+         * Called when the cursor fails. No other method is called after this one.
+         * @param throwable the cause of the failure
+         */
+        void onError(@Nonnull Throwable throwable);
+
+        /**
+         * Called when the cursor has no more elements. No other method is called after this one.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a {@link RecordCursorPublisher} and one of its {@link Subscriber}s.
+     * This has the same methods as {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription {
+        /**
+         * Add to the number of elements that the subscriber is ready to receive.
+         * @param n the number of additional elements, which must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving elements and close the cursor.
+         */
+        void cancel();
+    }
+
+    private enum CancelledSubscription implements Subscription {
+        INSTANCE;
+
+        @Override
+        public void request(long n) {
+            // Already terminated.
+        }
+
+        @Override
+        public void cancel() {
+            // Already terminated.
+        }
+    }
+
+    /**
+     * The state of one subscription.
+     *
+     * <p>
+     * All signals to the subscriber and all calls to the cursor happen within {@link #drain}, which only one thread
+     * runs at a time. A thread that finds it already running just notes that there is more work, which the running
+     * thread picks up before it exits. This also keeps a subscriber that requests more from within {@code onNext}
+     * from recursing without limit.
+     * </p>
+     *
+     * @param <T> the type of elements of the cursor
+     */
+    private static class CursorSubscription<T> implements Subscription {
+        @Nonnull
+        private final RecordCursor<T> cursor;
+        @Nonnull
+        private final Subscriber<? super T> subscriber;
+        private final int prefetch;
+
+        @Nonnull
+        private final AtomicInteger workInProgress = new AtomicInteger();
+        @Nonnull
+        private final AtomicLong demand = new AtomicLong();
+        @Nonnull
+        private final Queue<T> buffer = new ConcurrentLinkedQueue<>();
+
+        private volatile boolean requested;
+        private volatile boolean cancelled;
+        private volatile boolean pulling;
+        private volatile boolean exhausted;
+        @Nullable
+        private volatile Throwable error;
+        // Only accessed from drain.
+        private boolean closed;
+
+        CursorSubscription(@Nonnull RecordCursor<T> cursor, @Nonnull Subscriber<? super T> subscriber, int prefetch) {
+            this.cursor = cursor;
+            this.subscriber = subscriber;
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new RecordCoreArgumentException("subscription request must be positive",
+                        LogMessageKeys.VALUE, n);
+                exhausted = true;
+                buffer.clear();
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> {
+                    final long sum = current + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+                requested = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (workInProgress.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (closed) {
+                    continue;
+                }
+                if (cancelled) {
+                    buffer.clear();
+                    if (!pulling) {
+                        close();
+                    }
+                    continue;
+                }
+                emit();
+                if (closed) {
+                    continue;
+                }
+                if (!pulling && !exhausted && requested && (demand.get() > 0 || buffer.size() < prefetch)) {
+                    pull();
+                }
+            } while (workInProgress.decrementAndGet() != 0);
+        }
+
+        private void emit() {
+            try {
+                while (demand.get() > 0 && !cancelled) {
+                    final T item = buffer.poll();
+                    if (item == null) {
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(item);
+                }
+                if (exhausted && buffer.isEmpty() && !pulling && !cancelled) {
+                    close();
+                    final Throwable err = error;
+                    if (err == null) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(err);
+                    }
+                }
+            } catch (RuntimeException ex) {
+                // A subscriber is not supposed to throw, so treat the subscription as cancelled.
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn("subscriber threw exception", ex);
+                }
+                cancelled = true;
+                buffer.clear();
+                if (!pulling) {
+                    close();
+                }
+            }
+        }
+
+        private void pull() {
+            pulling = true;
+            final CompletableFuture<RecordCursorResult<T>> future;
+            try {
+                future = cursor.onNext();
+            } catch (RuntimeException ex) {
+                pulled(null, ex);
+                return;
+            }
+            future.whenComplete(this::pulled);
+        }
+
+        private void pulled(@Nullable RecordCursorResult<T> result, @Nullable Throwable err) {
+            if (err != null) {
+                error = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                exhausted = true;
+            } else if (result.hasNext()) {
+                final T item = result.get();
+                if (item == null) {
+                    error = new RecordCoreException("cursor returned null element to publisher");
+                    exhausted = true;
+                } else {
+                    buffer.add(item);
+                }
+            } else {
+                exhausted = true;
+            }
+            pulling = false;
+            drain();
+        }
+
+        private void close() {
+            closed = true;
+            cursor.close();
+        }
+    }
+}
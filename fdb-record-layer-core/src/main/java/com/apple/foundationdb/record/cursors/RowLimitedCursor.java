@@ -22,6 +22,7 @@ package com.apple.foundationdb.record.cursors;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorBatch;
 import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.RecordCursorVisitor;
 
@@ -80,6 +81,26 @@ public class RowLimitedCursor<T> implements RecordCursor<T> {
         }
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorBatch<T>> onNextBatch(int maxSize) {
+        RecordCursorBatch.validateMaxSize(maxSize);
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(RecordCursorBatch.stopped(nextResult));
+        }
+        if (limitReached()) {
+            // Let onNext decide how to report reaching the limit.
+            return onNext().thenApply(RecordCursorBatch::stopped);
+        }
+        mayGetContinuation = false;
+        return inner.onNextBatch(Math.min(maxSize, limit - soFar)).thenApply(batch -> {
+            soFar += batch.size();
+            nextResult = batch.getLastResult();
+            mayGetContinuation = batch.hasStopped();
+            return batch;
+        });
+    }
+
     @Nonnull
     @Override
     @Deprecated
@@ -23,14 +23,18 @@ package com.apple.foundationdb.record.cursors;
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.async.AsyncUtil;
 import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorBatch;
 import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.RecordCursorVisitor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A cursor that skips a specified number of initial elements.
@@ -81,6 +85,45 @@ public class SkipCursor<T> implements RecordCursor<T> {
         });
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorBatch<T>> onNextBatch(int maxSize) {
+        RecordCursorBatch.validateMaxSize(maxSize);
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(RecordCursorBatch.stopped(nextResult));
+        }
+        if (skipRemaining <= 0) {
+            return inner.onNextBatch(maxSize).thenApply(this::batchReturned);
+        }
+        final AtomicReference<RecordCursorBatch<T>> holder = new AtomicReference<>();
+        return AsyncUtil.whileTrue(() -> inner.onNextBatch(skipRemaining + Math.min(maxSize, Integer.MAX_VALUE - skipRemaining)).thenApply(innerBatch -> {
+            if (innerBatch.size() <= skipRemaining) {
+                skipRemaining -= innerBatch.size();
+                if (innerBatch.hasStopped()) {
+                    holder.set(RecordCursorBatch.stopped(innerBatch.getLastResult())); // Exhausted while skipping
+                    return false;
+                }
+                return true;
+            }
+            final List<T> innerValues = innerBatch.getValues();
+            final List<T> values = new ArrayList<>(innerValues.subList(skipRemaining, innerValues.size()));
+            skipRemaining = 0;
+            if (innerBatch.hasStopped()) {
+                holder.set(RecordCursorBatch.stopped(values, innerBatch.getLastResult()));
+            } else {
+                holder.set(RecordCursorBatch.withValues(values, innerBatch.getContinuation()));
+            }
+            return false;
+        }), getExecutor()).thenApply(vignore -> batchReturned(holder.get()));
+    }
+
+    @Nonnull
+    private RecordCursorBatch<T> batchReturned(@Nonnull RecordCursorBatch<T> batch) {
+        nextResult = batch.getLastResult();
+        mayGetContinuation = batch.hasStopped();
+        return batch;
+    }
+
     @Nonnull
     @Override
     @Deprecated
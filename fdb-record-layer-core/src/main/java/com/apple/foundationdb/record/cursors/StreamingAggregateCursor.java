@@ -0,0 +1,362 @@
+/*
+ * StreamingAggregateCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A cursor that aggregates consecutive values of another cursor that have the same grouping key.
+ *
+ * <p>
+ * The input must be ordered by the grouping key, such as by scanning a value index whose key begins with it.
+ * Each group is returned as a single {@link Tuple} made up of the grouping key followed by the result of each
+ * {@link AggregateOperation}, once the first value of the next group has been read or the input is exhausted.
+ * So only one group is held in memory at a time. If the input is found not to be in order, the cursor fails rather
+ * than returning the same group more than once.
+ * </p>
+ *
+ * <p>
+ * The continuation includes the partial state of the group being aggregated, so that stopping because of a limit in
+ * the middle of a group does not lose the values of that group already read.
+ * </p>
+ *
+ * @param <T> the type of values being aggregated
+ */
+@API(API.Status.EXPERIMENTAL)
+public class StreamingAggregateCursor<T> implements RecordCursor<Tuple> {
+    @Nonnull
+    private final Function<T, Tuple> groupFunction;
+    @Nonnull
+    private final BiConsumer<AggregateAccumulator, T> accumulateFunction;
+    @Nonnull
+    private final List<AggregateOperation> operations;
+    private final boolean reverse;
+    @Nonnull
+    private final Executor executor;
+    @Nullable
+    private final StoreTimer timer;
+
+    // The input, until it has been exhausted.
+    @Nullable
+    private RecordCursor<T> inputCursor;
+    // The group being aggregated, if any.
+    @Nullable
+    private Tuple currentGroup;
+    @Nullable
+    private AggregateAccumulator currentAccumulator;
+
+    @Nullable
+    private CompletableFuture<Boolean> hasNextFuture;
+    @Nullable
+    private RecordCursorResult<Tuple> nextResult;
+    // for detecting incorrect cursor usage
+    private boolean mayGetContinuation = false;
+
+    private StreamingAggregateCursor(@Nonnull Function<T, Tuple> groupFunction,
+                                     @Nonnull BiConsumer<AggregateAccumulator, T> accumulateFunction,
+                                     @Nonnull List<AggregateOperation> operations, boolean reverse,
+                                     @Nonnull Executor executor, @Nullable StoreTimer timer,
+                                     @Nullable RecordCursor<T> inputCursor,
+                                     @Nullable Tuple currentGroup, @Nullable AggregateAccumulator currentAccumulator) {
+        this.groupFunction = groupFunction;
+        this.accumulateFunction = accumulateFunction;
+        this.operations = operations;
+        this.reverse = reverse;
+        this.executor = executor;
+        this.timer = timer;
+        this.inputCursor = inputCursor;
+        this.currentGroup = currentGroup;
+        this.currentAccumulator = currentAccumulator;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<Tuple>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        mayGetContinuation = false;
+        if (inputCursor == null) {
+            nextResult = finish();
+            mayGetContinuation = !nextResult.hasNext();
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        return AsyncUtil.whileTrue(() -> inputCursor.onNext().thenApply(this::addInput), executor).thenApply(vignore -> {
+            mayGetContinuation = !nextResult.hasNext();
+            return nextResult;
+        });
+    }
+
+    /**
+     * Add the next result from the input to the current group.
+     * @param inputResult the result from the input cursor
+     * @return {@code true} to keep reading input or {@code false} if {@link #nextResult} has been set
+     */
+    private boolean addInput(@Nonnull RecordCursorResult<T> inputResult) {
+        if (!inputResult.hasNext()) {
+            inputCursor.close();
+            inputCursor = null;
+            if (inputResult.getNoNextReason().isSourceExhausted()) {
+                nextResult = finish();
+            } else {
+                nextResult = RecordCursorResult.withoutNextValue(
+                        new Continuation(false, inputResult.getContinuation(), currentGroup, currentState()),
+                        inputResult.getNoNextReason());
+            }
+            return false;
+        }
+        final T value = inputResult.get();
+        final Tuple group = groupFunction.apply(value);
+        if (currentGroup == null) {
+            startGroup(group, value);
+            return true;
+        }
+        final int compare = group.compareTo(currentGroup);
+        if (compare == 0) {
+            accumulateFunction.accept(currentAccumulator, value);
+            return true;
+        }
+        if (compare < 0 != reverse) {
+            throw new RecordCoreException("aggregate input is not ordered by grouping key")
+                    .addLogInfo(LogMessageKeys.KEY_TUPLE, group)
+                    .addLogInfo(LogMessageKeys.KNOWN_LAST_KEY, currentGroup);
+        }
+        final Tuple result = groupResult();
+        startGroup(group, value);
+        nextResult = RecordCursorResult.withNextValue(result,
+                new Continuation(false, inputResult.getContinuation(), currentGroup, currentState()));
+        return false;
+    }
+
+    private void startGroup(@Nonnull Tuple group, @Nonnull T value) {
+        currentGroup = group;
+        currentAccumulator = new AggregateAccumulator(operations);
+        accumulateFunction.accept(currentAccumulator, value);
+    }
+
+    @Nullable
+    private Tuple currentState() {
+        return currentAccumulator == null ? null : currentAccumulator.getState();
+    }
+
+    @Nonnull
+    private Tuple groupResult() {
+        if (timer != null) {
+            timer.increment(FDBStoreTimer.Counts.QUERY_AGGREGATE_GROUPS);
+        }
+        return currentGroup.addAll(currentAccumulator.getResults());
+    }
+
+    /**
+     * Return the last group, if any, once the input is exhausted.
+     * @return the result for the last group or an exhausted result
+     */
+    @Nonnull
+    private RecordCursorResult<Tuple> finish() {
+        if (currentGroup == null) {
+            return RecordCursorResult.exhausted();
+        }
+        final Tuple result = groupResult();
+        currentGroup = null;
+        currentAccumulator = null;
+        return RecordCursorResult.withNextValue(result, new Continuation(true, null, null, null));
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public CompletableFuture<Boolean> onHasNext() {
+        if (hasNextFuture == null) {
+            hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+        }
+        return hasNextFuture;
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public Tuple next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNextFuture = null;
+        mayGetContinuation = true;
+        return nextResult.get();
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public byte[] getContinuation() {
+        IllegalContinuationAccessChecker.check(mayGetContinuation);
+        return nextResult.getContinuation().toBytes();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public NoNextReason getNoNextReason() {
+        return nextResult.getNoNextReason();
+    }
+
+    @Override
+    public void close() {
+        if (inputCursor != null) {
+            inputCursor.close();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this) && inputCursor != null) {
+            inputCursor.accept(visitor);
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Create a streaming aggregate cursor.
+     * @param groupFunction a function to get the grouping key of an input value
+     * @param accumulateFunction a function to add an input value to the state of its group, usually by calling
+     * {@link AggregateAccumulator#accumulate}
+     * @param operations the operations to compute for each group
+     * @param reverse whether the input is in descending order of grouping key
+     * @param inputFunction a function to produce the input cursor from a continuation
+     * @param continuation any continuation from a previous streaming aggregate cursor
+     * @param executor the executor used to compose futures
+     * @param timer the timer used to count groups
+     * @param <T> the type of values being aggregated
+     * @return a cursor returning the grouping key and aggregate results of each group of the input
+     */
+    @SuppressWarnings("PMD.PreserveStackTrace")
+    @Nonnull
+    public static <T> StreamingAggregateCursor<T> create(@Nonnull Function<T, Tuple> groupFunction,
+                                                         @Nonnull BiConsumer<AggregateAccumulator, T> accumulateFunction,
+                                                         @Nonnull List<AggregateOperation> operations,
+                                                         boolean reverse,
+                                                         @Nonnull Function<byte[], RecordCursor<T>> inputFunction,
+                                                         @Nullable byte[] continuation,
+                                                         @Nonnull Executor executor,
+                                                         @Nullable StoreTimer timer) {
+        if (continuation == null) {
+            return new StreamingAggregateCursor<>(groupFunction, accumulateFunction, operations, reverse, executor, timer,
+                    inputFunction.apply(null), null, null);
+        }
+        final RecordCursorProto.StreamingAggregateContinuation parsed;
+        try {
+            parsed = RecordCursorProto.StreamingAggregateContinuation.parseFrom(continuation);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RecordCoreException("invalid continuation", ex)
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+        }
+        Tuple currentGroup = null;
+        AggregateAccumulator currentAccumulator = null;
+        if (parsed.hasCurrent()) {
+            currentGroup = Tuple.fromBytes(parsed.getCurrent().getGroup().toByteArray());
+            currentAccumulator = new AggregateAccumulator(operations, Tuple.fromBytes(parsed.getCurrent().getState().toByteArray()));
+        }
+        final RecordCursor<T> inputCursor;
+        if (parsed.getInputExhausted()) {
+            inputCursor = null;
+        } else {
+            inputCursor = inputFunction.apply(parsed.hasChildContinuation() ? parsed.getChildContinuation().toByteArray() : null);
+        }
+        return new StreamingAggregateCursor<>(groupFunction, accumulateFunction, operations, reverse, executor, timer,
+                inputCursor, currentGroup, currentAccumulator);
+    }
+
+    private static class Continuation implements RecordCursorContinuation {
+        private final boolean inputExhausted;
+        @Nullable
+        private final RecordCursorContinuation inputContinuation;
+        @Nullable
+        private final Tuple group;
+        @Nullable
+        private final Tuple state;
+        @Nullable
+        private byte[] cachedBytes;
+
+        Continuation(boolean inputExhausted, @Nullable RecordCursorContinuation inputContinuation,
+                     @Nullable Tuple group, @Nullable Tuple state) {
+            this.inputExhausted = inputExhausted;
+            this.inputContinuation = inputContinuation;
+            this.group = group;
+            this.state = state;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            if (cachedBytes == null) {
+                final RecordCursorProto.StreamingAggregateContinuation.Builder builder = RecordCursorProto.StreamingAggregateContinuation.newBuilder();
+                if (inputExhausted) {
+                    builder.setInputExhausted(true);
+                } else if (inputContinuation != null) {
+                    final byte[] inputBytes = inputContinuation.toBytes();
+                    if (inputBytes != null) {
+                        builder.setChildContinuation(ByteString.copyFrom(inputBytes));
+                    }
+                }
+                if (group != null && state != null) {
+                    builder.setCurrent(RecordCursorProto.PartialAggregate.newBuilder()
+                            .setGroup(ByteString.copyFrom(group.pack()))
+                            .setState(ByteString.copyFrom(state.pack())));
+                }
+                cachedBytes = builder.build().toByteArray();
+            }
+            return cachedBytes;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+}
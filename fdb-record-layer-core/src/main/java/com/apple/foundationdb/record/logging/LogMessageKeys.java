@@ -65,6 +65,8 @@ public enum LogMessageKeys {
     READ_LAST_KEY_MICROS("read_last_key_micros"),
     // protobuf parsing
     RAW_BYTES("raw_bytes"),
+    // sorting
+    FILE_NAME("file_name"),
     // key space API keys
     PARENT_DIR("parent_dir"),
     DIR_NAME("dir_name"),
@@ -212,6 +214,8 @@ public enum LogMessageKeys {
 
     // query plan
     PLAN("plan"),
+    PLAN_HASH("plan_hash"),
+    EXPECTED_PLAN_HASH("expected_plan_hash"),
 
     // error
     ERROR("error"),
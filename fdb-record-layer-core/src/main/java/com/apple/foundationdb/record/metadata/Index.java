@@ -26,6 +26,7 @@ import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordMetaDataProto;
 import com.apple.foundationdb.annotation.SpotBugsSuppressWarnings;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.metadata.expressions.CompiledKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.EmptyKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.GroupingKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
@@ -66,6 +67,8 @@ public class Index {
     @Nonnull
     private final KeyExpression rootExpression;
     @Nullable
+    private volatile CompiledKeyExpression compiledRootExpression;
+    @Nullable
     private int[] primaryKeyComponentPositions;
     @Nonnull
     private Object subspaceKey;
@@ -287,6 +290,21 @@ public class Index {
         return rootExpression;
     }
 
+    /**
+     * Get the root expression compiled for evaluating against the records being indexed.
+     * @return the compiled root expression, which evaluates the same as {@link #getRootExpression}
+     */
+    @API(API.Status.INTERNAL)
+    @Nonnull
+    public CompiledKeyExpression getCompiledRootExpression() {
+        CompiledKeyExpression compiled = compiledRootExpression;
+        if (compiled == null) {
+            compiled = CompiledKeyExpression.compile(rootExpression);
+            compiledRootExpression = compiled;
+        }
+        return compiled;
+    }
+
     /**
      * Whether this index should have the property that any two records
      * with different primary keys should have different values for this
@@ -56,6 +56,7 @@ public class RecordType implements RecordTypeOrBuilder, RecordMetaDataProvider {
     private final Integer sinceVersion;
     @Nullable
     private final Object explicitRecordTypeKey;
+    private final int splitRecordSize;
     @Nullable
     private Object recordTypeKey;
     @Nullable
@@ -63,6 +64,14 @@ public class RecordType implements RecordTypeOrBuilder, RecordMetaDataProvider {
 
     public RecordType(@Nonnull RecordMetaData metaData, @Nonnull Descriptors.Descriptor descriptor, @Nonnull KeyExpression primaryKey,
                       @Nonnull List<Index> indexes, @Nonnull List<Index> multiTypeIndexes, @Nullable Integer sinceVersion, @Nullable Object recordTypeKey) {
+        this(metaData, descriptor, primaryKey, indexes, multiTypeIndexes, sinceVersion, recordTypeKey, 0);
+    }
+
+    @API(API.Status.EXPERIMENTAL)
+    @SuppressWarnings("squid:S00107") // too many parameters
+    public RecordType(@Nonnull RecordMetaData metaData, @Nonnull Descriptors.Descriptor descriptor, @Nonnull KeyExpression primaryKey,
+                      @Nonnull List<Index> indexes, @Nonnull List<Index> multiTypeIndexes, @Nullable Integer sinceVersion, @Nullable Object recordTypeKey,
+                      int splitRecordSize) {
         this.metaData = metaData;
         this.descriptor = descriptor;
         this.primaryKey = primaryKey;
@@ -71,6 +80,7 @@ public class RecordType implements RecordTypeOrBuilder, RecordMetaDataProvider {
         this.multiTypeIndexes = multiTypeIndexes;
         this.sinceVersion = sinceVersion;
         this.recordTypeKey = this.explicitRecordTypeKey = TupleTypeUtil.toTupleEquivalentValue(recordTypeKey);
+        this.splitRecordSize = splitRecordSize;
     }
 
     @Override
@@ -135,6 +145,17 @@ public class RecordType implements RecordTypeOrBuilder, RecordMetaDataProvider {
         return sinceVersion;
     }
 
+    /**
+     * Get the size of the pieces into which records of this type are split when they are too long to be stored in
+     * a single value. This overrides any size set for the whole record store.
+     * @return the split size in bytes or {@code 0} if not set for this record type
+     * @see com.apple.foundationdb.record.provider.foundationdb.SplitHelper#SPLIT_RECORD_SIZE
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public int getSplitRecordSize() {
+        return splitRecordSize;
+    }
+
     /**
      * Get whether this record type sets an explicit value for {@link #getRecordTypeKey}.
      * If there is no explicit value, then {@code #getRecordTypeKey} will use the union message field number.
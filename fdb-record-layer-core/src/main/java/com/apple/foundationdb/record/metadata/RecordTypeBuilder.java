@@ -22,7 +22,9 @@ package com.apple.foundationdb.record.metadata;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
+import com.apple.foundationdb.record.provider.foundationdb.SplitHelper;
 import com.google.protobuf.Descriptors;
 
 import javax.annotation.Nonnull;
@@ -47,6 +49,7 @@ public class RecordTypeBuilder extends RecordTypeIndexesBuilder implements Recor
     private KeyExpression primaryKey;
     @Nullable
     private Integer sinceVersion;
+    private int splitRecordSize;
 
     public RecordTypeBuilder(@Nonnull Descriptors.Descriptor descriptor) {
         super(descriptor.getName());
@@ -63,6 +66,7 @@ public class RecordTypeBuilder extends RecordTypeIndexesBuilder implements Recor
         this.descriptor = descriptor;
         this.primaryKey = other.primaryKey;
         this.sinceVersion = other.sinceVersion;
+        this.splitRecordSize = other.splitRecordSize;
     }
 
     @Override
@@ -100,11 +104,33 @@ public class RecordTypeBuilder extends RecordTypeIndexesBuilder implements Recor
         this.sinceVersion = sinceVersion;
     }
 
+    @API(API.Status.EXPERIMENTAL)
+    public int getSplitRecordSize() {
+        return splitRecordSize;
+    }
+
+    /**
+     * Set the size of the pieces into which records of this type are split when they are too long to be stored in
+     * a single value. Records already saved with a different size can still be read, so this can be changed freely;
+     * each record is rewritten with the new size the next time it is saved.
+     * @param splitRecordSize the split size in bytes, at most {@link com.apple.foundationdb.record.provider.foundationdb.SplitHelper#SPLIT_RECORD_SIZE},
+     * or {@code 0} to use the size of the record store
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public void setSplitRecordSize(int splitRecordSize) {
+        if (splitRecordSize < 0 || splitRecordSize > SplitHelper.SPLIT_RECORD_SIZE) {
+            throw new MetaDataException("Split record size must be between 1 and " + SplitHelper.SPLIT_RECORD_SIZE + " bytes, or 0 for the default",
+                    LogMessageKeys.RECORD_TYPE, getName(),
+                    LogMessageKeys.VALUE_SIZE, splitRecordSize);
+        }
+        this.splitRecordSize = splitRecordSize;
+    }
+
     public RecordType build(@Nonnull RecordMetaData metaData) {
         if (primaryKey == null) {
             throw new NonbuildableException("Missing primary key");
         }
-        return new RecordType(metaData, descriptor, primaryKey, indexes, multiTypeIndexes, sinceVersion, recordTypeKey);
+        return new RecordType(metaData, descriptor, primaryKey, indexes, multiTypeIndexes, sinceVersion, recordTypeKey, splitRecordSize);
     }
 
     /**
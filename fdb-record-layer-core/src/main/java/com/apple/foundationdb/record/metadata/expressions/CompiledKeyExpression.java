@@ -0,0 +1,316 @@
+/*
+ * CompiledKeyExpression.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.metadata.expressions;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.metadata.Key;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecord;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link KeyExpression} compiled for evaluating against many records, as when maintaining an index.
+ *
+ * <p>
+ * Evaluating a {@link ThenKeyExpression} evaluates each child into its own list of keys and then combines them by
+ * appending, and each {@link FieldKeyExpression} looks up its field by name. When the expression cannot fan out,
+ * compiling it instead writes the value of each column in turn into a single list, from which the one key is made,
+ * and keeps field descriptors resolved for the last message type seen. This covers fields without
+ * {@link KeyExpression.FanType#FanOut FanType.FanOut}, nesting within such fields, and concatenations of those;
+ * other parts of an expression that cannot fan out are evaluated as usual and their one key written into the same list.
+ * </p>
+ *
+ * <p>
+ * An expression that can fan out is evaluated as usual. So is any expression whose compiled evaluation comes across
+ * something unexpected, such as a part evaluating to a key with the wrong number of columns, so that errors are the
+ * same as from {@link KeyExpression#evaluate}.
+ * </p>
+ */
+@API(API.Status.INTERNAL)
+public class CompiledKeyExpression {
+    @Nonnull
+    private final KeyExpression expression;
+    @Nullable
+    private final ColumnWriter writer;
+    private final int columnSize;
+
+    private CompiledKeyExpression(@Nonnull KeyExpression expression, @Nullable ColumnWriter writer, int columnSize) {
+        this.expression = expression;
+        this.writer = writer;
+        this.columnSize = columnSize;
+    }
+
+    /**
+     * Compile a key expression.
+     * @param expression the expression to compile
+     * @return a compiled expression that evaluates the same as {@code expression}
+     */
+    @Nonnull
+    public static CompiledKeyExpression compile(@Nonnull KeyExpression expression) {
+        // These only change how the key is split up once evaluated.
+        KeyExpression inner = expression;
+        while (true) {
+            if (inner.getClass() == GroupingKeyExpression.class) {
+                inner = ((GroupingKeyExpression)inner).getWholeKey();
+            } else if (inner.getClass() == KeyWithValueExpression.class) {
+                inner = ((KeyWithValueExpression)inner).getInnerKey();
+            } else {
+                break;
+            }
+        }
+        return new CompiledKeyExpression(expression, compileWriter(inner), inner.getColumnSize());
+    }
+
+    @Nullable
+    private static ColumnWriter compileWriter(@Nonnull KeyExpression expression) {
+        final Class<?> expressionClass = expression.getClass();
+        if (expressionClass == FieldKeyExpression.class) {
+            final FieldKeyExpression field = (FieldKeyExpression)expression;
+            return field.getFanType() == KeyExpression.FanType.FanOut ? null : new FieldWriter(field);
+        } else if (expressionClass == NestingKeyExpression.class) {
+            final NestingKeyExpression nesting = (NestingKeyExpression)expression;
+            if (nesting.getParent().getFanType() != KeyExpression.FanType.None) {
+                return null;
+            }
+            final ColumnWriter child = compileWriter(nesting.getChild());
+            return child == null ? null : new NestingWriter(new FieldWriter(nesting.getParent()), child, nesting.getColumnSize());
+        } else if (expressionClass == ThenKeyExpression.class) {
+            final List<KeyExpression> children = ((ThenKeyExpression)expression).getChildren();
+            final ColumnWriter[] childWriters = new ColumnWriter[children.size()];
+            for (int i = 0; i < childWriters.length; i++) {
+                childWriters[i] = compileWriter(children.get(i));
+                if (childWriters[i] == null) {
+                    return null;
+                }
+            }
+            return new ThenWriter(childWriters, expression.getColumnSize());
+        } else if (expression.createsDuplicates()) {
+            return null;
+        } else {
+            return new EvaluatingWriter(expression);
+        }
+    }
+
+    @Nonnull
+    public KeyExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Get whether evaluation writes keys directly, rather than just evaluating the expression.
+     * @return {@code true} if the expression could be compiled
+     */
+    public boolean isCompiled() {
+        return writer != null;
+    }
+
+    /**
+     * Evaluate against a given record producing a list of evaluated keys.
+     * @param <M> the type of record
+     * @param record the record to evaluate against
+     * @return the same keys as {@link KeyExpression#evaluate}
+     */
+    @Nonnull
+    public <M extends Message> List<Key.Evaluated> evaluate(@Nullable FDBRecord<M> record) {
+        if (writer != null) {
+            final List<Object> values = new ArrayList<>(columnSize);
+            if (writer.write(record, record == null ? null : record.getRecord(), values) && values.size() == columnSize) {
+                return Collections.singletonList(Key.Evaluated.concatenate(values));
+            }
+        }
+        return expression.evaluate(record);
+    }
+
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+
+    /**
+     * Writes the values of some columns of a single key.
+     */
+    private abstract static class ColumnWriter {
+        /**
+         * Add column values to a key.
+         * @param record the record being evaluated
+         * @param message the message within the record to evaluate against
+         * @param values the key values so far
+         * @return {@code false} if the key could not be written this way and the expression must be evaluated instead
+         */
+        abstract <M extends Message> boolean write(@Nullable FDBRecord<M> record, @Nullable Message message, @Nonnull List<Object> values);
+    }
+
+    private static class FieldWriter extends ColumnWriter {
+        @Nonnull
+        private final String fieldName;
+        private final boolean concatenate;
+        @Nonnull
+        private final Key.Evaluated.NullStandin nullStandin;
+        @Nullable
+        private volatile ResolvedField resolved;
+
+        FieldWriter(@Nonnull FieldKeyExpression field) {
+            this.fieldName = field.getFieldName();
+            this.concatenate = field.getFanType() == KeyExpression.FanType.Concatenate;
+            this.nullStandin = field.getNullStandin();
+        }
+
+        @Override
+        <M extends Message> boolean write(@Nullable FDBRecord<M> record, @Nullable Message message, @Nonnull List<Object> values) {
+            values.add(getValue(message));
+            return true;
+        }
+
+        // Same as the single value from FieldKeyExpression.evaluateMessage when not fanned out.
+        @Nullable
+        Object getValue(@Nullable Message message) {
+            if (message == null) {
+                return getNullValue();
+            }
+            final ResolvedField resolvedField = resolve(message.getDescriptorForType());
+            final Descriptors.FieldDescriptor fieldDescriptor = resolvedField.field;
+            if (fieldDescriptor == null) {
+                return getNullValue();
+            }
+            if (resolvedField.repeated) {
+                if (!concatenate) {
+                    throw new RecordCoreException("FanType.None with repeated field");
+                }
+                return message.getRepeatedFieldCount(fieldDescriptor) > 0 ? message.getField(fieldDescriptor) : Collections.emptyList();
+            }
+            if (nullStandin == Key.Evaluated.NullStandin.NOT_NULL || message.hasField(fieldDescriptor)) {
+                final Object value = message.getField(fieldDescriptor);
+                if (resolvedField.tupleField) {
+                    return TupleFieldsHelper.fromProto((Message)value, fieldDescriptor.getMessageType());
+                }
+                return value;
+            }
+            return getNullValue();
+        }
+
+        @Nonnull
+        private Object getNullValue() {
+            return concatenate ? Collections.emptyList() : nullStandin;
+        }
+
+        @Nonnull
+        @SuppressWarnings("PMD.CompareObjectsWithEquals")
+        private ResolvedField resolve(@Nonnull Descriptors.Descriptor descriptor) {
+            ResolvedField current = resolved;
+            if (current == null || current.descriptor != descriptor) {
+                current = new ResolvedField(descriptor, descriptor.findFieldByName(fieldName));
+                resolved = current;
+            }
+            return current;
+        }
+    }
+
+    private static class ResolvedField {
+        @Nonnull
+        private final Descriptors.Descriptor descriptor;
+        @Nullable
+        private final Descriptors.FieldDescriptor field;
+        private final boolean repeated;
+        private final boolean tupleField;
+
+        ResolvedField(@Nonnull Descriptors.Descriptor descriptor, @Nullable Descriptors.FieldDescriptor field) {
+            this.descriptor = descriptor;
+            this.field = field;
+            this.repeated = field != null && field.isRepeated();
+            this.tupleField = field != null && field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE &&
+                              TupleFieldsHelper.isTupleField(field.getMessageType());
+        }
+    }
+
+    private static class NestingWriter extends ColumnWriter {
+        @Nonnull
+        private final FieldWriter parent;
+        @Nonnull
+        private final ColumnWriter child;
+        private final int columnSize;
+
+        NestingWriter(@Nonnull FieldWriter parent, @Nonnull ColumnWriter child, int columnSize) {
+            this.parent = parent;
+            this.child = child;
+            this.columnSize = columnSize;
+        }
+
+        @Override
+        <M extends Message> boolean write(@Nullable FDBRecord<M> record, @Nullable Message message, @Nonnull List<Object> values) {
+            Object submessage = parent.getValue(message);
+            if (submessage instanceof Key.Evaluated.NullStandin) {
+                submessage = null;
+            } else if (submessage != null && !(submessage instanceof Message)) {
+                return false;
+            }
+            final int start = values.size();
+            return child.write(record, (Message)submessage, values) && values.size() - start == columnSize;
+        }
+    }
+
+    private static class ThenWriter extends ColumnWriter {
+        @Nonnull
+        private final ColumnWriter[] children;
+        private final int columnSize;
+
+        ThenWriter(@Nonnull ColumnWriter[] children, int columnSize) {
+            this.children = children;
+            this.columnSize = columnSize;
+        }
+
+        @Override
+        <M extends Message> boolean write(@Nullable FDBRecord<M> record, @Nullable Message message, @Nonnull List<Object> values) {
+            final int start = values.size();
+            for (ColumnWriter child : children) {
+                if (!child.write(record, message, values)) {
+                    return false;
+                }
+            }
+            return values.size() - start == columnSize;
+        }
+    }
+
+    private static class EvaluatingWriter extends ColumnWriter {
+        @Nonnull
+        private final KeyExpression expression;
+
+        EvaluatingWriter(@Nonnull KeyExpression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        <M extends Message> boolean write(@Nullable FDBRecord<M> record, @Nullable Message message, @Nonnull List<Object> values) {
+            final List<Key.Evaluated> keys = expression.evaluateMessage(record, message);
+            if (keys.size() != 1) {
+                return false;
+            }
+            values.addAll(keys.get(0).values());
+            return true;
+        }
+    }
+}
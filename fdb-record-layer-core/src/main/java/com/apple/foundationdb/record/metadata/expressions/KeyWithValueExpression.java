@@ -166,7 +166,7 @@ public class KeyWithValueExpression extends BaseKeyExpression implements KeyExpr
     }
 
     @Nonnull
-    private KeyExpression getInnerKey() {
+    KeyExpression getInnerKey() {
         return innerKey;
     }
 
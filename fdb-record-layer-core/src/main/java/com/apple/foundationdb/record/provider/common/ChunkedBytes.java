@@ -0,0 +1,266 @@
+/*
+ * ChunkedBytes.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A read-only sequence of bytes held in one or more arrays, such as the values of the keys of a split record.
+ *
+ * <p>
+ * This allows a record that was split across several keys to be deserialized by reading each piece where it is,
+ * rather than first copying them all into one large array. The arrays are not copied when constructing this either,
+ * so they must not be modified afterwards.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class ChunkedBytes {
+    private static final byte[] EMPTY = new byte[0];
+
+    @Nonnull
+    private final byte[][] chunks;
+    @Nonnull
+    private final int[] offsets;
+    @Nonnull
+    private final int[] lengths;
+    private final int length;
+
+    /**
+     * Create a sequence of the concatenation of the given arrays.
+     * @param chunks the arrays holding the bytes, in order
+     */
+    public ChunkedBytes(@Nonnull Collection<byte[]> chunks) {
+        this.chunks = chunks.isEmpty() ? new byte[][] { EMPTY } : chunks.toArray(new byte[0][]);
+        this.offsets = new int[this.chunks.length];
+        this.lengths = new int[this.chunks.length];
+        int total = 0;
+        for (int i = 0; i < this.chunks.length; i++) {
+            lengths[i] = this.chunks[i].length;
+            total += lengths[i];
+        }
+        this.length = total;
+    }
+
+    private ChunkedBytes(@Nonnull byte[][] chunks, @Nonnull int[] offsets, @Nonnull int[] lengths, int length) {
+        this.chunks = chunks;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.length = length;
+    }
+
+    /**
+     * Get a sequence of the bytes of a single array.
+     * @param bytes the array
+     * @return a new sequence of the bytes
+     */
+    @Nonnull
+    public static ChunkedBytes wrap(@Nonnull byte[] bytes) {
+        return new ChunkedBytes(new byte[][] { bytes }, new int[] { 0 }, new int[] { bytes.length }, bytes.length);
+    }
+
+    /**
+     * Get the total number of bytes.
+     * @return the number of bytes in all the chunks
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Get the number of arrays that hold the bytes.
+     * @return the number of chunks, which is at least one
+     */
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    /**
+     * Get the array holding a chunk of the bytes. This is not a copy and must not be modified.
+     * @param chunk the index of the chunk
+     * @return the array holding the chunk
+     */
+    @Nonnull
+    @SuppressWarnings("PMD.MethodReturnsInternalArray")
+    public byte[] getChunkArray(int chunk) {
+        return chunks[chunk];
+    }
+
+    /**
+     * Get the offset at which a chunk of the bytes starts in its array.
+     * @param chunk the index of the chunk
+     * @return the offset of the chunk in {@link #getChunkArray}
+     */
+    public int getChunkOffset(int chunk) {
+        return offsets[chunk];
+    }
+
+    /**
+     * Get the number of bytes in a chunk.
+     * @param chunk the index of the chunk
+     * @return the length of the chunk in {@link #getChunkArray}
+     */
+    public int getChunkLength(int chunk) {
+        return lengths[chunk];
+    }
+
+    /**
+     * Get the byte at the given position.
+     * @param index the position of the byte in the whole sequence
+     * @return the byte at that position
+     */
+    public byte byteAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + length);
+        }
+        int chunk = 0;
+        while (index >= lengths[chunk]) {
+            index -= lengths[chunk];
+            chunk++;
+        }
+        return chunks[chunk][offsets[chunk] + index];
+    }
+
+    /**
+     * Get the bytes after the given position, without copying them.
+     * @param start the position of the first byte to include
+     * @return a new sequence of the remaining bytes
+     */
+    @Nonnull
+    public ChunkedBytes slice(int start) {
+        if (start < 0 || start > length) {
+            throw new IndexOutOfBoundsException("start " + start + " out of bounds for length " + length);
+        }
+        int chunk = 0;
+        int skip = start;
+        // Keep the last chunk, even if it is then empty.
+        while (chunk < chunks.length - 1 && skip >= lengths[chunk]) {
+            skip -= lengths[chunk];
+            chunk++;
+        }
+        final int count = chunks.length - chunk;
+        final int[] newOffsets = Arrays.copyOfRange(offsets, chunk, chunks.length);
+        final int[] newLengths = Arrays.copyOfRange(lengths, chunk, chunks.length);
+        newOffsets[0] += skip;
+        newLengths[0] -= skip;
+        return new ChunkedBytes(Arrays.copyOfRange(chunks, chunk, chunk + count), newOffsets, newLengths, length - start);
+    }
+
+    /**
+     * Get the bytes as a single array. If they are already exactly the contents of a single array, that array is
+     * returned, which must not be modified. Otherwise, they are copied into a new array.
+     * @return an array of the bytes
+     */
+    @Nonnull
+    @SuppressWarnings("PMD.MethodReturnsInternalArray")
+    public byte[] toByteArray() {
+        if (chunks.length == 1 && offsets[0] == 0 && lengths[0] == chunks[0].length) {
+            return chunks[0];
+        }
+        final byte[] result = new byte[length];
+        int position = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            System.arraycopy(chunks[i], offsets[i], result, position, lengths[i]);
+            position += lengths[i];
+        }
+        return result;
+    }
+
+    /**
+     * Get a stream that reads the bytes in order.
+     * @return a new input stream over the bytes
+     */
+    @Nonnull
+    public InputStream newInputStream() {
+        return new ChunkedInputStream();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final ChunkedBytes that = (ChunkedBytes)o;
+        return length == that.length && Arrays.equals(toByteArray(), that.toByteArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toByteArray());
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkedBytes{size=" + length + ", chunks=" + chunks.length + "}";
+    }
+
+    private class ChunkedInputStream extends InputStream {
+        private int chunk;
+        private int position;
+
+        @Override
+        public int read() {
+            if (!advance()) {
+                return -1;
+            }
+            return chunks[chunk][offsets[chunk] + position++] & 0xff;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            final int count = Math.min(len, lengths[chunk] - position);
+            System.arraycopy(chunks[chunk], offsets[chunk] + position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            int result = chunk < chunks.length ? lengths[chunk] - position : 0;
+            for (int i = chunk + 1; i < chunks.length; i++) {
+                result += lengths[i];
+            }
+            return result;
+        }
+
+        // Move past any finished chunks, returning whether there is anything left.
+        private boolean advance() {
+            while (chunk < chunks.length && position >= lengths[chunk]) {
+                chunk++;
+                position = 0;
+            }
+            return chunk < chunks.length;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * CompressionCodec.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import java.util.zip.DataFormatException;
+
+/**
+ * A compression algorithm used by a {@link TransformedRecordSerializer}.
+ *
+ * <p>
+ * Each compressed record starts with the identifier of the codec that compressed it, followed by the uncompressed
+ * length, so that it can be decompressed by any serializer that knows about that codec, whichever codec it uses
+ * when serializing. The identifier is therefore part of the persistent format and must never be reused for a
+ * different algorithm. Identifier {@value DeflateCompressionCodec#CODEC_ID} is {@link DeflateCompressionCodec},
+ * which is how records were compressed before codecs could be chosen, {@value LZ4CompressionCodec#CODEC_ID}
+ * is {@link LZ4CompressionCodec}, and {@code 3} is reserved for DEFLATE with a {@link CompressionDictionary}.
+ * </p>
+ *
+ * <p>
+ * Implementations must be thread-safe.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public interface CompressionCodec {
+    /**
+     * Get the identifier written before records compressed by this codec.
+     * @return an identifier between {@code 1} and {@code 127}
+     */
+    int getCodecId();
+
+    /**
+     * Compress some data.
+     * @param input the array containing the data to compress
+     * @param inputOffset the offset of the data in {@code input}
+     * @param inputLength the length of the data
+     * @param output the array to write the compressed data into
+     * @param outputOffset the offset in {@code output} at which to start writing
+     * @param maxOutputLength the most that may be written to {@code output}
+     * @return the length of the compressed data or {@code -1} if it would not fit within {@code maxOutputLength}
+     */
+    int compress(@Nonnull byte[] input, int inputOffset, int inputLength,
+                 @Nonnull byte[] output, int outputOffset, int maxOutputLength);
+
+    /**
+     * Decompress some data compressed by {@link #compress}.
+     * @param input the array containing the compressed data
+     * @param inputOffset the offset of the compressed data in {@code input}
+     * @param inputLength the length of the compressed data
+     * @param output the array to write the decompressed data into
+     * @param outputOffset the offset in {@code output} at which to start writing
+     * @param outputLength the length of the data when decompressed
+     * @throws DataFormatException if the compressed data is not valid
+     */
+    void decompress(@Nonnull byte[] input, int inputOffset, int inputLength,
+                    @Nonnull byte[] output, int outputOffset, int outputLength) throws DataFormatException;
+
+    /**
+     * Decompress some data compressed by {@link #compress} that is held in several arrays. By default, this joins
+     * them and decompresses that; codecs that can consume their input piecemeal should override it to avoid the copy.
+     * @param input the compressed data
+     * @param output the array to write the decompressed data into
+     * @param outputOffset the offset in {@code output} at which to start writing
+     * @param outputLength the length of the data when decompressed
+     * @throws DataFormatException if the compressed data is not valid
+     */
+    default void decompress(@Nonnull ChunkedBytes input,
+                            @Nonnull byte[] output, int outputOffset, int outputLength) throws DataFormatException {
+        decompress(input.toByteArray(), 0, input.size(), output, outputOffset, outputLength);
+    }
+}
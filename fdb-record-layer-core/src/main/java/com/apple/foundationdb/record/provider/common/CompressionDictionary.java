@@ -0,0 +1,83 @@
+/*
+ * CompressionDictionary.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.annotation.SpotBugsSuppressWarnings;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A preset dictionary for compressing the records of one record type, trained from a sample of those records.
+ *
+ * <p>
+ * A record compressed with a dictionary records the dictionary's id, so every dictionary that has ever been used
+ * must remain available (through a {@link CompressionDictionaryCache}) for as long as records compressed with it
+ * might exist.
+ * </p>
+ *
+ * @see CompressionDictionaryTrainer
+ * @see com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore#trainCompressionDictionaryAsync
+ */
+@API(API.Status.EXPERIMENTAL)
+public class CompressionDictionary {
+    private final int id;
+    @Nonnull
+    private final String recordTypeName;
+    @Nonnull
+    private final byte[] data;
+
+    @SpotBugsSuppressWarnings("EI_EXPOSE_REP2")
+    public CompressionDictionary(int id, @Nonnull String recordTypeName, @Nonnull byte[] data) {
+        this.id = id;
+        this.recordTypeName = recordTypeName;
+        this.data = data;
+    }
+
+    /**
+     * Get the version id of this dictionary, which is unique among the dictionaries of a store and increases as
+     * new dictionaries are trained.
+     * @return the id of this dictionary
+     */
+    public int getId() {
+        return id;
+    }
+
+    @Nonnull
+    public String getRecordTypeName() {
+        return recordTypeName;
+    }
+
+    /**
+     * Get the contents of the dictionary. This must not be modified.
+     * @return the dictionary bytes
+     */
+    @Nonnull
+    @SpotBugsSuppressWarnings("EI_EXPOSE_REP")
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionDictionary{" + id + ", " + recordTypeName + ", " + data.length + " bytes}";
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * CompressionDictionaryCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The compression dictionaries known to a {@link TransformedRecordSerializer}, held in memory.
+ *
+ * <p>
+ * Records of a record type are compressed with the dictionary with the highest id for that type. Records are
+ * decompressed with whatever dictionary their header names, which must therefore have been added. The dictionaries
+ * are normally loaded from a record store with
+ * {@link com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore#loadCompressionDictionariesAsync}
+ * when it is opened, and added as they are trained. Since dictionary ids are only unique within the store in which
+ * they were trained, a single cache should only hold dictionaries from one store (or from a group of stores that
+ * share a source of dictionaries).
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class CompressionDictionaryCache {
+    @Nonnull
+    private final Map<Integer, CompressionDictionary> byId = new ConcurrentHashMap<>();
+    @Nonnull
+    private final Map<String, CompressionDictionary> byRecordType = new ConcurrentHashMap<>();
+
+    /**
+     * Add a dictionary to the cache, making it the one used for its record type unless a later one is already known.
+     * @param dictionary the dictionary to add
+     */
+    public void add(@Nonnull CompressionDictionary dictionary) {
+        byId.put(dictionary.getId(), dictionary);
+        byRecordType.merge(dictionary.getRecordTypeName(), dictionary,
+                (existing, added) -> added.getId() > existing.getId() ? added : existing);
+    }
+
+    public void addAll(@Nonnull Collection<CompressionDictionary> dictionaries) {
+        dictionaries.forEach(this::add);
+    }
+
+    /**
+     * Get the dictionary with the given id.
+     * @param id the id of the dictionary
+     * @return the dictionary or {@code null} if it is not in the cache
+     */
+    @Nullable
+    public CompressionDictionary get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Get the dictionary to use to compress records of the given type.
+     * @param recordTypeName the name of the record type
+     * @return the latest dictionary for that type or {@code null} if there is none
+     */
+    @Nullable
+    public CompressionDictionary getForRecordType(@Nonnull String recordTypeName) {
+        return byRecordType.get(recordTypeName);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
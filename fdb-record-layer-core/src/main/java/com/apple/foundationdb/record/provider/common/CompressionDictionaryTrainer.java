@@ -0,0 +1,154 @@
+/*
+ * CompressionDictionaryTrainer.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+import com.google.protobuf.ByteString;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset dictionary for DEFLATE from a sample of serialized records.
+ *
+ * <p>
+ * The dictionary is made of the runs of bytes that appear in more than one sample, found by counting how many
+ * samples contain each eight byte sequence. Runs are chosen by how many bytes of the samples they cover, and the
+ * most useful are placed last, since DEFLATE encodes nearer matches more cheaply. Only the last 32 KB of a dictionary
+ * can be used by DEFLATE.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class CompressionDictionaryTrainer {
+    public static final int DEFAULT_MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int GRAM_LENGTH = 8;
+
+    private CompressionDictionaryTrainer() {
+    }
+
+    private static long gram(@Nonnull byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < GRAM_LENGTH; i++) {
+            value = (value << 8) | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Train a dictionary.
+     * @param samples the serialized forms of some records
+     * @param maxDictionarySize the maximum size of the dictionary
+     * @return the dictionary, which is empty if the samples have nothing in common
+     */
+    @Nonnull
+    public static byte[] train(@Nonnull Collection<byte[]> samples, int maxDictionarySize) {
+        // The number of samples that contain each sequence.
+        final Map<Long, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            final Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM_LENGTH <= sample.length; i++) {
+                final long gram = gram(sample, i);
+                if (seen.add(gram)) {
+                    counts.merge(gram, 1, Integer::sum);
+                }
+            }
+        }
+
+        // Maximal runs of common sequences, each scored by how much of the samples they would cover.
+        final Map<ByteString, Long> segments = new HashMap<>();
+        for (byte[] sample : samples) {
+            int i = 0;
+            while (i + GRAM_LENGTH <= sample.length) {
+                if (counts.get(gram(sample, i)) < 2) {
+                    i++;
+                    continue;
+                }
+                final int start = i;
+                int minCount = Integer.MAX_VALUE;
+                while (i + GRAM_LENGTH <= sample.length) {
+                    final int count = counts.get(gram(sample, i));
+                    if (count < 2) {
+                        break;
+                    }
+                    minCount = Math.min(minCount, count);
+                    i++;
+                }
+                final int end = i - 1 + GRAM_LENGTH;
+                final ByteString segment = ByteString.copyFrom(sample, start, end - start);
+                segments.merge(segment, (long)minCount * segment.size(), Math::max);
+            }
+        }
+
+        final List<Map.Entry<ByteString, Long>> ranked = new ArrayList<>(segments.entrySet());
+        ranked.sort(Map.Entry.<ByteString, Long>comparingByValue().reversed());
+        final byte[] selected = new byte[maxDictionarySize];
+        int selectedLength = 0;
+        final List<byte[]> chosen = new ArrayList<>();
+        for (Map.Entry<ByteString, Long> entry : ranked) {
+            final byte[] segment = entry.getKey().toByteArray();
+            if (selectedLength + segment.length > maxDictionarySize) {
+                continue;
+            }
+            // Already covered by a more useful segment.
+            if (contains(selected, selectedLength, segment)) {
+                continue;
+            }
+            System.arraycopy(segment, 0, selected, selectedLength, segment.length);
+            selectedLength += segment.length;
+            chosen.add(segment);
+        }
+
+        // Most useful last.
+        final byte[] dictionary = new byte[selectedLength];
+        int position = 0;
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            final byte[] segment = chosen.get(i);
+            System.arraycopy(segment, 0, dictionary, position, segment.length);
+            position += segment.length;
+        }
+        return dictionary;
+    }
+
+    private static boolean contains(@Nonnull byte[] data, int length, @Nonnull byte[] target) {
+        for (int i = 0; i + target.length <= length; i++) {
+            if (matchesAt(data, i, target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAt(@Nonnull byte[] data, int offset, @Nonnull byte[] target) {
+        for (int j = 0; j < target.length; j++) {
+            if (data[offset + j] != target[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
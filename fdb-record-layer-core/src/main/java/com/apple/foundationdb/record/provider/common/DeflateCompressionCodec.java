@@ -0,0 +1,189 @@
+/*
+ * DeflateCompressionCodec.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link CompressionCodec} using the DEFLATE algorithm of zlib, through {@link Deflater} and {@link Inflater}.
+ *
+ * <p>
+ * Since each {@link Deflater} and {@link Inflater} holds native memory, they are reused from a {@link MappedPool}
+ * (keyed by compression level) rather than created and ended for each record.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class DeflateCompressionCodec implements CompressionCodec {
+    public static final int CODEC_ID = 1;
+    public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_COMPRESSION;
+    public static final DeflateCompressionCodec DEFAULT = new DeflateCompressionCodec(DEFAULT_COMPRESSION_LEVEL);
+
+    protected static final MappedPool<Integer, Deflater, RuntimeException> DEFLATER_POOL = new MappedPool<>(Deflater::new);
+    // Keyed by the nowrap flag, which is always false.
+    protected static final MappedPool<Boolean, Inflater, RuntimeException> INFLATER_POOL = new MappedPool<>(Inflater::new);
+
+    private final int compressionLevel;
+
+    /**
+     * Create a new codec.
+     * @param compressionLevel the {@link Deflater} compression level (0-9)
+     */
+    public DeflateCompressionCodec(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @Override
+    public int getCodecId() {
+        return CODEC_ID;
+    }
+
+    @Override
+    public int compress(@Nonnull byte[] input, int inputOffset, int inputLength,
+                        @Nonnull byte[] output, int outputOffset, int maxOutputLength) {
+        return compress(null, input, inputOffset, inputLength, output, outputOffset, maxOutputLength);
+    }
+
+    /**
+     * Compress some data using a preset dictionary.
+     * @param dictionary the preset dictionary or {@code null} for none
+     * @param input the array containing the data to compress
+     * @param inputOffset the offset of the data in {@code input}
+     * @param inputLength the length of the data
+     * @param output the array to write the compressed data into
+     * @param outputOffset the offset in {@code output} at which to start writing
+     * @param maxOutputLength the most that may be written to {@code output}
+     * @return the length of the compressed data or {@code -1} if it would not fit within {@code maxOutputLength}
+     * @see CompressionDictionary
+     */
+    public int compress(@Nullable byte[] dictionary,
+                        @Nonnull byte[] input, int inputOffset, int inputLength,
+                        @Nonnull byte[] output, int outputOffset, int maxOutputLength) {
+        final Deflater compressor = DEFLATER_POOL.poll(compressionLevel);
+        boolean reusable = false;
+        try {
+            if (dictionary != null) {
+                compressor.setDictionary(dictionary);
+            }
+            compressor.setInput(input, inputOffset, inputLength);
+            final int compressedLength = compressor.deflate(output, outputOffset, maxOutputLength, Deflater.FULL_FLUSH);
+            compressor.reset();
+            reusable = true;
+            // If the buffer was filled, there may be more, and it is pointless to compress anyway.
+            return compressedLength == maxOutputLength ? -1 : compressedLength;
+        } finally {
+            if (!reusable || !DEFLATER_POOL.offer(compressionLevel, compressor)) {
+                compressor.end();
+            }
+        }
+    }
+
+    @Override
+    public void decompress(@Nonnull byte[] input, int inputOffset, int inputLength,
+                           @Nonnull byte[] output, int outputOffset, int outputLength) throws DataFormatException {
+        decompress(null, input, inputOffset, inputLength, output, outputOffset, outputLength);
+    }
+
+    @Override
+    public void decompress(@Nonnull ChunkedBytes input,
+                           @Nonnull byte[] output, int outputOffset, int outputLength) throws DataFormatException {
+        if (input.getChunkCount() == 1) {
+            decompress(input.getChunkArray(0), input.getChunkOffset(0), input.getChunkLength(0), output, outputOffset, outputLength);
+            return;
+        }
+        final Inflater decompressor = INFLATER_POOL.poll(false);
+        boolean reusable = false;
+        try {
+            int inflated = 0;
+            for (int i = 0; i < input.getChunkCount(); i++) {
+                decompressor.setInput(input.getChunkArray(i), input.getChunkOffset(i), input.getChunkLength(i));
+                while (!decompressor.needsInput() && inflated < outputLength) {
+                    final int count = decompressor.inflate(output, outputOffset + inflated, outputLength - inflated);
+                    if (count == 0) {
+                        if (decompressor.needsDictionary()) {
+                            throw new DataFormatException("compressed with a dictionary");
+                        }
+                        // Finished, with input left over, which the length check below rejects.
+                        break;
+                    }
+                    inflated += count;
+                }
+            }
+            if (inflated != outputLength) {
+                throw new DataFormatException("decompressed to " + inflated + " bytes rather than " + outputLength);
+            }
+            decompressor.reset();
+            reusable = true;
+        } finally {
+            if (!reusable || !INFLATER_POOL.offer(false, decompressor)) {
+                decompressor.end();
+            }
+        }
+    }
+
+    /**
+     * Decompress some data compressed with a preset dictionary.
+     * @param dictionary the preset dictionary that the data was compressed with or {@code null} for none
+     * @param input the array containing the compressed data
+     * @param inputOffset the offset of the compressed data in {@code input}
+     * @param inputLength the length of the compressed data
+     * @param output the array to write the decompressed data into
+     * @param outputOffset the offset in {@code output} at which to start writing
+     * @param outputLength the length of the data when decompressed
+     * @throws DataFormatException if the compressed data is not valid or was compressed with a different dictionary
+     */
+    public void decompress(@Nullable byte[] dictionary,
+                           @Nonnull byte[] input, int inputOffset, int inputLength,
+                           @Nonnull byte[] output, int outputOffset, int outputLength) throws DataFormatException {
+        final Inflater decompressor = INFLATER_POOL.poll(false);
+        boolean reusable = false;
+        try {
+            decompressor.setInput(input, inputOffset, inputLength);
+            int inflated = decompressor.inflate(output, outputOffset, outputLength);
+            if (decompressor.needsDictionary()) {
+                if (dictionary == null) {
+                    throw new DataFormatException("compressed with a dictionary");
+                }
+                try {
+                    decompressor.setDictionary(dictionary);
+                } catch (IllegalArgumentException ex) {
+                    throw new DataFormatException("compressed with a different dictionary");
+                }
+                decompressor.inflate(output, outputOffset + inflated, outputLength - inflated);
+            }
+            decompressor.reset();
+            reusable = true;
+        } finally {
+            if (!reusable || !INFLATER_POOL.offer(false, decompressor)) {
+                decompressor.end();
+            }
+        }
+    }
+}
@@ -26,11 +26,13 @@ import com.apple.foundationdb.record.logging.KeyValueLogMessage;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.metadata.RecordType;
 import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.google.protobuf.UnknownFieldSet;
+import com.google.protobuf.WireFormat;
 import com.apple.foundationdb.annotation.SpotBugsSuppressWarnings;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
@@ -39,6 +41,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -115,12 +119,122 @@ public class DynamicMessageRecordSerializer implements RecordSerializer<Message>
         }
     }
 
+    @Nonnull
+    @Override
+    public Message deserialize(@Nonnull final RecordMetaData metaData,
+                               @Nonnull final Tuple primaryKey,
+                               @Nonnull final ChunkedBytes serialized,
+                               @Nullable StoreTimer timer) {
+        final long startTime = System.nanoTime();
+        try {
+            final Descriptors.Descriptor unionDescriptor = metaData.getUnionDescriptor();
+            final DynamicMessage unionMessage = validateUnion(deserializeFromChunks(unionDescriptor, serialized), primaryKey, metaData.getVersion());
+            return getUnionField(unionMessage, primaryKey).getRight();
+        } finally {
+            if (timer != null) {
+                timer.recordSinceNanoTime(Events.DESERIALIZE_PROTOBUF_RECORD, startTime);
+            }
+        }
+    }
+
+    /**
+     * Deserialize only the given fields of a record. This finds the record within the union message and then
+     * copies just the bytes of the wanted fields into a new message, skipping over the others without parsing them.
+     * If the union message is not in the expected form, it is deserialized in full, which reports the problem.
+     */
+    @Nonnull
+    @Override
+    public Message deserializePartial(@Nonnull final RecordMetaData metaData,
+                                      @Nonnull final Tuple primaryKey,
+                                      @Nonnull final byte[] serialized,
+                                      @Nonnull final Set<String> fieldNames,
+                                      @Nullable StoreTimer timer) {
+        final long startTime = System.nanoTime();
+        final Descriptors.Descriptor unionDescriptor = metaData.getUnionDescriptor();
+        Message message = null;
+        try {
+            message = deserializeFields(unionDescriptor, serialized, fieldNames);
+        } catch (IOException ex) {
+            throw new RecordSerializationException("Error reading from byte array", ex)
+                    .addLogInfo("recordType", unionDescriptor.getName())
+                    .addLogInfo("primaryKey", primaryKey);
+        } finally {
+            if (timer != null) {
+                timer.recordSinceNanoTime(Events.DESERIALIZE_PARTIAL_PROTOBUF_RECORD, startTime);
+            }
+        }
+        return message != null ? message : deserialize(metaData, primaryKey, serialized, timer);
+    }
+
+    @Nullable
+    protected DynamicMessage deserializeFields(@Nonnull final Descriptors.Descriptor unionDescriptor,
+                                               @Nonnull final byte[] serialized,
+                                               @Nonnull final Set<String> fieldNames) throws IOException {
+        // Find the one record field of the union without parsing it.
+        final CodedInputStream unionInput = CodedInputStream.newInstance(serialized);
+        Descriptors.FieldDescriptor unionField = null;
+        int recordOffset = 0;
+        int recordLength = 0;
+        while (true) {
+            final int tag = unionInput.readTag();
+            if (tag == 0) {
+                break;
+            }
+            final Descriptors.FieldDescriptor field = unionDescriptor.findFieldByNumber(getTagFieldNumber(tag));
+            if (unionField != null || field == null || field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE ||
+                    getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                return null;
+            }
+            unionField = field;
+            recordLength = unionInput.readRawVarint32();
+            recordOffset = unionInput.getTotalBytesRead();
+            unionInput.skipRawBytes(recordLength);
+        }
+        if (unionField == null) {
+            return null;
+        }
+        final Descriptors.Descriptor recordDescriptor = unionField.getMessageType();
+
+        // Copy just the wanted fields, including every occurrence of repeated ones.
+        final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+        final CodedInputStream recordInput = CodedInputStream.newInstance(serialized, recordOffset, recordLength);
+        while (true) {
+            final int fieldStart = recordInput.getTotalBytesRead();
+            final int tag = recordInput.readTag();
+            if (tag == 0) {
+                break;
+            }
+            recordInput.skipField(tag);
+            final Descriptors.FieldDescriptor field = recordDescriptor.findFieldByNumber(getTagFieldNumber(tag));
+            if (field != null && fieldNames.contains(field.getName())) {
+                fieldBytes.write(serialized, recordOffset + fieldStart, recordInput.getTotalBytesRead() - fieldStart);
+            }
+        }
+        // Required fields that were not wanted are missing, so this is always partial.
+        return DynamicMessage.newBuilder(recordDescriptor).mergeFrom(fieldBytes.toByteArray()).buildPartial();
+    }
+
+    // Not all versions of WireFormat make these public.
+    private static int getTagWireType(int tag) {
+        return tag & 0x7;
+    }
+
+    private static int getTagFieldNumber(int tag) {
+        return tag >>> 3;
+    }
+
     @Nonnull
     protected DynamicMessage deserializeUnion(@Nonnull final Descriptors.Descriptor unionDescriptor,
                                               @Nonnull final Tuple primaryKey,
                                               @Nonnull final byte[] serialized,
                                               int metaDataVersion) {
-        final DynamicMessage unionMessage = deserializeFromBytes(unionDescriptor, serialized);
+        return validateUnion(deserializeFromBytes(unionDescriptor, serialized), primaryKey, metaDataVersion);
+    }
+
+    @Nonnull
+    protected DynamicMessage validateUnion(@Nonnull final DynamicMessage unionMessage,
+                                           @Nonnull final Tuple primaryKey,
+                                           int metaDataVersion) {
         final Map<Descriptors.FieldDescriptor, Object> allFields = unionMessage.getAllFields();
         final Map<Integer, UnknownFieldSet.Field> unknownFields = unionMessage.getUnknownFields().asMap();
         if (!(allFields.size() == 1 && unknownFields.isEmpty())) {
@@ -154,6 +268,22 @@ public class DynamicMessageRecordSerializer implements RecordSerializer<Message>
         }
     }
 
+    @Nonnull
+    protected DynamicMessage deserializeFromChunks(@Nonnull Descriptors.Descriptor storedDescriptor,
+                                                   @Nonnull ChunkedBytes serialized) {
+        try {
+            if (serialized.getChunkCount() == 1) {
+                return DynamicMessage.newBuilder(storedDescriptor)
+                        .mergeFrom(serialized.getChunkArray(0), serialized.getChunkOffset(0), serialized.getChunkLength(0))
+                        .build();
+            }
+            return DynamicMessage.parseFrom(storedDescriptor, serialized.newInputStream());
+        } catch (IOException ex) {
+            throw new RecordSerializationException("Error reading from byte array", ex)
+                    .addLogInfo("recordType", storedDescriptor.getName());
+        }
+    }
+
     @Nonnull
     protected Pair<Descriptors.FieldDescriptor, DynamicMessage> getUnionField(@Nonnull final DynamicMessage unionMessage,
                                                                               @Nonnull final Tuple primaryKey) {
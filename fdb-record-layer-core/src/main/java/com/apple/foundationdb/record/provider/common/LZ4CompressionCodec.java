@@ -0,0 +1,231 @@
+/*
+ * LZ4CompressionCodec.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * A {@link CompressionCodec} producing the LZ4 block format, which compresses less than DEFLATE but is much faster,
+ * particularly to decompress.
+ *
+ * <p>
+ * This is a plain Java implementation of the fast (not high compression) LZ4 compressor: it finds matches of at
+ * least four bytes through a single-entry hash table of recent positions and encodes them as LZ4 sequences, without
+ * any entropy coding. The output can be decompressed by any LZ4 block decompressor given the uncompressed length,
+ * which the serializer stores.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class LZ4CompressionCodec implements CompressionCodec {
+    public static final int CODEC_ID = 2;
+    public static final LZ4CompressionCodec INSTANCE = new LZ4CompressionCodec();
+
+    private static final int MIN_MATCH = 4;
+    // The format requires the last five bytes to be literals and the last match to start twelve bytes before the end.
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int RUN_MASK = 0x0f;
+    private static final int HASH_LOG = 12;
+    // Skip ahead faster through data that is not matching.
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    protected LZ4CompressionCodec() {
+    }
+
+    @Override
+    public int getCodecId() {
+        return CODEC_ID;
+    }
+
+    private static int readInt(@Nonnull byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public int compress(@Nonnull byte[] input, int inputOffset, int inputLength,
+                        @Nonnull byte[] output, int outputOffset, int maxOutputLength) {
+        final int inputEnd = inputOffset + inputLength;
+        final int outputEnd = outputOffset + maxOutputLength;
+        int op = outputOffset;
+        int anchor = inputOffset;
+        if (inputLength > MF_LIMIT) {
+            final int[] table = HASH_TABLE.get();
+            Arrays.fill(table, -1);
+            final int matchStartLimit = inputEnd - MF_LIMIT;
+            final int matchEndLimit = inputEnd - LAST_LITERALS;
+            int ip = inputOffset;
+            while (ip < matchStartLimit) {
+                final int sequence = readInt(input, ip);
+                final int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < inputOffset || ip - ref > MAX_OFFSET || readInt(input, ref) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+                while (ip > anchor && ref > inputOffset && input[ip - 1] == input[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchEndLimit && input[ip + matchLength] == input[ref + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(input, anchor, ip - anchor, ip - ref, matchLength, output, op, outputEnd);
+                if (op < 0) {
+                    return -1;
+                }
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+        op = writeSequence(input, anchor, inputEnd - anchor, 0, 0, output, op, outputEnd);
+        return op < 0 ? -1 : op - outputOffset;
+    }
+
+    /**
+     * Write some literals followed by a match, or just literals if {@code matchLength} is zero.
+     * @return the new output position or {@code -1} if it does not fit
+     */
+    private static int writeSequence(@Nonnull byte[] input, int literalStart, int literalLength, int matchOffset, int matchLength,
+                                     @Nonnull byte[] output, int op, int outputEnd) {
+        final int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+        final int needed = 1 + literalLength / 255 + 1 + literalLength + (matchLength == 0 ? 0 : 2 + matchCode / 255 + 1);
+        // Filling the output exactly counts as not fitting, as with Deflater.
+        if (needed >= outputEnd - op) {
+            return -1;
+        }
+        final int tokenPosition = op++;
+        int token;
+        if (literalLength >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            op = writeLength(literalLength - RUN_MASK, output, op);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(input, literalStart, output, op, literalLength);
+        op += literalLength;
+        if (matchLength != 0) {
+            output[op++] = (byte)matchOffset;
+            output[op++] = (byte)(matchOffset >>> 8);
+            if (matchCode >= RUN_MASK) {
+                token |= RUN_MASK;
+                op = writeLength(matchCode - RUN_MASK, output, op);
+            } else {
+                token |= matchCode;
+            }
+        }
+        output[tokenPosition] = (byte)token;
+        return op;
+    }
+
+    private static int writeLength(int length, @Nonnull byte[] output, int op) {
+        while (length >= 255) {
+            output[op++] = (byte)255;
+            length -= 255;
+        }
+        output[op++] = (byte)length;
+        return op;
+    }
+
+    @Override
+    public void decompress(@Nonnull byte[] input, int inputOffset, int inputLength,
+                           @Nonnull byte[] output, int outputOffset, int outputLength) throws DataFormatException {
+        final int inputEnd = inputOffset + inputLength;
+        final int outputEnd = outputOffset + outputLength;
+        int ip = inputOffset;
+        int op = outputOffset;
+        while (true) {
+            if (ip >= inputEnd) {
+                throw new DataFormatException("truncated LZ4 data");
+            }
+            final int token = input[ip++] & 0xff;
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int b;
+                do {
+                    if (ip >= inputEnd) {
+                        throw new DataFormatException("truncated LZ4 data");
+                    }
+                    b = input[ip++] & 0xff;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > inputEnd - ip || literalLength > outputEnd - op) {
+                throw new DataFormatException("LZ4 literals out of bounds");
+            }
+            System.arraycopy(input, ip, output, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == inputEnd) {
+                // The last sequence has only literals.
+                break;
+            }
+            if (inputEnd - ip < 2) {
+                throw new DataFormatException("truncated LZ4 data");
+            }
+            final int matchOffset = (input[ip] & 0xff) | (input[ip + 1] & 0xff) << 8;
+            ip += 2;
+            if (matchOffset == 0 || matchOffset > op - outputOffset) {
+                throw new DataFormatException("LZ4 match offset out of bounds");
+            }
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int b;
+                do {
+                    if (ip >= inputEnd) {
+                        throw new DataFormatException("truncated LZ4 data");
+                    }
+                    b = input[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > outputEnd - op) {
+                throw new DataFormatException("LZ4 match out of bounds");
+            }
+            int ref = op - matchOffset;
+            if (matchOffset >= matchLength) {
+                System.arraycopy(output, ref, output, op, matchLength);
+                op += matchLength;
+            } else {
+                // Overlapping copy repeats the most recent bytes.
+                for (int i = 0; i < matchLength; i++) {
+                    output[op++] = output[ref++];
+                }
+            }
+        }
+        if (op != outputEnd) {
+            throw new DataFormatException("LZ4 data does not have expected length");
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.google.protobuf.UninitializedMessageException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.function.Supplier;
 
 /**
@@ -84,8 +85,6 @@ public abstract class MessageBuilderRecordSerializerBase<M extends Message, U ex
 
     @Nonnull
     @Override
-    @SuppressWarnings({"unchecked", "squid:S1193", "PMD.AvoidInstanceofChecksInCatchClause", // exception type checking is less clunky
-                       "PMD.PreserveStackTrace"})
     public M deserialize(@Nonnull RecordMetaData metaData,
                          @Nonnull Tuple primaryKey,
                          @Nonnull byte[] serialized,
@@ -100,21 +99,46 @@ public abstract class MessageBuilderRecordSerializerBase<M extends Message, U ex
                         .addLogInfo("unionDescriptorFullName", metaData.getUnionDescriptor().getFullName())
                         .addLogInfo(LogMessageKeys.META_DATA_VERSION, metaData.getVersion());
             }
-            U storedRecord;
             try {
-                storedRecord = (U) unionBuilder.mergeFrom(serialized).build();
-            } catch (InvalidProtocolBufferException | UninitializedMessageException ex) {
-                InvalidProtocolBufferException iex;
-                if (ex instanceof InvalidProtocolBufferException) {
-                    iex = (InvalidProtocolBufferException) ex;
-                } else {
-                    iex = ((UninitializedMessageException) ex).asInvalidProtocolBufferException();
-                }
-                throw new RecordSerializationException("Error reading from byte array", iex)
+                unionBuilder.mergeFrom(serialized);
+            } catch (InvalidProtocolBufferException ex) {
+                throw readError(metaData, primaryKey, ex);
+            }
+            return buildUnion(metaData, primaryKey, unionDescriptor, unionBuilder);
+        } finally {
+            if (timer != null) {
+                timer.recordSinceNanoTime(Events.DESERIALIZE_PROTOBUF_RECORD, startTime);
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    @API(API.Status.EXPERIMENTAL)
+    public M deserialize(@Nonnull RecordMetaData metaData,
+                         @Nonnull Tuple primaryKey,
+                         @Nonnull ChunkedBytes serialized,
+                         @Nullable StoreTimer timer) {
+        long startTime = System.nanoTime();
+        try {
+            Descriptors.Descriptor unionDescriptor = metaData.getUnionDescriptor();
+            B unionBuilder = builderSupplier.get();
+            if (unionBuilder.getDescriptorForType() != unionDescriptor) {
+                throw new RecordSerializationException("Builder does not match union type")
                         .addLogInfo(LogMessageKeys.PRIMARY_KEY, primaryKey)
+                        .addLogInfo("unionDescriptorFullName", metaData.getUnionDescriptor().getFullName())
                         .addLogInfo(LogMessageKeys.META_DATA_VERSION, metaData.getVersion());
             }
-            return getUnionField(unionDescriptor, storedRecord);
+            try {
+                if (serialized.getChunkCount() == 1) {
+                    unionBuilder.mergeFrom(serialized.getChunkArray(0), serialized.getChunkOffset(0), serialized.getChunkLength(0));
+                } else {
+                    unionBuilder.mergeFrom(serialized.newInputStream());
+                }
+            } catch (IOException ex) {
+                throw readError(metaData, primaryKey, ex);
+            }
+            return buildUnion(metaData, primaryKey, unionDescriptor, unionBuilder);
         } finally {
             if (timer != null) {
                 timer.recordSinceNanoTime(Events.DESERIALIZE_PROTOBUF_RECORD, startTime);
@@ -122,6 +146,28 @@ public abstract class MessageBuilderRecordSerializerBase<M extends Message, U ex
         }
     }
 
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private M buildUnion(@Nonnull RecordMetaData metaData, @Nonnull Tuple primaryKey,
+                         @Nonnull Descriptors.Descriptor unionDescriptor, @Nonnull B unionBuilder) {
+        U storedRecord;
+        try {
+            storedRecord = (U) unionBuilder.build();
+        } catch (UninitializedMessageException ex) {
+            throw readError(metaData, primaryKey, ex.asInvalidProtocolBufferException());
+        }
+        return getUnionField(unionDescriptor, storedRecord);
+    }
+
+    @Nonnull
+    private static RecordSerializationException readError(@Nonnull RecordMetaData metaData, @Nonnull Tuple primaryKey,
+                                                          @Nonnull IOException ex) {
+        final RecordSerializationException error = new RecordSerializationException("Error reading from byte array", ex);
+        error.addLogInfo(LogMessageKeys.PRIMARY_KEY, primaryKey)
+                .addLogInfo(LogMessageKeys.META_DATA_VERSION, metaData.getVersion());
+        return error;
+    }
+
     @Nonnull
     protected abstract M getUnionField(@Nonnull Descriptors.Descriptor unionDescriptor,
                                        @Nonnull U storedRecord);
@@ -28,6 +28,7 @@ import com.google.protobuf.Message;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Set;
 
 /**
  * A converter between a Protobuf record and a byte string stored in one or more values in the FDB key-value store.
@@ -76,6 +77,91 @@ public interface RecordSerializer<M extends Message> {
     M deserialize(@Nonnull RecordMetaData metaData, @Nonnull Tuple primaryKey,
                   @Nonnull byte[] serialized, @Nullable StoreTimer timer);
 
+    /**
+     * Convert bytes held in several arrays, such as the values of the keys of a split record, to a Protobuf record.
+     * This should give the same result as {@link #deserialize(RecordMetaData, Tuple, byte[], StoreTimer) deserialize()}
+     * on the concatenation of the arrays.
+     *
+     * <p>
+     * The default implementation joins the arrays into one. Serializers that can read their input piecemeal should
+     * override it to avoid that copy.
+     * </p>
+     *
+     * @param metaData the store's meta-data
+     * @param primaryKey the primary key of the record
+     * @param serialized the serialized bytes
+     * @param timer a timer used to instrument deserialization
+     * @return the deserialized record
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default M deserialize(@Nonnull RecordMetaData metaData, @Nonnull Tuple primaryKey,
+                          @Nonnull ChunkedBytes serialized, @Nullable StoreTimer timer) {
+        return deserialize(metaData, primaryKey, serialized.toByteArray(), timer);
+    }
+
+    /**
+     * Convert a byte array to a Protobuf record that need only have some of its fields. The result is a message of
+     * the record's type in which the named top-level fields have the values that {@link #deserialize deserialize()}
+     * would give them, while any other field may be missing. This allows code that only needs to look at a few fields
+     * of large records, such as a query filter, to avoid parsing the rest of them.
+     *
+     * <p>
+     * The default implementation parses the whole record.
+     * </p>
+     *
+     * @param metaData the store's meta-data
+     * @param primaryKey the primary key of the record
+     * @param serialized the serialized bytes
+     * @param fieldNames the names of the top-level fields of the record that need to be present
+     * @param timer a timer used to instrument deserialization
+     * @return the deserialized record, possibly with only some fields
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default M deserializePartial(@Nonnull RecordMetaData metaData, @Nonnull Tuple primaryKey,
+                                 @Nonnull byte[] serialized, @Nonnull Set<String> fieldNames,
+                                 @Nullable StoreTimer timer) {
+        return deserialize(metaData, primaryKey, serialized, timer);
+    }
+
+    /**
+     * Undo any transformation, such as compression or encryption, of the serialized bytes of a record, giving bytes that
+     * {@link #getCleartextSerializer()} deserializes. This allows a record that will be deserialized several times,
+     * in whole or in part, to only be transformed back once.
+     *
+     * <p>
+     * The default implementation, for serializers that do not transform their output, returns the bytes as they are.
+     * </p>
+     *
+     * @param metaData the store's meta-data
+     * @param primaryKey the primary key of the record
+     * @param serialized the serialized bytes
+     * @param timer a timer used to instrument deserialization
+     * @return the serialized bytes without any transformation
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default byte[] toCleartext(@Nonnull RecordMetaData metaData, @Nonnull Tuple primaryKey,
+                               @Nonnull byte[] serialized, @Nullable StoreTimer timer) {
+        return serialized;
+    }
+
+    /**
+     * Get the serializer that deserializes the bytes returned by {@link #toCleartext toCleartext()}.
+     *
+     * <p>
+     * The default implementation returns this serializer.
+     * </p>
+     *
+     * @return a serializer for untransformed bytes
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default RecordSerializer<M> getCleartextSerializer() {
+        return this;
+    }
+
     /**
      * Convert this typed record serializer to an untyped one.
      *
@@ -105,6 +191,8 @@ public interface RecordSerializer<M extends Message> {
         SERIALIZE_PROTOBUF_RECORD("serialize protobuf record"),
         /** The amount of time spent deserializing a Protobuf record from bytes. */
         DESERIALIZE_PROTOBUF_RECORD("deserialize protobuf record"),
+        /** The amount of time spent deserializing only some fields of a Protobuf record from bytes. */
+        DESERIALIZE_PARTIAL_PROTOBUF_RECORD("deserialize partial protobuf record"),
         /** The amount of time spent compressing serialized bytes. */
         COMPRESS_SERIALIZED_RECORD("compress serialized record"),
         /** The amount of time spent decompressing serialized bytes. */
@@ -36,10 +36,14 @@ import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 /**
  * A {@link RecordSerializer} implementation that transforms the bytes produced
@@ -83,33 +87,75 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
     protected static final int ENCODING_CLEAR = 2;
     @VisibleForTesting
     protected static final int ENCODING_COMPRESSED = 4;
+    // Only together with ENCODING_ENCRYPTED: the encrypted data starts with the id of the key.
+    @VisibleForTesting
+    @API(API.Status.EXPERIMENTAL)
+    protected static final int ENCODING_KEYED_ENCRYPTION = 8;
     // TODO: Can remove this after transition to write everything with _CLEAR.
     protected static final int ENCODING_PROTO_MESSAGE_FIELD = 0x02;
     protected static final int ENCODING_PROTO_TYPE_MASK = 0x07;
-    protected static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_COMPRESSION;
+    protected static final int DEFAULT_COMPRESSION_LEVEL = DeflateCompressionCodec.DEFAULT_COMPRESSION_LEVEL;
     protected static final int MIN_COMPRESSION_VERSION = 1;
-    protected static final int MAX_COMPRESSION_VERSION = 1;
+    protected static final int MAX_COMPRESSION_VERSION = 127;
+    // DEFLATE with a preset dictionary, whose id follows the uncompressed length.
+    @API(API.Status.EXPERIMENTAL)
+    protected static final int DICTIONARY_COMPRESSION_VERSION = 3;
 
     @Nonnull
     protected final RecordSerializer<M> inner;
     protected final boolean compressWhenSerializing;
     protected final int compressionLevel;
     protected final boolean encryptWhenSerializing;
+    @Nonnull
+    protected final CompressionCodec compressionCodec;
+    // Indexed by codec id.
+    @Nonnull
+    protected final CompressionCodec[] decompressionCodecs;
+    @Nullable
+    protected final CompressionDictionaryCache compressionDictionaries;
+    @Nonnull
+    protected final DeflateCompressionCodec dictionaryCodec;
 
     protected TransformedRecordSerializer(@Nonnull RecordSerializer<M> inner,
                                           boolean compressWhenSerializing,
                                           int compressionLevel,
                                           boolean encryptWhenSerializing) {
+        this(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing, null, Collections.emptyList(), null);
+    }
+
+    @API(API.Status.EXPERIMENTAL)
+    protected TransformedRecordSerializer(@Nonnull RecordSerializer<M> inner,
+                                          boolean compressWhenSerializing,
+                                          int compressionLevel,
+                                          boolean encryptWhenSerializing,
+                                          @Nullable CompressionCodec compressionCodec,
+                                          @Nonnull Collection<CompressionCodec> additionalCodecs,
+                                          @Nullable CompressionDictionaryCache compressionDictionaries) {
         this.inner = inner;
         this.compressWhenSerializing = compressWhenSerializing;
         this.compressionLevel = compressionLevel;
         this.encryptWhenSerializing = encryptWhenSerializing;
+        if (compressionCodec == null) {
+            compressionCodec = compressionLevel == DEFAULT_COMPRESSION_LEVEL ? DeflateCompressionCodec.DEFAULT : new DeflateCompressionCodec(compressionLevel);
+        }
+        this.compressionCodec = compressionCodec;
+        this.decompressionCodecs = new CompressionCodec[MAX_COMPRESSION_VERSION + 1];
+        // The level does not matter for decompression.
+        decompressionCodecs[DeflateCompressionCodec.CODEC_ID] = DeflateCompressionCodec.DEFAULT;
+        for (CompressionCodec codec : additionalCodecs) {
+            decompressionCodecs[codec.getCodecId()] = codec;
+        }
+        decompressionCodecs[compressionCodec.getCodecId()] = compressionCodec;
+        this.compressionDictionaries = compressionDictionaries;
+        this.dictionaryCodec = compressionCodec instanceof DeflateCompressionCodec ? (DeflateCompressionCodec)compressionCodec : new DeflateCompressionCodec(compressionLevel);
     }
 
     @SpotBugsSuppressWarnings("EI_EXPOSE_REP")
     protected static class TransformState {
         public boolean compressed;
         public boolean encrypted;
+        @API(API.Status.EXPERIMENTAL)
+        public boolean keyed;
 
         @Nonnull public byte[] data;
         public int offset;
@@ -122,6 +168,7 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         public TransformState(@Nonnull byte[] data, int offset, int length) {
             this.compressed = false;
             this.encrypted = false;
+            this.keyed = false;
             this.data = data;
             this.offset = offset;
             this.length = length;
@@ -157,19 +204,16 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
 
         byte[] compressed = new byte[state.length];
 
-        // Write compression version number and uncompressed size as these
-        // meta-data are needed when decompressing.
-        compressed[0] = (byte) MAX_COMPRESSION_VERSION;
+        // Write compression version number (which identifies the codec) and uncompressed
+        // size as these meta-data are needed when decompressing.
+        compressed[0] = (byte) compressionCodec.getCodecId();
         ByteBuffer.wrap(compressed, 1, 4).order(ByteOrder.BIG_ENDIAN).putInt(state.length);
 
         // Actually compress. If we end up filling the buffer, then just
         // return the uncompressed value because it's pointless to compress
         // if we actually increase the amount of data.
-        Deflater compressor = new Deflater(compressionLevel);
-        compressor.setInput(state.data, state.offset, state.length);
-        int compressedLength = compressor.deflate(compressed, 5, compressed.length - 5, Deflater.FULL_FLUSH);
-        compressor.end();
-        if (compressedLength == compressed.length - 5) {
+        int compressedLength = compressionCodec.compress(state.data, state.offset, state.length, compressed, 5, compressed.length - 5);
+        if (compressedLength < 0) {
             state.compressed = false;
         } else {
             state.compressed = true;
@@ -184,6 +228,42 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         }
     }
 
+    /**
+     * Compress the serialized form of a record, using the dictionary for its record type if there is one.
+     * @param state the serialized record
+     * @param recordType the type of the record
+     * @param timer a timer to record the compression
+     */
+    @API(API.Status.EXPERIMENTAL)
+    protected void compress(@Nonnull TransformState state, @Nonnull RecordType recordType, @Nullable StoreTimer timer) {
+        final CompressionDictionary dictionary = compressionDictionaries == null ? null : compressionDictionaries.getForRecordType(recordType.getName());
+        if (dictionary == null) {
+            compress(state, timer);
+            return;
+        }
+        long startTime = System.nanoTime();
+
+        // Like compress, but with the id of the dictionary after the uncompressed size.
+        byte[] compressed = new byte[state.length];
+        compressed[0] = (byte) DICTIONARY_COMPRESSION_VERSION;
+        ByteBuffer.wrap(compressed, 1, 8).order(ByteOrder.BIG_ENDIAN).putInt(state.length).putInt(dictionary.getId());
+        int compressedLength = state.length <= 9 ? -1 :
+                               dictionaryCodec.compress(dictionary.getData(), state.data, state.offset, state.length, compressed, 9, compressed.length - 9);
+        if (compressedLength < 0) {
+            state.compressed = false;
+        } else {
+            state.compressed = true;
+            state.setDataArray(compressed, 0, compressedLength + 9);
+        }
+
+        if (timer != null) {
+            timer.recordSinceNanoTime(Events.COMPRESS_SERIALIZED_RECORD, startTime);
+            if (!state.compressed) {
+                timer.increment(Counts.ESCHEW_RECORD_COMPRESSION);
+            }
+        }
+    }
+
     protected void encrypt(@Nonnull TransformState state, @Nullable StoreTimer timer) throws GeneralSecurityException {
         throw new RecordSerializationException("this serializer cannot encrypt");
     }
@@ -199,7 +279,7 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         TransformState state = new TransformState(innerSerialized);
 
         if (compressWhenSerializing) {
-            compress(state, timer);
+            compress(state, recordType, timer);
         }
 
         if (encryptWhenSerializing) {
@@ -220,6 +300,9 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
             }
             if (state.encrypted) {
                 code = code | ENCODING_ENCRYPTED;
+                if (state.keyed) {
+                    code = code | ENCODING_KEYED_ENCRYPTION;
+                }
             }
         } else {
             code = ENCODING_CLEAR;
@@ -236,12 +319,17 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
     protected void decompress(@Nonnull TransformState state, @Nullable StoreTimer timer) throws DataFormatException {
         long startTime = System.nanoTime();
 
-        // At the moment, there is only one compression version, so
-        // we after we've verified it is in the right range, we
-        // can just move on. If we ever introduce a new format version,
-        // we will need to make this code more complicated.
+        // The compression version identifies the codec, which must be one this serializer knows about.
         int compressionVersion = state.data[state.offset];
-        if (compressionVersion < MIN_COMPRESSION_VERSION || compressionVersion > MAX_COMPRESSION_VERSION) {
+        if (compressionVersion == DICTIONARY_COMPRESSION_VERSION) {
+            decompressWithDictionary(state);
+            if (timer != null) {
+                timer.recordSinceNanoTime(Events.DECOMPRESS_SERIALIZED_RECORD, startTime);
+            }
+            return;
+        }
+        CompressionCodec codec = compressionVersion < MIN_COMPRESSION_VERSION || compressionVersion > MAX_COMPRESSION_VERSION ? null : decompressionCodecs[compressionVersion];
+        if (codec == null) {
             throw new RecordSerializationException("unknown compression version")
                     .addLogInfo("compressionVersion", compressionVersion);
         }
@@ -249,10 +337,7 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         int decompressedLength = ByteBuffer.wrap(state.data, state.offset + 1, 4).order(ByteOrder.BIG_ENDIAN).getInt();
         byte[] decompressed = new byte[decompressedLength];
 
-        Inflater decompressor = new Inflater();
-        decompressor.setInput(state.data, state.offset + 5, state.length - 5);
-        decompressor.inflate(decompressed);
-        decompressor.end();
+        codec.decompress(state.data, state.offset + 5, state.length - 5, decompressed, 0, decompressedLength);
         state.setDataArray(decompressed);
 
         if (timer != null) {
@@ -260,21 +345,134 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         }
     }
 
+    private void decompressWithDictionary(@Nonnull TransformState state) throws DataFormatException {
+        ByteBuffer header = ByteBuffer.wrap(state.data, state.offset + 1, 8).order(ByteOrder.BIG_ENDIAN);
+        int decompressedLength = header.getInt();
+        int dictionaryId = header.getInt();
+        CompressionDictionary dictionary = compressionDictionaries == null ? null : compressionDictionaries.get(dictionaryId);
+        if (dictionary == null) {
+            throw new RecordSerializationException("unknown compression dictionary")
+                    .addLogInfo("dictionaryId", dictionaryId);
+        }
+        byte[] decompressed = new byte[decompressedLength];
+        dictionaryCodec.decompress(dictionary.getData(), state.data, state.offset + 9, state.length - 9, decompressed, 0, decompressedLength);
+        state.setDataArray(decompressed);
+    }
+
     protected void decrypt(@Nonnull TransformState state, @Nullable StoreTimer timer) throws GeneralSecurityException {
         throw new RecordSerializationException("this serializer cannot decrypt");
     }
 
     @Nonnull
     @Override
-    @SuppressWarnings("PMD.PreserveStackTrace")
     public M deserialize(@Nonnull RecordMetaData metaData,
                          @Nonnull Tuple primaryKey,
                          @Nonnull byte[] serialized,
                          @Nullable StoreTimer timer) {
+        return inner.deserialize(metaData, primaryKey, untransform(metaData, primaryKey, serialized, timer), timer);
+    }
+
+    /**
+     * Deserialize a record held in several arrays. If it is stored in the clear, the inner serializer reads it
+     * in place, and if it is only compressed, by a codec other than a dictionary, the codec decompresses it from
+     * the several arrays. Otherwise, they are joined first.
+     * @param metaData the store's meta-data
+     * @param primaryKey the primary key of the record
+     * @param serialized the serialized bytes
+     * @param timer a timer used to instrument deserialization
+     * @return the deserialized record
+     */
+    @Nonnull
+    @Override
+    @API(API.Status.EXPERIMENTAL)
+    public M deserialize(@Nonnull RecordMetaData metaData,
+                         @Nonnull Tuple primaryKey,
+                         @Nonnull ChunkedBytes serialized,
+                         @Nullable StoreTimer timer) {
+        final int encoding = serialized.byteAt(0);
+        if (encoding == ENCODING_CLEAR) {
+            return inner.deserialize(metaData, primaryKey, serialized.slice(1), timer);
+        }
+        if (encoding == ENCODING_COMPRESSED && serialized.size() > 6) {
+            final int compressionVersion = serialized.byteAt(1);
+            if (compressionVersion >= MIN_COMPRESSION_VERSION && compressionVersion != DICTIONARY_COMPRESSION_VERSION &&
+                    decompressionCodecs[compressionVersion] != null) {
+                final byte[] decompressed;
+                try {
+                    decompressed = decompress(decompressionCodecs[compressionVersion], serialized, timer);
+                } catch (DataFormatException ex) {
+                    throw new RecordSerializationException("decompression error", ex)
+                            .addLogInfo(LogMessageKeys.META_DATA_VERSION, metaData.getVersion())
+                            .addLogInfo(LogMessageKeys.PRIMARY_KEY, primaryKey);
+                }
+                return inner.deserialize(metaData, primaryKey, decompressed, timer);
+            }
+        }
+        return deserialize(metaData, primaryKey, serialized.toByteArray(), timer);
+    }
+
+    @Nonnull
+    private static byte[] decompress(@Nonnull CompressionCodec codec, @Nonnull ChunkedBytes serialized,
+                                     @Nullable StoreTimer timer) throws DataFormatException {
+        final long startTime = System.nanoTime();
+        // After the encoding and the compression version comes the uncompressed length.
+        int decompressedLength = 0;
+        for (int i = 2; i < 6; i++) {
+            decompressedLength = (decompressedLength << 8) | (serialized.byteAt(i) & 0xff);
+        }
+        final byte[] decompressed = new byte[decompressedLength];
+        codec.decompress(serialized.slice(6), decompressed, 0, decompressedLength);
+        if (timer != null) {
+            timer.recordSinceNanoTime(Events.DECOMPRESS_SERIALIZED_RECORD, startTime);
+        }
+        return decompressed;
+    }
+
+    @Nonnull
+    @Override
+    public M deserializePartial(@Nonnull RecordMetaData metaData,
+                                @Nonnull Tuple primaryKey,
+                                @Nonnull byte[] serialized,
+                                @Nonnull Set<String> fieldNames,
+                                @Nullable StoreTimer timer) {
+        return inner.deserializePartial(metaData, primaryKey, untransform(metaData, primaryKey, serialized, timer), fieldNames, timer);
+    }
+
+    @Nonnull
+    @Override
+    @API(API.Status.EXPERIMENTAL)
+    public byte[] toCleartext(@Nonnull RecordMetaData metaData,
+                              @Nonnull Tuple primaryKey,
+                              @Nonnull byte[] serialized,
+                              @Nullable StoreTimer timer) {
+        return inner.toCleartext(metaData, primaryKey, untransform(metaData, primaryKey, serialized, timer), timer);
+    }
+
+    @Nonnull
+    @Override
+    @API(API.Status.EXPERIMENTAL)
+    public RecordSerializer<M> getCleartextSerializer() {
+        return inner.getCleartextSerializer();
+    }
+
+    /**
+     * Undo any transformations done when serializing.
+     * @param metaData the store's meta-data
+     * @param primaryKey the primary key of the record
+     * @param serialized the serialized bytes
+     * @param timer a timer used to instrument deserialization
+     * @return the bytes of the record as serialized by the inner serializer
+     */
+    @Nonnull
+    @SuppressWarnings("PMD.PreserveStackTrace")
+    protected byte[] untransform(@Nonnull RecordMetaData metaData,
+                                 @Nonnull Tuple primaryKey,
+                                 @Nonnull byte[] serialized,
+                                 @Nullable StoreTimer timer) {
         int encoding = serialized[0];
         if (encoding != ENCODING_CLEAR && (encoding & ENCODING_PROTO_TYPE_MASK) == ENCODING_PROTO_MESSAGE_FIELD) {
             // TODO: Can remove this after transition to write everything with _CLEAR.
-            return inner.deserialize(metaData, primaryKey, serialized, timer);
+            return serialized;
         } else {
             TransformState state = new TransformState(serialized, 1, serialized.length - 1);
             if (encoding != ENCODING_CLEAR) {
@@ -283,8 +481,11 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
                 }
                 if ((encoding & ENCODING_ENCRYPTED) == ENCODING_ENCRYPTED) {
                     state.encrypted = true;
+                    if ((encoding & ENCODING_KEYED_ENCRYPTION) == ENCODING_KEYED_ENCRYPTION) {
+                        state.keyed = true;
+                    }
                 }
-                if ((encoding & ~(ENCODING_COMPRESSED | ENCODING_ENCRYPTED)) != 0) {
+                if ((encoding & ~(ENCODING_COMPRESSED | ENCODING_ENCRYPTED | (state.encrypted ? ENCODING_KEYED_ENCRYPTION : 0))) != 0) {
                     throw new RecordSerializationException("unrecognized transformation encoding")
                             .addLogInfo(LogMessageKeys.META_DATA_VERSION, metaData.getVersion())
                             .addLogInfo(LogMessageKeys.PRIMARY_KEY, primaryKey)
@@ -315,14 +516,31 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
                             .addLogInfo(LogMessageKeys.PRIMARY_KEY, primaryKey);
                 }
             }
-            return inner.deserialize(metaData, primaryKey, state.getDataArray(), timer);
+            return state.getDataArray();
         }
     }
 
     @Nonnull
     @Override
     public RecordSerializer<Message> widen() {
-        return new TransformedRecordSerializer<>(inner.widen(), compressWhenSerializing, compressionLevel, encryptWhenSerializing);
+        return new TransformedRecordSerializer<>(inner.widen(), compressWhenSerializing, compressionLevel, encryptWhenSerializing,
+                compressionCodec, getAdditionalCodecs(), compressionDictionaries);
+    }
+
+    /**
+     * Get the codecs that this serializer can decompress records with, other than the one it compresses with.
+     * @return the additional codecs
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    protected List<CompressionCodec> getAdditionalCodecs() {
+        final List<CompressionCodec> codecs = new ArrayList<>();
+        for (CompressionCodec codec : decompressionCodecs) {
+            if (codec != null && codec != compressionCodec) {
+                codecs.add(codec);
+            }
+        }
+        return codecs;
     }
 
     /**
@@ -367,6 +585,12 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         protected boolean compressWhenSerializing;
         protected int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
         protected boolean encryptWhenSerializing;
+        @Nullable
+        protected CompressionCodec compressionCodec;
+        @Nonnull
+        protected final List<CompressionCodec> additionalCodecs = new ArrayList<>();
+        @Nullable
+        protected CompressionDictionaryCache compressionDictionaries;
 
         protected Builder(@Nonnull RecordSerializer<M> inner) {
             this.inner = inner;
@@ -404,6 +628,65 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
             return this;
         }
 
+        /**
+         * Codec to use if compressing. By default, this is a {@link DeflateCompressionCodec} with the
+         * {@linkplain #setCompressionLevel(int) compression level}, which is how records were always compressed
+         * before codecs could be chosen. {@link LZ4CompressionCodec} is faster but compresses less.
+         * The serializer can always decompress records compressed with DEFLATE and with this codec; other codecs
+         * must be added with {@link #addDecompressionCodec}. So, when changing the codec of existing data,
+         * the new codec should first be added to every reader.
+         * Setting this does <i>not</i> automatically enable compression when serializing.
+         * @param compressionCodec the codec to compress with, or {@code null} for DEFLATE
+         * @return this <code>Builder</code>
+         */
+        @API(API.Status.EXPERIMENTAL)
+        public Builder<M> setCompressionCodec(@Nullable CompressionCodec compressionCodec) {
+            if (compressionCodec != null) {
+                checkCodecId(compressionCodec);
+            }
+            this.compressionCodec = compressionCodec;
+            return this;
+        }
+
+        /**
+         * Add a codec that records can be decompressed with, in addition to the one they are compressed with.
+         * @param codec a codec that might have compressed existing records
+         * @return this <code>Builder</code>
+         */
+        @API(API.Status.EXPERIMENTAL)
+        public Builder<M> addDecompressionCodec(@Nonnull CompressionCodec codec) {
+            checkCodecId(codec);
+            additionalCodecs.add(codec);
+            return this;
+        }
+
+        /**
+         * Dictionaries to use when compressing. If a dictionary has been trained for a record's type, it is compressed
+         * with DEFLATE using the latest such dictionary, rather than with the {@linkplain #setCompressionCodec codec},
+         * and the id of the dictionary is written before the compressed data. Every dictionary named by existing
+         * records must be in the cache to read them. Setting this does <i>not</i> automatically enable compression
+         * when serializing.
+         * @param compressionDictionaries the dictionaries to use or {@code null} for none
+         * @return this <code>Builder</code>
+         * @see com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore#trainCompressionDictionaryAsync
+         */
+        @API(API.Status.EXPERIMENTAL)
+        public Builder<M> setCompressionDictionaries(@Nullable CompressionDictionaryCache compressionDictionaries) {
+            this.compressionDictionaries = compressionDictionaries;
+            return this;
+        }
+
+        private static void checkCodecId(@Nonnull CompressionCodec codec) {
+            if (codec.getCodecId() == DICTIONARY_COMPRESSION_VERSION) {
+                throw new RecordCoreArgumentException("compression codec id is reserved")
+                        .addLogInfo("codecId", codec.getCodecId());
+            }
+            if (codec.getCodecId() < MIN_COMPRESSION_VERSION || codec.getCodecId() > MAX_COMPRESSION_VERSION) {
+                throw new RecordCoreArgumentException("compression codec id out of range")
+                        .addLogInfo("codecId", codec.getCodecId());
+            }
+        }
+
         /**
          * Whether to encrypt records after serializing. Should
          * compression and encryption both be set, then data
@@ -437,7 +720,10 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
                     inner,
                     compressWhenSerializing,
                     compressionLevel,
-                    encryptWhenSerializing
+                    encryptWhenSerializing,
+                    compressionCodec,
+                    additionalCodecs,
+                    compressionDictionaries
             );
         }
     }
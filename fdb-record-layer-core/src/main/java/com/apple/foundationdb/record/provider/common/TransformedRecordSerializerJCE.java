@@ -27,13 +27,30 @@ import com.google.protobuf.Message;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * An extension of {@link TransformedRecordSerializer} to use JCE to encrypt and decrypt records.
+ *
+ * <p>
+ * By default, records are encrypted with a single {@linkplain Builder#setEncryptionKey(Key) key} and
+ * {@linkplain Builder#setCipherName(String) cipher}, with a random IV before the encrypted data. Alternatively,
+ * several keys can each be {@linkplain Builder#addEncryptionKey(int, Key) given an id}, with
+ * {@linkplain Builder#setEncryptionKeyId(int) one of them} used to encrypt. Such records are encrypted with
+ * AES-GCM, which authenticates the data without padding it, and start with the id of the key, followed by a
+ * 12-byte IV. Records encrypted with any of the keys can then be read while new records are written with another,
+ * so that keys can be rotated without rewriting all the records at once. Records written in the first way can
+ * still be read, provided that key is also set.
+ * </p>
+ *
  * @param <M> type of {@link Message} that underlying records will use
  */
 @API(API.Status.UNSTABLE)
@@ -43,6 +60,12 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
     protected static final String DEFAULT_CIPHER = "AES/CBC/PKCS5Padding";
     protected static final int IV_SIZE = 16;
     protected static final MappedPool<String, Cipher, GeneralSecurityException> MAPPED_POOL = new MappedPool<>(Cipher::getInstance);
+    @API(API.Status.EXPERIMENTAL)
+    protected static final String KEYED_CIPHER = "AES/GCM/NoPadding";
+    @API(API.Status.EXPERIMENTAL)
+    protected static final int KEYED_IV_SIZE = 12;
+    @API(API.Status.EXPERIMENTAL)
+    protected static final int KEYED_TAG_BITS = 128;
 
     @Nullable
     protected final String cipherName;
@@ -50,6 +73,14 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
     protected final Key encryptionKey;
     @Nullable
     protected final SecureRandom secureRandom;
+    @Nonnull
+    protected final Map<Integer, Key> encryptionKeys;
+    @Nullable
+    protected final Integer encryptionKeyId;
+    // Keyed by key id, so that a cipher is initialized with the same key again, letting the provider
+    // reuse the key schedule it expanded last time.
+    @Nonnull
+    protected final MappedPool<Integer, Cipher, GeneralSecurityException> keyedCipherPool = new MappedPool<>(keyId -> Cipher.getInstance(KEYED_CIPHER));
 
     protected TransformedRecordSerializerJCE(@Nonnull RecordSerializer<M> inner,
                                              boolean compressWhenSerializing,
@@ -58,14 +89,53 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
                                              @Nullable String cipherName,
                                              @Nullable Key encryptionKey,
                                              @Nullable SecureRandom secureRandom) {
-        super(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing);
+        this(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing, null, Collections.emptyList(), null,
+                cipherName, encryptionKey, secureRandom);
+    }
+
+    @API(API.Status.EXPERIMENTAL)
+    protected TransformedRecordSerializerJCE(@Nonnull RecordSerializer<M> inner,
+                                             boolean compressWhenSerializing,
+                                             int compressionLevel,
+                                             boolean encryptWhenSerializing,
+                                             @Nullable CompressionCodec compressionCodec,
+                                             @Nonnull Collection<CompressionCodec> additionalCodecs,
+                                             @Nullable CompressionDictionaryCache compressionDictionaries,
+                                             @Nullable String cipherName,
+                                             @Nullable Key encryptionKey,
+                                             @Nullable SecureRandom secureRandom) {
+        this(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing, compressionCodec, additionalCodecs, compressionDictionaries,
+                cipherName, encryptionKey, secureRandom, Collections.emptyMap(), null);
+    }
+
+    @API(API.Status.EXPERIMENTAL)
+    @SuppressWarnings("squid:S00107") // too many parameters
+    protected TransformedRecordSerializerJCE(@Nonnull RecordSerializer<M> inner,
+                                             boolean compressWhenSerializing,
+                                             int compressionLevel,
+                                             boolean encryptWhenSerializing,
+                                             @Nullable CompressionCodec compressionCodec,
+                                             @Nonnull Collection<CompressionCodec> additionalCodecs,
+                                             @Nullable CompressionDictionaryCache compressionDictionaries,
+                                             @Nullable String cipherName,
+                                             @Nullable Key encryptionKey,
+                                             @Nullable SecureRandom secureRandom,
+                                             @Nonnull Map<Integer, Key> encryptionKeys,
+                                             @Nullable Integer encryptionKeyId) {
+        super(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing, compressionCodec, additionalCodecs, compressionDictionaries);
         this.cipherName = cipherName;
         this.encryptionKey = encryptionKey;
         this.secureRandom = secureRandom;
+        this.encryptionKeys = encryptionKeys;
+        this.encryptionKeyId = encryptionKeyId;
     }
 
     @Override
     protected void encrypt(@Nonnull TransformState state, @Nullable StoreTimer timer) throws GeneralSecurityException {
+        if (encryptionKeyId != null) {
+            encryptKeyed(state, encryptionKeyId, timer);
+            return;
+        }
         if (cipherName == null || encryptionKey == null || secureRandom == null) {
             throw new RecordSerializationException("attempted to encrypt without setting cipher name and key");
         }
@@ -77,15 +147,11 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
         Cipher cipher = MAPPED_POOL.poll(cipherName);
         cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, iv);
 
-        byte[] plainText = state.getDataArray();
-        byte[] cipherText = cipher.doFinal(plainText);
-
-        int totalSize = IV_SIZE + cipherText.length;
-        byte[] serialized = new byte[totalSize];
-        System.arraycopy(iv.getIV(), 0, serialized, 0, IV_SIZE);
-        System.arraycopy(cipherText, 0, serialized, IV_SIZE, cipherText.length);
+        byte[] serialized = new byte[IV_SIZE + cipher.getOutputSize(state.length)];
+        System.arraycopy(ivData, 0, serialized, 0, IV_SIZE);
+        int cipherTextLength = cipher.doFinal(state.data, state.offset, state.length, serialized, IV_SIZE);
         state.encrypted = true;
-        state.setDataArray(serialized);
+        state.setDataArray(serialized, 0, IV_SIZE + cipherTextLength);
         MAPPED_POOL.offer(cipherName, cipher);
         if (timer != null) {
             timer.recordSinceNanoTime(Events.ENCRYPT_SERIALIZED_RECORD, startTime);
@@ -94,21 +160,20 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
 
     @Override
     protected void decrypt(@Nonnull TransformState state, @Nullable StoreTimer timer) throws GeneralSecurityException {
+        if (state.keyed) {
+            decryptKeyed(state, timer);
+            return;
+        }
         if (cipherName == null || encryptionKey == null || secureRandom == null) {
             throw new RecordSerializationException("missing encryption key or provider during decryption");
         }
         long startTime = System.nanoTime();
 
-        byte[] ivData = new byte[IV_SIZE];
-        System.arraycopy(state.data, state.offset, ivData, 0, IV_SIZE);
-        IvParameterSpec iv = new IvParameterSpec(ivData);
-
-        byte[] cipherText = new byte[state.length - IV_SIZE];
-        System.arraycopy(state.data, state.offset + IV_SIZE, cipherText, 0, cipherText.length);
+        IvParameterSpec iv = new IvParameterSpec(state.data, state.offset, IV_SIZE);
         Cipher cipher = MAPPED_POOL.poll(cipherName);
         cipher.init(Cipher.DECRYPT_MODE, encryptionKey, iv);
 
-        byte[] plainText = cipher.doFinal(cipherText);
+        byte[] plainText = cipher.doFinal(state.data, state.offset + IV_SIZE, state.length - IV_SIZE);
         state.setDataArray(plainText);
         MAPPED_POOL.offer(cipherName, cipher);
 
@@ -117,6 +182,88 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
         }
     }
 
+    private void encryptKeyed(@Nonnull TransformState state, int keyId, @Nullable StoreTimer timer) throws GeneralSecurityException {
+        final Key key = encryptionKeys.get(keyId);
+        if (key == null || secureRandom == null) {
+            throw new RecordSerializationException("attempted to encrypt without setting key", "keyId", keyId);
+        }
+        long startTime = System.nanoTime();
+
+        byte[] ivData = new byte[KEYED_IV_SIZE];
+        secureRandom.nextBytes(ivData);
+        Cipher cipher = keyedCipherPool.poll(keyId);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(KEYED_TAG_BITS, ivData));
+
+        int headerSize = varintSize(keyId) + KEYED_IV_SIZE;
+        byte[] serialized = new byte[headerSize + cipher.getOutputSize(state.length)];
+        int position = writeVarint(keyId, serialized);
+        System.arraycopy(ivData, 0, serialized, position, KEYED_IV_SIZE);
+        int cipherTextLength = cipher.doFinal(state.data, state.offset, state.length, serialized, headerSize);
+        state.encrypted = true;
+        state.keyed = true;
+        state.setDataArray(serialized, 0, headerSize + cipherTextLength);
+        keyedCipherPool.offer(keyId, cipher);
+        if (timer != null) {
+            timer.recordSinceNanoTime(Events.ENCRYPT_SERIALIZED_RECORD, startTime);
+        }
+    }
+
+    private void decryptKeyed(@Nonnull TransformState state, @Nullable StoreTimer timer) throws GeneralSecurityException {
+        long startTime = System.nanoTime();
+
+        final int end = state.offset + state.length;
+        int position = state.offset;
+        int keyId = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position >= end || shift > 28) {
+                throw new RecordSerializationException("invalid encryption key id");
+            }
+            b = state.data[position++];
+            keyId |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        final Key key = encryptionKeys.get(keyId);
+        if (key == null) {
+            throw new RecordSerializationException("missing encryption key during decryption", "keyId", keyId);
+        }
+        if (end - position < KEYED_IV_SIZE) {
+            throw new RecordSerializationException("encrypted data too short", "keyId", keyId);
+        }
+
+        Cipher cipher = keyedCipherPool.poll(keyId);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(KEYED_TAG_BITS, state.data, position, KEYED_IV_SIZE));
+        position += KEYED_IV_SIZE;
+        byte[] plainText = cipher.doFinal(state.data, position, end - position);
+        state.setDataArray(plainText);
+        keyedCipherPool.offer(keyId, cipher);
+
+        if (timer != null) {
+            timer.recordSinceNanoTime(Events.DECRYPT_SERIALIZED_RECORD, startTime);
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Write the non-negative value at the start of the array, returning its size.
+    private static int writeVarint(int value, @Nonnull byte[] output) {
+        int position = 0;
+        while ((value & ~0x7f) != 0) {
+            output[position++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output[position++] = (byte)value;
+        return position;
+    }
+
     /**
      * Creates a new {@link Builder TransformedRecordSerializerJCE.Builder} instance
      * that is backed by the default serializer for {@link Message}s, namely
@@ -160,6 +307,10 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
         protected Key encryptionKey;
         @Nullable
         protected SecureRandom secureRandom;
+        @Nonnull
+        protected Map<Integer, Key> encryptionKeys = new HashMap<>();
+        @Nullable
+        protected Integer encryptionKeyId;
 
         protected Builder(@Nonnull RecordSerializer<M> inner) {
             super(inner);
@@ -177,12 +328,30 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
             return this;
         }
 
+        @Override
+        public Builder<M> setCompressionCodec(@Nullable CompressionCodec compressionCodec) {
+            super.setCompressionCodec(compressionCodec);
+            return this;
+        }
+
+        @Override
+        public Builder<M> addDecompressionCodec(@Nonnull CompressionCodec codec) {
+            super.addDecompressionCodec(codec);
+            return this;
+        }
+
+        @Override
+        public Builder<M> setCompressionDictionaries(@Nullable CompressionDictionaryCache compressionDictionaries) {
+            super.setCompressionDictionaries(compressionDictionaries);
+            return this;
+        }
+
         /**
          * Whether to encrypt records after serializing. Should
          * compression and encryption both be set, then data
          * will be compressed before they are encrypted.
          * If enabled, the user must also call {@link #setEncryptionKey(Key)}
-         * to specify the encryption key.
+         * or {@link #setEncryptionKeyId(int)} to specify the encryption key.
          * @param encryptWhenSerializing <code>true</code> if records should be encrypted and <code>false</code> otherwise
          * @return this <code>Builder</code>
          */
@@ -221,6 +390,37 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
             return this;
         }
 
+        /**
+         * Adds a key, identified by the given id, used to decrypt records encrypted with it and, if
+         * {@link #setEncryptionKeyId(int)} is given the same id, to encrypt records. Records encrypted with such
+         * a key use AES-GCM and start with the key's id, so the id must be kept with the same key for as long as
+         * there are any records encrypted with it.
+         * @param keyId a non-negative id for the key
+         * @param key an AES key
+         * @return this <code>Builder</code>
+         */
+        @API(API.Status.EXPERIMENTAL)
+        public Builder<M> addEncryptionKey(int keyId, @Nonnull Key key) {
+            if (keyId < 0) {
+                throw new RecordCoreArgumentException("encryption key id must not be negative", "keyId", keyId);
+            }
+            this.encryptionKeys.put(keyId, key);
+            return this;
+        }
+
+        /**
+         * Specifies which of the keys given to {@link #addEncryptionKey(int, Key)} is used to
+         * encrypt records. Records are then encrypted with AES-GCM, tagged with the key's id, rather than
+         * with the key given to {@link #setEncryptionKey(Key)} and the cipher given to {@link #setCipherName(String)}.
+         * @param keyId the id of the key to encrypt with
+         * @return this <code>Builder</code>
+         */
+        @API(API.Status.EXPERIMENTAL)
+        public Builder<M> setEncryptionKeyId(int keyId) {
+            this.encryptionKeyId = keyId;
+            return this;
+        }
+
         /**
          * Clears a previously specified key and provider that
          * might have been passed to this <code>Builder</code>.
@@ -229,6 +429,8 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
         public Builder<M> clearEncryption() {
             this.cipherName = null;
             this.encryptionKey = null;
+            this.encryptionKeys.clear();
+            this.encryptionKeyId = null;
             return this;
         }
 
@@ -265,8 +467,11 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
          */
         @Override
         public TransformedRecordSerializerJCE<M> build() {
+            if (encryptionKeyId != null && !encryptionKeys.containsKey(encryptionKeyId)) {
+                throw new RecordCoreArgumentException("encryption key id does not match any encryption key", "keyId", encryptionKeyId);
+            }
             if (encryptWhenSerializing) {
-                if (encryptionKey == null) {
+                if (encryptionKey == null && encryptionKeyId == null) {
                     throw new RecordCoreArgumentException("cannot encrypt when serializing if encryption key is not set");
                 }
             }
@@ -274,6 +479,8 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
                 if (cipherName == null) {
                     cipherName = DEFAULT_CIPHER;
                 }
+            }
+            if (encryptionKey != null || !encryptionKeys.isEmpty()) {
                 if (secureRandom == null) {
                     secureRandom = new SecureRandom();
                 }
@@ -283,9 +490,14 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
                     compressWhenSerializing,
                     compressionLevel,
                     encryptWhenSerializing,
+                    compressionCodec,
+                    additionalCodecs,
+                    compressionDictionaries,
                     cipherName,
                     encryptionKey,
-                    secureRandom
+                    secureRandom,
+                    Collections.unmodifiableMap(new HashMap<>(encryptionKeys)),
+                    encryptionKeyId
             );
         }
     }
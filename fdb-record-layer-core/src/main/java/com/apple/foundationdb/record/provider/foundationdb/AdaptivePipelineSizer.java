@@ -0,0 +1,288 @@
+/*
+ * AdaptivePipelineSizer.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.IndexEntry;
+import com.apple.foundationdb.record.PipelineOperation;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.cursors.PipelineSizeAdjuster;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link FDBRecordStoreBase.PipelineSizer} that adjusts the pipeline size for each kind of operation from how its
+ * pipelines perform.
+ *
+ * <p>
+ * Each pipelined cursor reports, for every result it returns, how long the result took to be ready and whether
+ * the cursor's consumer had to wait for it. If the consumer waited, the pipeline was too shallow to hide the latency,
+ * so the size for that operation grows: in proportion to the part of the latency that was not hidden, up to
+ * doubling, when the results are completing in order, but only by one when the result that was waited for completed
+ * after ones started later than it, since then a single slow result is holding up the rest and more depth helps
+ * less. If an entire pipeline's worth of results are ready before they are needed, the size shrinks by one. The size
+ * always stays within the given minimum and maximum.
+ * </p>
+ *
+ * <p>
+ * The size is also limited so that the results held in the pipelines of one transaction, estimated from the average
+ * size of the records returned for each operation, stay within a budget of outstanding bytes. This keeps deep
+ * pipelines of large records from reading more than a transaction can handle. The minimum size applies even when the
+ * budget is used up, so that every pipeline can make progress.
+ * </p>
+ *
+ * <p>
+ * What is learned about each operation is shared by all the record stores using this sizer, so the same instance
+ * should be given to the record store builder for each transaction.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class AdaptivePipelineSizer implements FDBRecordStoreBase.PipelineSizer {
+    public static final int DEFAULT_MIN_PIPELINE_SIZE = 1;
+    public static final int DEFAULT_MAX_PIPELINE_SIZE = 100;
+    public static final long DEFAULT_MAX_OUTSTANDING_BYTES = 2_000_000L;
+
+    // Weight of a new observation in the running averages.
+    private static final double SMOOTHING = 0.125;
+
+    private final int initialPipelineSize;
+    private final int minPipelineSize;
+    private final int maxPipelineSize;
+    private final long maxOutstandingBytes;
+    @Nonnull
+    private final ConcurrentMap<PipelineOperation, OperationState> operations = new ConcurrentHashMap<>();
+    @Nonnull
+    private final Map<FDBRecordContext, AtomicLong> outstandingBytes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public AdaptivePipelineSizer() {
+        this(FDBRecordStore.DEFAULT_PIPELINE_SIZE, DEFAULT_MIN_PIPELINE_SIZE, DEFAULT_MAX_PIPELINE_SIZE, DEFAULT_MAX_OUTSTANDING_BYTES);
+    }
+
+    /**
+     * Create a new sizer.
+     * @param initialPipelineSize the size for an operation before anything has been learned about it
+     * @param minPipelineSize the smallest size to use
+     * @param maxPipelineSize the largest size to use
+     * @param maxOutstandingBytes the budget for the estimated size of the results in the pipelines of a single
+     * transaction, or zero for no limit
+     */
+    public AdaptivePipelineSizer(int initialPipelineSize, int minPipelineSize, int maxPipelineSize, long maxOutstandingBytes) {
+        if (minPipelineSize < 1 || minPipelineSize > maxPipelineSize) {
+            throw new RecordCoreArgumentException("pipeline size bounds are not valid",
+                    LogMessageKeys.VALUE, minPipelineSize,
+                    LogMessageKeys.LIMIT, maxPipelineSize);
+        }
+        if (initialPipelineSize < minPipelineSize || initialPipelineSize > maxPipelineSize) {
+            throw new RecordCoreArgumentException("initial pipeline size is not within bounds",
+                    LogMessageKeys.VALUE, initialPipelineSize);
+        }
+        if (maxOutstandingBytes < 0) {
+            throw new RecordCoreArgumentException("outstanding bytes limit must not be negative",
+                    LogMessageKeys.LIMIT, maxOutstandingBytes);
+        }
+        this.initialPipelineSize = initialPipelineSize;
+        this.minPipelineSize = minPipelineSize;
+        this.maxPipelineSize = maxPipelineSize;
+        this.maxOutstandingBytes = maxOutstandingBytes;
+    }
+
+    @Nonnull
+    private OperationState getState(@Nonnull PipelineOperation pipelineOperation) {
+        return operations.computeIfAbsent(pipelineOperation, op -> new OperationState());
+    }
+
+    /**
+     * Get the size currently learned for the given operation, without regard to the outstanding bytes budget.
+     * @param pipelineOperation the operation
+     * @return the number of elements to pipeline
+     */
+    @Override
+    public int getPipelineSize(@Nonnull PipelineOperation pipelineOperation) {
+        return getState(pipelineOperation).getPipelineSize();
+    }
+
+    @Nonnull
+    @Override
+    public PipelineSizeAdjuster getPipelineSizeAdjuster(@Nonnull PipelineOperation pipelineOperation,
+                                                        @Nonnull FDBRecordContext context) {
+        return new Adjuster(getState(pipelineOperation), outstandingBytes.computeIfAbsent(context, c -> new AtomicLong()));
+    }
+
+    /**
+     * Get the running average of the latency of the results of the given operation.
+     * @param pipelineOperation the operation
+     * @return the average latency in nanoseconds, or zero if nothing has been reported
+     */
+    public long getAverageLatencyNanos(@Nonnull PipelineOperation pipelineOperation) {
+        return getState(pipelineOperation).getAverageLatencyNanos();
+    }
+
+    /**
+     * Get the running average of the estimated size of the results of the given operation.
+     * @param pipelineOperation the operation
+     * @return the average size in bytes, or zero if nothing has been reported
+     */
+    public long getAverageBytes(@Nonnull PipelineOperation pipelineOperation) {
+        return getState(pipelineOperation).getAverageBytes();
+    }
+
+    /**
+     * Estimate the number of bytes read to produce a result of a pipeline. This counts the keys and values of stored
+     * records and of index entries without a record, and zero for anything else.
+     * @param value a result of a pipeline
+     * @return the estimated size of the result in bytes
+     */
+    protected long estimateSize(@Nullable Object value) {
+        if (value instanceof FDBIndexedRecord<?>) {
+            final FDBIndexedRecord<?> indexedRecord = (FDBIndexedRecord<?>)value;
+            if (!indexedRecord.hasStoredRecord()) {
+                final IndexEntry indexEntry = indexedRecord.getIndexEntry();
+                return (long)indexEntry.getKey().getPackedSize() + indexEntry.getValue().getPackedSize();
+            }
+            return estimateSize(indexedRecord.getStoredRecord());
+        } else if (value instanceof FDBStoredSizes) {
+            final FDBStoredSizes sizes = (FDBStoredSizes)value;
+            return (long)sizes.getKeySize() + sizes.getValueSize();
+        } else if (value instanceof FDBQueriedRecord<?>) {
+            return estimateSize(((FDBQueriedRecord<?>)value).getStoredRecord());
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * What has been learned about one kind of operation.
+     */
+    private class OperationState {
+        private int pipelineSize = initialPipelineSize;
+        private int readyCount;
+        private double averageLatencyNanos = -1;
+        private double averageBytes = -1;
+
+        synchronized int getPipelineSize() {
+            return pipelineSize;
+        }
+
+        synchronized long getAverageLatencyNanos() {
+            return (long)Math.max(averageLatencyNanos, 0);
+        }
+
+        synchronized long getAverageBytes() {
+            return (long)Math.ceil(Math.max(averageBytes, 0));
+        }
+
+        synchronized void entryCompleted(long bytes, long latencyNanos, long waitNanos, boolean completedOutOfOrder) {
+            averageLatencyNanos = smooth(averageLatencyNanos, latencyNanos);
+            averageBytes = smooth(averageBytes, bytes);
+            // Waiting for only a small part of the latency is just noise from scheduling.
+            if (waitNanos * 10 > latencyNanos) {
+                readyCount = 0;
+                final int increase;
+                if (completedOutOfOrder) {
+                    increase = 1;
+                } else {
+                    // The pipeline hid (latency - wait) of the latency, so it would need to be about latency / (latency - wait)
+                    // times as deep to hide all of it.
+                    final long hidden = Math.max(1, latencyNanos - waitNanos);
+                    increase = (int)Math.min(pipelineSize, Math.max(1, Math.ceil(pipelineSize * (double)waitNanos / hidden)));
+                }
+                pipelineSize = Math.min(maxPipelineSize, pipelineSize + increase);
+            } else if (++readyCount >= pipelineSize) {
+                readyCount = 0;
+                pipelineSize = Math.max(minPipelineSize, pipelineSize - 1);
+            }
+        }
+
+        private double smooth(double average, long value) {
+            return average < 0 ? value : average + SMOOTHING * (value - average);
+        }
+    }
+
+    /**
+     * The adjuster for one pipeline, which holds a share of the outstanding bytes budget of its transaction according
+     * to its current size.
+     */
+    private class Adjuster implements PipelineSizeAdjuster {
+        @Nonnull
+        private final OperationState state;
+        @Nonnull
+        private final AtomicLong transactionBytes;
+        private long reservedBytes;
+        private boolean released;
+
+        Adjuster(@Nonnull OperationState state, @Nonnull AtomicLong transactionBytes) {
+            this.state = state;
+            this.transactionBytes = transactionBytes;
+        }
+
+        @Override
+        public synchronized int getPipelineSize() {
+            return getPipelineSize(state.getAverageBytes());
+        }
+
+        @Override
+        public synchronized int reservePipelineSize() {
+            final long bytesPerEntry = state.getAverageBytes();
+            final int size = getPipelineSize(bytesPerEntry);
+            if (isLimited(bytesPerEntry)) {
+                final long newReservedBytes = size * bytesPerEntry;
+                transactionBytes.addAndGet(newReservedBytes - reservedBytes);
+                reservedBytes = newReservedBytes;
+            }
+            return size;
+        }
+
+        private boolean isLimited(long bytesPerEntry) {
+            return maxOutstandingBytes > 0 && bytesPerEntry > 0 && !released;
+        }
+
+        // The learned size, limited to what is left of the budget once other pipelines' reservations are taken out.
+        private int getPipelineSize(long bytesPerEntry) {
+            final int size = state.getPipelineSize();
+            if (!isLimited(bytesPerEntry)) {
+                return size;
+            }
+            final long otherBytes = transactionBytes.get() - reservedBytes;
+            final long allowed = (maxOutstandingBytes - otherBytes) / bytesPerEntry;
+            return (int)Math.max(minPipelineSize, Math.min(size, allowed));
+        }
+
+        @Override
+        public void entryCompleted(@Nullable Object value, long latencyNanos, long waitNanos, boolean completedOutOfOrder) {
+            state.entryCompleted(estimateSize(value), latencyNanos, waitNanos, completedOutOfOrder);
+        }
+
+        @Override
+        public synchronized void release() {
+            transactionBytes.addAndGet(-reservedBytes);
+            reservedBytes = 0;
+            released = true;
+        }
+    }
+}
@@ -49,6 +49,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
@@ -134,6 +135,8 @@ public class FDBDatabase {
     private FDBRecordStoreStateCache storeStateCache = PassThroughRecordStoreStateCache.instance();
     private final Supplier<Boolean> transactionIsTracedSupplier;
     private final long warnAndCloseOpenContextsAfterSeconds;
+    @Nullable
+    private final Path spillDirectory;
     // The number of cache entries to maintain in memory
     public static final int DEFAULT_MAX_REVERSE_CACHE_ENTRIES = 5000;
     // public for javadoc purposes
@@ -169,6 +172,7 @@ public class FDBDatabase {
         this.reverseDirectoryMaxMillisPerTransaction = factory.getReverseDirectoryMaxMillisPerTransaction();
         this.transactionIsTracedSupplier = factory.getTransactionIsTracedSupplier();
         this.warnAndCloseOpenContextsAfterSeconds = factory.getWarnAndCloseOpenContextsAfterSeconds();
+        this.spillDirectory = factory.getSpillDirectory();
         this.blockingInAsyncDetectionSupplier = factory.getBlockingInAsyncDetectionSupplier();
         this.reverseDirectoryInMemoryCache = CacheBuilder.newBuilder()
                 .maximumSize(DEFAULT_MAX_REVERSE_CACHE_ENTRIES)
@@ -623,6 +627,16 @@ public class FDBDatabase {
                         new ImmutablePair<>(readVersion, versionTimeEstimate(startTime)) : pair);
     }
 
+    /**
+     * Get the local directory in which query plans write files when they do not fit in memory.
+     * @return the directory for query plan files or {@code null} to use the default temporary-file directory
+     * @see FDBDatabaseFactory#setSpillDirectory
+     */
+    @Nullable
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
     @Nonnull
     @API(API.Status.INTERNAL)
     public FDBReverseDirectoryCache getReverseDirectoryCache() {
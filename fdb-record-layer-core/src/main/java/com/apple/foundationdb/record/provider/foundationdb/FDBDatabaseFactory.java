@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -123,6 +124,8 @@ public class FDBDatabaseFactory {
     @Nonnull
     private Supplier<Boolean> transactionIsTracedSupplier = LOGGER::isTraceEnabled;
     private long warnAndCloseOpenContextsAfterSeconds;
+    @Nullable
+    private Path spillDirectory;
     @Nonnull
     private Supplier<BlockingInAsyncDetection> blockingInAsyncDetectionSupplier = () -> BlockingInAsyncDetection.DISABLED;
     @Nonnull
@@ -531,6 +534,27 @@ public class FDBDatabaseFactory {
         this.warnAndCloseOpenContextsAfterSeconds = warnAndCloseOpenContextsAfterSeconds;
     }
 
+    /**
+     * Get the local directory in which query plans write files when they sort, remove duplicates from or aggregate
+     * more than fits in memory.
+     * @return the directory for query plan files or {@code null} to use the default temporary-file directory
+     */
+    @Nullable
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Set the local directory in which query plans write files when they sort, remove duplicates from or aggregate
+     * more than fits in memory. Continuations of such plans can only be resumed on a host with the same files in the
+     * same directory.
+     * This must be set before the factory is used to produce an {@link FDBDatabase}.
+     * @param spillDirectory the directory for query plan files or {@code null} to use the default temporary-file directory
+     */
+    public void setSpillDirectory(@Nullable Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
     /**
      * Controls if calls to <code>FDBDatabase#asyncToSync(FDBStoreTimer, FDBStoreTimer.Wait, CompletableFuture)</code>
      * or <code>FDBRecordContext#asyncToSync(FDBStoreTimer.Wait, CompletableFuture)</code> will attempt to detect
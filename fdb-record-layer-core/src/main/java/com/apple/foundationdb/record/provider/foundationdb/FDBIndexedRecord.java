@@ -32,6 +32,7 @@ import com.google.protobuf.Message;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * A record that has been loaded via an index.
@@ -129,6 +130,12 @@ public class FDBIndexedRecord<M extends Message> implements FDBRecord<M>, FDBSto
         return getStoredRecord().getRecord();
     }
 
+    @Nonnull
+    @Override
+    public M getRecordWithFields(@Nonnull Set<String> fieldNames) {
+        return getStoredRecord().getRecordWithFields(fieldNames);
+    }
+
     @Override
     public boolean hasVersion() {
         return getStoredRecord().hasVersion();
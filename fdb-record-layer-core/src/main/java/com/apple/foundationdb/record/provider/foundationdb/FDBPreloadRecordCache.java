@@ -74,6 +74,19 @@ class FDBPreloadRecordCache {
         return entry;
     }
 
+    /**
+     * Like {@link #beginPrefetch}, but only if there is not already an entry for the given {@code Tuple}, either
+     * completed or with a prefetch in progress.
+     *
+     * @param tuple the tuple to be have prefetched
+     * @return a holder with which to set the fetched value when it has completed or {@code null} if there is already an entry
+     */
+    @Nullable
+    public Future beginPrefetchIfAbsent(@Nonnull Tuple tuple) {
+        EntryImpl entry = new EntryImpl(tuple);
+        return cache.asMap().putIfAbsent(tuple, entry) == null ? entry : null;
+    }
+
     /**
      * Invalidates an entry in the cache, or discarding the outstanding result of a pre-fetch when it completes.
      * @param tuple the tuple to invalidate
@@ -157,7 +170,8 @@ class FDBPreloadRecordCache {
 
         @Override
         public void cancel() {
-            cache.invalidate(primaryKey);
+            // Only this entry, not one that has replaced it since.
+            cache.asMap().remove(primaryKey, this);
         }
 
         @Override
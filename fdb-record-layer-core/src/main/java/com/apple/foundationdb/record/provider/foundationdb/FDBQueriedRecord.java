@@ -29,6 +29,7 @@ import com.google.protobuf.Message;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Set;
 
 /**
  * A record returned by a query and therefore possibly associated with a particular entry in some index.
@@ -99,6 +100,12 @@ public abstract class FDBQueriedRecord<M extends Message> implements FDBRecord<M
             return indexed.getRecord();
         }
 
+        @Nonnull
+        @Override
+        public M getRecordWithFields(@Nonnull Set<String> fieldNames) {
+            return indexed.getRecordWithFields(fieldNames);
+        }
+
         @Override
         public boolean hasVersion() {
             return indexed.hasVersion();
@@ -155,6 +162,12 @@ public abstract class FDBQueriedRecord<M extends Message> implements FDBRecord<M
             return stored.getRecord();
         }
 
+        @Nonnull
+        @Override
+        public M getRecordWithFields(@Nonnull Set<String> fieldNames) {
+            return stored.getRecordWithFields(fieldNames);
+        }
+
         @Override
         public boolean hasVersion() {
             return stored.hasVersion();
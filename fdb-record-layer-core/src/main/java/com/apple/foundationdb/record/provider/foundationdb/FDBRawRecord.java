@@ -20,22 +20,23 @@
 
 package com.apple.foundationdb.record.provider.foundationdb;
 
+import com.apple.foundationdb.record.provider.common.ChunkedBytes;
 import com.apple.foundationdb.tuple.Tuple;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * A wrapper around all information that can be determined about a record before deserializing it.
  * In particular, this contains the record's primary key, its raw byte-string representation (after
- * any splits have been removed), and its version. It also includes sizing information describing
- * the record's on-disk footprint.
+ * any splits have been removed), and its version. The representation of a split record is kept as the
+ * values of its keys, without joining them, so that it can be deserialized without first copying it.
+ * It also includes sizing information describing the record's on-disk footprint.
  */
 class FDBRawRecord implements FDBStoredSizes {
     @Nonnull private final Tuple primaryKey;
-    @Nonnull private final byte[] rawRecord;
+    @Nonnull private final ChunkedBytes rawRecord;
     @Nullable private final FDBRecordVersion version;
 
     // Size information
@@ -47,12 +48,23 @@ class FDBRawRecord implements FDBStoredSizes {
 
     public FDBRawRecord(@Nonnull Tuple primaryKey, @Nonnull byte[] rawRecord, @Nullable FDBRecordVersion version,
                         @Nonnull FDBStoredSizes size) {
+        this(primaryKey, ChunkedBytes.wrap(rawRecord), version, size);
+    }
+
+    public FDBRawRecord(@Nonnull Tuple primaryKey, @Nonnull ChunkedBytes rawRecord, @Nullable FDBRecordVersion version,
+                        @Nonnull FDBStoredSizes size) {
         this(primaryKey, rawRecord, version, size.getKeyCount(), size.getKeySize(), size.getValueSize(), size.isSplit(), size.isVersionedInline());
     }
 
     @SuppressWarnings("squid:S00107") // too many parameters
     public FDBRawRecord(@Nonnull Tuple primaryKey, @Nonnull byte[] rawRecord, @Nullable FDBRecordVersion version,
                         int keyCount, int keySize, int valueSize, boolean split, boolean versionedInline) {
+        this(primaryKey, ChunkedBytes.wrap(rawRecord), version, keyCount, keySize, valueSize, split, versionedInline);
+    }
+
+    @SuppressWarnings("squid:S00107") // too many parameters
+    public FDBRawRecord(@Nonnull Tuple primaryKey, @Nonnull ChunkedBytes rawRecord, @Nullable FDBRecordVersion version,
+                        int keyCount, int keySize, int valueSize, boolean split, boolean versionedInline) {
         this.primaryKey = primaryKey;
         this.rawRecord = rawRecord;
         this.version = version;
@@ -76,7 +88,7 @@ class FDBRawRecord implements FDBStoredSizes {
         if (!primaryKey.equals(that.getPrimaryKey())) {
             return false;
         }
-        if (!Arrays.equals(rawRecord, that.getRawRecord())) {
+        if (!rawRecord.equals(that.rawRecord)) {
             return false;
         }
         if (!Objects.equals(version, that.version)) {
@@ -89,7 +101,7 @@ class FDBRawRecord implements FDBStoredSizes {
 
     @Override
     public int hashCode() {
-        return 31 * primaryKey.hashCode() + Arrays.hashCode(rawRecord) + (version != null ? 31 * 31 * version.hashCode() : 0);
+        return 31 * primaryKey.hashCode() + rawRecord.hashCode() + (version != null ? 31 * 31 * version.hashCode() : 0);
     }
 
     /**
@@ -103,14 +115,26 @@ class FDBRawRecord implements FDBStoredSizes {
 
     /**
      * Get the raw representation of the record. Note that this does
-     * <i>not</i> make a copy for performance reasons, so any modifications
-     * made to the returned array will also affect the array stored
-     * within this object, which should generally be avoided
+     * <i>not</i> make a copy for performance reasons if the record was
+     * not split, so any modifications made to the returned array will
+     * also affect the array stored within this object, which should
+     * generally be avoided. If the record was split, this joins the pieces
+     * into a new array.
      *
      * @return the raw representation of this record
+     * @see #getRawRecordChunks()
      */
     @Nonnull
     public byte[] getRawRecord() {
+        return rawRecord.toByteArray();
+    }
+
+    /**
+     * Get the raw representation of the record as the pieces in which it was stored, without joining them.
+     * @return the raw representation of this record
+     */
+    @Nonnull
+    public ChunkedBytes getRawRecordChunks() {
         return rawRecord;
     }
 
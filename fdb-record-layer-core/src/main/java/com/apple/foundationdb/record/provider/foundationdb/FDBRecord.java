@@ -27,6 +27,7 @@ import com.google.protobuf.Message;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Set;
 
 /**
  * A record associated with the corresponding meta-data.
@@ -57,6 +58,22 @@ public interface FDBRecord<M extends Message> {
     @Nonnull
     M getRecord();
 
+    /**
+     * Get the Protobuf message form of this record, which need only have the given fields.
+     *
+     * Calling this instead of {@link #getRecord} allows a record that was loaded without being deserialized (see
+     * {@link FDBRecordStore.Builder#setLazyRecordDeserialization}) to parse just the named top-level fields,
+     * skipping over the rest. Other fields may or may not be present in the result, so it must only be used to
+     * evaluate something, such as a query filter, that is known to look at only those fields.
+     * @param fieldNames the names of the top-level fields that need to be present
+     * @return the Protobuf message for this record, possibly with only some fields
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default M getRecordWithFields(@Nonnull Set<String> fieldNames) {
+        return getRecord();
+    }
+
     /**
      * Get whether a {@link FDBRecordVersion} has been set for this <code>StoredRecord</code>.
      * @return {@code true} if this record has a version
@@ -46,6 +46,7 @@ import com.apple.foundationdb.record.IndexScanType;
 import com.apple.foundationdb.record.IndexState;
 import com.apple.foundationdb.record.IsolationLevel;
 import com.apple.foundationdb.record.MutableRecordStoreState;
+import com.apple.foundationdb.record.ParallelScanProperties;
 import com.apple.foundationdb.record.PipelineOperation;
 import com.apple.foundationdb.record.RecordCoreArgumentException;
 import com.apple.foundationdb.record.RecordCoreException;
@@ -75,8 +76,13 @@ import com.apple.foundationdb.record.metadata.StoreRecordFunction;
 import com.apple.foundationdb.record.metadata.SyntheticRecordType;
 import com.apple.foundationdb.record.metadata.expressions.EmptyKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
+import com.apple.foundationdb.record.provider.common.ChunkedBytes;
+import com.apple.foundationdb.record.provider.common.CompressionDictionary;
+import com.apple.foundationdb.record.provider.common.CompressionDictionaryCache;
+import com.apple.foundationdb.record.provider.common.CompressionDictionaryTrainer;
 import com.apple.foundationdb.record.provider.common.DynamicMessageRecordSerializer;
 import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.record.provider.foundationdb.cursors.ParallelScanCursor;
 import com.apple.foundationdb.record.provider.foundationdb.keyspace.KeySpacePath;
 import com.apple.foundationdb.record.provider.foundationdb.storestate.FDBRecordStoreStateCache;
 import com.apple.foundationdb.record.query.QueryToKeyMatcher;
@@ -85,7 +91,9 @@ import com.apple.foundationdb.record.query.expressions.AndComponent;
 import com.apple.foundationdb.record.query.expressions.Query;
 import com.apple.foundationdb.record.query.expressions.QueryComponent;
 import com.apple.foundationdb.record.query.expressions.RecordTypeKeyComparison;
+import com.apple.foundationdb.record.query.plan.QueryPlanCache;
 import com.apple.foundationdb.record.query.plan.RecordQueryPlanner;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
 import com.apple.foundationdb.record.query.plan.synthetic.SyntheticRecordFromStoredRecordPlan;
 import com.apple.foundationdb.record.query.plan.synthetic.SyntheticRecordPlanner;
@@ -113,12 +121,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -182,9 +194,11 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     public static final int CACHEABLE_STATE_FORMAT_VERSION = 7;
     // 8 - add custom fields to store header
     public static final int HEADER_USER_FIELDS_FORMAT_VERSION = 8;
+    // 9 - allow the size into which long records are split to be set in the store header
+    public static final int SPLIT_RECORD_SIZE_FORMAT_VERSION = 9;
 
     // The current code can read and write up to the format version below
-    public static final int MAX_SUPPORTED_FORMAT_VERSION = HEADER_USER_FIELDS_FORMAT_VERSION;
+    public static final int MAX_SUPPORTED_FORMAT_VERSION = SPLIT_RECORD_SIZE_FORMAT_VERSION;
 
     // By default, record stores attempt to upgrade to this version
     // NOTE: Updating this can break certain users during upgrades.
@@ -195,8 +209,20 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     public static final int KEY_SIZE_LIMIT = 10_000;
     public static final int VALUE_SIZE_LIMIT = 100_000;
 
-    // The size of preload cache
-    private static final int PRELOAD_CACHE_SIZE = 100;
+    // The size of preload cache, which is enough for a typical batch from preloadRecordsAsync
+    private static final int PRELOAD_CACHE_SIZE = 1000;
+
+    /**
+     * The default most bytes of records being read at once by {@link #preloadRecordsAsync(Collection)}.
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public static final long DEFAULT_PRELOAD_RECORDS_MAX_BYTES = 1_000_000;
+
+    /**
+     * The most key-values read while sampling records by {@link #trainCompressionDictionaryAsync(String, int, int)}.
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public static final int DEFAULT_COMPRESSION_DICTIONARY_SCAN_LIMIT = 10_000;
 
     protected static final Object STORE_INFO_KEY = FDBRecordStoreKeyspace.STORE_INFO.key();
     protected static final Object RECORD_KEY = FDBRecordStoreKeyspace.RECORD.key();
@@ -208,6 +234,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     protected static final Object INDEX_UNIQUENESS_VIOLATIONS_KEY = FDBRecordStoreKeyspace.INDEX_UNIQUENESS_VIOLATIONS_SPACE.key();
     protected static final Object RECORD_VERSION_KEY = FDBRecordStoreKeyspace.RECORD_VERSION_SPACE.key();
     protected static final Object INDEX_BUILD_SPACE_KEY = FDBRecordStoreKeyspace.INDEX_BUILD_SPACE.key();
+    protected static final Object COMPRESSION_DICTIONARY_KEY = FDBRecordStoreKeyspace.COMPRESSION_DICTIONARY_SPACE.key();
 
     @SuppressWarnings("squid:S2386")
     @SpotBugsSuppressWarnings("MS_MUTABLE_ARRAY")
@@ -242,12 +269,32 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     @Nullable
     protected final FDBRecordStoreStateCache storeStateCache;
 
+    protected final boolean lazyRecordDeserialization;
+
+    protected final int splitRecordReadConcurrency;
+
+    protected final boolean splitRecordDeltaWrites;
+
+    protected final int transactionRecordCacheSize;
+
+    @Nullable
+    protected final FDBVersionedRecordCache versionedRecordCache;
+
+    @Nullable
+    protected final QueryPlanCache queryPlanCache;
+
+    @Nullable
+    protected final RecordQueryPlannerConfiguration plannerConfiguration;
+
     @Nullable
     private Subspace cachedRecordsSubspace;
 
     @Nonnull
     private final FDBPreloadRecordCache preloadCache;
 
+    @Nullable
+    private final FDBTransactionRecordCache transactionRecordCache;
+
     private boolean recordsReadConflict;
 
     private boolean storeStateReadConflict;
@@ -265,6 +312,28 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                              @Nonnull IndexMaintenanceFilter indexMaintenanceFilter,
                              @Nonnull PipelineSizer pipelineSizer,
                              @Nullable FDBRecordStoreStateCache storeStateCache) {
+        this(context, subspaceProvider, formatVersion, metaDataProvider, serializer, indexMaintainerRegistry, indexMaintenanceFilter,
+                pipelineSizer, storeStateCache, false, 1, false, 0, null, null, null);
+    }
+
+    @SuppressWarnings("squid:S00107")
+    @API(API.Status.EXPERIMENTAL)
+    protected FDBRecordStore(@Nonnull FDBRecordContext context,
+                             @Nonnull SubspaceProvider subspaceProvider,
+                             int formatVersion,
+                             @Nonnull RecordMetaDataProvider metaDataProvider,
+                             @Nonnull RecordSerializer<Message> serializer,
+                             @Nonnull IndexMaintainerRegistry indexMaintainerRegistry,
+                             @Nonnull IndexMaintenanceFilter indexMaintenanceFilter,
+                             @Nonnull PipelineSizer pipelineSizer,
+                             @Nullable FDBRecordStoreStateCache storeStateCache,
+                             boolean lazyRecordDeserialization,
+                             int splitRecordReadConcurrency,
+                             boolean splitRecordDeltaWrites,
+                             int transactionRecordCacheSize,
+                             @Nullable FDBVersionedRecordCache versionedRecordCache,
+                             @Nullable QueryPlanCache queryPlanCache,
+                             @Nullable RecordQueryPlannerConfiguration plannerConfiguration) {
         super(context, subspaceProvider);
         this.formatVersion = formatVersion;
         this.metaDataProvider = metaDataProvider;
@@ -273,8 +342,16 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         this.indexMaintenanceFilter = indexMaintenanceFilter;
         this.pipelineSizer = pipelineSizer;
         this.storeStateCache = storeStateCache;
+        this.lazyRecordDeserialization = lazyRecordDeserialization;
+        this.splitRecordReadConcurrency = splitRecordReadConcurrency;
+        this.splitRecordDeltaWrites = splitRecordDeltaWrites;
+        this.transactionRecordCacheSize = transactionRecordCacheSize;
+        this.versionedRecordCache = versionedRecordCache;
+        this.queryPlanCache = queryPlanCache;
+        this.plannerConfiguration = plannerConfiguration;
         this.omitUnsplitRecordSuffix = formatVersion < SAVE_UNSPLIT_WITH_SUFFIX_FORMAT_VERSION;
         this.preloadCache = new FDBPreloadRecordCache(PRELOAD_CACHE_SIZE);
+        this.transactionRecordCache = transactionRecordCacheSize > 0 ? new FDBTransactionRecordCache(transactionRecordCacheSize) : null;
     }
 
     @Override
@@ -402,7 +479,9 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         final Tuple primaryKey = primaryKeyExpression.evaluateSingleton(recordBuilder).toTuple();
         recordBuilder.setPrimaryKey(primaryKey);
 
-        final CompletableFuture<FDBStoredRecord<M>> result = loadExistingRecord(typedSerializer, primaryKey).thenCompose(oldRecord -> {
+        // For delta writes, keep the raw form of the old record to compare with the new one.
+        final AtomicReference<FDBRawRecord> oldRawRecord = splitRecordDeltaWrites && metaData.isSplitLongRecords() ? new AtomicReference<>() : null;
+        final CompletableFuture<FDBStoredRecord<M>> result = loadExistingRecord(typedSerializer, primaryKey, oldRawRecord).thenCompose(oldRecord -> {
             if (oldRecord == null) {
                 if (existenceCheck.errorIfNotExists()) {
                     throw new RecordDoesNotExistException("record does not exist",
@@ -420,7 +499,8 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                             LogMessageKeys.EXPECTED_TYPE, recordType.getName());
                 }
             }
-            final FDBStoredRecord<M> newRecord = serializeAndSaveRecord(typedSerializer, recordBuilder, metaData, oldRecord);
+            final FDBStoredRecord<M> newRecord = serializeAndSaveRecord(typedSerializer, recordBuilder, metaData, oldRecord,
+                    oldRawRecord == null ? null : oldRawRecord.get());
             if (oldRecord == null) {
                 addRecordCount(metaData, newRecord, LITTLE_ENDIAN_INT64_ONE);
             } else {
@@ -458,24 +538,29 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     }
 
     @Nonnull
-    private <M extends Message> CompletableFuture<FDBStoredRecord<M>> loadExistingRecord(@Nonnull RecordSerializer<M> typedSerializer, @Nonnull Tuple primaryKey) {
+    private <M extends Message> CompletableFuture<FDBStoredRecord<M>> loadExistingRecord(@Nonnull RecordSerializer<M> typedSerializer, @Nonnull Tuple primaryKey,
+                                                                                         @Nullable AtomicReference<FDBRawRecord> rawRecordHolder) {
         // Note: this assumes that any existing record is compatible with the serializer (even if not of the same record type).
         // To relax that would perhaps mean catching errors and falling back to the untyped serializer.
         // This would in turn require care with the type parameters to updateSecondaryIndexes.
         // In no case is an index maintainer called with incompatible record type, so its signature should still be valid.
-        return loadTypedRecord(typedSerializer, primaryKey, false);
+        return loadTypedRecord(typedSerializer, primaryKey, ExecuteState.NO_LIMITS, false, rawRecordHolder);
     }
 
     @Nonnull
     private <M extends Message> FDBStoredRecord<M> serializeAndSaveRecord(@Nonnull RecordSerializer<M> typedSerializer, @Nonnull final FDBStoredRecordBuilder<M> recordBuilder,
-                                                                          @Nonnull final RecordMetaData metaData, @Nullable FDBStoredSizes oldSizeInfo) {
+                                                                          @Nonnull final RecordMetaData metaData, @Nullable FDBStoredSizes oldSizeInfo,
+                                                                          @Nullable FDBRawRecord oldRawRecord) {
         final Tuple primaryKey = recordBuilder.getPrimaryKey();
         final FDBRecordVersion version = recordBuilder.getVersion();
         final byte[] serialized = typedSerializer.serialize(metaData, recordBuilder.getRecordType(), recordBuilder.getRecord(), getTimer());
         final FDBRecordVersion splitVersion = useOldVersionFormat() ? null : version;
         final SplitHelper.SizeInfo sizeInfo = new SplitHelper.SizeInfo();
         preloadCache.invalidate(primaryKey); // clear out cache of older value if present
-        SplitHelper.saveWithSplit(context, recordsSubspace(), recordBuilder.getPrimaryKey(), serialized, splitVersion, metaData.isSplitLongRecords(), omitUnsplitRecordSuffix, true, oldSizeInfo, sizeInfo);
+        invalidateCachedRecords(primaryKey);
+        final ChunkedBytes oldSplitValues = oldRawRecord != null && oldRawRecord.isSplit() ? oldRawRecord.getRawRecordChunks() : null;
+        SplitHelper.saveWithSplit(context, recordsSubspace(), recordBuilder.getPrimaryKey(), serialized, splitVersion, metaData.isSplitLongRecords(), omitUnsplitRecordSuffix, true,
+                oldSizeInfo, oldSplitValues, getSplitRecordSize(recordBuilder.getRecordType()), sizeInfo);
         countKeysAndValues(FDBStoreTimer.Counts.SAVE_RECORD_KEY, FDBStoreTimer.Counts.SAVE_RECORD_KEY_BYTES, FDBStoreTimer.Counts.SAVE_RECORD_VALUE_BYTES, sizeInfo);
         recordBuilder.setSize(sizeInfo);
 
@@ -797,6 +882,114 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         return getSubspace().subspace(Tuple.from(INDEX_BUILD_SPACE_KEY, index.getSubspaceTupleKey()));
     }
 
+    /**
+     * Subspace for the compression dictionaries trained from the records of this store.
+     * @return the subspace for compression dictionaries
+     * @see #trainCompressionDictionaryAsync
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public Subspace compressionDictionarySubspace() {
+        return getSubspace().subspace(Tuple.from(COMPRESSION_DICTIONARY_KEY));
+    }
+
+    /**
+     * Train a dictionary for compressing records of the given type from a sample of the records of that type in
+     * this store, and save it in this store with the next version id. The dictionary is not used until it is added
+     * to the {@link CompressionDictionaryCache} of a {@link com.apple.foundationdb.record.provider.common.TransformedRecordSerializer},
+     * which should only be done once this transaction has committed.
+     * At most {@link #DEFAULT_COMPRESSION_DICTIONARY_SCAN_LIMIT} key-values are read to find the samples, so fewer
+     * than {@code sampleSize} records may be used if the type's records are not together at the start of the store.
+     * To sample more, use {@link #scanCompressionDictionarySamples} over several transactions and then
+     * {@link #trainCompressionDictionaryAsync(String, List, int)}.
+     * @param recordTypeName the name of the record type
+     * @param sampleSize the number of records to train from
+     * @param maxDictionarySize the maximum size of the dictionary, usually {@link CompressionDictionaryTrainer#DEFAULT_MAX_DICTIONARY_SIZE}
+     * @return a future that completes to the new dictionary
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public CompletableFuture<CompressionDictionary> trainCompressionDictionaryAsync(@Nonnull String recordTypeName,
+                                                                                   int sampleSize, int maxDictionarySize) {
+        final ScanProperties scanProperties = new ScanProperties(ExecuteProperties.newBuilder()
+                .setScannedRecordsLimit(DEFAULT_COMPRESSION_DICTIONARY_SCAN_LIMIT)
+                .build());
+        return scanCompressionDictionarySamples(recordTypeName, null, scanProperties)
+                .limitRowsTo(sampleSize)
+                .asList()
+                .thenCompose(samples -> trainCompressionDictionaryAsync(recordTypeName, samples, maxDictionarySize));
+    }
+
+    /**
+     * Scan the serialized records of the given type, as samples for training a compression dictionary.
+     * When the primary key has no record type prefix, the records of every type are read and those of other types
+     * are skipped, so the scan should be limited with a scanned records or bytes limit and continued in later
+     * transactions as needed.
+     * @param recordTypeName the name of the record type
+     * @param continuation any continuation from a previous scan
+     * @param scanProperties skip, limit and other scan properties
+     * @return a cursor of the serialized records of the given type
+     * @see #trainCompressionDictionaryAsync(String, List, int)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public RecordCursor<byte[]> scanCompressionDictionarySamples(@Nonnull String recordTypeName, @Nullable byte[] continuation,
+                                                                 @Nonnull ScanProperties scanProperties) {
+        final RecordType recordType = getRecordMetaData().getRecordType(recordTypeName);
+        final TupleRange range = recordType.primaryKeyHasRecordTypePrefix() ? TupleRange.allOf(recordType.getRecordTypeKeyTuple()) : TupleRange.ALL;
+        return scanRecords(range, continuation, scanProperties)
+                .filter(rec -> rec.getRecordType().getName().equals(recordTypeName))
+                .map(rec -> rec.getRecord().toByteArray());
+    }
+
+    /**
+     * Train a dictionary for compressing records of the given type from the given samples, and save it in this
+     * store with the next version id, as {@link #trainCompressionDictionaryAsync(String, int, int)} does.
+     * @param recordTypeName the name of the record type
+     * @param samples serialized records of the type, such as from {@link #scanCompressionDictionarySamples}
+     * @param maxDictionarySize the maximum size of the dictionary, usually {@link CompressionDictionaryTrainer#DEFAULT_MAX_DICTIONARY_SIZE}
+     * @return a future that completes to the new dictionary
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public CompletableFuture<CompressionDictionary> trainCompressionDictionaryAsync(@Nonnull String recordTypeName,
+                                                                                   @Nonnull List<byte[]> samples,
+                                                                                   int maxDictionarySize) {
+        // Check that the type exists.
+        getRecordMetaData().getRecordType(recordTypeName);
+        final Subspace dictionarySubspace = compressionDictionarySubspace();
+        // The last id, read without snapshot so that concurrent training conflicts.
+        final CompletableFuture<Integer> idFuture = ensureContextActive().getRange(dictionarySubspace.range(), 1, true).asList()
+                .thenApply(last -> last.isEmpty() ? 1 : (int)dictionarySubspace.unpack(last.get(0).getKey()).getLong(0) + 1);
+        return idFuture.thenApply(id -> {
+            final byte[] data = CompressionDictionaryTrainer.train(samples, maxDictionarySize);
+            if (data.length == 0) {
+                throw new RecordCoreException("records have nothing in common to train compression dictionary from",
+                        LogMessageKeys.RECORD_TYPE, recordTypeName,
+                        LogMessageKeys.RECORD_COUNT, samples.size());
+            }
+            ensureContextActive().set(dictionarySubspace.pack(Tuple.from(id)), Tuple.from(recordTypeName, data).pack());
+            return new CompressionDictionary(id, recordTypeName, data);
+        });
+    }
+
+    /**
+     * Load all the compression dictionaries that have been trained for this store, typically to add them to a
+     * {@link CompressionDictionaryCache} before reading records.
+     * @return a future that completes to the dictionaries, in order of id
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public CompletableFuture<List<CompressionDictionary>> loadCompressionDictionariesAsync() {
+        final Subspace dictionarySubspace = compressionDictionarySubspace();
+        return ensureContextActive().getRange(dictionarySubspace.range()).asList().thenApply(keyValues -> keyValues.stream()
+                .map(kv -> {
+                    final Tuple value = Tuple.fromBytes(kv.getValue());
+                    return new CompressionDictionary((int)dictionarySubspace.unpack(kv.getKey()).getLong(0), value.getString(0), value.getBytes(1));
+                })
+                .collect(Collectors.toList()));
+    }
+
     /**
      * Get the maintainer for a given index.
      * @param index the required index
@@ -845,8 +1038,72 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                                                                                         @Nonnull final Tuple primaryKey,
                                                                                         @Nonnull ExecuteState executeState,
                                                                                         final boolean snapshot) {
+        return loadTypedRecord(typedSerializer, primaryKey, executeState, snapshot, null);
+    }
+
+    @Nonnull
+    private <M extends Message> CompletableFuture<FDBStoredRecord<M>> loadTypedRecord(@Nonnull RecordSerializer<M> typedSerializer,
+                                                                                      @Nonnull final Tuple primaryKey,
+                                                                                      @Nonnull ExecuteState executeState,
+                                                                                      final boolean snapshot,
+                                                                                      @Nullable AtomicReference<FDBRawRecord> rawRecordHolder) {
+        // A load that needs the raw record cannot be satisfied from the cache, but still fills it.
+        final FDBTransactionRecordCache.Future cacheFuture;
+        if (transactionRecordCache == null) {
+            cacheFuture = null;
+        } else {
+            if (rawRecordHolder == null) {
+                final FDBTransactionRecordCache.Entry entry = transactionRecordCache.get(primaryKey, typedSerializer, snapshot);
+                if (entry != null) {
+                    increment(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_HIT);
+                    return CompletableFuture.completedFuture(entry.getRecord());
+                }
+                increment(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS);
+            }
+            cacheFuture = transactionRecordCache.beginLoad(primaryKey, typedSerializer, snapshot);
+        }
         final RecordMetaData metaData = metaDataProvider.getRecordMetaData();
 
+        CompletableFuture<FDBStoredRecord<M>> result;
+        final FDBStoredRecord<M> versionedCachedRecord = versionedRecordCache == null || rawRecordHolder != null ? null :
+                versionedRecordCache.get(recordsSubspace(), primaryKey, typedSerializer, metaData);
+        if (versionedCachedRecord != null) {
+            // Only read the version, and if it has not changed, return the cached record.
+            result = loadRecordVersionAsync(primaryKey, snapshot)
+                    .map(versionFuture -> versionFuture.thenCompose(version -> {
+                        if (versionedCachedRecord.getVersion().equals(version)) {
+                            increment(FDBStoreTimer.Counts.VERSIONED_RECORD_CACHE_HIT);
+                            return CompletableFuture.completedFuture(versionedCachedRecord);
+                        }
+                        increment(FDBStoreTimer.Counts.VERSIONED_RECORD_CACHE_MISS);
+                        return readTypedRecord(typedSerializer, primaryKey, executeState, snapshot, rawRecordHolder, metaData);
+                    }))
+                    .orElseGet(() -> readTypedRecord(typedSerializer, primaryKey, executeState, snapshot, rawRecordHolder, metaData));
+        } else {
+            if (versionedRecordCache != null) {
+                increment(FDBStoreTimer.Counts.VERSIONED_RECORD_CACHE_MISS);
+            }
+            result = readTypedRecord(typedSerializer, primaryKey, executeState, snapshot, rawRecordHolder, metaData);
+        }
+        if (cacheFuture != null) {
+            result = result.whenComplete((storedRecord, err) -> {
+                if (err == null) {
+                    cacheFuture.complete(storedRecord);
+                } else {
+                    cacheFuture.cancel();
+                }
+            });
+        }
+        return context.instrument(FDBStoreTimer.Events.LOAD_RECORD, result);
+    }
+
+    @Nonnull
+    private <M extends Message> CompletableFuture<FDBStoredRecord<M>> readTypedRecord(@Nonnull RecordSerializer<M> typedSerializer,
+                                                                                      @Nonnull final Tuple primaryKey,
+                                                                                      @Nonnull ExecuteState executeState,
+                                                                                      final boolean snapshot,
+                                                                                      @Nullable AtomicReference<FDBRawRecord> rawRecordHolder,
+                                                                                      @Nonnull RecordMetaData metaData) {
         final Optional<CompletableFuture<FDBRecordVersion>> versionFutureOptional;
         if (useOldVersionFormat()) {
             versionFutureOptional = loadRecordVersionAsync(primaryKey);
@@ -861,10 +1118,21 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                     if (byteScanLimiter != null) {
                         byteScanLimiter.registerScannedBytes(sizeInfo.getKeySize() + sizeInfo.getValueSize());
                     }
+                    if (rawRecordHolder != null) {
+                        rawRecordHolder.set(rawRecord);
+                    }
                     return rawRecord == null ? CompletableFuture.completedFuture(null) :
                             deserializeRecord(typedSerializer, rawRecord, metaData, versionFutureOptional);
                 });
-        return context.instrument(FDBStoreTimer.Events.LOAD_RECORD, result);
+        if (versionedRecordCache != null) {
+            result = result.thenApply(storedRecord -> {
+                if (storedRecord != null) {
+                    versionedRecordCache.put(recordsSubspace(), primaryKey, typedSerializer, metaData, storedRecord);
+                }
+                return storedRecord;
+            });
+        }
+        return result;
     }
 
     /**
@@ -947,17 +1215,29 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                                                                                         @Nonnull final RecordMetaData metaData,
                                                                                         @Nonnull final Optional<CompletableFuture<FDBRecordVersion>> versionFutureOptional) {
         final Tuple primaryKey = rawRecord.getPrimaryKey();
-        final byte[] serialized = rawRecord.getRawRecord();
 
         try {
-            final M record = typedSerializer.deserialize(metaData, primaryKey, rawRecord.getRawRecord(), getTimer());
-            final RecordType recordType = metaData.getRecordTypeForDescriptor(record.getDescriptorForType());
+            final FDBStoredRecordBuilder<M> recordBuilder;
+            if (lazyRecordDeserialization) {
+                // Only the record type is needed now; the rest is parsed when asked for.
+                // Partial parsing needs the pieces of a split record joined, and any compression or encryption
+                // undone, so do those once for all the parses.
+                final byte[] cleartext = typedSerializer.toCleartext(metaData, primaryKey, rawRecord.getRawRecord(), getTimer());
+                final RecordSerializer<M> cleartextSerializer = typedSerializer.getCleartextSerializer();
+                final M typeOnly = cleartextSerializer.deserializePartial(metaData, primaryKey, cleartext, Collections.emptySet(), getTimer());
+                final RecordType recordType = metaData.getRecordTypeForDescriptor(typeOnly.getDescriptorForType());
+                recordBuilder = FDBStoredRecord.<M>newBuilder()
+                        .setDeserializer(fieldNames -> deserializeLazyRecord(cleartextSerializer, rawRecord, cleartext, metaData, fieldNames))
+                        .setPrimaryKey(primaryKey).setRecordType(recordType).setSize(rawRecord);
+            } else {
+                final M record = typedSerializer.deserialize(metaData, primaryKey, rawRecord.getRawRecordChunks(), getTimer());
+                final RecordType recordType = metaData.getRecordTypeForDescriptor(record.getDescriptorForType());
+                recordBuilder = FDBStoredRecord.newBuilder(record)
+                        .setPrimaryKey(primaryKey).setRecordType(recordType).setSize(rawRecord);
+            }
             countKeysAndValues(FDBStoreTimer.Counts.LOAD_RECORD_KEY, FDBStoreTimer.Counts.LOAD_RECORD_KEY_BYTES, FDBStoreTimer.Counts.LOAD_RECORD_VALUE_BYTES,
                     rawRecord);
 
-            final FDBStoredRecordBuilder<M> recordBuilder = FDBStoredRecord.newBuilder(record)
-                    .setPrimaryKey(primaryKey).setRecordType(recordType).setSize(rawRecord);
-
             if (rawRecord.hasVersion()) {
                 // In the current format version, the version should be read along with the version,
                 // so this should be hit the majority of the time.
@@ -976,21 +1256,42 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                 return CompletableFuture.completedFuture(recordBuilder.build());
             }
         } catch (Exception ex) {
-            final LoggableException ex2 = new RecordCoreException("Failed to deserialize record", ex);
-            ex2.addLogInfo(
-                    subspaceProvider.logKey(), subspaceProvider.toString(context),
-                    LogMessageKeys.PRIMARY_KEY, primaryKey,
-                    LogMessageKeys.META_DATA_VERSION, metaData.getVersion());
-            if (LOGGER.isDebugEnabled()) {
-                ex2.addLogInfo("serialized", ByteArrayUtil2.loggable(serialized));
-            }
-            if (LOGGER.isTraceEnabled()) {
-                ex2.addLogInfo("descriptor", metaData.getUnionDescriptor().getFile().toProto());
+            throw deserializationFailure(ex, rawRecord, metaData);
+        }
+    }
+
+    @Nonnull
+    private <M extends Message> M deserializeLazyRecord(@Nonnull RecordSerializer<M> typedSerializer, @Nonnull final FDBRawRecord rawRecord,
+                                                        @Nonnull final byte[] serialized,
+                                                        @Nonnull final RecordMetaData metaData, @Nullable Set<String> fieldNames) {
+        try {
+            if (fieldNames == null) {
+                return typedSerializer.deserialize(metaData, rawRecord.getPrimaryKey(), serialized, getTimer());
+            } else {
+                return typedSerializer.deserializePartial(metaData, rawRecord.getPrimaryKey(), serialized, fieldNames, getTimer());
             }
-            throw ex2;
+        } catch (Exception ex) {
+            throw deserializationFailure(ex, rawRecord, metaData);
         }
     }
 
+    @Nonnull
+    private RecordCoreException deserializationFailure(@Nonnull Exception ex, @Nonnull final FDBRawRecord rawRecord,
+                                                       @Nonnull final RecordMetaData metaData) {
+        final RecordCoreException ex2 = new RecordCoreException("Failed to deserialize record", ex);
+        ex2.addLogInfo(
+                subspaceProvider.logKey(), subspaceProvider.toString(context),
+                LogMessageKeys.PRIMARY_KEY, rawRecord.getPrimaryKey(),
+                LogMessageKeys.META_DATA_VERSION, metaData.getVersion());
+        if (LOGGER.isDebugEnabled()) {
+            ex2.addLogInfo("serialized", ByteArrayUtil2.loggable(rawRecord.getRawRecord()));
+        }
+        if (LOGGER.isTraceEnabled()) {
+            ex2.addLogInfo("descriptor", metaData.getUnionDescriptor().getFile().toProto());
+        }
+        return ex2;
+    }
+
     protected void countKeysAndValues(@Nonnull final FDBStoreTimer.Count key,
                                       @Nonnull final FDBStoreTimer.Count keyBytes,
                                       @Nonnull final FDBStoreTimer.Count valueBytes,
@@ -1037,6 +1338,207 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                 .thenApply(rawRecord -> null);
     }
 
+    @Override
+    @Nonnull
+    public CompletableFuture<Void> preloadRecordsAsync(@Nonnull Collection<Tuple> primaryKeys) {
+        return preloadRecordsAsync(primaryKeys, DEFAULT_PRELOAD_RECORDS_MAX_BYTES);
+    }
+
+    /**
+     * Get records into the preload cache, so that later loads of them in this transaction do not need to read them.
+     *
+     * Primary keys that are already preloaded or being preloaded are skipped. The rest are sorted, and each run of keys
+     * that differ only by consecutive integers in their last element, such as those of records saved with sequential
+     * identifiers, is read with a single range read. Other keys are read individually. Up to the
+     * {@link PipelineOperation#KEY_TO_RECORD} pipeline size of these reads are done at once, and no more are started
+     * while the bytes expected to be read by those in progress, going by the size of the records read so far, would
+     * exceed {@code maxBytes}. Every record is still read, but later reads wait for earlier ones to finish.
+     * @param primaryKeys the primary keys of the records to preload
+     * @param maxBytes the most bytes of records to be reading at once, unless a single read needs more
+     * @return a future that will complete when the records are preloaded
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public CompletableFuture<Void> preloadRecordsAsync(@Nonnull Collection<Tuple> primaryKeys, long maxBytes) {
+        final SortedMap<Tuple, FDBPreloadRecordCache.Future> futures = new TreeMap<>();
+        for (Tuple primaryKey : primaryKeys) {
+            if (!futures.containsKey(primaryKey)) {
+                final FDBPreloadRecordCache.Future futureRecord = preloadCache.beginPrefetchIfAbsent(primaryKey);
+                if (futureRecord != null) {
+                    futures.put(primaryKey, futureRecord);
+                }
+            }
+        }
+        if (futures.isEmpty()) {
+            return AsyncUtil.DONE;
+        }
+        final List<List<Tuple>> runs = new ArrayList<>();
+        List<Tuple> run = null;
+        Tuple previous = null;
+        for (Tuple primaryKey : futures.keySet()) {
+            if (run == null || !isNextPrimaryKey(previous, primaryKey)) {
+                run = new ArrayList<>();
+                runs.add(run);
+            }
+            run.add(primaryKey);
+            previous = primaryKey;
+        }
+        return new PreloadRuns(runs, futures, maxBytes, getPipelineSize(PipelineOperation.KEY_TO_RECORD)).start();
+    }
+
+    /**
+     * Whether no primary key of the same form can come between two sorted primary keys, because they only differ
+     * in their last element, which is an integer one greater in the second.
+     */
+    private static boolean isNextPrimaryKey(@Nonnull Tuple previous, @Nonnull Tuple primaryKey) {
+        final int size = primaryKey.size();
+        if (size == 0 || size != previous.size()) {
+            return false;
+        }
+        final Object last = primaryKey.get(size - 1);
+        final Object previousLast = previous.get(size - 1);
+        if (!(last instanceof Long) || !(previousLast instanceof Long) || (Long)last != (Long)previousLast + 1) {
+            return false;
+        }
+        for (int i = 0; i < size - 1; i++) {
+            if (!Objects.equals(primaryKey.get(i), previous.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The reads of runs of primary keys for one call to {@link #preloadRecordsAsync(Collection, long)}.
+     */
+    private class PreloadRuns {
+        @Nonnull
+        private final List<List<Tuple>> runs;
+        // Cache entries this call has neither completed nor cancelled. Whoever removes one completes or cancels it,
+        // so that one already completed, or one registered again by a later preload, is never cancelled.
+        @Nonnull
+        private final Map<Tuple, FDBPreloadRecordCache.Future> pending;
+        private final long maxBytes;
+        private final int pipelineSize;
+        @Nonnull
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private int nextRun;
+        private int runsInProgress;
+        // The bytes expected to be read by the runs in progress.
+        private long bytesInProgress;
+        private long recordsRead;
+        private long bytesRead;
+        private boolean failed;
+
+        PreloadRuns(@Nonnull List<List<Tuple>> runs, @Nonnull Map<Tuple, FDBPreloadRecordCache.Future> futures,
+                    long maxBytes, int pipelineSize) {
+            this.runs = runs;
+            this.pending = new ConcurrentHashMap<>(futures);
+            this.maxBytes = maxBytes;
+            this.pipelineSize = pipelineSize;
+        }
+
+        @Nonnull
+        CompletableFuture<Void> start() {
+            startRuns();
+            return result;
+        }
+
+        private void startRuns() {
+            final List<List<Tuple>> started = new ArrayList<>();
+            final List<Long> estimates = new ArrayList<>();
+            final boolean done;
+            synchronized (this) {
+                while (!failed && nextRun < runs.size() && runsInProgress < pipelineSize) {
+                    final List<Tuple> runKeys = runs.get(nextRun);
+                    final long estimate = recordsRead == 0 ? 0 : bytesRead * runKeys.size() / recordsRead;
+                    // Wait for some of those in progress to finish, but always keep one going.
+                    if (runsInProgress > 0 && bytesInProgress + estimate > maxBytes) {
+                        break;
+                    }
+                    nextRun++;
+                    runsInProgress++;
+                    bytesInProgress += estimate;
+                    started.add(runKeys);
+                    estimates.add(estimate);
+                }
+                done = !failed && nextRun == runs.size() && runsInProgress == 0;
+            }
+            if (done) {
+                result.complete(null);
+            }
+            for (int i = 0; i < started.size(); i++) {
+                final List<Tuple> runKeys = started.get(i);
+                final long estimate = estimates.get(i);
+                readRun(runKeys).whenCompleteAsync((vignore, ex) -> runDone(estimate, ex), getExecutor());
+            }
+        }
+
+        private void runDone(long estimate, @Nullable Throwable ex) {
+            synchronized (this) {
+                runsInProgress--;
+                bytesInProgress -= estimate;
+                if (ex != null) {
+                    failed = true;
+                }
+            }
+            if (ex != null) {
+                // Release the keys this call will no longer read, including those whose reads were never started.
+                for (Tuple primaryKey : pending.keySet()) {
+                    final FDBPreloadRecordCache.Future futureRecord = pending.remove(primaryKey);
+                    if (futureRecord != null) {
+                        futureRecord.cancel();
+                    }
+                }
+                result.completeExceptionally(ex);
+            } else {
+                startRuns();
+            }
+        }
+
+        private synchronized void recordRead(@Nonnull FDBRawRecord rawRecord) {
+            recordsRead++;
+            bytesRead += rawRecord.getKeySize() + rawRecord.getValueSize();
+        }
+
+        private void complete(@Nonnull Tuple primaryKey, @Nullable FDBRawRecord rawRecord) {
+            final FDBPreloadRecordCache.Future futureRecord = pending.remove(primaryKey);
+            if (futureRecord != null) {
+                futureRecord.complete(rawRecord);
+            }
+        }
+
+        @Nonnull
+        private CompletableFuture<Void> readRun(@Nonnull List<Tuple> runKeys) {
+            if (runKeys.size() == 1) {
+                final Tuple primaryKey = runKeys.get(0);
+                return loadRawRecordFromDatabase(primaryKey, null, false).thenAccept(rawRecord -> {
+                    if (rawRecord != null) {
+                        recordRead(rawRecord);
+                    }
+                    complete(primaryKey, rawRecord);
+                });
+            }
+            increment(FDBStoreTimer.Counts.PRELOAD_RECORDS_RANGE_READ);
+            final Set<Tuple> remainingKeys = new HashSet<>(runKeys);
+            final ScanProperties scanProperties = new ScanProperties(ExecuteProperties.SERIAL_EXECUTE, false, CursorStreamingMode.WANT_ALL);
+            return scanRawRecords(runKeys.get(0), runKeys.get(runKeys.size() - 1), EndpointType.RANGE_INCLUSIVE, EndpointType.RANGE_INCLUSIVE, null, scanProperties)
+                    .forEach(rawRecord -> {
+                        // The range can also contain records with longer primary keys, which were not asked for.
+                        if (remainingKeys.remove(rawRecord.getPrimaryKey())) {
+                            recordRead(rawRecord);
+                            complete(rawRecord.getPrimaryKey(), rawRecord);
+                        }
+                    })
+                    .thenRun(() -> {
+                        // Those not found do not exist.
+                        for (Tuple primaryKey : remainingKeys) {
+                            complete(primaryKey, null);
+                        }
+                    });
+        }
+    }
+
     @Override
     @Nonnull
     public CompletableFuture<Boolean> recordExistsAsync(@Nonnull final Tuple primaryKey, @Nonnull final IsolationLevel isolationLevel) {
@@ -1078,11 +1580,17 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         if (entry != null) {
             return CompletableFuture.completedFuture(entry.orElse(null));
         }
+        return loadRawRecordFromDatabase(primaryKey, sizeInfo, snapshot);
+    }
 
+    @Nonnull
+    private CompletableFuture<FDBRawRecord> loadRawRecordFromDatabase(@Nonnull final Tuple primaryKey,
+                                                                      @Nullable final SplitHelper.SizeInfo sizeInfo,
+                                                                      final boolean snapshot) {
         final RecordMetaData metaData = metaDataProvider.getRecordMetaData();
         final ReadTransaction tr = snapshot ? ensureContextActive().snapshot() : ensureContextActive();
         return SplitHelper.loadWithSplit(tr, context, recordsSubspace(),
-                primaryKey, metaData.isSplitLongRecords(), omitUnsplitRecordSuffix, sizeInfo);
+                primaryKey, metaData.isSplitLongRecords(), omitUnsplitRecordSuffix, sizeInfo, splitRecordReadConcurrency);
     }
 
     @Override
@@ -1101,6 +1609,27 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                                                                                  @Nullable byte[] continuation,
                                                                                  @Nonnull ScanProperties scanProperties) {
         final RecordMetaData metaData = metaDataProvider.getRecordMetaData();
+        final RecordCursor<FDBRawRecord> rawRecords = scanRawRecords(low, high, lowEndpoint, highEndpoint, continuation, scanProperties);
+        RecordCursor<FDBStoredRecord<M>> result = rawRecords.mapPipelined(rawRecord -> {
+            final Optional<CompletableFuture<FDBRecordVersion>> versionFutureOptional;
+            if (useOldVersionFormat()) {
+                // Older format versions: do a separate read to get the version.
+                versionFutureOptional = loadRecordVersionAsync(rawRecord.getPrimaryKey(), scanProperties.getExecuteProperties().getIsolationLevel().isSnapshot());
+            } else {
+                // Newer format versions: the version is either in the record or it is not -- do not do another read.
+                versionFutureOptional = Optional.empty();
+            }
+            return deserializeRecord(typedSerializer, rawRecord, metaData, versionFutureOptional);
+        }, getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD));
+        return context.instrument(FDBStoreTimer.Events.SCAN_RECORDS, result);
+    }
+
+    @Nonnull
+    private RecordCursor<FDBRawRecord> scanRawRecords(@Nullable final Tuple low, @Nullable final Tuple high,
+                                                      @Nonnull final EndpointType lowEndpoint, @Nonnull final EndpointType highEndpoint,
+                                                      @Nullable byte[] continuation,
+                                                      @Nonnull ScanProperties scanProperties) {
+        final RecordMetaData metaData = metaDataProvider.getRecordMetaData();
         final Subspace recordsSubspace = recordsSubspace();
         final SplitHelper.SizeInfo sizeInfo = new SplitHelper.SizeInfo();
         final RecordCursor<FDBRawRecord> rawRecords;
@@ -1148,18 +1677,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                     .limitRowsTo(scanProperties.getExecuteProperties().getReturnedRowLimit());
             }
         }
-        RecordCursor<FDBStoredRecord<M>> result = rawRecords.mapPipelined(rawRecord -> {
-            final Optional<CompletableFuture<FDBRecordVersion>> versionFutureOptional;
-            if (useOldVersionFormat()) {
-                // Older format versions: do a separate read to get the version.
-                versionFutureOptional = loadRecordVersionAsync(rawRecord.getPrimaryKey(), scanProperties.getExecuteProperties().getIsolationLevel().isSnapshot());
-            } else {
-                // Newer format versions: the version is either in the record or it is not -- do not do another read.
-                versionFutureOptional = Optional.empty();
-            }
-            return deserializeRecord(typedSerializer, rawRecord, metaData, versionFutureOptional);
-        }, pipelineSizer.getPipelineSize(PipelineOperation.KEY_TO_RECORD));
-        return context.instrument(FDBStoreTimer.Events.SCAN_RECORDS, result);
+        return rawRecords;
     }
 
     @Override
@@ -1247,6 +1765,8 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                 return AsyncUtil.READY_FALSE;
             }
             SplitHelper.deleteSplit(getRecordContext(), recordsSubspace(), primaryKey, metaData.isSplitLongRecords(), omitUnsplitRecordSuffix, true, oldRecord);
+            // Loading the old record put it in the cache.
+            invalidateCachedRecords(primaryKey);
             countKeysAndValues(FDBStoreTimer.Counts.DELETE_RECORD_KEY, FDBStoreTimer.Counts.DELETE_RECORD_KEY_BYTES, FDBStoreTimer.Counts.DELETE_RECORD_VALUE_BYTES,
                     oldRecord);
             addRecordCount(metaData, oldRecord, LITTLE_ENDIAN_INT64_MINUS_ONE);
@@ -1316,6 +1836,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     @Override
     public void deleteAllRecords() {
         preloadCache.invalidateAll();
+        invalidateCachedRecords(null);
         Transaction tr = ensureContextActive();
 
         // Clear out all data except for the store header key and the index state space.
@@ -1329,7 +1850,39 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     @Override
     public CompletableFuture<Void> deleteRecordsWhereAsync(@Nonnull QueryComponent component) {
         preloadCache.invalidateAll();
-        return new RecordsWhereDeleter(component).run();
+        invalidateCachedRecords(null);
+        // A load that runs while the deleter is still working out what to clear can read a record before it is
+        // cleared, so invalidate again once the records are gone.
+        return new RecordsWhereDeleter(component).run().whenComplete((vignore, err) -> {
+            preloadCache.invalidateAll();
+            invalidateCachedRecords(null);
+        });
+    }
+
+    private void invalidateCachedRecords(@Nullable Tuple primaryKey) {
+        if (transactionRecordCache != null) {
+            if (primaryKey == null) {
+                transactionRecordCache.invalidateAll();
+            } else {
+                transactionRecordCache.invalidate(primaryKey);
+            }
+        }
+        // Entries in the versioned record cache are validated when used, so it need not be cleared when all records are deleted,
+        // but leaving the old version of a changed record would prevent caching the new one.
+        if (versionedRecordCache != null && primaryKey != null) {
+            versionedRecordCache.invalidate(recordsSubspace(), primaryKey);
+        }
+    }
+
+    /**
+     * Get the most records that are kept after being loaded, to be returned without another read if loaded again
+     * in the same transaction.
+     * @return the transaction record cache size, or {@code 0} if loaded records are not cached
+     * @see Builder#setTransactionRecordCacheSize
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public int getTransactionRecordCacheSize() {
+        return transactionRecordCacheSize;
     }
 
     /**
@@ -1657,8 +2210,20 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     @Override
     @Nonnull
     public RecordQueryPlan planQuery(@Nonnull RecordQuery query) {
+        return planQuery(query, ReadTransaction.ROW_LIMIT_UNLIMITED);
+    }
+
+    @Override
+    @Nonnull
+    public RecordQueryPlan planQuery(@Nonnull RecordQuery query, int rowLimit) {
         final RecordQueryPlanner planner = new RecordQueryPlanner(getRecordMetaData(), getRecordStoreState());
-        return planner.plan(query);
+        if (plannerConfiguration != null) {
+            planner.setConfiguration(plannerConfiguration);
+        }
+        if (queryPlanCache != null) {
+            return queryPlanCache.plan(planner, query, rowLimit, getTimer());
+        }
+        return planner.plan(query, rowLimit);
     }
 
 
@@ -1867,6 +2432,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
             // to the records). In a record store where the only corruption is the lack of a store header, then if the store has no records,
             // INDEX_UNIQUENESS_VIOLATIONS_SPACE and RECORD_VERSION_SPACE should be empty as well, but this isn't validated. In theory, if the
             // RECORD_COUNT keyspace was zero, that would be consistent, so it would be "safe" to only warn then as well.
+            // COMPRESSION_DICTIONARY_SPACE is also excluded, since its dictionaries are needed to read the records.
             if (FDBRecordStoreKeyspace.INDEX_STATE_SPACE.equals(keyspace) || FDBRecordStoreKeyspace.INDEX_RANGE_SPACE.equals(keyspace) || FDBRecordStoreKeyspace.INDEX_BUILD_SPACE.equals(keyspace)) {
                 LOGGER.warn(KeyValueLogMessage.of("Record store has no info or records but is not empty",
                         subspaceProvider.logKey(), subspaceProvider.toString(context),
@@ -2128,6 +2694,94 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         return recordStoreStateRef.get().getStoreHeader().getCacheable();
     }
 
+    /**
+     * Set the size of the pieces into which long records are split in this record store, unless their
+     * {@linkplain RecordType#getSplitRecordSize() record type sets its own}. This only has an effect if the meta-data
+     * {@linkplain RecordMetaData#isSplitLongRecords() splits long records}.
+     *
+     * <p>
+     * Smaller pieces make each key-value pair cheaper to write and keep individual values further below the
+     * database's value size limit, at the cost of more keys to read for each record. Records are read back the same
+     * way whatever size they were split with, so this can be changed at any time; existing records keep their old
+     * pieces until they are next saved.
+     * </p>
+     *
+     * <p>
+     * The size is kept in the store header, so, like the {@linkplain #setHeaderUserFieldAsync(String, ByteString) header user fields},
+     * changing it conflicts with all concurrent operations on the record store. Using this feature also requires that
+     * the record store be on format version {@link #SPLIT_RECORD_SIZE_FORMAT_VERSION} or higher, so that every
+     * instance writing to the store splits records with the same size.
+     * </p>
+     *
+     * @param splitRecordSize the split size in bytes, at most {@link SplitHelper#SPLIT_RECORD_SIZE}, or {@code 0} to use that default
+     * @return a future that will complete to {@code true} if the split size has changed
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public CompletableFuture<Boolean> setSplitRecordSizeAsync(int splitRecordSize) {
+        if (recordStoreStateRef.get() == null) {
+            return preloadRecordStoreStateAsync().thenCompose(vignore -> setSplitRecordSizeAsync(splitRecordSize));
+        }
+        if (formatVersion < SPLIT_RECORD_SIZE_FORMAT_VERSION) {
+            throw recordCoreException("cannot set split record size at format version " + formatVersion);
+        }
+        if (splitRecordSize < 0 || splitRecordSize > SplitHelper.SPLIT_RECORD_SIZE) {
+            throw new RecordCoreArgumentException("split record size must be between 1 and " + SplitHelper.SPLIT_RECORD_SIZE + ", or 0 for the default",
+                    LogMessageKeys.VALUE_SIZE, splitRecordSize);
+        }
+        if (getStoreSplitRecordSize() == splitRecordSize) {
+            return AsyncUtil.READY_FALSE;
+        } else {
+            return updateStoreHeaderAsync(headerBuilder -> splitRecordSize == 0 ? headerBuilder.clearSplitRecordSize() : headerBuilder.setSplitRecordSize(splitRecordSize))
+                    .thenApply(ignore -> true);
+        }
+    }
+
+    /**
+     * Set the size of the pieces into which long records are split in this record store. This operation might block
+     * if the record store state has not yet been loaded. Use {@link #setSplitRecordSizeAsync(int)} in asynchronous contexts.
+     *
+     * @param splitRecordSize the split size in bytes or {@code 0} for the default
+     * @return whether the split size has changed
+     * @see #setSplitRecordSizeAsync(int)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public boolean setSplitRecordSize(int splitRecordSize) {
+        return context.asyncToSync(FDBStoreTimer.Waits.WAIT_SET_SPLIT_RECORD_SIZE, setSplitRecordSizeAsync(splitRecordSize));
+    }
+
+    /**
+     * Get the size of the pieces into which long records are split in this record store, as set by
+     * {@link #setSplitRecordSizeAsync(int)}.
+     * @return the split size in bytes or {@code 0} if the default is used
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public int getStoreSplitRecordSize() {
+        if (recordStoreStateRef.get() == null) {
+            throw uninitializedStoreException("cannot get split record size on uninitialized store");
+        }
+        return recordStoreStateRef.get().getStoreHeader().getSplitRecordSize();
+    }
+
+    /**
+     * Get the size of the pieces into which long records of the given type are split when saved to this record store.
+     * This is the size set for the record type, if any, else that set for the record store, if any,
+     * else {@link SplitHelper#SPLIT_RECORD_SIZE}.
+     * @param recordType the type of record being saved
+     * @return the split size in bytes
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public int getSplitRecordSize(@Nonnull RecordType recordType) {
+        if (recordType.getSplitRecordSize() > 0) {
+            return recordType.getSplitRecordSize();
+        }
+        final MutableRecordStoreState storeState = recordStoreStateRef.get();
+        if (storeState != null && storeState.getStoreHeader().getSplitRecordSize() > 0) {
+            return storeState.getStoreHeader().getSplitRecordSize();
+        }
+        return SplitHelper.SPLIT_RECORD_SIZE;
+    }
+
     private void validateCanAccessHeaderUserFields() {
         if (formatVersion < HEADER_USER_FIELDS_FORMAT_VERSION) {
             throw recordCoreException("cannot access header user fields at current format version",
@@ -3642,9 +4296,12 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     @API(API.Status.EXPERIMENTAL)
     @Nonnull
     public RecordCursor<Tuple> getPrimaryKeyBoundaries(@Nonnull Tuple low, @Nonnull Tuple high) {
+        return getPrimaryKeyBoundaries(recordsSubspace().pack(low), recordsSubspace().pack(high));
+    }
+
+    @Nonnull
+    private RecordCursor<Tuple> getPrimaryKeyBoundaries(@Nonnull byte[] rangeStart, @Nonnull byte[] rangeEnd) {
         final Transaction transaction = ensureContextActive();
-        byte[] rangeStart = recordsSubspace().pack(low);
-        byte[] rangeEnd = recordsSubspace().pack(high);
         CloseableAsyncIterator<byte[]> cursor = context.getDatabase().getLocalityProvider().getBoundaryKeys(transaction, rangeStart, rangeEnd);
         final boolean hasSplitRecordSuffix = hasSplitRecordSuffix();
         DistinctFilterCursorClosure closure = new DistinctFilterCursorClosure();
@@ -3660,6 +4317,44 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                 .filter(closure::pred);
     }
 
+    /**
+     * Scan the records in a range of primary keys by splitting the range at the boundaries returned by
+     * {@link #getPrimaryKeyBoundaries(Tuple, Tuple)} and reading several of the resulting partitions concurrently.
+     * This spreads the reads of a large scan across the storage servers responsible for the range, rather than reading
+     * from one at a time.
+     * <p>
+     * If {@link ParallelScanProperties#isOrdered()}, records are returned in primary key order, just as from
+     * {@link #scanRecords(TupleRange, byte[], ScanProperties)}. Otherwise, they are returned in the order that they are
+     * read. The continuation of the returned cursor can only be given back to this method with the same range and
+     * parallel scan properties; it records how the range was split so that resuming does not depend on the current
+     * shard boundaries.
+     * <p>
+     * Any scan limits in the given scan properties are shared by all the partitions. The skip and returned row limit are
+     * applied to the combined results.
+     *
+     * @param range the range of primary keys to scan
+     * @param continuation any continuation from a previous scan
+     * @param scanProperties skip, limit and other scan properties
+     * @param parallelScanProperties how many partitions to read at once and how much to read ahead
+     * @return a cursor that will scan the records in the given range
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public RecordCursor<FDBStoredRecord<Message>> scanRecordsParallel(@Nonnull TupleRange range, @Nullable byte[] continuation,
+                                                                      @Nonnull ScanProperties scanProperties,
+                                                                      @Nonnull ParallelScanProperties parallelScanProperties) {
+        final ScanProperties partitionScanProperties = scanProperties.with(ExecuteProperties::clearSkipAndLimit);
+        return ParallelScanCursor.create(range,
+                () -> {
+                    final Range keyRange = range.toRange(recordsSubspace());
+                    return getPrimaryKeyBoundaries(keyRange.begin, keyRange.end).asList();
+                },
+                (partitionRange, partitionContinuation) -> scanRecords(partitionRange, partitionContinuation, partitionScanProperties),
+                rec -> rec.getKeySize() + rec.getValueSize(),
+                parallelScanProperties, scanProperties.isReverse(), continuation, getExecutor())
+                .skipThenLimit(scanProperties.getExecuteProperties().getSkip(), scanProperties.getExecuteProperties().getReturnedRowLimit());
+    }
+
     private static class DistinctFilterCursorClosure {
         private Tuple previousKey = null;
 
@@ -3886,6 +4581,23 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         @Nullable
         private FDBRecordStoreStateCache storeStateCache = null;
 
+        private boolean lazyRecordDeserialization = false;
+
+        private int splitRecordReadConcurrency = 1;
+
+        private boolean splitRecordDeltaWrites = false;
+
+        private int transactionRecordCacheSize = 0;
+
+        @Nullable
+        private FDBVersionedRecordCache versionedRecordCache = null;
+
+        @Nullable
+        private QueryPlanCache queryPlanCache = null;
+
+        @Nullable
+        private RecordQueryPlannerConfiguration plannerConfiguration = null;
+
         protected Builder() {
         }
 
@@ -3913,6 +4625,13 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
             this.indexMaintenanceFilter = other.indexMaintenanceFilter;
             this.pipelineSizer = other.pipelineSizer;
             this.storeStateCache = other.storeStateCache;
+            this.lazyRecordDeserialization = other.lazyRecordDeserialization;
+            this.splitRecordReadConcurrency = other.splitRecordReadConcurrency;
+            this.splitRecordDeltaWrites = other.splitRecordDeltaWrites;
+            this.transactionRecordCacheSize = other.transactionRecordCacheSize;
+            this.versionedRecordCache = other.versionedRecordCache;
+            this.queryPlanCache = other.queryPlanCache;
+            this.plannerConfiguration = other.plannerConfiguration;
         }
 
         /**
@@ -3929,6 +4648,13 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
             this.indexMaintenanceFilter = store.indexMaintenanceFilter;
             this.pipelineSizer = store.pipelineSizer;
             this.storeStateCache = store.storeStateCache;
+            this.lazyRecordDeserialization = store.lazyRecordDeserialization;
+            this.splitRecordReadConcurrency = store.splitRecordReadConcurrency;
+            this.splitRecordDeltaWrites = store.splitRecordDeltaWrites;
+            this.transactionRecordCacheSize = store.transactionRecordCacheSize;
+            this.versionedRecordCache = store.versionedRecordCache;
+            this.queryPlanCache = store.queryPlanCache;
+            this.plannerConfiguration = store.plannerConfiguration;
         }
 
         @Override
@@ -4094,6 +4820,101 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
             return this;
         }
 
+        @Override
+        public boolean isLazyRecordDeserialization() {
+            return lazyRecordDeserialization;
+        }
+
+        @Override
+        @Nonnull
+        public Builder setLazyRecordDeserialization(boolean lazyRecordDeserialization) {
+            this.lazyRecordDeserialization = lazyRecordDeserialization;
+            return this;
+        }
+
+        @Override
+        public int getSplitRecordReadConcurrency() {
+            return splitRecordReadConcurrency;
+        }
+
+        @Override
+        @Nonnull
+        public Builder setSplitRecordReadConcurrency(int splitRecordReadConcurrency) {
+            if (splitRecordReadConcurrency < 1) {
+                throw new RecordCoreArgumentException("split record read concurrency must be positive")
+                        .addLogInfo("splitRecordReadConcurrency", splitRecordReadConcurrency);
+            }
+            this.splitRecordReadConcurrency = splitRecordReadConcurrency;
+            return this;
+        }
+
+        @Override
+        public boolean isSplitRecordDeltaWrites() {
+            return splitRecordDeltaWrites;
+        }
+
+        @Override
+        @Nonnull
+        public Builder setSplitRecordDeltaWrites(boolean splitRecordDeltaWrites) {
+            this.splitRecordDeltaWrites = splitRecordDeltaWrites;
+            return this;
+        }
+
+        @Override
+        public int getTransactionRecordCacheSize() {
+            return transactionRecordCacheSize;
+        }
+
+        @Override
+        @Nonnull
+        public Builder setTransactionRecordCacheSize(int transactionRecordCacheSize) {
+            if (transactionRecordCacheSize < 0) {
+                throw new RecordCoreArgumentException("transaction record cache size must not be negative")
+                        .addLogInfo("transactionRecordCacheSize", transactionRecordCacheSize);
+            }
+            this.transactionRecordCacheSize = transactionRecordCacheSize;
+            return this;
+        }
+
+        @Override
+        @Nullable
+        public FDBVersionedRecordCache getVersionedRecordCache() {
+            return versionedRecordCache;
+        }
+
+        @Override
+        @Nonnull
+        public Builder setVersionedRecordCache(@Nullable FDBVersionedRecordCache versionedRecordCache) {
+            this.versionedRecordCache = versionedRecordCache;
+            return this;
+        }
+
+        @Override
+        @Nullable
+        public QueryPlanCache getQueryPlanCache() {
+            return queryPlanCache;
+        }
+
+        @Override
+        @Nonnull
+        public Builder setQueryPlanCache(@Nullable QueryPlanCache queryPlanCache) {
+            this.queryPlanCache = queryPlanCache;
+            return this;
+        }
+
+        @Override
+        @Nullable
+        public RecordQueryPlannerConfiguration getPlannerConfiguration() {
+            return plannerConfiguration;
+        }
+
+        @Override
+        @Nonnull
+        public Builder setPlannerConfiguration(@Nullable RecordQueryPlannerConfiguration plannerConfiguration) {
+            this.plannerConfiguration = plannerConfiguration;
+            return this;
+        }
+
         @Override
         @Nonnull
         public Builder copyBuilder() {
@@ -4115,7 +4936,9 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                 throw new RecordCoreException("serializer must be supplied");
             }
             return new FDBRecordStore(context, subspaceProvider, formatVersion, getMetaDataProviderForBuild(),
-                    serializer, indexMaintainerRegistry, indexMaintenanceFilter, pipelineSizer, storeStateCache);
+                    serializer, indexMaintainerRegistry, indexMaintenanceFilter, pipelineSizer, storeStateCache, lazyRecordDeserialization,
+                    splitRecordReadConcurrency, splitRecordDeltaWrites, transactionRecordCacheSize, versionedRecordCache,
+                    queryPlanCache, plannerConfiguration);
         }
 
         @Override
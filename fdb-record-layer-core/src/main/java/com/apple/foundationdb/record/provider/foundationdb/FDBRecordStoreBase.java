@@ -21,6 +21,7 @@
 package com.apple.foundationdb.record.provider.foundationdb;
 
 import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
 import com.apple.foundationdb.record.EndpointType;
 import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.ExecuteProperties;
@@ -40,6 +41,7 @@ import com.apple.foundationdb.record.RecordMetaDataProvider;
 import com.apple.foundationdb.record.RecordScanLimiter;
 import com.apple.foundationdb.record.ScanProperties;
 import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.record.cursors.PipelineSizeAdjuster;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.IndexAggregateFunction;
@@ -54,7 +56,9 @@ import com.apple.foundationdb.record.provider.foundationdb.keyspace.KeySpacePath
 import com.apple.foundationdb.record.provider.foundationdb.storestate.FDBRecordStoreStateCache;
 import com.apple.foundationdb.record.query.RecordQuery;
 import com.apple.foundationdb.record.query.expressions.QueryComponent;
+import com.apple.foundationdb.record.query.plan.QueryPlanCache;
 import com.apple.foundationdb.record.query.plan.RecordQueryPlanner;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
 import com.apple.foundationdb.subspace.Subspace;
 import com.apple.foundationdb.tuple.Tuple;
@@ -63,11 +67,13 @@ import com.google.protobuf.Message;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 /**
  * Base interface for typed and untyped record stores.
@@ -528,6 +534,20 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
     @Nonnull
     CompletableFuture<Void> preloadRecordAsync(@Nonnull Tuple primaryKey);
 
+    /**
+     * Get several records into FDB RYW cache.
+     * As with {@link #preloadRecordAsync}, later loads of these records in the same transaction can then use the
+     * records read, but this can also avoid preloading the same record twice and can read records with adjacent
+     * primary keys together.
+     * @param primaryKeys the primary keys for the records to retrieve
+     * @return a future that will return {@code null} when the records are preloaded
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default CompletableFuture<Void> preloadRecordsAsync(@Nonnull Collection<Tuple> primaryKeys) {
+        return AsyncUtil.whenAll(primaryKeys.stream().map(this::preloadRecordAsync).collect(Collectors.toList()));
+    }
+
     /**
      * Check if a record exists in the record store with the given primary key.
      * This performs its reads at the {@link IsolationLevel#SERIALIZABLE} isolation level.
@@ -907,7 +927,7 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
                                                                 @Nonnull IndexOrphanBehavior orphanBehavior,
                                                                 @Nonnull ExecuteState executeState) {
         RecordCursor<FDBIndexedRecord<M>> recordCursor = indexCursor.mapPipelined(entry ->
-                loadIndexEntryRecord(index, entry, orphanBehavior, executeState), getPipelineSize(PipelineOperation.INDEX_TO_RECORD));
+                loadIndexEntryRecord(index, entry, orphanBehavior, executeState), getPipelineSizeAdjuster(PipelineOperation.INDEX_TO_RECORD));
         if (orphanBehavior == IndexOrphanBehavior.SKIP) {
             recordCursor = recordCursor.filter(Objects::nonNull);
         }
@@ -928,7 +948,7 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
                                                                 @Nonnull IndexOrphanBehavior orphanBehavior,
                                                                 @Nonnull ExecuteState executeState) {
         RecordCursor<FDBIndexedRecord<M>> recordCursor = indexCursor.mapPipelined(entry ->
-                loadIndexEntryRecord(entry, orphanBehavior, executeState), getPipelineSize(PipelineOperation.INDEX_TO_RECORD));
+                loadIndexEntryRecord(entry, orphanBehavior, executeState), getPipelineSizeAdjuster(PipelineOperation.INDEX_TO_RECORD));
         if (orphanBehavior == IndexOrphanBehavior.SKIP) {
             recordCursor = recordCursor.filter(Objects::nonNull);
         }
@@ -1388,6 +1408,21 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
      */
     interface PipelineSizer {
         int getPipelineSize(@Nonnull PipelineOperation pipelineOperation);
+
+        /**
+         * Get an adjuster for the size of one pipeline for an operation of the given type. By default, the size is
+         * fixed at {@link #getPipelineSize}. A sizer that learns from how pipelines perform, such as an
+         * {@link AdaptivePipelineSizer}, returns an adjuster that reports back to it.
+         * @param pipelineOperation the operation
+         * @param context the transaction in which the pipeline runs
+         * @return an adjuster for the size of a new pipeline
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        default PipelineSizeAdjuster getPipelineSizeAdjuster(@Nonnull PipelineOperation pipelineOperation,
+                                                             @Nonnull FDBRecordContext context) {
+            return PipelineSizeAdjuster.fixed(getPipelineSize(pipelineOperation));
+        }
     }
 
     /**
@@ -1407,6 +1442,18 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
         return getPipelineSizer().getPipelineSize(pipelineOperation);
     }
 
+    /**
+     * Get an adjuster for the size of one asynchronous pipeline for an operation of the given type.
+     * @param pipelineOperation the operation
+     * @return an adjuster for the number of elements to pipeline
+     * @see PipelineSizer#getPipelineSizeAdjuster
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default PipelineSizeAdjuster getPipelineSizeAdjuster(@Nonnull PipelineOperation pipelineOperation) {
+        return getPipelineSizer().getPipelineSizeAdjuster(pipelineOperation, getContext());
+    }
+
     /**
      * Get the number of records in the record store.
      *
@@ -1676,6 +1723,23 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
     @Nonnull
     RecordQueryPlan planQuery(@Nonnull RecordQuery query);
 
+    /**
+     * Plan a query, when it is known how many of its results will be read.
+     *
+     * With a small enough limit, a sort that no index matches can be planned to keep only that many records,
+     * if the store's {@linkplain BaseBuilder#setPlannerConfiguration planner configuration} allows it.
+     * Such a plan never returns more than that many records in all, so the limit must cover every page
+     * read with continuations, not just one execution.
+     * @param query the query to plan
+     * @param rowLimit the maximum number of records that will be read from the plan, including any that are skipped,
+     * or {@link com.apple.foundationdb.ReadTransaction#ROW_LIMIT_UNLIMITED} if not known
+     * @return a query plan
+     * @see RecordQueryPlanner#plan(RecordQuery, int)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    RecordQueryPlan planQuery(@Nonnull RecordQuery query, int rowLimit);
+
     /**
      * Builder for {@link FDBRecordStoreBase}.
      * @param <M> type used to represent stored records
@@ -1890,6 +1954,163 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
         @Nonnull
         BaseBuilder<M, R> setStoreStateCache(@Nonnull FDBRecordStoreStateCache storeStateCache);
 
+        /**
+         * Get whether records loaded by the record store are deserialized lazily.
+         * @return {@code true} if records are only deserialized when needed
+         * @see #setLazyRecordDeserialization
+         */
+        @API(API.Status.EXPERIMENTAL)
+        boolean isLazyRecordDeserialization();
+
+        /**
+         * Set whether records loaded by the record store are deserialized lazily.
+         *
+         * When this is enabled, loading a record only works out its type. Its Protobuf message is not parsed until
+         * {@link FDBRecord#getRecord} is called. Before that, {@link FDBRecord#getRecordWithFields} only parses the
+         * requested fields, if the serializer supports {@link RecordSerializer#deserializePartial partial deserialization}.
+         * Query filters use this to skip over fields that they do not reference, so that records that they reject are
+         * never parsed in full. A record that is not valid may then only fail to deserialize when it is used.
+         * @param lazyRecordDeserialization {@code true} to only deserialize records when needed
+         * @return this builder
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        BaseBuilder<M, R> setLazyRecordDeserialization(boolean lazyRecordDeserialization);
+
+        /**
+         * Get the most range reads used concurrently to load a single split record.
+         * @return the split record read concurrency
+         * @see #setSplitRecordReadConcurrency
+         */
+        @API(API.Status.EXPERIMENTAL)
+        int getSplitRecordReadConcurrency();
+
+        /**
+         * Set the most range reads used concurrently to load a single split record.
+         *
+         * By default, a record is loaded with a single range read, which for a record split into many keys streams
+         * them all from one storage server in a sequence of batches. With a higher concurrency, once the first keys
+         * show a record to be split, the rest are divided into that many ranges, which are read concurrently.
+         * This costs an extra round trip for records split into only a few keys, so it is best used for stores
+         * whose records are often large.
+         * @param splitRecordReadConcurrency the most range reads to use for one record, or {@code 1} to use one
+         * @return this builder
+         * @see SplitHelper
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        BaseBuilder<M, R> setSplitRecordReadConcurrency(int splitRecordReadConcurrency);
+
+        /**
+         * Get whether saving a split record only writes the keys whose values have changed.
+         * @return {@code true} if unchanged keys of split records are not rewritten
+         * @see #setSplitRecordDeltaWrites
+         */
+        @API(API.Status.EXPERIMENTAL)
+        boolean isSplitRecordDeltaWrites();
+
+        /**
+         * Set whether saving a split record only writes the keys whose values have changed.
+         *
+         * Normally, saving a record clears all the keys of the old record and writes all of those of the new one.
+         * With this enabled, when both old and new records are split, the serialized form of the new record is compared
+         * with that of the old record, which was read anyway to update indexes, and only the keys whose values differ are
+         * written. This reduces the size of transactions that make small changes to large records, but only if the
+         * change leaves most of the serialized form as it was, which is not the case if records are compressed or encrypted.
+         * @param splitRecordDeltaWrites {@code true} to not rewrite unchanged keys of split records
+         * @return this builder
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        BaseBuilder<M, R> setSplitRecordDeltaWrites(boolean splitRecordDeltaWrites);
+
+        /**
+         * Get the most loaded records that the store keeps for the rest of its transaction.
+         * @return the transaction record cache size
+         * @see #setTransactionRecordCacheSize
+         */
+        @API(API.Status.EXPERIMENTAL)
+        int getTransactionRecordCacheSize();
+
+        /**
+         * Set the most loaded records that the store keeps for the rest of its transaction.
+         *
+         * By default, every load of a record reads it from the database and deserializes it again, even if the same record
+         * was loaded earlier in the same transaction. With a cache size, that many of the most recently loaded records
+         * (including ones found not to exist) are kept after deserialization and returned again by later loads of the same
+         * primary key. Saving or deleting a record through this store removes it from the cache, but changes made in the same
+         * transaction through another record store object for the same subspace are not seen, so such use should be avoided
+         * when the cache is enabled.
+         * @param transactionRecordCacheSize the most records to keep, or {@code 0} to not keep loaded records
+         * @return this builder
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        BaseBuilder<M, R> setTransactionRecordCacheSize(int transactionRecordCacheSize);
+
+        /**
+         * Get the cache of records shared with other record stores and transactions.
+         * @return the versioned record cache or {@code null} if loaded records are not shared
+         * @see #setVersionedRecordCache
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nullable
+        FDBVersionedRecordCache getVersionedRecordCache();
+
+        /**
+         * Set a cache of records shared with other record stores and transactions.
+         *
+         * Records loaded by the store are added to the cache, and loading a cached record only reads its version,
+         * returning the cached record if that is unchanged. This only applies to records stored with versions.
+         * @param versionedRecordCache the versioned record cache or {@code null} to not share loaded records
+         * @return this builder
+         * @see FDBVersionedRecordCache
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        BaseBuilder<M, R> setVersionedRecordCache(@Nullable FDBVersionedRecordCache versionedRecordCache);
+
+        /**
+         * Get the cache of query plans shared with other record stores.
+         * @return the query plan cache or {@code null} if every query is planned
+         * @see #setQueryPlanCache
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nullable
+        QueryPlanCache getQueryPlanCache();
+
+        /**
+         * Set a cache of query plans shared with other record stores.
+         *
+         * {@link FDBRecordStoreBase#planQuery} then returns the cached plan for a query planned before with the same
+         * meta-data version and index states, rather than planning it again.
+         * @param queryPlanCache the query plan cache or {@code null} to plan every query
+         * @return this builder
+         * @see QueryPlanCache
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        BaseBuilder<M, R> setQueryPlanCache(@Nullable QueryPlanCache queryPlanCache);
+
+        /**
+         * Get the configuration of the planner used by {@link FDBRecordStoreBase#planQuery}.
+         * @return the planner configuration or {@code null} for the planner's default configuration
+         * @see #setPlannerConfiguration
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nullable
+        RecordQueryPlannerConfiguration getPlannerConfiguration();
+
+        /**
+         * Set the configuration of the planner used by {@link FDBRecordStoreBase#planQuery}.
+         * @param plannerConfiguration the planner configuration or {@code null} for the planner's default configuration
+         * @return this builder
+         * @see RecordQueryPlanner#setConfiguration
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nonnull
+        BaseBuilder<M, R> setPlannerConfiguration(@Nullable RecordQueryPlannerConfiguration plannerConfiguration);
+
         /**
          * Make a copy of this builder.
          * This can be used to share enough of the state to connect to the same record store several times in different transactions.
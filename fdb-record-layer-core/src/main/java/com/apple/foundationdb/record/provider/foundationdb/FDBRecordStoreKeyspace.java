@@ -40,6 +40,8 @@ public enum FDBRecordStoreKeyspace {
     INDEX_UNIQUENESS_VIOLATIONS_SPACE(7L),
     RECORD_VERSION_SPACE(8L),
     INDEX_BUILD_SPACE(9L),
+    @API(API.Status.EXPERIMENTAL)
+    COMPRESSION_DICTIONARY_SPACE(10L),
     ;
 
     private long id;
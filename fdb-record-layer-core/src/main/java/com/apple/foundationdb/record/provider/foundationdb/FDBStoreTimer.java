@@ -400,6 +400,8 @@ public class FDBStoreTimer extends StoreTimer {
         WAIT_GET_BOUNDARY("wait for boundary result from locality api"),
         /** Wait for setting the store state cacheability. */
         WAIT_SET_STATE_CACHEABILITY("wait to set state cacheability"),
+        /** Wait for setting the store split record size. */
+        WAIT_SET_SPLIT_RECORD_SIZE("wait to set split record size"),
         /** Wait for initializing a synchronized session. */
         WAIT_INIT_SYNC_SESSION("wait for initializing a synchronized session"),
         /** Wait for checking a synchronized session. */
@@ -450,12 +452,22 @@ public class FDBStoreTimer extends StoreTimer {
         STORE_STATE_CACHE_HIT("store info cache hit", false),
         /** The number of times the store state cache was unable to return a cached result. */
         STORE_STATE_CACHE_MISS("store info cache miss", false),
+        /** The number of times a record was returned by a record store's transaction record cache instead of being loaded. */
+        TRANSACTION_RECORD_CACHE_HIT("transaction record cache hit", false),
+        /** The number of times a record store with a transaction record cache had to load a record. */
+        TRANSACTION_RECORD_CACHE_MISS("transaction record cache miss", false),
+        /** The number of times a record was returned by the versioned record cache after only reading its version. */
+        VERSIONED_RECORD_CACHE_HIT("versioned record cache hit", false),
+        /** The number of times a record store with a versioned record cache had to load a record. */
+        VERSIONED_RECORD_CACHE_MISS("versioned record cache miss", false),
         /** The number of record key-value pairs saved. */
         SAVE_RECORD_KEY("number of record keys saved", false),
         /** The size of keys for record key-value pairs saved. */
         SAVE_RECORD_KEY_BYTES("number of record key bytes saved", true),
         /** The size of values for record key-value pairs saved. */
         SAVE_RECORD_VALUE_BYTES("number of record value bytes saved", true),
+        /** The number of keys of split records that were not written when saving because their values were unchanged. */
+        SAVE_RECORD_UNCHANGED_SPLIT_KEY("number of unchanged split record keys not saved", false),
         /** The number of entries (e.g., key-value pairs or text index entries) loaded by a scan. */
         LOAD_SCAN_ENTRY("number of entries loaded by some scan", false),
         /** The number of key-value pairs loaded by a range scan. */
@@ -468,6 +480,10 @@ public class FDBStoreTimer extends StoreTimer {
         LOAD_RECORD_KEY_BYTES("number of record key bytes loaded", true),
         /** The size of values for record key-value pairs loaded. */
         LOAD_RECORD_VALUE_BYTES("number of record value bytes loaded", true),
+        /** The number of range reads issued concurrently to load the middle of split records. */
+        LOAD_SPLIT_RECORD_CONCURRENT_RANGE_READ("number of concurrent range reads of split records", false),
+        /** The number of range reads used to preload records with consecutive primary keys together. */
+        PRELOAD_RECORDS_RANGE_READ("number of range reads to preload records", false),
         /** The number of index key-value pairs saved. */
         SAVE_INDEX_KEY("number of index keys saved", false),
         /** The size of keys for index key-value pairs saved. */
@@ -504,6 +520,12 @@ public class FDBStoreTimer extends StoreTimer {
         REVERSE_DIR_PERSISTENT_CACHE_MISS_COUNT("number of persistent cache misses", false),
         /** The number of reverse directory cache hits.  */
         REVERSE_DIR_PERSISTENT_CACHE_HIT_COUNT("number of persistent cache hits", false),
+        /** The number of times a query plan was returned by a {@link com.apple.foundationdb.record.query.plan.QueryPlanCache}. */
+        PLAN_CACHE_HIT("query plan cache hit", false),
+        /** The number of times a query had to be planned because its plan was not in the {@link com.apple.foundationdb.record.query.plan.QueryPlanCache}. */
+        PLAN_CACHE_MISS("query plan cache miss", false),
+        /** The number of times a {@link com.apple.foundationdb.record.query.PreparedQuery} was planned again because its plan was no longer valid. */
+        PREPARED_QUERY_REPLAN("prepared query replanned", false),
         /** The number of query plans that use a covering index. */
         PLAN_COVERING_INDEX("number of covering index plans", false),
         /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryFilterPlan}. */
@@ -532,10 +554,20 @@ public class FDBStoreTimer extends StoreTimer {
         PLAN_DISTINCT("number of unordered distinct plans", false),
         /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryUnorderedPrimaryKeyDistinctPlan}. */
         PLAN_PK_DISTINCT("number of unordered distinct plans by primary key", false),
+        /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQuerySortPlan}. */
+        PLAN_SORT("number of sort plans", false),
+        /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryTopKPlan}. */
+        PLAN_TOP_K("number of top-k sort plans", false),
         /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryFetchFromPartialRecordPlan}. */
         PLAN_FETCH("number of fetch from partial record plans", false),
         /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.bitmap.ComposedBitmapIndexQueryPlan}. */
         PLAN_COMPOSED_BITMAP_INDEX("number of composed bitmap plans", false),
+        /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryAggregatePlan}. */
+        PLAN_AGGREGATE("number of aggregate plans", false),
+        /** The number of sorted runs written to local files by {@link com.apple.foundationdb.record.sorting.FileSortCursor}. */
+        SORT_FILE_RUNS("number of sorted runs written to files", false),
+        /** The number of records written to local files by {@link com.apple.foundationdb.record.sorting.FileSortCursor}. */
+        SORT_FILE_RECORDS("number of records written to sorted runs", false),
         /** The number of records given given to any filter within any plan. */
         QUERY_FILTER_GIVEN("number of records given to any filter within any plan", false),
         /** The number of records passed by any filter within any plan. */
@@ -560,6 +592,18 @@ public class FDBStoreTimer extends StoreTimer {
         QUERY_PK_DISTINCT_PLAN_DUPLICATES("number of duplicates found by RecordQueryUnorderedPrimaryKeyDistinctPlan", false),
         /** The number of unique records found by {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryUnorderedPrimaryKeyDistinctPlan}. */
         QUERY_PK_DISTINCT_PLAN_UNIQUES("number of unique records found by RecordQueryUnorderedPrimaryKeyDistinctPlan", false),
+        /** The number of bytes of memory allocated to hold fingerprints by {@link com.apple.foundationdb.record.sorting.FingerprintDistinctCursor}. */
+        QUERY_DISTINCT_MEMORY_BYTES("bytes of memory allocated for distinct fingerprints", true),
+        /** The number of files of fingerprints written by {@link com.apple.foundationdb.record.sorting.FingerprintDistinctCursor}. */
+        QUERY_DISTINCT_SPILLED_RUNS("number of distinct fingerprint files written", false),
+        /** The number of fingerprints written to files by {@link com.apple.foundationdb.record.sorting.FingerprintDistinctCursor}. */
+        QUERY_DISTINCT_SPILLED_FINGERPRINTS("number of distinct fingerprints written to files", false),
+        /** The number of times {@link com.apple.foundationdb.record.sorting.FingerprintDistinctCursor} looked for a fingerprint in a file. */
+        QUERY_DISTINCT_FILE_LOOKUPS("number of distinct fingerprint file lookups", false),
+        /** The number of groups returned by {@link com.apple.foundationdb.record.cursors.StreamingAggregateCursor}. */
+        QUERY_AGGREGATE_GROUPS("number of aggregate groups returned", false),
+        /** The number of times {@link com.apple.foundationdb.record.cursors.HashAggregateCursor} returned its partial groups because of its memory limit. */
+        QUERY_AGGREGATE_PARTIAL_FLUSHES("number of hash aggregate partial flushes", false),
         /** The number of matching records found by {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryIntersectionPlan}. */
         QUERY_INTERSECTION_PLAN_MATCHES("number of matching records found by RecordQueryIntersectionPlan", false),
         /** The number of non-matching records found by {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryIntersectionPlan}. */
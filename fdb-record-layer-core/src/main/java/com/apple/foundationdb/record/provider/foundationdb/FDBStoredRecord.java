@@ -27,11 +27,16 @@ import com.google.protobuf.Message;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Set;
 
 /**
  * A record stored in the database.
  *
  * Adds information about storage sizes from saving or retrieving.
+ *
+ * A record loaded by a store with {@linkplain FDBRecordStore.Builder#setLazyRecordDeserialization lazy record deserialization}
+ * keeps a {@link Deserializer} instead of the Protobuf message, which is only parsed in full when {@link #getRecord}
+ * is first called. Before that, {@link #getRecordWithFields} parses just the fields that are asked for.
  * @param <M> type used to represent stored records
  * @see FDBRecordStoreBase#saveRecord
  * @see FDBRecordStoreBase#loadRecord
@@ -42,8 +47,11 @@ public class FDBStoredRecord<M extends Message> implements FDBIndexableRecord<M>
     private final Tuple primaryKey;
     @Nonnull
     private final RecordType recordType;
-    @Nonnull
-    private final M record;
+    @Nullable
+    private volatile M record;
+    // Cleared once the record has been deserialized in full, since it may hold on to the store that loaded the record.
+    @Nullable
+    private volatile Deserializer<M> deserializer;
     @Nullable
     private final FDBRecordVersion recordVersion;
 
@@ -63,9 +71,31 @@ public class FDBStoredRecord<M extends Message> implements FDBIndexableRecord<M>
     public FDBStoredRecord(@Nonnull Tuple primaryKey, @Nonnull RecordType recordType, @Nonnull M record,
                            int keyCount, int keySize, int valueSize, boolean split, boolean versionedInline, @Nullable FDBRecordVersion recordVersion) {
 
+        this(primaryKey, recordType, record, null, keyCount, keySize, valueSize, split, versionedInline, recordVersion);
+    }
+
+    /**
+     * Create a stored record that is deserialized when it is first needed.
+     * @param primaryKey the primary key of the record
+     * @param recordType the type of the record
+     * @param deserializer a function to deserialize the record, in whole or in part
+     * @param size the sizes of the record in the database
+     * @param recordVersion the version of the record
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public FDBStoredRecord(@Nonnull Tuple primaryKey, @Nonnull RecordType recordType, @Nonnull Deserializer<M> deserializer,
+                           @Nonnull FDBStoredSizes size, @Nullable FDBRecordVersion recordVersion) {
+        this(primaryKey, recordType, null, deserializer, size.getKeyCount(), size.getKeySize(), size.getValueSize(), size.isSplit(), size.isVersionedInline(), recordVersion);
+    }
+
+    @SuppressWarnings("squid:S00107")
+    private FDBStoredRecord(@Nonnull Tuple primaryKey, @Nonnull RecordType recordType, @Nullable M record, @Nullable Deserializer<M> deserializer,
+                            int keyCount, int keySize, int valueSize, boolean split, boolean versionedInline, @Nullable FDBRecordVersion recordVersion) {
+
         this.primaryKey = primaryKey;
         this.recordType = recordType;
         this.record = record;
+        this.deserializer = deserializer;
 
         this.keyCount = keyCount;
         this.keySize = keySize;
@@ -90,7 +120,39 @@ public class FDBStoredRecord<M extends Message> implements FDBIndexableRecord<M>
     @Override
     @Nonnull
     public M getRecord() {
-        return record;
+        M result = record;
+        if (result == null) {
+            final Deserializer<M> currentDeserializer = deserializer;
+            if (currentDeserializer == null) {
+                // Another thread has just finished, since the record is set before the deserializer is cleared.
+                return record;
+            }
+            // Parsing twice in a race is harmless, since the result is the same.
+            result = currentDeserializer.deserialize(null);
+            record = result;
+            deserializer = null;
+        }
+        return result;
+    }
+
+    @Override
+    @Nonnull
+    public M getRecordWithFields(@Nonnull Set<String> fieldNames) {
+        final M result = record;
+        if (result != null) {
+            return result;
+        }
+        final Deserializer<M> currentDeserializer = deserializer;
+        return currentDeserializer != null ? currentDeserializer.deserialize(fieldNames) : getRecord();
+    }
+
+    /**
+     * Get whether the Protobuf message for this record has been deserialized in full.
+     * @return {@code false} if this record was loaded lazily and {@link #getRecord} has not yet been called
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public boolean isRecordDeserialized() {
+        return record != null;
     }
 
     @Override
@@ -157,7 +219,8 @@ public class FDBStoredRecord<M extends Message> implements FDBIndexableRecord<M>
      */
     @Nonnull
     public FDBStoredRecord<M> withVersion(@Nullable FDBRecordVersion recordVersion) {
-        return new FDBStoredRecord<>(primaryKey, recordType, record, this, recordVersion);
+        final Deserializer<M> currentDeserializer = deserializer;
+        return new FDBStoredRecord<>(primaryKey, recordType, record, currentDeserializer, keyCount, keySize, valueSize, split, versionedInline, recordVersion);
     }
 
     /**
@@ -193,7 +256,7 @@ public class FDBStoredRecord<M extends Message> implements FDBIndexableRecord<M>
         if (!recordType.getName().equals(that.recordType.getName())) {
             return false;
         }
-        if (!record.equals(that.record)) {
+        if (!getRecord().equals(that.getRecord())) {
             return false;
         }
         if (recordVersion == null && that.recordVersion != null || recordVersion != null && !recordVersion.equals(that.recordVersion)) {
@@ -208,7 +271,7 @@ public class FDBStoredRecord<M extends Message> implements FDBIndexableRecord<M>
     public int hashCode() {
         int result = primaryKey.hashCode();
         result = 31 * result + recordType.getName().hashCode();
-        result = 31 * result + record.hashCode();
+        result = 31 * result + getRecord().hashCode();
         result = 31 * result + keyCount;
         result = 31 * result + keySize;
         result = 31 * result + valueSize;
@@ -227,4 +290,22 @@ public class FDBStoredRecord<M extends Message> implements FDBIndexableRecord<M>
         }
         return str.toString();
     }
+
+    /**
+     * A function that deserializes a stored record from the bytes that were loaded.
+     * @param <M> type used to represent stored records
+     * @see FDBRecordStore.Builder#setLazyRecordDeserialization
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @FunctionalInterface
+    public interface Deserializer<M extends Message> {
+        /**
+         * Deserialize the record.
+         * @param fieldNames the names of the top-level fields that need to be present or {@code null} for the whole record
+         * @return the Protobuf message for the record
+         * @see com.apple.foundationdb.record.provider.common.RecordSerializer#deserializePartial
+         */
+        @Nonnull
+        M deserialize(@Nullable Set<String> fieldNames);
+    }
 }
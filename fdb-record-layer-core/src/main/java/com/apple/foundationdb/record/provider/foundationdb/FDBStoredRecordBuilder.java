@@ -42,6 +42,8 @@ public class FDBStoredRecordBuilder<M extends Message> implements FDBRecord<M>,
     @Nullable
     private M record;
     @Nullable
+    private FDBStoredRecord.Deserializer<M> deserializer;
+    @Nullable
     private FDBRecordVersion recordVersion;
 
     private int keyCount;
@@ -137,6 +139,18 @@ public class FDBStoredRecordBuilder<M extends Message> implements FDBRecord<M>,
         return this;
     }
 
+    /**
+     * Set a function to deserialize the record when it is needed, instead of the record itself.
+     * @param deserializer a function to deserialize the record, in whole or in part
+     * @return this builder
+     * @see FDBStoredRecord.Deserializer
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public FDBStoredRecordBuilder<M> setDeserializer(FDBStoredRecord.Deserializer<M> deserializer) {
+        this.deserializer = deserializer;
+        return this;
+    }
+
     public FDBStoredRecordBuilder<M> setVersion(FDBRecordVersion recordVersion) {
         this.recordVersion = recordVersion;
         return this;
@@ -177,6 +191,9 @@ public class FDBStoredRecordBuilder<M extends Message> implements FDBRecord<M>,
     }
 
     public FDBStoredRecord<M> build() {
+        if (record == null && deserializer != null) {
+            return new FDBStoredRecord<>(getPrimaryKey(), getRecordType(), deserializer, this, getVersion());
+        }
         return new FDBStoredRecord<>(getPrimaryKey(), getRecordType(), getRecord(),
                 getKeyCount(), getKeySize(), getValueSize(), isSplit(), isVersionedInline(), getVersion());
     }
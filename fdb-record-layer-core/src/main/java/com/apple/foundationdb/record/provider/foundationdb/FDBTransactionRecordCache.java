@@ -0,0 +1,182 @@
+/*
+ * FDBTransactionRecordCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A cache of the records loaded by a record store within its transaction, after they have been deserialized.
+ *
+ * <p>
+ * Unlike the {@link FDBPreloadRecordCache}, which holds the raw form of records that are expected to be loaded soon,
+ * this holds the result of every load, so that loading the same record again returns the same {@link FDBStoredRecord}
+ * without reading or deserializing it. The record store invalidates an entry whenever it saves or deletes that record,
+ * so only changes made through the same record store are seen. An entry is only used by loads with the same
+ * {@link RecordSerializer} as the one that filled it, since that determines the type of the record, and an entry
+ * filled by a snapshot read is only used by other snapshot reads, since a regular read must add a read conflict.
+ * </p>
+ *
+ * <p>
+ * As with the preload cache, an entry is reserved before the record is read, so that the result of a read that
+ * is overtaken by a save or delete is never made visible.
+ * </p>
+ */
+@API(API.Status.INTERNAL)
+class FDBTransactionRecordCache {
+    @Nonnull
+    private final Cache<Tuple, EntryImpl> cache;
+
+    public FDBTransactionRecordCache(int maximumSize) {
+        // A store is used by one transaction, so there is little contention, and a single segment keeps the most recent entries.
+        cache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Called prior to loading a record, returning a holder that must be filled in with the record when the load
+     * has completed.
+     * @param primaryKey the primary key of the record being loaded
+     * @param serializer the serializer used to deserialize the record
+     * @param snapshot whether the record is being read at snapshot isolation
+     * @return a holder with which to set the loaded record when it has completed
+     */
+    @Nonnull
+    public Future beginLoad(@Nonnull Tuple primaryKey, @Nonnull RecordSerializer<?> serializer, boolean snapshot) {
+        EntryImpl entry = new EntryImpl(primaryKey, serializer, snapshot);
+        cache.put(primaryKey, entry);
+        return entry;
+    }
+
+    /**
+     * Invalidates an entry in the cache, or discards the outstanding result of a load when it completes.
+     * @param primaryKey the primary key of the record to invalidate
+     */
+    public void invalidate(@Nonnull Tuple primaryKey) {
+        cache.invalidate(primaryKey);
+    }
+
+    /**
+     * Clears all entries from the cache. All pending loads will be abandoned.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Fetch an entry from the cache. A return value of {@code null} indicates that no cached entry can be used,
+     * either because the record has not been loaded, its load has not completed, it has since been saved or deleted,
+     * or it was loaded in an incompatible way.
+     * @param primaryKey the primary key of the record to fetch from the cache
+     * @param serializer the serializer that the record is to be deserialized with
+     * @param snapshot whether the record is to be read at snapshot isolation
+     * @return the cached entry or {@code null} if no entry is available in the cache
+     */
+    @Nullable
+    public Entry get(@Nonnull Tuple primaryKey, @Nonnull RecordSerializer<?> serializer, boolean snapshot) {
+        EntryImpl entry = cache.getIfPresent(primaryKey);
+        if (entry != null && entry.isComplete() && entry.serializer == serializer && (snapshot || !entry.snapshot)) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * An entry returned from the cache.
+     */
+    public interface Entry {
+        /**
+         * Get the cached record, whose type is that of the serializer given to {@link #get}.
+         * @param <M> the type of the record
+         * @return the loaded record or {@code null} if the record did not exist
+         */
+        @Nullable
+        <M extends Message> FDBStoredRecord<M> getRecord();
+    }
+
+    /**
+     * A holder that can be used to record a completed load.
+     */
+    public interface Future {
+        /**
+         * To be called to complete the future with the result of the load.
+         * @param record the record that was loaded or {@code null} if the record does not exist
+         */
+        void complete(@Nullable FDBStoredRecord<?> record);
+
+        /**
+         * To be called if the attempt to load the record failed, invalidating the future.
+         */
+        void cancel();
+    }
+
+    /**
+     * The internal representation of a cache entry, which, like that of {@link FDBPreloadRecordCache}, is only
+     * visible once completed and is simply removed from the cache when invalidated.
+     */
+    private class EntryImpl implements Entry, Future {
+        private boolean isComplete;
+
+        @Nullable
+        private FDBStoredRecord<?> record;
+
+        @Nonnull
+        private final Tuple primaryKey;
+        @Nonnull
+        private final RecordSerializer<?> serializer;
+        private final boolean snapshot;
+
+        public EntryImpl(@Nonnull Tuple primaryKey, @Nonnull RecordSerializer<?> serializer, boolean snapshot) {
+            this.primaryKey = primaryKey;
+            this.serializer = serializer;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void cancel() {
+            // Only remove this entry, not one reserved by a later load.
+            cache.asMap().remove(primaryKey, this);
+        }
+
+        @Override
+        public synchronized void complete(@Nullable FDBStoredRecord<?> record) {
+            isComplete = true;
+            this.record = record;
+        }
+
+        private synchronized boolean isComplete() {
+            return isComplete;
+        }
+
+        @Override
+        @Nullable
+        @SuppressWarnings("unchecked")
+        public <M extends Message> FDBStoredRecord<M> getRecord() {
+            return (FDBStoredRecord<M>)record;
+        }
+    }
+}
@@ -47,6 +47,8 @@ import com.apple.foundationdb.record.provider.foundationdb.keyspace.KeySpacePath
 import com.apple.foundationdb.record.provider.foundationdb.storestate.FDBRecordStoreStateCache;
 import com.apple.foundationdb.record.query.RecordQuery;
 import com.apple.foundationdb.record.query.expressions.QueryComponent;
+import com.apple.foundationdb.record.query.plan.QueryPlanCache;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
 import com.apple.foundationdb.subspace.Subspace;
 import com.apple.foundationdb.tuple.Tuple;
@@ -55,6 +57,7 @@ import com.google.protobuf.Message;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
@@ -134,6 +137,12 @@ public class FDBTypedRecordStore<M extends Message> implements FDBRecordStoreBas
         return untypedStore.preloadRecordAsync(primaryKey);
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> preloadRecordsAsync(@Nonnull Collection<Tuple> primaryKeys) {
+        return untypedStore.preloadRecordsAsync(primaryKeys);
+    }
+
     @Nonnull
     @Override
     public CompletableFuture<Boolean> recordExistsAsync(@Nonnull Tuple primaryKey, @Nonnull final IsolationLevel isolationLevel) {
@@ -239,6 +248,12 @@ public class FDBTypedRecordStore<M extends Message> implements FDBRecordStoreBas
         return untypedStore.planQuery(query);
     }
 
+    @Nonnull
+    @Override
+    public RecordQueryPlan planQuery(@Nonnull RecordQuery query, int rowLimit) {
+        return untypedStore.planQuery(query, rowLimit);
+    }
+
     /**
      * A builder for {@link FDBTypedRecordStore}.
      *
@@ -444,6 +459,93 @@ public class FDBTypedRecordStore<M extends Message> implements FDBRecordStoreBas
             return this;
         }
 
+        @Override
+        public boolean isLazyRecordDeserialization() {
+            return untypedStoreBuilder.isLazyRecordDeserialization();
+        }
+
+        @Nonnull
+        @Override
+        public Builder<M> setLazyRecordDeserialization(boolean lazyRecordDeserialization) {
+            untypedStoreBuilder.setLazyRecordDeserialization(lazyRecordDeserialization);
+            return this;
+        }
+
+        @Override
+        public int getSplitRecordReadConcurrency() {
+            return untypedStoreBuilder.getSplitRecordReadConcurrency();
+        }
+
+        @Nonnull
+        @Override
+        public Builder<M> setSplitRecordReadConcurrency(int splitRecordReadConcurrency) {
+            untypedStoreBuilder.setSplitRecordReadConcurrency(splitRecordReadConcurrency);
+            return this;
+        }
+
+        @Override
+        public boolean isSplitRecordDeltaWrites() {
+            return untypedStoreBuilder.isSplitRecordDeltaWrites();
+        }
+
+        @Nonnull
+        @Override
+        public Builder<M> setSplitRecordDeltaWrites(boolean splitRecordDeltaWrites) {
+            untypedStoreBuilder.setSplitRecordDeltaWrites(splitRecordDeltaWrites);
+            return this;
+        }
+
+        @Override
+        public int getTransactionRecordCacheSize() {
+            return untypedStoreBuilder.getTransactionRecordCacheSize();
+        }
+
+        @Nonnull
+        @Override
+        public Builder<M> setTransactionRecordCacheSize(int transactionRecordCacheSize) {
+            untypedStoreBuilder.setTransactionRecordCacheSize(transactionRecordCacheSize);
+            return this;
+        }
+
+        @Override
+        @Nullable
+        public FDBVersionedRecordCache getVersionedRecordCache() {
+            return untypedStoreBuilder.getVersionedRecordCache();
+        }
+
+        @Nonnull
+        @Override
+        public Builder<M> setVersionedRecordCache(@Nullable FDBVersionedRecordCache versionedRecordCache) {
+            untypedStoreBuilder.setVersionedRecordCache(versionedRecordCache);
+            return this;
+        }
+
+        @Override
+        @Nullable
+        public QueryPlanCache getQueryPlanCache() {
+            return untypedStoreBuilder.getQueryPlanCache();
+        }
+
+        @Nonnull
+        @Override
+        public Builder<M> setQueryPlanCache(@Nullable QueryPlanCache queryPlanCache) {
+            untypedStoreBuilder.setQueryPlanCache(queryPlanCache);
+            return this;
+        }
+
+        @Override
+        @Nullable
+        public RecordQueryPlannerConfiguration getPlannerConfiguration() {
+            return untypedStoreBuilder.getPlannerConfiguration();
+        }
+
+        @Nonnull
+        @Override
+        public Builder<M> setPlannerConfiguration(@Nullable RecordQueryPlannerConfiguration plannerConfiguration) {
+            untypedStoreBuilder.setPlannerConfiguration(plannerConfiguration);
+            return this;
+        }
+
         @Nonnull
         @Override
         public CompletableFuture<FDBTypedRecordStore<M>> uncheckedOpenAsync() {
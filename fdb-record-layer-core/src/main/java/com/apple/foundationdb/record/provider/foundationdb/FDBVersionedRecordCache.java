@@ -0,0 +1,157 @@
+/*
+ * FDBVersionedRecordCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.Message;
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A cache of deserialized records that is shared by record stores across transactions.
+ *
+ * <p>
+ * When a record store is given one of these with {@link FDBRecordStore.Builder#setVersionedRecordCache}, records that it
+ * loads are kept here, keyed by the store's records subspace and the primary key. A later load of the same record,
+ * in any transaction, then only reads the record's version: if it matches that of the cached record, the cached record
+ * is returned without reading its (possibly many) keys and deserializing it again. Otherwise, the record is loaded as usual
+ * and replaces the cached one. Only records stored with a complete version are kept, so only stores whose meta-data has
+ * {@linkplain RecordMetaData#isStoreRecordVersions() record versions} enabled benefit.
+ * </p>
+ *
+ * <p>
+ * Since the version is read in the loading transaction, with a read conflict unless the load is a snapshot load,
+ * the record returned is always the one that a full load would have returned, provided that every change to a record
+ * also changes its version, which is the case unless records are saved with explicitly chosen versions.
+ * A cached record is only returned to loads with the same {@link RecordSerializer} and meta-data version as the load
+ * that cached it. Since stores are identified by their subspace, a cache should only be shared by stores in
+ * the same database.
+ * </p>
+ *
+ * <p>
+ * Records are always cached deserialized in full, even if the store that loaded them has
+ * {@linkplain FDBRecordStore.Builder#setLazyRecordDeserialization lazy record deserialization}, so that the cache does
+ * not keep that store and its transaction reachable.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class FDBVersionedRecordCache {
+    /**
+     * The default maximum number of records kept.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    @Nonnull
+    private final Cache<Pair<Subspace, Tuple>, Entry> cache;
+
+    public FDBVersionedRecordCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public FDBVersionedRecordCache(int maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Get a cached record, which must still be validated against the record's current version.
+     * @param recordsSubspace the records subspace of the record store
+     * @param primaryKey the primary key of the record
+     * @param serializer the serializer that the record is to be deserialized with
+     * @param metaData the meta-data of the record store
+     * @param <M> the type of the record
+     * @return the cached record or {@code null} if there is no compatible cached record
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <M extends Message> FDBStoredRecord<M> get(@Nonnull Subspace recordsSubspace, @Nonnull Tuple primaryKey,
+                                                      @Nonnull RecordSerializer<M> serializer, @Nonnull RecordMetaData metaData) {
+        final Entry entry = cache.getIfPresent(Pair.of(recordsSubspace, primaryKey));
+        if (entry != null && entry.serializer == serializer && entry.metaDataVersion == metaData.getVersion()) {
+            return (FDBStoredRecord<M>)entry.record;
+        }
+        return null;
+    }
+
+    /**
+     * Add a loaded record to the cache, if it has a complete version.
+     * A lazily loaded record is deserialized in full first, using the store that loaded it.
+     * @param recordsSubspace the records subspace of the record store
+     * @param primaryKey the primary key of the record
+     * @param serializer the serializer that the record was deserialized with
+     * @param metaData the meta-data of the record store
+     * @param record the loaded record
+     */
+    public void put(@Nonnull Subspace recordsSubspace, @Nonnull Tuple primaryKey,
+                    @Nonnull RecordSerializer<?> serializer, @Nonnull RecordMetaData metaData,
+                    @Nonnull FDBStoredRecord<?> record) {
+        if (record.hasVersion() && record.getVersion().isComplete()) {
+            // This also lets go of any deserializer, which refers to the store that loaded the record.
+            record.getRecord();
+            cache.put(Pair.of(recordsSubspace, primaryKey), new Entry(serializer, metaData.getVersion(), record));
+        }
+    }
+
+    /**
+     * Remove a record from the cache.
+     * @param recordsSubspace the records subspace of the record store
+     * @param primaryKey the primary key of the record
+     */
+    public void invalidate(@Nonnull Subspace recordsSubspace, @Nonnull Tuple primaryKey) {
+        cache.invalidate(Pair.of(recordsSubspace, primaryKey));
+    }
+
+    /**
+     * Remove all records from the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Get the approximate number of records in the cache.
+     * @return the number of cached records
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    private static class Entry {
+        @Nonnull
+        private final RecordSerializer<?> serializer;
+        private final int metaDataVersion;
+        @Nonnull
+        private final FDBStoredRecord<?> record;
+
+        Entry(@Nonnull RecordSerializer<?> serializer, int metaDataVersion, @Nonnull FDBStoredRecord<?> record) {
+            this.serializer = serializer;
+            this.metaDataVersion = metaDataVersion;
+            this.record = record;
+        }
+    }
+}
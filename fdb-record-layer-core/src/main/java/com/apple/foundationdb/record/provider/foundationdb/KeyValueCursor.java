@@ -31,6 +31,7 @@ import com.apple.foundationdb.record.CursorStreamingMode;
 import com.apple.foundationdb.record.EndpointType;
 import com.apple.foundationdb.record.KeyRange;
 import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursorBatch;
 import com.apple.foundationdb.record.RecordCursorContinuation;
 import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.ScanProperties;
@@ -44,7 +45,9 @@ import com.apple.foundationdb.tuple.Tuple;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -91,36 +94,98 @@ public class KeyValueCursor extends AsyncIteratorCursor<KeyValue> implements Bas
             return iterator.onHasNext().thenApply(hasNext -> {
                 mayGetContinuation = !hasNext;
                 if (hasNext) {
-                    KeyValue kv = iterator.next();
-                    if (context != null) {
-                        context.increment(FDBStoreTimer.Counts.LOAD_SCAN_ENTRY);
-                        context.increment(FDBStoreTimer.Counts.LOAD_KEY_VALUE);
-                    }
-                    limitManager.reportScannedBytes(kv.getKey().length + kv.getValue().length);
-                    // Note that this mutates the pointer and NOT the array.
-                    // If the value of lastKey is mutated, the Continuation class will break.
-                    lastKey = kv.getKey();
-                    valuesSeen++;
+                    KeyValue kv = nextKeyValue();
                     nextResult = RecordCursorResult.withNextValue(kv, continuationHelper());
-                } else if (valuesSeen >= valuesLimit) {
-                    // Source iterator hit limit that we passed down.
-                    nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), NoNextReason.RETURN_LIMIT_REACHED);
                 } else {
-                    // Source iterator is exhausted.
-                    nextResult = RecordCursorResult.exhausted();
+                    nextResult = noNextResult();
                 }
                 return nextResult;
             });
         } else { // a limit must have been exceeded
-            final Optional<NoNextReason> stoppedReason = limitManager.getStoppedReason();
-            if (!stoppedReason.isPresent()) {
-                throw new RecordCoreException("limit manager stopped KeyValueCursor but did not report a reason");
-            }
-            nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), stoppedReason.get());
+            nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), getStoppedReason());
             return CompletableFuture.completedFuture(nextResult);
         }
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorBatch<KeyValue>> onNextBatch(int maxSize) {
+        RecordCursorBatch.validateMaxSize(maxSize);
+        if (nextResult != null && !nextResult.hasNext()) {
+            // Same guard as in onNext.
+            return CompletableFuture.completedFuture(RecordCursorBatch.stopped(nextResult));
+        } else if (limitManager.tryRecordScan()) {
+            return iterator.onHasNext().thenApply(hasNext -> {
+                final List<KeyValue> values = new ArrayList<>(Math.min(maxSize, 16));
+                boolean more = hasNext;
+                while (more) {
+                    values.add(nextKeyValue());
+                    if (values.size() >= maxSize) {
+                        break;
+                    }
+                    // Only keep going while the iterator already has the next key-value buffered locally. Anything
+                    // else needs another read, so hand back what we have rather than waiting.
+                    final CompletableFuture<Boolean> hasNextFuture = iterator.onHasNext();
+                    if (!hasNextFuture.isDone() || hasNextFuture.isCompletedExceptionally()) {
+                        break;
+                    }
+                    // Account for each scan exactly as the equivalent sequence of calls to onNext would.
+                    if (!limitManager.tryRecordScan()) {
+                        nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), getStoppedReason());
+                        return RecordCursorBatch.stopped(values, nextResult);
+                    }
+                    more = hasNextFuture.join();
+                }
+                mayGetContinuation = !more;
+                if (more) {
+                    final RecordCursorContinuation continuation = continuationHelper();
+                    nextResult = RecordCursorResult.withNextValue(values.get(values.size() - 1), continuation);
+                    return RecordCursorBatch.withValues(values, continuation);
+                }
+                nextResult = noNextResult();
+                return RecordCursorBatch.stopped(values, nextResult);
+            });
+        } else { // a limit must have been exceeded
+            nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), getStoppedReason());
+            return CompletableFuture.completedFuture(RecordCursorBatch.stopped(nextResult));
+        }
+    }
+
+    @Nonnull
+    private KeyValue nextKeyValue() {
+        KeyValue kv = iterator.next();
+        if (context != null) {
+            context.increment(FDBStoreTimer.Counts.LOAD_SCAN_ENTRY);
+            context.increment(FDBStoreTimer.Counts.LOAD_KEY_VALUE);
+        }
+        limitManager.reportScannedBytes(kv.getKey().length + kv.getValue().length);
+        // Note that this mutates the pointer and NOT the array.
+        // If the value of lastKey is mutated, the Continuation class will break.
+        lastKey = kv.getKey();
+        valuesSeen++;
+        return kv;
+    }
+
+    @Nonnull
+    private RecordCursorResult<KeyValue> noNextResult() {
+        if (valuesSeen >= valuesLimit) {
+            // Source iterator hit limit that we passed down.
+            return RecordCursorResult.withoutNextValue(continuationHelper(), NoNextReason.RETURN_LIMIT_REACHED);
+        } else {
+            // Source iterator is exhausted.
+            return RecordCursorResult.exhausted();
+        }
+    }
+
+    @Nonnull
+    private NoNextReason getStoppedReason() {
+        final Optional<NoNextReason> stoppedReason = limitManager.getStoppedReason();
+        if (!stoppedReason.isPresent()) {
+            throw new RecordCoreException("limit manager stopped KeyValueCursor but did not report a reason");
+        }
+        return stoppedReason.get();
+    }
+
     @Override
     @Nonnull
     public RecordCursorResult<KeyValue> getNext() {
@@ -42,6 +42,7 @@ import com.apple.foundationdb.record.cursors.CursorLimitManager;
 import com.apple.foundationdb.record.cursors.IllegalContinuationAccessChecker;
 import com.apple.foundationdb.record.logging.KeyValueLogMessage;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.common.ChunkedBytes;
 import com.apple.foundationdb.subspace.Subspace;
 import com.apple.foundationdb.tuple.ByteArrayUtil;
 import com.apple.foundationdb.tuple.ByteArrayUtil2;
@@ -52,7 +53,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
@@ -70,6 +76,8 @@ public class SplitHelper {
     /**
      * If a record is greater than this size (in bytes),
      * it will be split into multiple kv pairs.
+     * This is the default size, and also the largest allowed, when a smaller split size is configured
+     * for the record store or the record type.
      */
     public static final int SPLIT_RECORD_SIZE = 100_000; // 100K
 
@@ -88,6 +96,9 @@ public class SplitHelper {
      */
     public static final long START_SPLIT_RECORD = 1L;
 
+    // The number of keys read first when reading a record concurrently.
+    private static final int FIRST_CONCURRENT_READ_LIMIT = 3;
+
     private SplitHelper() {
     }
 
@@ -122,6 +133,80 @@ public class SplitHelper {
                                      final boolean splitLongRecords, final boolean omitUnsplitSuffix,
                                      final boolean clearBasedOnPreviousSizeInfo, @Nullable final FDBStoredSizes previousSizeInfo,
                                      @Nullable SizeInfo sizeInfo) {
+        saveWithSplit(context, subspace, key, serialized, version, splitLongRecords, omitUnsplitSuffix,
+                clearBasedOnPreviousSizeInfo, previousSizeInfo, null, sizeInfo);
+    }
+
+    /**
+     * Save serialized representation using multiple keys if necessary, only writing those keys of a split record
+     * whose values have changed.
+     *
+     * <p>
+     * If both the previous and the new record are split, each key's new value is compared with its previous value,
+     * given by {@code previousSplitValues}, and the key is only written if they differ. Any keys of the previous
+     * record past the end of the new one are cleared. Otherwise, this is the same as
+     * {@link #saveWithSplit(FDBRecordContext, Subspace, Tuple, byte[], FDBRecordVersion, boolean, boolean, boolean, FDBStoredSizes, SizeInfo)}.
+     * This only saves anything when a change leaves most of the serialized form as it was, which is not the case
+     * if it is compressed or encrypted.
+     * </p>
+     *
+     * @param context write transaction
+     * @param subspace subspace to save in
+     * @param key key within subspace
+     * @param serialized serialized representation
+     * @param version the version to store inline with this record
+     * @param splitLongRecords <code>true</code> if multiple keys should be used; if <code>false</code>, <code>serialized</code> must fit in a single key
+     * @param omitUnsplitSuffix if <code>splitLongRecords</code> is <code>false</code>, then this will omit a suffix added to the end of the key if <code>true</code> for backwards-compatibility reasons
+     * @param clearBasedOnPreviousSizeInfo if <code>splitLongRecords</code>, whether to use <code>previousSizeInfo</code> to determine how much to clear
+     * @param previousSizeInfo if <code>clearBasedOnPreviousSizeInfo</code>, the {@link FDBStoredSizes} for any old record, or <code>null</code> if there was no old record
+     * @param previousSplitValues if <code>clearBasedOnPreviousSizeInfo</code>, the values of the keys of any old record, one chunk per key, as read by {@link #loadWithSplit}
+     * @param sizeInfo optional size information to populate
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @SuppressWarnings("squid:S00107") // too many parameters
+    public static void saveWithSplit(@Nonnull final FDBRecordContext context, @Nonnull final Subspace subspace,
+                                     @Nonnull final Tuple key, @Nonnull final byte[] serialized, @Nullable final FDBRecordVersion version,
+                                     final boolean splitLongRecords, final boolean omitUnsplitSuffix,
+                                     final boolean clearBasedOnPreviousSizeInfo, @Nullable final FDBStoredSizes previousSizeInfo,
+                                     @Nullable ChunkedBytes previousSplitValues, @Nullable SizeInfo sizeInfo) {
+        saveWithSplit(context, subspace, key, serialized, version, splitLongRecords, omitUnsplitSuffix,
+                clearBasedOnPreviousSizeInfo, previousSizeInfo, previousSplitValues, SPLIT_RECORD_SIZE, sizeInfo);
+    }
+
+    /**
+     * Save serialized representation using multiple keys of at most the given size if necessary.
+     *
+     * <p>
+     * Records are read back in the same way whatever size they were split with, so the size can be changed at any
+     * time, including between saves of the same record. Otherwise, this is the same as
+     * {@link #saveWithSplit(FDBRecordContext, Subspace, Tuple, byte[], FDBRecordVersion, boolean, boolean, boolean, FDBStoredSizes, ChunkedBytes, SizeInfo)}.
+     * </p>
+     *
+     * @param context write transaction
+     * @param subspace subspace to save in
+     * @param key key within subspace
+     * @param serialized serialized representation
+     * @param version the version to store inline with this record
+     * @param splitLongRecords <code>true</code> if multiple keys should be used; if <code>false</code>, <code>serialized</code> must fit in a single key
+     * @param omitUnsplitSuffix if <code>splitLongRecords</code> is <code>false</code>, then this will omit a suffix added to the end of the key if <code>true</code> for backwards-compatibility reasons
+     * @param clearBasedOnPreviousSizeInfo if <code>splitLongRecords</code>, whether to use <code>previousSizeInfo</code> to determine how much to clear
+     * @param previousSizeInfo if <code>clearBasedOnPreviousSizeInfo</code>, the {@link FDBStoredSizes} for any old record, or <code>null</code> if there was no old record
+     * @param previousSplitValues if <code>clearBasedOnPreviousSizeInfo</code>, the values of the keys of any old record, one chunk per key, as read by {@link #loadWithSplit}
+     * @param splitRecordSize if <code>splitLongRecords</code>, the most bytes to store in each key, at most {@link #SPLIT_RECORD_SIZE}
+     * @param sizeInfo optional size information to populate
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @SuppressWarnings("squid:S00107") // too many parameters
+    public static void saveWithSplit(@Nonnull final FDBRecordContext context, @Nonnull final Subspace subspace,
+                                     @Nonnull final Tuple key, @Nonnull final byte[] serialized, @Nullable final FDBRecordVersion version,
+                                     final boolean splitLongRecords, final boolean omitUnsplitSuffix,
+                                     final boolean clearBasedOnPreviousSizeInfo, @Nullable final FDBStoredSizes previousSizeInfo,
+                                     @Nullable ChunkedBytes previousSplitValues, final int splitRecordSize, @Nullable SizeInfo sizeInfo) {
+        if (splitRecordSize < 1 || splitRecordSize > SPLIT_RECORD_SIZE) {
+            throw new RecordCoreArgumentException("Split record size must be between 1 and " + SPLIT_RECORD_SIZE)
+                    .addLogInfo(LogMessageKeys.KEY_TUPLE, key)
+                    .addLogInfo(LogMessageKeys.VALUE_SIZE, splitRecordSize);
+        }
         if (omitUnsplitSuffix && version != null) {
             throw new RecordCoreArgumentException("Cannot include version in-line using old unsplit record format")
                     .addLogInfo(LogMessageKeys.KEY_TUPLE, key)
@@ -129,14 +214,19 @@ public class SplitHelper {
                     .addLogInfo(LogMessageKeys.VERSION, version);
         }
         final Transaction tr = context.ensureActive();
-        if (serialized.length > SplitHelper.SPLIT_RECORD_SIZE) {
+        if (serialized.length > (splitLongRecords ? splitRecordSize : SPLIT_RECORD_SIZE)) {
             if (!splitLongRecords) {
                 throw new RecordCoreException("Record is too long to be stored in a single value; consider split_long_records")
                         .addLogInfo(LogMessageKeys.KEY_TUPLE, key)
                         .addLogInfo(LogMessageKeys.SUBSPACE, ByteArrayUtil2.loggable(subspace.pack()))
                         .addLogInfo(LogMessageKeys.VALUE_SIZE, serialized.length);
             }
-            writeSplitRecord(context, subspace, key, serialized, clearBasedOnPreviousSizeInfo, previousSizeInfo, sizeInfo);
+            if (clearBasedOnPreviousSizeInfo && previousSizeInfo != null && previousSizeInfo.isSplit() && previousSplitValues != null &&
+                    previousSplitValues.getChunkCount() == previousSizeInfo.getKeyCount() - (previousSizeInfo.isVersionedInline() ? 1 : 0)) {
+                writeChangedSplitRecord(context, subspace, key, serialized, previousSizeInfo, previousSplitValues, splitRecordSize, sizeInfo);
+            } else {
+                writeSplitRecord(context, subspace, key, serialized, clearBasedOnPreviousSizeInfo, previousSizeInfo, splitRecordSize, sizeInfo);
+            }
         } else {
             if (splitLongRecords || previousSizeInfo == null || previousSizeInfo.isVersionedInline()) {
                 clearPreviousSplitRecord(context, subspace, key, clearBasedOnPreviousSizeInfo, previousSizeInfo);
@@ -160,14 +250,14 @@ public class SplitHelper {
     private static void writeSplitRecord(@Nonnull final FDBRecordContext context, @Nonnull final Subspace subspace,
                                          @Nonnull final Tuple key, @Nonnull final byte[] serialized,
                                          final boolean clearBasedOnPreviousSizeInfo, @Nullable final FDBStoredSizes previousSizeInfo,
-                                         @Nullable SizeInfo sizeInfo) {
+                                         final int splitRecordSize, @Nullable SizeInfo sizeInfo) {
         final Transaction tr = context.ensureActive();
         final Subspace keySplitSubspace = subspace.subspace(key);
         clearPreviousSplitRecord(context, subspace, key, clearBasedOnPreviousSizeInfo, previousSizeInfo);
         long index = SplitHelper.START_SPLIT_RECORD;
         int offset = 0;
         while (offset < serialized.length) {
-            int nextOffset = offset + SplitHelper.SPLIT_RECORD_SIZE;
+            int nextOffset = offset + splitRecordSize;
             if (nextOffset > serialized.length) {
                 nextOffset = serialized.length;
             }
@@ -187,6 +277,73 @@ public class SplitHelper {
         }
     }
 
+    // Like writeSplitRecord, but leaving alone keys whose value is the same as before.
+    private static void writeChangedSplitRecord(@Nonnull final FDBRecordContext context, @Nonnull final Subspace subspace,
+                                                @Nonnull final Tuple key, @Nonnull final byte[] serialized,
+                                                @Nonnull final FDBStoredSizes previousSizeInfo, @Nonnull final ChunkedBytes previousSplitValues,
+                                                final int splitRecordSize, @Nullable SizeInfo sizeInfo) {
+        final Transaction tr = context.ensureActive();
+        final Subspace keySplitSubspace = subspace.subspace(key);
+        long index = SplitHelper.START_SPLIT_RECORD;
+        int chunk = 0;
+        int offset = 0;
+        int unchanged = 0;
+        while (offset < serialized.length) {
+            int nextOffset = offset + splitRecordSize;
+            if (nextOffset > serialized.length) {
+                nextOffset = serialized.length;
+            }
+            final byte[] keyBytes = keySplitSubspace.pack(index);
+            final byte[] valueBytes;
+            if (chunk < previousSplitValues.getChunkCount() && sameValue(previousSplitValues, chunk, serialized, offset, nextOffset)) {
+                valueBytes = previousSplitValues.getChunkArray(chunk);
+                unchanged++;
+            } else {
+                valueBytes = Arrays.copyOfRange(serialized, offset, nextOffset);
+                tr.set(keyBytes, valueBytes);
+            }
+            if (sizeInfo != null) {
+                if (offset == 0) {
+                    sizeInfo.set(keyBytes, valueBytes);
+                    sizeInfo.setSplit(true);
+                } else {
+                    sizeInfo.add(keyBytes, valueBytes);
+                }
+            }
+            index++;
+            chunk++;
+            offset = nextOffset;
+        }
+        if (chunk < previousSplitValues.getChunkCount()) {
+            // Trim keys past the new end.
+            tr.clear(keySplitSubspace.pack(index), keySplitSubspace.range().end);
+        }
+        final byte[] versionKey = keySplitSubspace.pack(RECORD_VERSION);
+        if (previousSizeInfo.isVersionedInline()) {
+            // Any new version is written after this.
+            tr.clear(versionKey);
+        }
+        context.getLocalVersion(versionKey).ifPresent(localVersion -> context.removeVersionMutation(versionKey));
+        if (context.getTimer() != null) {
+            context.getTimer().increment(FDBStoreTimer.Counts.SAVE_RECORD_UNCHANGED_SPLIT_KEY, unchanged);
+        }
+    }
+
+    private static boolean sameValue(@Nonnull ChunkedBytes previousValues, int chunk, @Nonnull byte[] serialized, int offset, int nextOffset) {
+        final int length = previousValues.getChunkLength(chunk);
+        if (length != nextOffset - offset) {
+            return false;
+        }
+        final byte[] previous = previousValues.getChunkArray(chunk);
+        final int previousOffset = previousValues.getChunkOffset(chunk);
+        for (int i = 0; i < length; i++) {
+            if (previous[previousOffset + i] != serialized[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static void writeVersion(@Nonnull final FDBRecordContext context, @Nonnull final Subspace subspace, @Nonnull final Tuple key,
                                      @Nullable final FDBRecordVersion version, @Nullable final SizeInfo sizeInfo) {
         if (version == null) {
@@ -270,9 +427,42 @@ public class SplitHelper {
                                                                 @Nonnull final Subspace subspace, @Nonnull final Tuple key,
                                                                 final boolean splitLongRecords, final boolean missingUnsplitRecordSuffix,
                                                                 @Nullable SizeInfo sizeInfo) {
+        return loadWithSplit(tr, context, subspace, key, splitLongRecords, missingUnsplitRecordSuffix, sizeInfo, 1);
+    }
+
+    /**
+     * Load serialized byte array that may be split among several keys, possibly reading the keys of a large split
+     * record with several concurrent range reads.
+     *
+     * <p>
+     * A single range read of a record split into many keys is served by one storage server in a sequence of batches.
+     * If {@code readConcurrency} is greater than one, this instead first reads just the first few keys, which is all
+     * there is unless the record is split. If there might be more, it reads the last key, and then the keys between
+     * are divided into up to {@code readConcurrency} ranges that are read concurrently and put back in order. This
+     * adds a round trip for small split records, so it is best only used where records are often large.
+     * </p>
+     *
+     * @param tr read transaction
+     * @param context transaction context
+     * @param subspace subspace containing serialized value
+     * @param key key within subspace
+     * @param splitLongRecords <code>true</code> if multiple keys should be used; if <code>false</code>, <code>serialized</code> must fit in a single key
+     * @param missingUnsplitRecordSuffix if <code>splitLongRecords</code> is <code>false</code> and this is <code>true</code>, this will assume keys are missing a suffix for backwards compatibility reasons
+     * @param sizeInfo optional size information to populate
+     * @param readConcurrency the most range reads to use for the middle of a split record; {@code 1} to read all of it with a single range read
+     * @return the merged byte array
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public static CompletableFuture<FDBRawRecord> loadWithSplit(@Nonnull final ReadTransaction tr, @Nonnull final FDBRecordContext context,
+                                                                @Nonnull final Subspace subspace, @Nonnull final Tuple key,
+                                                                final boolean splitLongRecords, final boolean missingUnsplitRecordSuffix,
+                                                                @Nullable SizeInfo sizeInfo, int readConcurrency) {
         if (!splitLongRecords && missingUnsplitRecordSuffix) {
             return loadUnsplitLegacy(tr, context, subspace, key, sizeInfo);
         }
+        if (splitLongRecords && readConcurrency > 1) {
+            return loadSplitConcurrently(tr, context, key, subspace.subspace(key), sizeInfo, readConcurrency);
+        }
         // Even if long records are not split, then unless we are using the old format, it might be the case
         // that there is a record version associated with this key, hence the range read.
         // It is still better to do a range read in that case than two point reads (probably).
@@ -286,6 +476,105 @@ public class SplitHelper {
         return new SingleKeyUnsplitter(context, key, recordSubspace, rangeIter, sizeInfo).run(context.getExecutor());
     }
 
+    private static CompletableFuture<FDBRawRecord> loadSplitConcurrently(@Nonnull final ReadTransaction tr, @Nonnull final FDBRecordContext context,
+                                                                         @Nonnull final Tuple key, @Nonnull final Subspace recordSubspace,
+                                                                         @Nullable SizeInfo sizeInfo, int readConcurrency) {
+        final long startTime = System.nanoTime();
+        // Enough for a version and an unsplit record or two chunks, so that only split records need more reads.
+        final CompletableFuture<List<KeyValue>> firstFuture = tr.getRange(recordSubspace.range(), FIRST_CONCURRENT_READ_LIMIT, false, StreamingMode.WANT_ALL).asList();
+        context.instrument(FDBStoreTimer.DetailEvents.GET_RECORD_RANGE_RAW_FIRST_CHUNK, firstFuture, startTime);
+        return firstFuture.thenCompose(first -> {
+            if (first.size() < FIRST_CONCURRENT_READ_LIMIT) {
+                return CompletableFuture.completedFuture(first);
+            }
+            final KeyValue lastOfFirst = first.get(first.size() - 1);
+            return tr.getRange(recordSubspace.range(), 1, true, StreamingMode.WANT_ALL).asList().thenCompose(last -> {
+                if (last.isEmpty() || Arrays.equals(last.get(0).getKey(), lastOfFirst.getKey())) {
+                    return CompletableFuture.completedFuture(first);
+                }
+                final List<byte[]> boundaries = concurrentReadBoundaries(recordSubspace, lastOfFirst.getKey(), last.get(0).getKey(), readConcurrency);
+                final List<CompletableFuture<List<KeyValue>>> middleFutures = new ArrayList<>(boundaries.size() - 1);
+                for (int i = 0; i < boundaries.size() - 1; i++) {
+                    middleFutures.add(tr.getRange(boundaries.get(i), boundaries.get(i + 1), ReadTransaction.ROW_LIMIT_UNLIMITED, false, StreamingMode.WANT_ALL).asList());
+                }
+                if (context.getTimer() != null) {
+                    context.getTimer().increment(FDBStoreTimer.Counts.LOAD_SPLIT_RECORD_CONCURRENT_RANGE_READ, middleFutures.size());
+                }
+                return AsyncUtil.getAll(middleFutures).thenApply(middles -> {
+                    final List<KeyValue> keyValues = new ArrayList<>(first);
+                    middles.forEach(keyValues::addAll);
+                    keyValues.add(last.get(0));
+                    return keyValues;
+                });
+            });
+        }).thenCompose(keyValues -> new SingleKeyUnsplitter(context, key, recordSubspace, new ListAsyncIterator<>(keyValues), sizeInfo).run(context.getExecutor()));
+    }
+
+    // Divide the keys strictly between two keys of a record into ranges, by split index where possible.
+    @Nonnull
+    private static List<byte[]> concurrentReadBoundaries(@Nonnull final Subspace recordSubspace, @Nonnull byte[] after, @Nonnull byte[] before,
+                                                         int readConcurrency) {
+        final List<byte[]> boundaries = new ArrayList<>(readConcurrency + 1);
+        boundaries.add(ByteArrayUtil.join(after, new byte[] {0x00}));
+        final long afterIndex = splitIndexOf(recordSubspace, after);
+        final long beforeIndex = splitIndexOf(recordSubspace, before);
+        if (afterIndex >= START_SPLIT_RECORD && beforeIndex > afterIndex + 2) {
+            final long count = beforeIndex - afterIndex - 1;
+            final int ranges = (int)Math.min(readConcurrency, count);
+            for (int i = 1; i < ranges; i++) {
+                boundaries.add(recordSubspace.pack(afterIndex + 1 + count * i / ranges));
+            }
+        }
+        boundaries.add(before);
+        return boundaries;
+    }
+
+    // The split index of a key or RECORD_VERSION if it does not have one, which is not expected except in corrupt data.
+    private static long splitIndexOf(@Nonnull final Subspace recordSubspace, @Nonnull byte[] key) {
+        try {
+            final Tuple subkey = recordSubspace.unpack(key);
+            if (subkey.size() == 1 && subkey.get(0) instanceof Long) {
+                return subkey.getLong(0);
+            }
+        } catch (RuntimeException ex) {
+            // Fall through; the unsplitter will report any problem with the key.
+        }
+        return RECORD_VERSION;
+    }
+
+    /**
+     * An {@link AsyncIterator} over elements that are all available already.
+     * @param <T> the type of element
+     */
+    private static class ListAsyncIterator<T> implements AsyncIterator<T> {
+        @Nonnull
+        private final Iterator<T> iterator;
+
+        ListAsyncIterator(@Nonnull List<T> list) {
+            this.iterator = list.iterator();
+        }
+
+        @Override
+        public CompletableFuture<Boolean> onHasNext() {
+            return iterator.hasNext() ? AsyncUtil.READY_TRUE : AsyncUtil.READY_FALSE;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void cancel() {
+            // Nothing is pending.
+        }
+    }
+
     // Old save behavior prior to SAVE_UNSPLIT_WITH_SUFFIX_FORMAT_VERSION
     // Primary keys were not given the UNSPLIT_RECORD suffix in unsplit stores
     private static CompletableFuture<FDBRawRecord> loadUnsplitLegacy(@Nonnull final ReadTransaction tr,
@@ -480,8 +769,9 @@ public class SplitHelper {
         @Nonnull
         private final AsyncIterator<KeyValue> iter;
         private long lastIndex;
+        // The values of the keys of the record, which are not joined until deserialization needs them to be.
         @Nullable
-        private byte[] result;
+        private List<byte[]> result;
         @Nullable
         private FDBRecordVersion version;
 
@@ -521,7 +811,7 @@ public class SplitHelper {
                     return hasNext;
                 }), executor).thenApply(vignore -> {
                     if (result != null) {
-                        return new FDBRawRecord(key, result, version, sizeInfo);
+                        return new FDBRawRecord(key, new ChunkedBytes(result), version, sizeInfo);
                     } else if (version != null) {
                         throw new FoundSplitWithoutStartException(SplitHelper.RECORD_VERSION, false)
                                 .addLogInfo(LogMessageKeys.KEY_TUPLE, key)
@@ -548,7 +838,8 @@ public class SplitHelper {
                             .addLogInfo(LogMessageKeys.KEY_TUPLE, key)
                             .addLogInfo(LogMessageKeys.SUBSPACE, ByteArrayUtil2.loggable(keySplitSubspace.pack()));
                 }
-                result = kv.getValue();
+                result = new ArrayList<>(1);
+                result.add(kv.getValue());
                 sizeInfo.add(kv);
                 sizeInfo.setSplit(false);
             } else if (index == lastIndex + 1 || (lastIndex == RECORD_VERSION && index == START_SPLIT_RECORD)) {
@@ -558,12 +849,12 @@ public class SplitHelper {
                                 .addLogInfo(LogMessageKeys.KEY_TUPLE, key)
                                 .addLogInfo(LogMessageKeys.SUBSPACE, ByteArrayUtil2.loggable(keySplitSubspace.pack()));
                     }
-                    result = kv.getValue();
+                    result = new ArrayList<>();
+                    result.add(kv.getValue());
                     sizeInfo.add(kv);
                     sizeInfo.setSplit(true);
                 } else {
-                    // TODO: ByteArrayOutputStream would grow better?
-                    result = ByteArrayUtil.join(result, kv.getValue());
+                    result.add(kv.getValue());
                     sizeInfo.add(kv);
                 }
                 lastIndex = index;
@@ -603,8 +894,9 @@ public class SplitHelper {
         private final boolean reverse;
         @Nonnull
         private Subspace subspace;
+        // The values of the keys of the record being accumulated, which are not joined until deserialization needs them to be.
         @Nullable
-        private KeyValue next;
+        private Deque<byte[]> next;
         @Nullable
         private Tuple nextKey;
         @Nullable
@@ -692,7 +984,7 @@ public class SplitHelper {
                         }
                     } else { // has next result
                         sizeInfo.setVersionedInline(nextVersion != null);
-                        final FDBRawRecord result = new FDBRawRecord(nextKey, next.getValue(), nextVersion, sizeInfo);
+                        final FDBRawRecord result = new FDBRawRecord(nextKey, new ChunkedBytes(next), nextVersion, sizeInfo);
                         next = null;
                         nextKey = null;
                         nextVersion = null;
@@ -870,7 +1162,7 @@ public class SplitHelper {
             nextKey = keyTuple.popBack(); // Remove index item
             nextSubspace = subspace.subspace(nextKey);
             nextPrefix = nextSubspace.pack();
-            next = new KeyValue(nextPrefix, kv.getValue());
+            next = newChunks(kv.getValue());
             nextIndex = keyTuple.getLong(keyTuple.size() - 1);
             sizeInfo.set(kv);
             boolean done;
@@ -919,7 +1211,7 @@ public class SplitHelper {
                 // just what has been read from this key. If it is the beginning of
                 // a split record, we have more to do. Otherwise, we know this is the
                 // end of the record.
-                next = new KeyValue(nextPrefix, kv.getValue());
+                next = newChunks(kv.getValue());
                 nextIndex = index;
                 sizeInfo.setSplit(index == START_SPLIT_RECORD);
                 done = nextIndex == UNSPLIT_RECORD;
@@ -928,7 +1220,7 @@ public class SplitHelper {
                 // in the forward scan. Append its value to the end of the current
                 // key-value pair being accumulated. Return false because there is
                 // no way to know if this is the last key or not.
-                next = new KeyValue(nextPrefix, ByteArrayUtil.join(next.getValue(), kv.getValue()));
+                next.addLast(kv.getValue());
                 nextIndex = index;
                 done = false;
             } else if (reverse && index == RECORD_VERSION && (nextIndex == START_SPLIT_RECORD || nextIndex == UNSPLIT_RECORD)) {
@@ -950,7 +1242,7 @@ public class SplitHelper {
                 // accumulated. Return false because there is no way to know if this is the
                 // last key or not (in particular, even if index == START_SPLIT_RECORD, it's
                 // possible that there is a record version before it).
-                next = new KeyValue(nextPrefix, ByteArrayUtil.join(kv.getValue(), next.getValue()));
+                next.addFirst(kv.getValue());
                 nextIndex = index;
                 done = false;
             } else {
@@ -973,6 +1265,13 @@ public class SplitHelper {
             return done;
         }
 
+        @Nonnull
+        private static Deque<byte[]> newChunks(@Nonnull byte[] first) {
+            final Deque<byte[]> chunks = new ArrayDeque<>();
+            chunks.add(first);
+            return chunks;
+        }
+
         private void logFirstKey(boolean done) {
             logKey("found first key in new split record", done);
         }
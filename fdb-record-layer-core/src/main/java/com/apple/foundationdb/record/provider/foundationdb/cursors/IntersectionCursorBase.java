@@ -50,6 +50,14 @@ abstract class IntersectionCursorBase<T, U> extends MergeCursor<T, U, KeyedMerge
     @Nonnull
     private final Function<? super T, ? extends List<Object>> comparisonKeyFunction;
     private final boolean reverse;
+    @Nonnull
+    private final TournamentTree tournament;
+    @Nonnull
+    private final List<KeyedMergeCursorState<T>> pendingStates;
+    @Nonnull
+    private final List<Integer> pendingIndexes;
+    // The index of a child with the maximum comparison key among the current results, or -1 if they are all new.
+    private int maxIndex = -1;
 
     @Nonnull
     private static final Set<StoreTimer.Event> duringEvents = Collections.singleton(FDBStoreTimer.Events.QUERY_INTERSECTION);
@@ -65,28 +73,30 @@ abstract class IntersectionCursorBase<T, U> extends MergeCursor<T, U, KeyedMerge
         super(cursorStates, timer);
         this.comparisonKeyFunction = comparisonKeyFunction;
         this.reverse = reverse;
+        this.tournament = new TournamentTree(cursorStates.size(), this::compareStates);
+        this.pendingStates = new ArrayList<>(cursorStates.size());
+        this.pendingIndexes = new ArrayList<>(cursorStates.size());
+        addAllPending();
     }
 
-    // Identify the list of maximal (and non-maximal) elements from the list of cursor states.
-    private void findMaxStates(@Nonnull List<KeyedMergeCursorState<T>> maxStates, @Nonnull List<KeyedMergeCursorState<T>> nonMaxCursors) {
+    // States without a comparison key, because they do not have a result yet, come after all those with one.
+    private int compareStates(int index1, int index2) {
         final List<KeyedMergeCursorState<T>> cursorStates = getCursorStates();
-        maxStates.add(cursorStates.get(0));
-        List<Object> maxKey = cursorStates.get(0).getComparisonKey();
-        for (KeyedMergeCursorState<T> cursorState : cursorStates.subList(1, cursorStates.size())) {
-            int compare = KeyComparisons.KEY_COMPARATOR.compare(cursorState.getComparisonKey(), maxKey) * (reverse ? -1 : 1);
-            if (compare == 0) {
-                maxStates.add(cursorState);
-            } else if (compare < 0) {
-                // this new cursor is definitely not in the intersection
-                nonMaxCursors.add(cursorState);
-            } else {
-                // the existing cursors in maxCursors are all not in the intersection
-                // this new cursor is now the only max cursor
-                nonMaxCursors.addAll(maxStates);
-                maxStates.clear();
-                maxKey = cursorState.getComparisonKey();
-                maxStates.add(cursorState);
-            }
+        final List<Object> key1 = cursorStates.get(index1).getComparisonKey();
+        final List<Object> key2 = cursorStates.get(index2).getComparisonKey();
+        if (key1 == null) {
+            return key2 == null ? 0 : 1;
+        } else if (key2 == null) {
+            return -1;
+        } else {
+            return KeyComparisons.KEY_COMPARATOR.compare(key1, key2) * (reverse ? -1 : 1);
+        }
+    }
+
+    private void addAllPending() {
+        pendingStates.addAll(getCursorStates());
+        for (int i = 0; i < getCursorStates().size(); i++) {
+            pendingIndexes.add(i);
         }
     }
 
@@ -103,57 +113,79 @@ abstract class IntersectionCursorBase<T, U> extends MergeCursor<T, U, KeyedMerge
      * item.
      * </p>
      *
+     * <p>
+     * The children are kept in a {@link TournamentTree} ordered by their comparison keys, along with the
+     * child with the maximum key. Only the children that were advanced have their places in the tree
+     * replayed, and the children that are behind the maximum are found from the tree without comparing
+     * against any of the others.
+     * </p>
+     *
      * @return the list of states included in the next result
      */
     @Override
     @Nonnull
     protected CompletableFuture<List<KeyedMergeCursorState<T>>> computeNextResultStates() {
         final List<KeyedMergeCursorState<T>> cursorStates = getCursorStates();
-        return AsyncUtil.whileTrue(() -> whenAll(cursorStates).thenApply(vignore -> {
+        return AsyncUtil.whileTrue(() -> whenAll(pendingStates).thenApply(vignore -> {
             // If any of the cursors do not have a next element, then we are done.
-            if (cursorStates.stream().anyMatch(cursorState -> !cursorState.getResult().hasNext())) {
+            // Only the advanced cursors have new results; the others were already checked.
+            if (pendingStates.stream().anyMatch(cursorState -> !cursorState.getResult().hasNext())) {
                 return false;
             }
+            for (int index : pendingIndexes) {
+                tournament.update(index);
+                if (maxIndex < 0 || compareStates(index, maxIndex) > 0) {
+                    maxIndex = index;
+                }
+            }
+            pendingStates.clear();
+            pendingIndexes.clear();
 
             // If everything compares equally, then we have a match and should return it.
             // Otherwise, everything except for the maximum iterator values is guaranteed
             // not to match, so null those values out and then move on.
             final long startTime = System.nanoTime();
-            List<KeyedMergeCursorState<T>> maxCursors = new ArrayList<>(cursorStates.size());
-            List<KeyedMergeCursorState<T>> nonMaxCursors = new ArrayList<>(cursorStates.size());
-            findMaxStates(maxCursors, nonMaxCursors);
-            logDuplicates(maxCursors, nonMaxCursors, startTime);
-            if (!nonMaxCursors.isEmpty()) {
-                // Any non-maximal cursor is definitely not in the intersection,
-                // so we can consume those records (which updates their continuations).
-                // Then we loop again to see if we pick any up the next go around.
-                nonMaxCursors.forEach(KeyedMergeCursorState::consume);
+            if (compareStates(tournament.winner(), maxIndex) == 0) {
+                logDuplicates(cursorStates.size(), 0, startTime);
+                return false;
             }
-            return !nonMaxCursors.isEmpty();
+            tournament.forEachLessThan(maxIndex, false, index -> {
+                pendingIndexes.add(index);
+                pendingStates.add(cursorStates.get(index));
+            });
+            logDuplicates(cursorStates.size() - pendingStates.size(), pendingStates.size(), startTime);
+            // Any non-maximal cursor is definitely not in the intersection,
+            // so we can consume those records (which updates their continuations).
+            // Then we loop again to see if we pick any up the next go around.
+            pendingStates.forEach(KeyedMergeCursorState::consume);
+            return true;
         }), getExecutor()).thenApply(vignore -> {
             // This waits for all cursor states to return some result, so getResult will return
             // something non-null.
-            if (cursorStates.stream().anyMatch(cursorState -> !cursorState.getResult().hasNext())) {
+            if (pendingStates.stream().anyMatch(cursorState -> !cursorState.getResult().hasNext())) {
                 return Collections.emptyList();
             } else {
+                // All of the cursors are about to be consumed, so they will all have new results.
+                maxIndex = -1;
+                addAllPending();
                 return cursorStates;
             }
         });
     }
 
-    private void logDuplicates(@Nonnull List<?> maxStates, @Nonnull List<?> nonMaxStates, long startTime) {
+    private void logDuplicates(int maxCount, int nonMaxCount, long startTime) {
         if (getTimer() != null) {
-            if (nonMaxStates.isEmpty()) {
+            if (nonMaxCount == 0) {
                 // All of the cursors are in the intersection, so this will return a match.
                 // Subtract one from the number of cursors in the matching set in
                 // order to make it so that the metric represents the number of
                 // records *not* returned because they have been matched away in
                 // an intersection.
                 getTimer().record(duringEvents, System.nanoTime() - startTime);
-                getTimer().increment(matchesCounts, maxStates.size() - 1);
+                getTimer().increment(matchesCounts, maxCount - 1);
             } else {
                 getTimer().record(duringEvents, System.nanoTime() - startTime);
-                getTimer().increment(nonmatchesCounts, nonMaxStates.size());
+                getTimer().increment(nonmatchesCounts, nonMaxCount);
             }
         }
     }
@@ -0,0 +1,663 @@
+/*
+ * ParallelScanCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.ByteArrayContinuation;
+import com.apple.foundationdb.record.EndpointType;
+import com.apple.foundationdb.record.ParallelScanProperties;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorEndContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorStartContinuation;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.record.cursors.IllegalContinuationAccessChecker;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cursor that scans a {@link TupleRange} by splitting it into partitions at a list of boundary keys and reading
+ * several of those partitions concurrently. The boundaries are typically the first keys of the shards (as returned by
+ * {@link com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore#getPrimaryKeyBoundaries(Tuple, Tuple)}),
+ * so that the partitions are served by different storage servers.
+ *
+ * <p>
+ * At most {@link ParallelScanProperties#getParallelism()} partitions are read at the same time. Each partition reads
+ * ahead of the consumer until the total size of the results waiting to be returned (as measured by the given size
+ * function) reaches {@link ParallelScanProperties#getBufferedBytesLimit()}.
+ * </p>
+ *
+ * <p>
+ * If {@link ParallelScanProperties#isOrdered()}, the results are returned in the same order as a single scan of the
+ * whole range: the partitions after the current one are read ahead while the current one is returned. Otherwise, results
+ * are returned from whichever partition has them first, and a new partition is started as each one is exhausted.
+ * </p>
+ *
+ * <p>
+ * The continuation of this cursor records the boundaries it was created with together with the continuation of each
+ * partition that has been started but not exhausted, so that a scan resumed in another transaction splits the range
+ * in exactly the same way. When one of the partitions stops because of a limit, the unordered cursor stops starting
+ * new partitions, returns what was already read and then stops for the same reason.
+ * </p>
+ *
+ * @param <T> the type of elements of the cursor
+ */
+@API(API.Status.EXPERIMENTAL)
+public class ParallelScanCursor<T> implements RecordCursor<T> {
+    @Nonnull
+    private final TupleRange range;
+    @Nullable
+    private Supplier<CompletableFuture<List<Tuple>>> boundariesSupplier;
+    @Nonnull
+    private final BiFunction<TupleRange, byte[], RecordCursor<T>> partitionFunction;
+    @Nonnull
+    private final ToLongFunction<T> sizeFunction;
+    @Nonnull
+    private final ParallelScanProperties parallelScanProperties;
+    private final boolean reverse;
+    @Nonnull
+    private final Executor executor;
+    @Nullable
+    private final RecordCursorProto.ParallelScanContinuation startContinuation;
+
+    @Nullable
+    private CompletableFuture<Void> initFuture;
+    // Set once the boundaries are known. Partitions are listed in the order in which they are scanned.
+    @Nullable
+    private List<ByteString> boundaries;
+    @Nullable
+    private List<Partition> partitions;
+    // Partitions from here on have not been started.
+    private int nextPartition;
+    // Partitions that have been started but not exhausted, in the order they were started.
+    @Nonnull
+    private final List<Partition> openPartitions = new ArrayList<>();
+    private int roundRobinPosition;
+    // The first reason that a partition stopped other than being exhausted (unordered only).
+    @Nullable
+    private NoNextReason limitReason;
+    private long bufferedBytes;
+    private boolean closed;
+
+    @Nullable
+    private CompletableFuture<Boolean> hasNextFuture;
+    @Nullable
+    private RecordCursorResult<T> nextResult;
+    // for detecting incorrect cursor usage
+    private boolean mayGetContinuation = false;
+
+    @SuppressWarnings("squid:S00107")
+    protected ParallelScanCursor(@Nonnull TupleRange range,
+                                 @Nonnull Supplier<CompletableFuture<List<Tuple>>> boundariesSupplier,
+                                 @Nonnull BiFunction<TupleRange, byte[], RecordCursor<T>> partitionFunction,
+                                 @Nonnull ToLongFunction<T> sizeFunction,
+                                 @Nonnull ParallelScanProperties parallelScanProperties,
+                                 boolean reverse,
+                                 @Nullable RecordCursorProto.ParallelScanContinuation startContinuation,
+                                 @Nonnull Executor executor) {
+        this.range = range;
+        this.boundariesSupplier = boundariesSupplier;
+        this.partitionFunction = partitionFunction;
+        this.sizeFunction = sizeFunction;
+        this.parallelScanProperties = parallelScanProperties;
+        this.reverse = reverse;
+        this.startContinuation = startContinuation;
+        this.executor = executor;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<T>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        mayGetContinuation = false;
+        return initialize().thenCompose(vignore -> AsyncUtil.whileTrue(
+                parallelScanProperties.isOrdered() ? this::computeNextOrdered : this::computeNextUnordered, executor))
+                .thenApply(vignore -> {
+                    mayGetContinuation = !nextResult.hasNext();
+                    return nextResult;
+                });
+    }
+
+    @Nonnull
+    private synchronized CompletableFuture<Void> initialize() {
+        if (initFuture == null) {
+            if (startContinuation != null) {
+                initFuture = AsyncUtil.DONE;
+                setPartitions(startContinuation.getBoundariesList());
+                nextPartition = startContinuation.getNextPartition();
+                for (RecordCursorProto.ParallelScanContinuation.PartitionState state : startContinuation.getActivePartitionList()) {
+                    final Partition partition = partitions.get(state.getPartition());
+                    partition.open(state.hasContinuation() ? state.getContinuation().toByteArray() : null);
+                    openPartitions.add(partition);
+                }
+            } else {
+                initFuture = boundariesSupplier.get().thenAccept(keys -> {
+                    synchronized (this) {
+                        final List<ByteString> packed = new ArrayList<>(keys.size());
+                        for (byte[] key : splitPoints(range, keys)) {
+                            packed.add(ByteString.copyFrom(key));
+                        }
+                        setPartitions(packed);
+                    }
+                });
+            }
+            boundariesSupplier = null;
+        }
+        return initFuture;
+    }
+
+    private void setPartitions(@Nonnull List<ByteString> boundaries) {
+        this.boundaries = boundaries;
+        final List<TupleRange> ranges = partitionRanges(range, boundaries);
+        if (reverse) {
+            Collections.reverse(ranges);
+        }
+        partitions = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            partitions.add(new Partition(i, ranges.get(i)));
+        }
+    }
+
+    // Return the current partition's next result, reading ahead in the ones that follow it.
+    @Nonnull
+    private synchronized CompletableFuture<Boolean> computeNextOrdered() {
+        if (openPartitions.isEmpty()) {
+            if (nextPartition >= partitions.size()) {
+                nextResult = RecordCursorResult.exhausted();
+                return AsyncUtil.READY_FALSE;
+            }
+            final Partition partition = partitions.get(nextPartition++);
+            if (!partition.isOpen()) {
+                // Not already opened to read ahead.
+                partition.open(null);
+            }
+            openPartitions.add(partition);
+        }
+        final Partition current = openPartitions.get(0);
+        final int windowEnd = Math.min(current.index + parallelScanProperties.getParallelism(), partitions.size());
+        for (int i = current.index + 1; i < windowEnd; i++) {
+            final Partition partition = partitions.get(i);
+            if (!partition.isOpen()) {
+                partition.open(null);
+            }
+            if (shouldReadAhead(partition)) {
+                partition.fetch();
+            }
+        }
+        if (current.failure != null) {
+            return failed(current.failure);
+        }
+        if (!current.buffer.isEmpty()) {
+            emit(current);
+            return AsyncUtil.READY_FALSE;
+        }
+        if (current.stopResult != null) {
+            if (current.stopResult.getNoNextReason().isSourceExhausted()) {
+                current.close();
+                openPartitions.remove(0);
+                nextPartition = current.index + 1;
+                return AsyncUtil.READY_TRUE;
+            }
+            current.emitted = current.stopResult.getContinuation();
+            nextResult = RecordCursorResult.withoutNextValue(getContinuationObject(), current.stopResult.getNoNextReason());
+            return AsyncUtil.READY_FALSE;
+        }
+        return current.fetch().thenApply(vignore -> true);
+    }
+
+    // Return a result from any partition that has one, keeping up to the parallelism limit of partitions busy.
+    @Nonnull
+    private synchronized CompletableFuture<Boolean> computeNextUnordered() {
+        if (limitReason == null) {
+            while (openPartitions.size() < parallelScanProperties.getParallelism() && nextPartition < partitions.size()) {
+                final Partition partition = partitions.get(nextPartition++);
+                partition.open(null);
+                openPartitions.add(partition);
+            }
+        }
+        final int size = openPartitions.size();
+        for (int i = 0; i < size; i++) {
+            final Partition partition = openPartitions.get((roundRobinPosition + i) % size);
+            if (partition.failure != null) {
+                return failed(partition.failure);
+            }
+            if (!partition.buffer.isEmpty()) {
+                emit(partition);
+                roundRobinPosition = (roundRobinPosition + i + 1) % size;
+                return AsyncUtil.READY_FALSE;
+            }
+        }
+        // Nothing buffered: retire the partitions that have stopped and wait for the others.
+        final List<CompletableFuture<Void>> pending = new ArrayList<>(size);
+        for (Partition partition : new ArrayList<>(openPartitions)) {
+            if (partition.stopResult != null) {
+                if (partition.stopResult.getNoNextReason().isSourceExhausted()) {
+                    partition.close();
+                    openPartitions.remove(partition);
+                    if (limitReason == null && nextPartition < partitions.size()) {
+                        // Start the next partition before waiting.
+                        return AsyncUtil.READY_TRUE;
+                    }
+                    continue;
+                }
+                partition.emitted = partition.stopResult.getContinuation();
+                if (limitReason == null) {
+                    limitReason = partition.stopResult.getNoNextReason();
+                }
+            } else if (partition.fetchFuture != null) {
+                pending.add(partition.fetchFuture);
+            } else if (limitReason == null) {
+                pending.add(partition.fetch());
+            }
+        }
+        if (!pending.isEmpty()) {
+            return CompletableFuture.anyOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(vignore -> true);
+        }
+        if (limitReason == null || openPartitions.isEmpty() && nextPartition >= partitions.size()) {
+            nextResult = RecordCursorResult.exhausted();
+        } else {
+            nextResult = RecordCursorResult.withoutNextValue(getContinuationObject(), limitReason);
+        }
+        return AsyncUtil.READY_FALSE;
+    }
+
+    private void emit(@Nonnull Partition partition) {
+        final RecordCursorResult<T> result = partition.buffer.removeFirst();
+        bufferedBytes -= sizeFunction.applyAsLong(result.get());
+        partition.emitted = result.getContinuation();
+        nextResult = RecordCursorResult.withNextValue(result.get(), getContinuationObject());
+        if (shouldReadAhead(partition)) {
+            partition.fetch();
+        }
+    }
+
+    private boolean shouldReadAhead(@Nonnull Partition partition) {
+        return !closed && limitReason == null && partition.isOpen() && partition.stopResult == null && partition.failure == null &&
+               bufferedBytes < parallelScanProperties.getBufferedBytesLimit();
+    }
+
+    @Nonnull
+    private static CompletableFuture<Boolean> failed(@Nonnull Throwable failure) {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+
+    @Nonnull
+    private RecordCursorContinuation getContinuationObject() {
+        if (openPartitions.isEmpty() && nextPartition >= partitions.size()) {
+            return RecordCursorEndContinuation.END;
+        }
+        final int[] active = new int[openPartitions.size()];
+        final RecordCursorContinuation[] continuations = new RecordCursorContinuation[openPartitions.size()];
+        for (int i = 0; i < active.length; i++) {
+            final Partition partition = openPartitions.get(i);
+            active[i] = partition.index;
+            continuations[i] = partition.emitted;
+        }
+        return new Continuation(boundaries, nextPartition, active, continuations);
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public CompletableFuture<Boolean> onHasNext() {
+        if (hasNextFuture == null) {
+            hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+        }
+        return hasNextFuture;
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNextFuture = null;
+        mayGetContinuation = true;
+        return nextResult.get();
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public byte[] getContinuation() {
+        IllegalContinuationAccessChecker.check(mayGetContinuation);
+        return nextResult.getContinuation().toBytes();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public NoNextReason getNoNextReason() {
+        return nextResult.getNoNextReason();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (partitions != null) {
+            for (Partition partition : partitions) {
+                partition.close();
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this)) {
+            final List<RecordCursor<T>> cursors = new ArrayList<>();
+            synchronized (this) {
+                for (Partition partition : openPartitions) {
+                    if (partition.cursor != null) {
+                        cursors.add(partition.cursor);
+                    }
+                }
+            }
+            for (RecordCursor<T> cursor : cursors) {
+                if (!cursor.accept(visitor)) {
+                    break;
+                }
+            }
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Get the number of partitions that the range is split into. This is only known once the cursor has started.
+     * @return the number of partitions or {@code -1} if not yet known
+     */
+    public synchronized int getPartitionCount() {
+        return partitions == null ? -1 : partitions.size();
+    }
+
+    /**
+     * One sub-range of the scan, together with the results that have been read from it but not yet returned.
+     */
+    private class Partition {
+        private final int index;
+        @Nonnull
+        private final TupleRange range;
+        @Nonnull
+        private final ArrayDeque<RecordCursorResult<T>> buffer = new ArrayDeque<>();
+        @Nullable
+        private RecordCursor<T> cursor;
+        // The continuation of the last result from this partition that was returned by the parallel cursor.
+        @Nonnull
+        private RecordCursorContinuation emitted = RecordCursorStartContinuation.START;
+        @Nullable
+        private RecordCursorResult<T> stopResult;
+        @Nullable
+        private Throwable failure;
+        @Nullable
+        private CompletableFuture<Void> fetchFuture;
+
+        Partition(int index, @Nonnull TupleRange range) {
+            this.index = index;
+            this.range = range;
+        }
+
+        boolean isOpen() {
+            return cursor != null;
+        }
+
+        void open(@Nullable byte[] continuation) {
+            emitted = continuation == null ? RecordCursorStartContinuation.START : ByteArrayContinuation.fromNullable(continuation);
+            cursor = partitionFunction.apply(range, continuation);
+        }
+
+        void close() {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Read results from the partition. At least one result is read, and then more as long as they are available
+         * immediately and the read-ahead budget allows.
+         * @return a future that completes when the next result has been added to the buffer
+         */
+        @Nonnull
+        CompletableFuture<Void> fetch() {
+            synchronized (ParallelScanCursor.this) {
+                if (fetchFuture != null) {
+                    return fetchFuture;
+                }
+                if (stopResult != null || failure != null) {
+                    return AsyncUtil.DONE;
+                }
+                while (true) {
+                    final CompletableFuture<RecordCursorResult<T>> resultFuture = cursor.onNext();
+                    if (!resultFuture.isDone() || resultFuture.isCompletedExceptionally()) {
+                        final CompletableFuture<Void> signal = new CompletableFuture<>();
+                        fetchFuture = signal;
+                        resultFuture.whenComplete((result, err) -> {
+                            synchronized (ParallelScanCursor.this) {
+                                fetchFuture = null;
+                                if (err != null) {
+                                    failure = err;
+                                } else if (add(result) && shouldReadAhead(this)) {
+                                    fetch();
+                                }
+                            }
+                            signal.complete(null);
+                        });
+                        return signal;
+                    }
+                    if (!add(resultFuture.join()) || !shouldReadAhead(this)) {
+                        return AsyncUtil.DONE;
+                    }
+                }
+            }
+        }
+
+        private boolean add(@Nonnull RecordCursorResult<T> result) {
+            if (result.hasNext()) {
+                buffer.addLast(result);
+                bufferedBytes += sizeFunction.applyAsLong(result.get());
+                return true;
+            } else {
+                stopResult = result;
+                return false;
+            }
+        }
+    }
+
+    private static class Continuation implements RecordCursorContinuation {
+        @Nonnull
+        private final List<ByteString> boundaries;
+        private final int nextPartition;
+        @Nonnull
+        private final int[] activePartitions;
+        @Nonnull
+        private final RecordCursorContinuation[] activeContinuations;
+        @Nullable
+        private byte[] cachedBytes;
+
+        Continuation(@Nonnull List<ByteString> boundaries, int nextPartition,
+                     @Nonnull int[] activePartitions, @Nonnull RecordCursorContinuation[] activeContinuations) {
+            this.boundaries = boundaries;
+            this.nextPartition = nextPartition;
+            this.activePartitions = activePartitions;
+            this.activeContinuations = activeContinuations;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            if (cachedBytes == null) {
+                final RecordCursorProto.ParallelScanContinuation.Builder builder = RecordCursorProto.ParallelScanContinuation.newBuilder()
+                        .addAllBoundaries(boundaries)
+                        .setNextPartition(nextPartition);
+                for (int i = 0; i < activePartitions.length; i++) {
+                    final RecordCursorProto.ParallelScanContinuation.PartitionState.Builder state = builder.addActivePartitionBuilder()
+                            .setPartition(activePartitions[i]);
+                    final byte[] asBytes = activeContinuations[i].toBytes();
+                    if (asBytes != null) {
+                        state.setContinuation(ByteString.copyFrom(asBytes));
+                    }
+                }
+                cachedBytes = builder.build().toByteArray();
+            }
+            return cachedBytes;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+
+    /**
+     * Select the keys at which to split the given range. Only keys that are strictly inside the range are used, so
+     * that no partition is empty by construction. A range that is not bounded by ordinary tuple endpoints is not split.
+     * @param range the range to be split
+     * @param keys candidate keys, such as shard boundaries
+     * @return a sorted list of distinct packed keys
+     */
+    @Nonnull
+    static List<byte[]> splitPoints(@Nonnull TupleRange range, @Nonnull List<Tuple> keys) {
+        final EndpointType lowEndpoint = range.getLowEndpoint();
+        final EndpointType highEndpoint = range.getHighEndpoint();
+        if (lowEndpoint != EndpointType.TREE_START && lowEndpoint != EndpointType.RANGE_INCLUSIVE && lowEndpoint != EndpointType.RANGE_EXCLUSIVE ||
+                highEndpoint != EndpointType.TREE_END && highEndpoint != EndpointType.RANGE_INCLUSIVE && highEndpoint != EndpointType.RANGE_EXCLUSIVE) {
+            return Collections.emptyList();
+        }
+        final byte[] low = lowEndpoint == EndpointType.TREE_START || range.getLow() == null ? null : range.getLow().pack();
+        final byte[] high = highEndpoint == EndpointType.TREE_END || range.getHigh() == null ? null : range.getHigh().pack();
+        final List<byte[]> points = new ArrayList<>(keys.size());
+        for (Tuple key : keys) {
+            final byte[] packed = key.pack();
+            if (low != null && (ByteArrayUtil.compareUnsigned(packed, low) <= 0 ||
+                                lowEndpoint == EndpointType.RANGE_EXCLUSIVE && ByteArrayUtil.startsWith(packed, low))) {
+                continue;
+            }
+            if (high != null && ByteArrayUtil.compareUnsigned(packed, high) >= 0 &&
+                    !(highEndpoint == EndpointType.RANGE_INCLUSIVE && ByteArrayUtil.startsWith(packed, high))) {
+                continue;
+            }
+            points.add(packed);
+        }
+        points.sort(ByteArrayUtil::compareUnsigned);
+        final List<byte[]> distinct = new ArrayList<>(points.size());
+        for (byte[] point : points) {
+            if (distinct.isEmpty() || ByteArrayUtil.compareUnsigned(distinct.get(distinct.size() - 1), point) != 0) {
+                distinct.add(point);
+            }
+        }
+        return distinct;
+    }
+
+    @Nonnull
+    private static List<TupleRange> partitionRanges(@Nonnull TupleRange range, @Nonnull List<ByteString> boundaries) {
+        final List<TupleRange> ranges = new ArrayList<>(boundaries.size() + 1);
+        Tuple low = range.getLow();
+        EndpointType lowEndpoint = range.getLowEndpoint();
+        for (ByteString boundary : boundaries) {
+            final Tuple high = Tuple.fromBytes(boundary.toByteArray());
+            ranges.add(new TupleRange(low, high, lowEndpoint, EndpointType.RANGE_EXCLUSIVE));
+            low = high;
+            lowEndpoint = EndpointType.RANGE_INCLUSIVE;
+        }
+        ranges.add(new TupleRange(low, range.getHigh(), lowEndpoint, range.getHighEndpoint()));
+        return ranges;
+    }
+
+    /**
+     * Create a cursor that scans the given range in parallel partitions.
+     *
+     * @param range the range to scan
+     * @param boundariesSupplier a supplier of the keys at which to split the range, which is only called if there is
+     * no continuation
+     * @param partitionFunction a function to produce a cursor over a partition of the range from a continuation
+     * @param sizeFunction a function giving the approximate size in bytes of an element, used to bound read-ahead
+     * @param parallelScanProperties properties controlling the parallelism
+     * @param reverse whether the partition cursors return elements in reverse order
+     * @param continuation any continuation from a previous scan
+     * @param executor the executor used when composing futures
+     * @param <T> the type of elements of the cursor
+     * @return a cursor returning the elements of all the partitions
+     */
+    @SuppressWarnings({"squid:S00107", "PMD.PreserveStackTrace"})
+    @Nonnull
+    public static <T> ParallelScanCursor<T> create(@Nonnull TupleRange range,
+                                                   @Nonnull Supplier<CompletableFuture<List<Tuple>>> boundariesSupplier,
+                                                   @Nonnull BiFunction<TupleRange, byte[], RecordCursor<T>> partitionFunction,
+                                                   @Nonnull ToLongFunction<T> sizeFunction,
+                                                   @Nonnull ParallelScanProperties parallelScanProperties,
+                                                   boolean reverse,
+                                                   @Nullable byte[] continuation,
+                                                   @Nonnull Executor executor) {
+        RecordCursorProto.ParallelScanContinuation parsed = null;
+        if (continuation != null) {
+            try {
+                parsed = RecordCursorProto.ParallelScanContinuation.parseFrom(continuation);
+            } catch (InvalidProtocolBufferException ex) {
+                throw new RecordCoreException("invalid continuation", ex)
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+            final int partitionCount = parsed.getBoundariesCount() + 1;
+            boolean valid = parsed.getNextPartition() >= 0 && parsed.getNextPartition() <= partitionCount;
+            for (RecordCursorProto.ParallelScanContinuation.PartitionState state : parsed.getActivePartitionList()) {
+                valid &= state.getPartition() >= 0 && state.getPartition() < parsed.getNextPartition();
+            }
+            if (!valid) {
+                throw new RecordCoreArgumentException("invalid continuation (partition out of range)")
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+        }
+        return new ParallelScanCursor<>(range, boundariesSupplier, partitionFunction, sizeFunction,
+                parallelScanProperties, reverse, parsed, executor);
+    }
+}
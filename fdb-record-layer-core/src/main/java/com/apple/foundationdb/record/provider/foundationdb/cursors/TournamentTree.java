@@ -0,0 +1,126 @@
+/*
+ * TournamentTree.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import javax.annotation.Nonnull;
+import java.util.function.IntConsumer;
+
+/**
+ * A tournament tree over a fixed number of entries, identified by their index, for finding the least of them
+ * as the entries change. The entries themselves are not held by the tree; it only compares them by index, so the
+ * caller keeps whatever (cached) keys the entries are ordered by.
+ *
+ * <p>
+ * Each internal node of the tree holds the winner (that is, the least entry) of its subtree, so the overall winner
+ * is available in constant time. When an entry changes, only the matches on the path from its leaf to the root
+ * need to be replayed, which takes {@code O(log k)} comparisons for {@code k} entries, rather than the {@code O(k)}
+ * of a linear scan. Unlike a loser tree, any entry can change, not just the current winner, which lets the merge
+ * cursors advance several children at once.
+ * </p>
+ *
+ * <p>
+ * Ties are won by the entry with the lower index, so the winner does not depend on where entries sit in the tree.
+ * </p>
+ */
+class TournamentTree {
+    /**
+     * A comparison between two entries of the tree, given their indexes.
+     */
+    @FunctionalInterface
+    interface EntryComparator {
+        int compare(int entry1, int entry2);
+    }
+
+    private final int size;
+    @Nonnull
+    private final EntryComparator comparator;
+    // nodes[1] is the root; nodes[n] has children nodes[2n] and nodes[2n + 1]; the leaves are nodes[size + i] = i.
+    @Nonnull
+    private final int[] nodes;
+
+    TournamentTree(int size, @Nonnull EntryComparator comparator) {
+        this.size = size;
+        this.comparator = comparator;
+        this.nodes = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            nodes[size + i] = i;
+        }
+        for (int n = size - 1; n >= 1; n--) {
+            nodes[n] = play(nodes[2 * n], nodes[2 * n + 1]);
+        }
+    }
+
+    private int play(int entry1, int entry2) {
+        final int compare = comparator.compare(entry1, entry2);
+        return compare < 0 || (compare == 0 && entry1 < entry2) ? entry1 : entry2;
+    }
+
+    /**
+     * Get the number of entries in the tree.
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Replay the matches of the given entry after its key changed.
+     * @param entry the index of the entry that changed
+     */
+    void update(int entry) {
+        for (int n = (size + entry) / 2; n >= 1; n /= 2) {
+            nodes[n] = play(nodes[2 * n], nodes[2 * n + 1]);
+        }
+    }
+
+    /**
+     * Get the least entry, or the one with the lowest index if several are least.
+     * @return the index of the least entry
+     */
+    int winner() {
+        return nodes[1];
+    }
+
+    /**
+     * Visit every entry that compares less than the given entry, without looking at any subtree whose winner does
+     * not. This costs {@code O(m log k)} comparisons when {@code m} entries are visited. The entries are visited in
+     * the order of the tree, which is not necessarily the order of their indexes.
+     * @param bound the index of the entry to compare against
+     * @param inclusive whether to also visit entries that compare equal to {@code bound}
+     * @param consumer the consumer of the index of each entry visited
+     */
+    void forEachLessThan(int bound, boolean inclusive, @Nonnull IntConsumer consumer) {
+        forEachLessThan(1, bound, inclusive ? 0 : -1, consumer);
+    }
+
+    private void forEachLessThan(int node, int bound, int maxCompare, @Nonnull IntConsumer consumer) {
+        final int entry = nodes[node];
+        if (comparator.compare(entry, bound) > maxCompare) {
+            return;
+        }
+        if (node >= size) {
+            consumer.accept(entry);
+        } else {
+            forEachLessThan(2 * node, bound, maxCompare, consumer);
+            forEachLessThan(2 * node + 1, bound, maxCompare, consumer);
+        }
+    }
+}
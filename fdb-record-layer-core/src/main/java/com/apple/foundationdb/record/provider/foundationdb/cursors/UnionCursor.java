@@ -24,7 +24,6 @@ import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.RecordCoreArgumentException;
 import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordCursor;
-import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
 import com.apple.foundationdb.record.provider.foundationdb.FDBRecord;
@@ -57,75 +56,87 @@ import java.util.function.Function;
  * returned results across continuation boundaries.
  * </p>
  *
+ * <p>
+ * The children are kept in a {@link TournamentTree} ordered by their comparison keys, which are computed once
+ * for each result, so choosing the next result only costs {@code O(log k)} comparisons for {@code k} children.
+ * </p>
+ *
  * @param <T> the type of elements returned by the cursor
  */
 @API(API.Status.MAINTAINED)
 public class UnionCursor<T> extends UnionCursorBase<T, KeyedMergeCursorState<T>> {
     private final boolean reverse;
+    @Nonnull
+    private final TournamentTree tournament;
+    @Nonnull
+    private final List<KeyedMergeCursorState<T>> pendingStates;
+    @Nonnull
+    private final List<Integer> pendingIndexes;
 
     private UnionCursor(boolean reverse, @Nonnull List<KeyedMergeCursorState<T>> cursorStates,
                         @Nullable FDBStoreTimer timer) {
         super(cursorStates, timer);
         this.reverse = reverse;
+        this.tournament = new TournamentTree(cursorStates.size(), this::compareStates);
+        this.pendingStates = new ArrayList<>(cursorStates);
+        this.pendingIndexes = new ArrayList<>(cursorStates.size());
+        for (int i = 0; i < cursorStates.size(); i++) {
+            pendingIndexes.add(i);
+        }
+    }
+
+    // States without a comparison key, because they are exhausted or their last result has been consumed,
+    // come after all those with one.
+    private int compareStates(int index1, int index2) {
+        final List<KeyedMergeCursorState<T>> cursorStates = getCursorStates();
+        final List<Object> key1 = cursorStates.get(index1).getComparisonKey();
+        final List<Object> key2 = cursorStates.get(index2).getComparisonKey();
+        if (key1 == null) {
+            return key2 == null ? 0 : 1;
+        } else if (key2 == null) {
+            return -1;
+        } else {
+            // If doing a reverse scan, choose the maximum.
+            return KeyComparisons.KEY_COMPARATOR.compare(key1, key2) * (reverse ? -1 : 1);
+        }
     }
 
     @Nonnull
     @Override
     protected CompletableFuture<List<KeyedMergeCursorState<T>>> computeNextResultStates() {
-        final List<KeyedMergeCursorState<T>> cursorStates = getCursorStates();
-        return whenAll(cursorStates).thenApply(vignore -> {
-            boolean anyHasNext = false;
-            for (KeyedMergeCursorState<T> cursorState : cursorStates) {
-                if (cursorState.getResult().hasNext()) {
-                    anyHasNext = true;
-                } else if (cursorState.getResult().getNoNextReason().isLimitReached()) {
+        // Only the states that were chosen last time (or all of them, the first time) have new results.
+        // The others still have the same result and the same place in the tournament.
+        return whenAll(pendingStates).thenApply(vignore -> {
+            for (KeyedMergeCursorState<T> cursorState : pendingStates) {
+                if (!cursorState.getResult().hasNext() && cursorState.getResult().getNoNextReason().isLimitReached()) {
                     // If any side stopped due to limit reached, need to stop completely,
                     // since might otherwise duplicate ones after that, if other side still available.
                     return Collections.emptyList();
                 }
             }
-            if (anyHasNext) {
+            pendingIndexes.forEach(tournament::update);
+            pendingStates.clear();
+            pendingIndexes.clear();
+            final int winner = tournament.winner();
+            if (getCursorStates().get(winner).getComparisonKey() != null) {
                 final long startTime = System.nanoTime();
-                List<KeyedMergeCursorState<T>> chosenStates = new ArrayList<>(cursorStates.size());
-                List<KeyedMergeCursorState<T>> otherStates = new ArrayList<>(cursorStates.size());
-                chooseStates(cursorStates, chosenStates, otherStates);
-                logDuplicates(chosenStates, startTime);
-                return chosenStates;
+                chooseStates(winner);
+                logDuplicates(pendingStates, startTime);
+                return pendingStates;
             } else {
                 return Collections.emptyList();
             }
         });
     }
 
-    private void chooseStates(@Nonnull List<KeyedMergeCursorState<T>> allStates, @Nonnull List<KeyedMergeCursorState<T>> chosenStates, @Nonnull List<KeyedMergeCursorState<T>> otherStates) {
-        List<Object> nextKey = null;
-        for (KeyedMergeCursorState<T> cursorState : allStates) {
-            final RecordCursorResult<T> result = cursorState.getResult();
-            if (result.hasNext()) {
-                int compare;
-                final List<Object> resultKey = cursorState.getComparisonKey();
-                if (nextKey == null) {
-                    // This is the first key we've seen, so always chose it.
-                    compare = -1;
-                } else {
-                    // Choose the minimum of the previous minimum key and this next one
-                    // If doing a reverse scan, choose the maximum.
-                    compare = KeyComparisons.KEY_COMPARATOR.compare(resultKey, nextKey) * (reverse ? -1 : 1);
-                }
-                if (compare < 0) {
-                    // We have a new next key. Reset the book-keeping information.
-                    otherStates.addAll(chosenStates);
-                    chosenStates.clear();
-                    nextKey = resultKey;
-                }
-                if (compare <= 0) {
-                    chosenStates.add(cursorState);
-                } else {
-                    otherStates.add(cursorState);
-                }
-            } else {
-                otherStates.add(cursorState);
-            }
+    // Choose every state with the same key as the winner, which will all be consumed by this step.
+    // They are put in child order, since the result is taken from the first, as it was before the tournament tree.
+    private void chooseStates(int winner) {
+        final List<KeyedMergeCursorState<T>> cursorStates = getCursorStates();
+        tournament.forEachLessThan(winner, true, pendingIndexes::add);
+        Collections.sort(pendingIndexes);
+        for (int index : pendingIndexes) {
+            pendingStates.add(cursorStates.get(index));
         }
     }
 
@@ -646,7 +646,7 @@ public abstract class StandardIndexMaintainer extends IndexMaintainer {
     @Nonnull
     protected <M extends Message> List<IndexEntry> evaluateIndex(@Nonnull FDBRecord<M> record) {
         final KeyExpression rootExpression = state.index.getRootExpression();
-        final List<Key.Evaluated> indexKeys = rootExpression.evaluate(record);
+        final List<Key.Evaluated> indexKeys = state.index.getCompiledRootExpression().evaluate(record);
 
         // A KeyWithValue expression returns a value that is both the key and the value of the index,
         // so we have to tease them apart.
@@ -0,0 +1,327 @@
+/*
+ * PreparedQuery.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.Bindings;
+import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorEndContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.RecordStoreState;
+import com.apple.foundationdb.record.cursors.IllegalContinuationAccessChecker;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.foundationdb.FDBQueriedRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A query that is planned once and then executed many times, with different values for its parameters.
+ *
+ * <p>
+ * Values that change from one execution to the next are given in the query's filter as parameters, using
+ * {@link com.apple.foundationdb.record.query.expressions.Comparisons.ParameterComparison}s (for instance with
+ * {@link com.apple.foundationdb.record.query.expressions.Field#equalsParameter}), and are bound to values with
+ * {@link Bindings} when executing it.
+ * </p>
+ *
+ * <p>
+ * The plan is made by the first record store that the query is executed against. Before each later execution,
+ * the plan is checked against the record store: if the store's meta-data has a different version, or if an index that
+ * the plan uses is no longer readable, the query is planned again. Otherwise, the plan is reused, even if some other
+ * index has since become readable, with which the query might now be planned better. A prepared query can be shared
+ * between threads.
+ * </p>
+ *
+ * <p>
+ * Continuations from executing a prepared query record the plan hash of the plan that produced them. If the query
+ * has been planned again since, to a plan with a different hash, resuming from such a continuation fails with a
+ * {@link RecordCoreException} rather than handing the continuation to a plan that cannot interpret it. The query
+ * must then be started again without a continuation.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class PreparedQuery {
+    @Nonnull
+    private final RecordQuery query;
+    @Nullable
+    private volatile Planned planned;
+
+    public PreparedQuery(@Nonnull RecordQuery query) {
+        this.query = query;
+    }
+
+    /**
+     * Prepare a query and plan it for the given record store.
+     * @param store the record store to plan the query for
+     * @param query the query to prepare
+     * @return a new prepared query
+     */
+    @Nonnull
+    public static PreparedQuery prepare(@Nonnull FDBRecordStoreBase<?> store, @Nonnull RecordQuery query) {
+        final PreparedQuery preparedQuery = new PreparedQuery(query);
+        preparedQuery.getPlan(store);
+        return preparedQuery;
+    }
+
+    @Nonnull
+    public RecordQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * Get the plan for this query, planning it again if the current plan is not valid for the given record store.
+     * @param store the record store that the plan is to be executed against
+     * @return a plan for the query that is valid for the given store
+     */
+    @Nonnull
+    public RecordQueryPlan getPlan(@Nonnull FDBRecordStoreBase<?> store) {
+        Planned current = planned;
+        if (current == null || !current.isValid(store)) {
+            if (current != null && store.getTimer() != null) {
+                store.getTimer().increment(FDBStoreTimer.Counts.PREPARED_QUERY_REPLAN);
+            }
+            current = new Planned(store.planQuery(query), store.getRecordMetaData().getVersion());
+            planned = current;
+        }
+        return current.plan;
+    }
+
+    /**
+     * Execute this query.
+     * @param store the record store to query
+     * @param bindings values for the parameters of the query
+     * @param <M> type used to represent stored records
+     * @return a cursor for query results
+     */
+    @Nonnull
+    public <M extends Message> RecordCursor<FDBQueriedRecord<M>> execute(@Nonnull FDBRecordStoreBase<M> store, @Nonnull Bindings bindings) {
+        return execute(store, bindings, null, ExecuteProperties.SERIAL_EXECUTE);
+    }
+
+    /**
+     * Execute this query.
+     * @param store the record store to query
+     * @param bindings values for the parameters of the query
+     * @param continuation continuation from a previous execution of this same query with the same bindings
+     * @param executeProperties limits on execution
+     * @param <M> type used to represent stored records
+     * @return a cursor for query results
+     * @throws RecordCoreException if the continuation was produced by a plan that the query has since been planned away from
+     */
+    @Nonnull
+    public <M extends Message> RecordCursor<FDBQueriedRecord<M>> execute(@Nonnull FDBRecordStoreBase<M> store, @Nonnull Bindings bindings,
+                                                                         @Nullable byte[] continuation,
+                                                                         @Nonnull ExecuteProperties executeProperties) {
+        final RecordQueryPlan plan = getPlan(store);
+        final int planHash = plan.planHash();
+        byte[] childContinuation = null;
+        if (continuation != null) {
+            final RecordCursorProto.PreparedQueryContinuation parsed;
+            try {
+                parsed = RecordCursorProto.PreparedQueryContinuation.parseFrom(continuation);
+            } catch (InvalidProtocolBufferException ex) {
+                throw new RecordCoreException("invalid continuation", ex)
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+            if (parsed.getPlanHash() != planHash) {
+                throw new RecordCoreException("continuation is from a different plan than the prepared query now has")
+                        .addLogInfo(LogMessageKeys.PLAN_HASH, planHash)
+                        .addLogInfo(LogMessageKeys.EXPECTED_PLAN_HASH, parsed.getPlanHash())
+                        .addLogInfo(LogMessageKeys.PLAN, plan);
+            }
+            if (parsed.hasChildContinuation()) {
+                childContinuation = parsed.getChildContinuation().toByteArray();
+            }
+        }
+        return new PlanHashCursor<>(plan.execute(store, EvaluationContext.forBindings(bindings), childContinuation, executeProperties), planHash);
+    }
+
+    private static class Planned {
+        @Nonnull
+        private final RecordQueryPlan plan;
+        private final int metaDataVersion;
+
+        Planned(@Nonnull RecordQueryPlan plan, int metaDataVersion) {
+            this.plan = plan;
+            this.metaDataVersion = metaDataVersion;
+        }
+
+        boolean isValid(@Nonnull FDBRecordStoreBase<?> store) {
+            if (store.getRecordMetaData().getVersion() != metaDataVersion) {
+                return false;
+            }
+            final RecordStoreState recordStoreState = store.getUntypedRecordStore().getRecordStoreState();
+            for (String indexName : plan.getUsedIndexes()) {
+                if (!recordStoreState.isReadable(indexName)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A cursor that tags the continuations of the plan's cursor with the plan hash.
+     * @param <T> the type of elements of the cursor
+     */
+    private static class PlanHashCursor<T> implements RecordCursor<T> {
+        @Nonnull
+        private final RecordCursor<T> inner;
+        private final int planHash;
+
+        @Nullable
+        private CompletableFuture<Boolean> hasNextFuture;
+        @Nullable
+        private RecordCursorResult<T> nextResult;
+        // for detecting incorrect cursor usage
+        private boolean mayGetContinuation = false;
+
+        PlanHashCursor(@Nonnull RecordCursor<T> inner, int planHash) {
+            this.inner = inner;
+            this.planHash = planHash;
+        }
+
+        @Nonnull
+        private RecordCursorContinuation wrap(@Nonnull RecordCursorContinuation continuation) {
+            return continuation.isEnd() ? RecordCursorEndContinuation.END : new Continuation(planHash, continuation);
+        }
+
+        @Nonnull
+        @Override
+        public CompletableFuture<RecordCursorResult<T>> onNext() {
+            if (nextResult != null && !nextResult.hasNext()) {
+                return CompletableFuture.completedFuture(nextResult);
+            }
+            mayGetContinuation = false;
+            return inner.onNext().thenApply(result -> {
+                nextResult = result.withContinuation(wrap(result.getContinuation()));
+                mayGetContinuation = !nextResult.hasNext();
+                return nextResult;
+            });
+        }
+
+        @Nonnull
+        @Override
+        @Deprecated
+        public CompletableFuture<Boolean> onHasNext() {
+            if (hasNextFuture == null) {
+                hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+            }
+            return hasNextFuture;
+        }
+
+        @Nullable
+        @Override
+        @Deprecated
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNextFuture = null;
+            mayGetContinuation = true;
+            return nextResult.get();
+        }
+
+        @Nullable
+        @Override
+        @Deprecated
+        public byte[] getContinuation() {
+            IllegalContinuationAccessChecker.check(mayGetContinuation);
+            return nextResult.getContinuation().toBytes();
+        }
+
+        @Nonnull
+        @Override
+        @Deprecated
+        public NoNextReason getNoNextReason() {
+            return nextResult.getNoNextReason();
+        }
+
+        @Override
+        public void close() {
+            inner.close();
+        }
+
+        @Nonnull
+        @Override
+        public Executor getExecutor() {
+            return inner.getExecutor();
+        }
+
+        @Override
+        public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+            if (visitor.visitEnter(this)) {
+                inner.accept(visitor);
+            }
+            return visitor.visitLeave(this);
+        }
+    }
+
+    private static class Continuation implements RecordCursorContinuation {
+        private final int planHash;
+        @Nonnull
+        private final RecordCursorContinuation childContinuation;
+        @Nullable
+        private byte[] cachedBytes;
+
+        Continuation(int planHash, @Nonnull RecordCursorContinuation childContinuation) {
+            this.planHash = planHash;
+            this.childContinuation = childContinuation;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            if (cachedBytes == null) {
+                final RecordCursorProto.PreparedQueryContinuation.Builder builder = RecordCursorProto.PreparedQueryContinuation.newBuilder()
+                        .setPlanHash(planHash);
+                final byte[] childBytes = childContinuation.toBytes();
+                if (childBytes != null) {
+                    builder.setChildContinuation(ByteString.copyFrom(childBytes));
+                }
+                cachedBytes = builder.build().toByteArray();
+            }
+            return cachedBytes;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * The logical form of a query.
@@ -148,6 +149,30 @@ public class RecordQuery {
         }
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RecordQuery that = (RecordQuery)o;
+        return sortReverse == that.sortReverse &&
+               removeDuplicates == that.removeDuplicates &&
+               recordTypes.equals(that.recordTypes) &&
+               Objects.equals(allowedIndexes, that.allowedIndexes) &&
+               queryabilityFilter.equals(that.queryabilityFilter) &&
+               Objects.equals(filter, that.filter) &&
+               Objects.equals(sort, that.sort) &&
+               Objects.equals(requiredResults, that.requiredResults);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(recordTypes, allowedIndexes, queryabilityFilter, filter, sort, sortReverse, removeDuplicates, requiredResults);
+    }
+
     @Override
     public String toString() {
         final StringBuilder str = new StringBuilder();
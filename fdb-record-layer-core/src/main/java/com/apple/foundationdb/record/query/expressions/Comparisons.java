@@ -624,6 +624,229 @@ public class Comparisons {
         }
     }
 
+    /**
+     * Compile a comparison for evaluating against many values.
+     *
+     * <p>
+     * Ordering and equality comparisons with a constant {@code Long}, {@code Integer}, {@code Double}, {@code Float},
+     * {@code String} or {@code Boolean} compare values of that same class directly, instead of going through
+     * {@link #evalComparison}. Values of any other class, and all other comparisons, are evaluated as before.
+     * </p>
+     * @param comparison the comparison to compile
+     * @return a compiled comparison that gives the same result as {@link Comparison#eval}
+     */
+    @API(API.Status.INTERNAL)
+    @Nonnull
+    public static CompiledComparison compile(@Nonnull Comparison comparison) {
+        if (comparison.getClass() == SimpleComparison.class) {
+            final Type type = comparison.getType();
+            final Object comparand = ((SimpleComparison)comparison).comparand;
+            switch (type) {
+                case EQUALS:
+                case NOT_EQUALS:
+                case LESS_THAN:
+                case LESS_THAN_OR_EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQUALS:
+                    if (comparand instanceof Long) {
+                        return new LongCompiledComparison(type, (Long)comparand);
+                    } else if (comparand instanceof Integer) {
+                        return new IntCompiledComparison(type, (Integer)comparand);
+                    } else if (comparand instanceof Double) {
+                        return new DoubleCompiledComparison(type, (Double)comparand);
+                    } else if (comparand instanceof Float) {
+                        return new FloatCompiledComparison(type, (Float)comparand);
+                    } else if (comparand instanceof String) {
+                        return new StringCompiledComparison(type, (String)comparand);
+                    } else if (comparand instanceof Boolean) {
+                        return new BooleanCompiledComparison(type, (Boolean)comparand);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return comparison::eval;
+    }
+
+    /**
+     * A {@link Comparison} prepared by {@link #compile} for evaluating against many values.
+     */
+    @API(API.Status.INTERNAL)
+    @FunctionalInterface
+    public interface CompiledComparison {
+        /**
+         * Evaluate the comparison for the value taken from the target record.
+         * @param store the record store for the query
+         * @param context the evaluation context for getting the other comparison value
+         * @param value the value taken from the record
+         * @return the tri-valued logic result of the comparison
+         */
+        @Nullable
+        Boolean eval(@Nonnull FDBRecordStoreBase<?> store, @Nonnull EvaluationContext context, @Nullable Object value);
+    }
+
+    /**
+     * A compiled comparison with a constant of a particular class, whose result follows from comparing it to the value.
+     */
+    private abstract static class SpecializedCompiledComparison implements CompiledComparison {
+        @Nonnull
+        private final Type type;
+        @Nonnull
+        private final Object comparand;
+        private final boolean ifLess;
+        private final boolean ifEqual;
+        private final boolean ifGreater;
+
+        protected SpecializedCompiledComparison(@Nonnull Type type, @Nonnull Object comparand) {
+            this.type = type;
+            this.comparand = comparand;
+            this.ifLess = type == Type.NOT_EQUALS || type == Type.LESS_THAN || type == Type.LESS_THAN_OR_EQUALS;
+            this.ifEqual = type == Type.EQUALS || type == Type.LESS_THAN_OR_EQUALS || type == Type.GREATER_THAN_OR_EQUALS;
+            this.ifGreater = type == Type.NOT_EQUALS || type == Type.GREATER_THAN || type == Type.GREATER_THAN_OR_EQUALS;
+        }
+
+        /**
+         * Get whether the value is of the class that this comparison is specialized for.
+         * @param value a non-null value
+         * @return {@code true} if {@link #compareTo} can be called with this value
+         */
+        protected abstract boolean isSpecialized(@Nonnull Object value);
+
+        /**
+         * Compare a value of the specialized class to the constant, consistently with equality for that class.
+         * @param value a value for which {@link #isSpecialized} is {@code true}
+         * @return the result of comparing {@code value} to the comparand
+         */
+        protected abstract int compareTo(@Nonnull Object value);
+
+        @Nullable
+        @Override
+        public Boolean eval(@Nonnull FDBRecordStoreBase<?> store, @Nonnull EvaluationContext context, @Nullable Object value) {
+            if (value == null || !isSpecialized(value)) {
+                return evalComparison(type, value, comparand);
+            }
+            final int result = compareTo(value);
+            return result < 0 ? ifLess : (result == 0 ? ifEqual : ifGreater);
+        }
+    }
+
+    private static class LongCompiledComparison extends SpecializedCompiledComparison {
+        private final long comparand;
+
+        LongCompiledComparison(@Nonnull Type type, long comparand) {
+            super(type, comparand);
+            this.comparand = comparand;
+        }
+
+        @Override
+        protected boolean isSpecialized(@Nonnull Object value) {
+            return value instanceof Long;
+        }
+
+        @Override
+        protected int compareTo(@Nonnull Object value) {
+            return Long.compare((Long)value, comparand);
+        }
+    }
+
+    private static class IntCompiledComparison extends SpecializedCompiledComparison {
+        private final int comparand;
+
+        IntCompiledComparison(@Nonnull Type type, int comparand) {
+            super(type, comparand);
+            this.comparand = comparand;
+        }
+
+        @Override
+        protected boolean isSpecialized(@Nonnull Object value) {
+            return value instanceof Integer;
+        }
+
+        @Override
+        protected int compareTo(@Nonnull Object value) {
+            return Integer.compare((Integer)value, comparand);
+        }
+    }
+
+    private static class DoubleCompiledComparison extends SpecializedCompiledComparison {
+        private final double comparand;
+
+        DoubleCompiledComparison(@Nonnull Type type, double comparand) {
+            super(type, comparand);
+            this.comparand = comparand;
+        }
+
+        @Override
+        protected boolean isSpecialized(@Nonnull Object value) {
+            return value instanceof Double;
+        }
+
+        @Override
+        protected int compareTo(@Nonnull Object value) {
+            // Like Double.equals, this treats NaN as equal to itself and 0.0 as unequal to -0.0.
+            return Double.compare((Double)value, comparand);
+        }
+    }
+
+    private static class FloatCompiledComparison extends SpecializedCompiledComparison {
+        private final float comparand;
+
+        FloatCompiledComparison(@Nonnull Type type, float comparand) {
+            super(type, comparand);
+            this.comparand = comparand;
+        }
+
+        @Override
+        protected boolean isSpecialized(@Nonnull Object value) {
+            return value instanceof Float;
+        }
+
+        @Override
+        protected int compareTo(@Nonnull Object value) {
+            return Float.compare((Float)value, comparand);
+        }
+    }
+
+    private static class StringCompiledComparison extends SpecializedCompiledComparison {
+        @Nonnull
+        private final String comparand;
+
+        StringCompiledComparison(@Nonnull Type type, @Nonnull String comparand) {
+            super(type, comparand);
+            this.comparand = comparand;
+        }
+
+        @Override
+        protected boolean isSpecialized(@Nonnull Object value) {
+            return value instanceof String;
+        }
+
+        @Override
+        protected int compareTo(@Nonnull Object value) {
+            return ((String)value).compareTo(comparand);
+        }
+    }
+
+    private static class BooleanCompiledComparison extends SpecializedCompiledComparison {
+        private final boolean comparand;
+
+        BooleanCompiledComparison(@Nonnull Type type, boolean comparand) {
+            super(type, comparand);
+            this.comparand = comparand;
+        }
+
+        @Override
+        protected boolean isSpecialized(@Nonnull Object value) {
+            return value instanceof Boolean;
+        }
+
+        @Override
+        protected int compareTo(@Nonnull Object value) {
+            return Boolean.compare((Boolean)value, comparand);
+        }
+    }
+
     /**
      * A comparison between a value associated with someplace in the record (such as a field) and a value associated
      * with the plan (such as a constant or a bound parameter).
@@ -0,0 +1,200 @@
+/*
+ * CompiledQueryComponent.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.expressions;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
+import com.apple.foundationdb.record.query.plan.temp.view.MessageFieldAccessor;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A {@link QueryComponent} filter compiled for evaluating against many records.
+ *
+ * <p>
+ * Evaluating a component tree directly looks up each field by name and compares values through the generic
+ * {@link Comparisons#evalComparison} for every record. Compiling it once turns the tree into one whose fields are
+ * accessed with {@link MessageFieldAccessor}s, which keep the field descriptors resolved, and whose comparisons are
+ * {@link Comparisons#compile compiled}. Components that are not handled specially, including subclasses of those that
+ * are, are evaluated with their own {@link QueryComponent#evalMessage}, so the result is always the same as evaluating
+ * the component.
+ * </p>
+ */
+@API(API.Status.INTERNAL)
+public abstract class CompiledQueryComponent {
+    /**
+     * Return whether or not the given record matches the compiled component.
+     * @param <M> the type of record
+     * @param store the record store from which the record came
+     * @param context context for bound expressions
+     * @param record the record
+     * @param message the Protobuf message to evaluate against
+     * @return true/false/null, as for {@link QueryComponent#evalMessage}
+     */
+    @Nullable
+    public abstract <M extends Message> Boolean evalMessage(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                            @Nullable FDBRecord<M> record, @Nullable Message message);
+
+    /**
+     * Compile a query component.
+     * @param component the component to compile
+     * @return a compiled component that evaluates the same as {@code component}
+     */
+    @Nonnull
+    public static CompiledQueryComponent compile(@Nonnull QueryComponent component) {
+        final Class<?> componentClass = component.getClass();
+        if (componentClass == FieldWithComparison.class) {
+            final FieldWithComparison fieldWithComparison = (FieldWithComparison)component;
+            return new CompiledFieldWithComparison(fieldWithComparison.getFieldName(), fieldWithComparison.getComparison());
+        } else if (componentClass == NestedField.class) {
+            final NestedField nestedField = (NestedField)component;
+            return new CompiledNestedField(nestedField.getFieldName(), compile(nestedField.getChild()));
+        } else if (componentClass == NotComponent.class) {
+            return new CompiledNot(compile(((NotComponent)component).getChild()));
+        } else if (componentClass == AndComponent.class || componentClass == OrComponent.class) {
+            final AndOrComponent andOrComponent = (AndOrComponent)component;
+            final List<QueryComponent> children = andOrComponent.getChildren();
+            final CompiledQueryComponent[] compiledChildren = new CompiledQueryComponent[children.size()];
+            for (int i = 0; i < compiledChildren.length; i++) {
+                compiledChildren[i] = compile(children.get(i));
+            }
+            return new CompiledAndOr(andOrComponent.isOr(), compiledChildren);
+        } else {
+            return new Uncompiled(component);
+        }
+    }
+
+    private static class CompiledFieldWithComparison extends CompiledQueryComponent {
+        @Nonnull
+        private final MessageFieldAccessor accessor;
+        @Nonnull
+        private final Comparisons.CompiledComparison comparison;
+        private final boolean allowWholeMessage;
+
+        CompiledFieldWithComparison(@Nonnull String fieldName, @Nonnull Comparisons.Comparison comparison) {
+            this.accessor = new MessageFieldAccessor(fieldName);
+            this.comparison = Comparisons.compile(comparison);
+            // Can check nullity of a nested message as well as of a field in it.
+            this.allowWholeMessage = comparison.getType() == Comparisons.Type.IS_NULL || comparison.getType() == Comparisons.Type.NOT_NULL;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean evalMessage(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                       @Nullable FDBRecord<M> record, @Nullable Message message) {
+            final Object value = message == null ? null : accessor.getValue(message);
+            if (value instanceof MessageOrBuilder && !allowWholeMessage) {
+                throw new Query.InvalidExpressionException("Expression requiring primitive found a message value");
+            }
+            return comparison.eval(store, context, value);
+        }
+    }
+
+    private static class CompiledNestedField extends CompiledQueryComponent {
+        @Nonnull
+        private final MessageFieldAccessor accessor;
+        @Nonnull
+        private final CompiledQueryComponent child;
+
+        CompiledNestedField(@Nonnull String fieldName, @Nonnull CompiledQueryComponent child) {
+            this.accessor = new MessageFieldAccessor(fieldName);
+            this.child = child;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean evalMessage(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                       @Nullable FDBRecord<M> record, @Nullable Message message) {
+            final Object value = message == null ? null : accessor.getValue(message);
+            if (value == null || value instanceof Message) {
+                return child.evalMessage(store, context, record, (Message)value);
+            } else {
+                throw new Query.InvalidExpressionException("Expression requiring nesting found a non-message value");
+            }
+        }
+    }
+
+    private static class CompiledNot extends CompiledQueryComponent {
+        @Nonnull
+        private final CompiledQueryComponent child;
+
+        CompiledNot(@Nonnull CompiledQueryComponent child) {
+            this.child = child;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean evalMessage(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                       @Nullable FDBRecord<M> record, @Nullable Message message) {
+            final Boolean value = child.evalMessage(store, context, record, message);
+            return value == null ? null : !value;
+        }
+    }
+
+    private static class CompiledAndOr extends CompiledQueryComponent {
+        private final boolean isOr;
+        @Nonnull
+        private final CompiledQueryComponent[] children;
+
+        CompiledAndOr(boolean isOr, @Nonnull CompiledQueryComponent[] children) {
+            this.isOr = isOr;
+            this.children = children;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean evalMessage(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                       @Nullable FDBRecord<M> record, @Nullable Message message) {
+            Boolean retVal = !isOr;
+            for (CompiledQueryComponent child : children) {
+                final Boolean val = child.evalMessage(store, context, record, message);
+                if (val == null) {
+                    retVal = null;
+                } else if (val == isOr) {
+                    return isOr;
+                }
+            }
+            return retVal;
+        }
+    }
+
+    private static class Uncompiled extends CompiledQueryComponent {
+        @Nonnull
+        private final QueryComponent component;
+
+        Uncompiled(@Nonnull QueryComponent component) {
+            this.component = component;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean evalMessage(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                       @Nullable FDBRecord<M> record, @Nullable Message message) {
+            return component.evalMessage(store, context, record, message);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * QueryPlanCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan;
+
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.IndexState;
+import com.apple.foundationdb.record.RecordStoreState;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of the plans made by {@link RecordQueryPlanner}s, so that planning the same query again returns the same plan.
+ *
+ * <p>
+ * A plan depends not only on the {@link RecordQuery}, but also on the meta-data, the states of the indexes in the
+ * record store, and the configuration of the planner. So a plan is cached under the query along with the
+ * {@linkplain com.apple.foundationdb.record.RecordMetaData#getVersion() meta-data version}, the
+ * {@linkplain RecordStoreState#getIndexStates() index states}, the {@link RecordQueryPlannerConfiguration} and the
+ * {@link PlannableIndexTypes}, as well as the row limit it was {@linkplain RecordQueryPlanner#plan(RecordQuery, int) planned for}.
+ * Since the meta-data is only identified by its version, a cache should only be shared by planners for record stores
+ * with the same meta-data.
+ * </p>
+ *
+ * <p>
+ * Queries are compared using their filters' {@code equals}, which includes comparison values. So queries that differ only
+ * in some value only share a plan if that value is given as a parameter, using
+ * {@link com.apple.foundationdb.record.query.expressions.Comparisons.ParameterComparison}, and bound when the plan is executed.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class QueryPlanCache {
+    /**
+     * The default maximum number of plans kept.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    @Nonnull
+    private final Cache<Key, RecordQueryPlan> cache;
+
+    public QueryPlanCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public QueryPlanCache(int maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Get a plan for the given query, either from the cache or by planning it with the given planner.
+     * @param planner the planner to use if the plan is not cached
+     * @param query the query to plan
+     * @param timer a timer to count whether the plan was cached or {@code null}
+     * @return a plan for the query
+     */
+    @Nonnull
+    public RecordQueryPlan plan(@Nonnull RecordQueryPlanner planner, @Nonnull RecordQuery query, @Nullable StoreTimer timer) {
+        return plan(planner, query, ReadTransaction.ROW_LIMIT_UNLIMITED, timer);
+    }
+
+    /**
+     * Get a plan for the given query and row limit, either from the cache or by planning it with the given planner.
+     * @param planner the planner to use if the plan is not cached
+     * @param query the query to plan
+     * @param rowLimit the maximum number of records that will be read from the plan, or {@link ReadTransaction#ROW_LIMIT_UNLIMITED}
+     * @param timer a timer to count whether the plan was cached or {@code null}
+     * @return a plan for the query
+     * @see RecordQueryPlanner#plan(RecordQuery, int)
+     */
+    @Nonnull
+    public RecordQueryPlan plan(@Nonnull RecordQueryPlanner planner, @Nonnull RecordQuery query, int rowLimit, @Nullable StoreTimer timer) {
+        final Key key = new Key(planner, query, rowLimit);
+        RecordQueryPlan plan = cache.getIfPresent(key);
+        if (plan != null) {
+            if (timer != null) {
+                timer.increment(FDBStoreTimer.Counts.PLAN_CACHE_HIT);
+            }
+            return plan;
+        }
+        if (timer != null) {
+            timer.increment(FDBStoreTimer.Counts.PLAN_CACHE_MISS);
+        }
+        plan = planner.plan(query, rowLimit);
+        cache.put(key, plan);
+        return plan;
+    }
+
+    /**
+     * Remove all plans from the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Get the approximate number of plans in the cache.
+     * @return the number of cached plans
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    private static class Key {
+        @Nonnull
+        private final RecordQuery query;
+        private final int rowLimit;
+        private final int metaDataVersion;
+        @Nonnull
+        private final Map<String, IndexState> indexStates;
+        @Nonnull
+        private final RecordQueryPlannerConfiguration configuration;
+        @Nonnull
+        private final PlannableIndexTypes indexTypes;
+        private final int hashCode;
+
+        Key(@Nonnull RecordQueryPlanner planner, @Nonnull RecordQuery query, int rowLimit) {
+            this.query = query;
+            this.rowLimit = rowLimit;
+            this.metaDataVersion = planner.getRecordMetaData().getVersion();
+            final RecordStoreState recordStoreState = planner.getRecordStoreState();
+            recordStoreState.beginRead();
+            try {
+                this.indexStates = ImmutableMap.copyOf(recordStoreState.getIndexStates());
+            } finally {
+                recordStoreState.endRead();
+            }
+            this.configuration = planner.getConfiguration();
+            this.indexTypes = planner.getIndexTypes();
+            this.hashCode = Objects.hash(query, rowLimit, metaDataVersion, indexStates, configuration, indexTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key)o;
+            return hashCode == that.hashCode &&
+                   rowLimit == that.rowLimit &&
+                   metaDataVersion == that.metaDataVersion &&
+                   query.equals(that.query) &&
+                   indexStates.equals(that.indexStates) &&
+                   configuration.equals(that.configuration) &&
+                   indexTypes.equals(that.indexTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
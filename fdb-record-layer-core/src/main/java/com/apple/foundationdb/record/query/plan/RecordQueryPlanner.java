@@ -20,6 +20,7 @@
 
 package com.apple.foundationdb.record.query.plan;
 
+import com.apple.foundationdb.ReadTransaction;
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.annotation.SpotBugsSuppressWarnings;
 import com.apple.foundationdb.record.FunctionNames;
@@ -42,6 +43,7 @@ import com.apple.foundationdb.record.metadata.expressions.RecordTypeKeyExpressio
 import com.apple.foundationdb.record.metadata.expressions.ThenKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.VersionKeyExpression;
 import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
 import com.apple.foundationdb.record.provider.foundationdb.leaderboard.TimeWindowRecordFunction;
 import com.apple.foundationdb.record.query.RecordQuery;
 import com.apple.foundationdb.record.query.expressions.AndComponent;
@@ -68,7 +70,10 @@ import com.apple.foundationdb.record.query.plan.plans.RecordQueryIntersectionPla
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlanWithIndex;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryScanPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQuerySortKey;
+import com.apple.foundationdb.record.query.plan.plans.RecordQuerySortPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryTextIndexPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryTopKPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryTypeFilterPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryUnionPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryUnorderedPrimaryKeyDistinctPlan;
@@ -209,6 +214,15 @@ public class RecordQueryPlanner implements QueryPlanner {
         return configuration;
     }
 
+    /**
+     * Get the index types that this planner knows how to use.
+     * @return the plannable index types
+     */
+    @Nonnull
+    public PlannableIndexTypes getIndexTypes() {
+        return indexTypes;
+    }
+
     /**
      * Get the {@link RecordMetaData} for this planner.
      * @return the meta-data
@@ -233,10 +247,30 @@ public class RecordQueryPlanner implements QueryPlanner {
      * @param query a query for records on this planner's metadata
      * @return a plan that will return the results of the provided query when executed
      * @throws com.apple.foundationdb.record.RecordCoreException if there is no index that matches the sort in the provided query
+     * and the configuration does not {@linkplain RecordQueryPlannerConfiguration#shouldAllowNonIndexSort allow sorting without an index}
      */
     @Nonnull
     @Override
     public RecordQueryPlan plan(@Nonnull RecordQuery query) {
+        return plan(query, ReadTransaction.ROW_LIMIT_UNLIMITED);
+    }
+
+    /**
+     * Create a plan to get the results of the provided query, when it is known how many of them will be read.
+     * If no index matches the sort in the provided query and the limit is no more than the configuration's
+     * {@linkplain RecordQueryPlannerConfiguration#getTopKSortMaxLimit top-K sort limit}, the plan keeps only that many
+     * records while sorting and never returns more than that many records in all.
+     *
+     * @param query a query for records on this planner's metadata
+     * @param rowLimit the maximum number of records that will be read from the plan, including any that are skipped,
+     * or {@link ReadTransaction#ROW_LIMIT_UNLIMITED} if not known
+     * @return a plan that will return the results of the provided query when executed
+     * @throws com.apple.foundationdb.record.RecordCoreException if there is no index that matches the sort in the provided query
+     * and the configuration neither allows a top-K sort for the limit nor
+     * {@linkplain RecordQueryPlannerConfiguration#shouldAllowNonIndexSort allows sorting without an index}
+     */
+    @Nonnull
+    public RecordQueryPlan plan(@Nonnull RecordQuery query, int rowLimit) {
         query.validate(metaData);
 
         final PlanContext planContext = getPlanContext(query);
@@ -261,6 +295,10 @@ public class RecordQueryPlanner implements QueryPlanner {
                 if (filter != null) {
                     plan = new RecordQueryFilterPlan(plan, filter);
                 }
+            } else if (rowLimit != ReadTransaction.ROW_LIMIT_UNLIMITED && rowLimit <= configuration.getTopKSortMaxLimit()) {
+                return planTopKSort(query, sort, sortReverse, rowLimit);
+            } else if (configuration.shouldAllowNonIndexSort()) {
+                return planNonIndexSort(query, sort, sortReverse);
             } else {
                 throw new RecordCoreException("Cannot sort without appropriate index: " + sort);
             }
@@ -291,6 +329,45 @@ public class RecordQueryPlanner implements QueryPlanner {
         return plan;
     }
 
+    /**
+     * Plan a query whose sort is not provided by any index by planning it without the sort and then sorting the results.
+     * Required results are not passed on, since a covering plan might not have the fields in the sort key.
+     */
+    @Nonnull
+    private RecordQueryPlan planNonIndexSort(@Nonnull RecordQuery query, @Nonnull KeyExpression sort, boolean sortReverse) {
+        final RecordQuery unsortedQuery = query.toBuilder()
+                .setSort(null)
+                .setRequiredResults(null)
+                .build();
+        final RecordQueryPlan plan = new RecordQuerySortPlan(plan(unsortedQuery), new RecordQuerySortKey(sort, sortReverse),
+                configuration.getSortMaxBytesInMemory());
+        if (timer != null) {
+            // The structure of the unsorted plan has already been logged.
+            timer.increment(FDBStoreTimer.Counts.PLAN_SORT);
+        }
+        return plan;
+    }
+
+    /**
+     * Plan a query whose sort is not provided by any index but whose number of results is known to be small by planning
+     * it without the sort and then keeping just the first results in sort order.
+     */
+    @Nonnull
+    private RecordQueryPlan planTopKSort(@Nonnull RecordQuery query, @Nonnull KeyExpression sort, boolean sortReverse,
+                                         int rowLimit) {
+        final RecordQuery unsortedQuery = query.toBuilder()
+                .setSort(null)
+                .setRequiredResults(null)
+                .build();
+        final RecordQueryPlan plan = new RecordQueryTopKPlan(plan(unsortedQuery), new RecordQuerySortKey(sort, sortReverse),
+                rowLimit);
+        if (timer != null) {
+            // The structure of the unsorted plan has already been logged.
+            timer.increment(FDBStoreTimer.Counts.PLAN_TOP_K);
+        }
+        return plan;
+    }
+
     @Nullable
     private RecordQueryPlan planNoFilter(PlanContext planContext, KeyExpression sort, boolean sortReverse) {
         ScoredPlan bestPlan = null;
@@ -689,7 +766,7 @@ public class RecordQueryPlanner implements QueryPlanner {
             if (planContext.commonPrimaryKey == null) {
                 return null;
             }
-            return new ScoredPlan(new RecordQueryUnorderedPrimaryKeyDistinctPlan(plan.plan), plan.unsatisfiedFilters, plan.indexFilters, plan.score,
+            return new ScoredPlan(new RecordQueryUnorderedPrimaryKeyDistinctPlan(plan.plan, configuration.getDistinctMaxBytesInMemory()), plan.unsatisfiedFilters, plan.indexFilters, plan.score,
                     false, plan.includedRankComparisons);
         } else {
             return plan;
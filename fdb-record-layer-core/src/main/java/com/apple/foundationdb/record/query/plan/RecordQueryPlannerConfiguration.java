@@ -22,8 +22,12 @@ package com.apple.foundationdb.record.query.plan;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.query.plan.plans.QueryPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQuerySortPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryTopKPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryUnorderedPrimaryKeyDistinctPlan;
 
 import javax.annotation.Nonnull;
+import java.util.Objects;
 
 /**
  * A set of configuration options for the {@link RecordQueryPlanner}.
@@ -37,19 +41,31 @@ public class RecordQueryPlannerConfiguration {
     private final boolean checkForDuplicateConditions;
     private final boolean deferFetchAfterUnionAndIntersection;
     private final boolean optimizeForIndexFilters;
+    private final boolean allowNonIndexSort;
+    private final long sortMaxBytesInMemory;
+    private final int topKSortMaxLimit;
+    private final long distinctMaxBytesInMemory;
 
     private RecordQueryPlannerConfiguration(@Nonnull QueryPlanner.IndexScanPreference indexScanPreference,
                                             boolean attemptFailedInJoinAsOr,
                                             int complexityThreshold,
                                             boolean checkForDuplicateConditions,
                                             boolean deferFetchAfterUnionAndIntersection,
-                                            boolean optimizeForIndexFilters) {
+                                            boolean optimizeForIndexFilters,
+                                            boolean allowNonIndexSort,
+                                            long sortMaxBytesInMemory,
+                                            int topKSortMaxLimit,
+                                            long distinctMaxBytesInMemory) {
         this.indexScanPreference = indexScanPreference;
         this.attemptFailedInJoinAsOr = attemptFailedInJoinAsOr;
         this.complexityThreshold = complexityThreshold;
         this.checkForDuplicateConditions = checkForDuplicateConditions;
         this.deferFetchAfterUnionAndIntersection = deferFetchAfterUnionAndIntersection;
         this.optimizeForIndexFilters = optimizeForIndexFilters;
+        this.allowNonIndexSort = allowNonIndexSort;
+        this.sortMaxBytesInMemory = sortMaxBytesInMemory;
+        this.topKSortMaxLimit = topKSortMaxLimit;
+        this.distinctMaxBytesInMemory = distinctMaxBytesInMemory;
     }
 
     /**
@@ -116,6 +132,74 @@ public class RecordQueryPlannerConfiguration {
         return optimizeForIndexFilters;
     }
 
+    /**
+     * Get whether the query planner may satisfy a requested sort that no index provides by planning the query without
+     * the sort and then sorting the results with a {@link RecordQuerySortPlan}. If not, such queries fail to plan.
+     * @return whether the planner may sort records without an index
+     */
+    public boolean shouldAllowNonIndexSort() {
+        return allowNonIndexSort;
+    }
+
+    /**
+     * Get the approximate number of bytes of records that a {@link RecordQuerySortPlan} sorts in memory before writing
+     * them to local files.
+     * @return the in-memory limit for sorting records without an index
+     * @see #shouldAllowNonIndexSort
+     */
+    public long getSortMaxBytesInMemory() {
+        return sortMaxBytesInMemory;
+    }
+
+    /**
+     * Get the largest row limit for which the query planner satisfies a requested sort that no index provides with
+     * a {@link RecordQueryTopKPlan}, which only holds that many records in memory. This applies only when the limit is
+     * given to {@link RecordQueryPlanner#plan(com.apple.foundationdb.record.query.RecordQuery, int)} and does not
+     * depend on {@link #shouldAllowNonIndexSort}.
+     * @return the maximum limit for a top-K sort or {@code 0} if top-K sorts are not planned
+     */
+    public int getTopKSortMaxLimit() {
+        return topKSortMaxLimit;
+    }
+
+    /**
+     * Get the approximate number of bytes of primary key fingerprints that a {@link RecordQueryUnorderedPrimaryKeyDistinctPlan}
+     * holds in memory before writing them to local files.
+     * @return the in-memory limit for removing duplicates or {@link RecordQueryUnorderedPrimaryKeyDistinctPlan#UNLIMITED_MEMORY}
+     * to hold every primary key in memory
+     */
+    public long getDistinctMaxBytesInMemory() {
+        return distinctMaxBytesInMemory;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RecordQueryPlannerConfiguration that = (RecordQueryPlannerConfiguration)o;
+        return attemptFailedInJoinAsOr == that.attemptFailedInJoinAsOr &&
+               complexityThreshold == that.complexityThreshold &&
+               checkForDuplicateConditions == that.checkForDuplicateConditions &&
+               deferFetchAfterUnionAndIntersection == that.deferFetchAfterUnionAndIntersection &&
+               optimizeForIndexFilters == that.optimizeForIndexFilters &&
+               allowNonIndexSort == that.allowNonIndexSort &&
+               sortMaxBytesInMemory == that.sortMaxBytesInMemory &&
+               topKSortMaxLimit == that.topKSortMaxLimit &&
+               distinctMaxBytesInMemory == that.distinctMaxBytesInMemory &&
+               indexScanPreference == that.indexScanPreference;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(indexScanPreference, attemptFailedInJoinAsOr, complexityThreshold, checkForDuplicateConditions,
+                deferFetchAfterUnionAndIntersection, optimizeForIndexFilters, allowNonIndexSort, sortMaxBytesInMemory,
+                topKSortMaxLimit, distinctMaxBytesInMemory);
+    }
+
     @Nonnull
     public Builder asBuilder() {
         return new Builder(this);
@@ -137,6 +221,10 @@ public class RecordQueryPlannerConfiguration {
         private boolean checkForDuplicateConditions = false;
         private boolean deferFetchAfterUnionAndIntersection = false;
         private boolean optimizeForIndexFilters = false;
+        private boolean allowNonIndexSort = false;
+        private long sortMaxBytesInMemory = RecordQuerySortPlan.DEFAULT_MAX_BYTES_IN_MEMORY;
+        private int topKSortMaxLimit = 0;
+        private long distinctMaxBytesInMemory = RecordQueryUnorderedPrimaryKeyDistinctPlan.UNLIMITED_MEMORY;
 
         public Builder(@Nonnull RecordQueryPlannerConfiguration configuration) {
             this.indexScanPreference = configuration.indexScanPreference;
@@ -145,6 +233,10 @@ public class RecordQueryPlannerConfiguration {
             this.checkForDuplicateConditions = configuration.checkForDuplicateConditions;
             this.deferFetchAfterUnionAndIntersection = configuration.deferFetchAfterUnionAndIntersection;
             this.optimizeForIndexFilters = configuration.optimizeForIndexFilters;
+            this.allowNonIndexSort = configuration.allowNonIndexSort;
+            this.sortMaxBytesInMemory = configuration.sortMaxBytesInMemory;
+            this.topKSortMaxLimit = configuration.topKSortMaxLimit;
+            this.distinctMaxBytesInMemory = configuration.distinctMaxBytesInMemory;
         }
 
         public Builder() {
@@ -180,8 +272,29 @@ public class RecordQueryPlannerConfiguration {
             return this;
         }
 
+        public Builder setAllowNonIndexSort(final boolean allowNonIndexSort) {
+            this.allowNonIndexSort = allowNonIndexSort;
+            return this;
+        }
+
+        public Builder setSortMaxBytesInMemory(final long sortMaxBytesInMemory) {
+            this.sortMaxBytesInMemory = sortMaxBytesInMemory;
+            return this;
+        }
+
+        public Builder setTopKSortMaxLimit(final int topKSortMaxLimit) {
+            this.topKSortMaxLimit = topKSortMaxLimit;
+            return this;
+        }
+
+        public Builder setDistinctMaxBytesInMemory(final long distinctMaxBytesInMemory) {
+            this.distinctMaxBytesInMemory = distinctMaxBytesInMemory;
+            return this;
+        }
+
         public RecordQueryPlannerConfiguration build() {
-            return new RecordQueryPlannerConfiguration(indexScanPreference, attemptFailedInJoinAsOr, complexityThreshold, checkForDuplicateConditions, deferFetchAfterUnionAndIntersection, optimizeForIndexFilters);
+            return new RecordQueryPlannerConfiguration(indexScanPreference, attemptFailedInJoinAsOr, complexityThreshold, checkForDuplicateConditions, deferFetchAfterUnionAndIntersection, optimizeForIndexFilters,
+                    allowNonIndexSort, sortMaxBytesInMemory, topKSortMaxLimit, distinctMaxBytesInMemory);
         }
     }
 }
@@ -0,0 +1,228 @@
+/*
+ * PlanStatistics.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.query.plan.temp.explain.Attribute;
+import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
+import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraphProperty;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Statistics gathered while executing one node of a query plan, together with those for its children.
+ *
+ * <p>
+ * The tree of statistics has the same shape as the plan itself, that is, as {@link QueryPlan#getQueryPlanChildren},
+ * so it lines up with the operator nodes of the {@link PlannerGraph} for the plan. {@link #exportToDot} renders that
+ * graph with the statistics added to each operator.
+ * </p>
+ *
+ * <p>
+ * Keys and bytes scanned are counted as the scan cursors read them, so they include entries that a filter later
+ * rejected or that were skipped, as well as records loaded by key. Each node is charged for what it read itself,
+ * which is usually nothing except for index and record scans and fetches.
+ * The wall time is from the first request for a result from the node to its last result. The wait time is the total
+ * time that the node's parent spent waiting for results, which includes the time spent in the node's children.
+ * </p>
+ *
+ * @see PlanStatisticsCollector
+ */
+@API(API.Status.EXPERIMENTAL)
+public class PlanStatistics {
+    @Nonnull
+    private final QueryPlan<?> plan;
+    private final long executions;
+    private final long rowsIn;
+    private final long rowsOut;
+    private final long keysScanned;
+    private final long bytesScanned;
+    private final long wallTimeNanos;
+    private final long waitTimeNanos;
+    @Nonnull
+    private final List<PlanStatistics> children;
+
+    @SuppressWarnings("squid:S00107") // There are just a lot of statistics.
+    PlanStatistics(@Nonnull QueryPlan<?> plan, long executions, long rowsIn, long rowsOut,
+                   long keysScanned, long bytesScanned, long wallTimeNanos, long waitTimeNanos,
+                   @Nonnull List<PlanStatistics> children) {
+        this.plan = plan;
+        this.executions = executions;
+        this.rowsIn = rowsIn;
+        this.rowsOut = rowsOut;
+        this.keysScanned = keysScanned;
+        this.bytesScanned = bytesScanned;
+        this.wallTimeNanos = wallTimeNanos;
+        this.waitTimeNanos = waitTimeNanos;
+        this.children = ImmutableList.copyOf(children);
+    }
+
+    /**
+     * Get the plan node to which these statistics apply.
+     * @return the plan node
+     */
+    @Nonnull
+    public QueryPlan<?> getPlan() {
+        return plan;
+    }
+
+    /**
+     * Get the number of times that the plan node was executed.
+     * This is more than one when the node is the inner side of an {@code IN} join, or when execution is resumed
+     * from a continuation.
+     * @return the number of executions
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * Get the number of rows that the plan node got from its children.
+     * @return the total number of rows returned by the children
+     */
+    public long getRowsIn() {
+        return rowsIn;
+    }
+
+    /**
+     * Get the number of rows that the plan node returned.
+     * @return the number of rows returned
+     */
+    public long getRowsOut() {
+        return rowsOut;
+    }
+
+    /**
+     * Get the number of keys read by this plan node and all its descendants.
+     * @return the total number of keys read
+     */
+    public long getKeysScanned() {
+        return keysScanned + children.stream().mapToLong(PlanStatistics::getKeysScanned).sum();
+    }
+
+    /**
+     * Get the number of bytes of keys and values read by this plan node and all its descendants.
+     * @return the total number of bytes read
+     */
+    public long getBytesScanned() {
+        return bytesScanned + children.stream().mapToLong(PlanStatistics::getBytesScanned).sum();
+    }
+
+    /**
+     * Get the time from when the plan node was first asked for a result until it returned its last one.
+     * @return the wall clock time in nanoseconds
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    /**
+     * Get the total time that the consumer of this plan node spent waiting for its results to be ready.
+     * @return the wait time in nanoseconds
+     */
+    public long getWaitTimeNanos() {
+        return waitTimeNanos;
+    }
+
+    /**
+     * Get the statistics for the children of the plan node, in the same order as the children of the plan.
+     * @return the statistics for each child
+     */
+    @Nonnull
+    public List<PlanStatistics> getChildren() {
+        return children;
+    }
+
+    @Nonnull
+    private List<String> getDetails() {
+        return ImmutableList.of(
+                "executions: " + executions,
+                "rows in: " + rowsIn,
+                "rows out: " + rowsOut,
+                "keys scanned: " + getKeysScanned(),
+                "bytes scanned: " + getBytesScanned(),
+                "wall time: " + TimeUnit.NANOSECONDS.toMicros(wallTimeNanos) + " us",
+                "wait time: " + TimeUnit.NANOSECONDS.toMicros(waitTimeNanos) + " us");
+    }
+
+    private void addToMap(@Nonnull Map<QueryPlan<?>, PlanStatistics> map) {
+        map.put(plan, this);
+        for (PlanStatistics child : children) {
+            child.addToMap(map);
+        }
+    }
+
+    /**
+     * Export the {@link PlannerGraph} for the plan in dot format, with these statistics added to the details of each
+     * operator node.
+     * @return the graph as a string in dot format
+     */
+    @Nonnull
+    public String exportToDot() {
+        final Map<QueryPlan<?>, PlanStatistics> byPlan = new IdentityHashMap<>();
+        addToMap(byPlan);
+        final PlannerGraph plannerGraph = Objects.requireNonNull(plan.acceptPropertyVisitor(PlannerGraphProperty.forExplain()));
+        return PlannerGraphProperty.exportToDot(plannerGraph, node -> {
+            final Map<String, Attribute> attributes = node.getAttributes();
+            if (!(node instanceof PlannerGraph.WithExpression)) {
+                return attributes;
+            }
+            final PlanStatistics statistics = byPlan.get(((PlannerGraph.WithExpression)node).getExpression());
+            if (statistics == null) {
+                return attributes;
+            }
+            final List<String> details = new ArrayList<>();
+            if (node.getDetails() != null) {
+                details.addAll(node.getDetails());
+            }
+            details.addAll(statistics.getDetails());
+            final Map<String, Attribute> withStatistics = new LinkedHashMap<>(attributes);
+            withStatistics.put("details", Attribute.invisible(details.stream().map(Attribute::common).collect(Collectors.toList())));
+            return withStatistics;
+        });
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder str = new StringBuilder();
+        appendTo(str, 0);
+        return str.toString();
+    }
+
+    private void appendTo(@Nonnull StringBuilder str, int depth) {
+        for (int i = 0; i < depth; i++) {
+            str.append("  ");
+        }
+        str.append(plan).append(' ').append(String.join(", ", getDetails())).append('\n');
+        for (PlanStatistics child : children) {
+            child.appendTo(str, depth + 1);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * PlanStatisticsCollector.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.ByteScanLimiter;
+import com.apple.foundationdb.record.ExecuteState;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.cursors.IllegalContinuationAccessChecker;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects {@link PlanStatistics} for each node of a query plan while it executes.
+ *
+ * <p>
+ * To gather statistics, execute the plan with a context that has this collector and consume the cursor as usual.
+ * </p>
+ * <pre><code>
+ * PlanStatisticsCollector collector = new PlanStatisticsCollector(plan);
+ * RecordCursor&lt;FDBQueriedRecord&lt;Message&gt;&gt; cursor = plan.executePlan(store,
+ *         context.withPlanStatisticsCollector(collector), continuation, executeProperties);
+ * ...
+ * PlanStatistics statistics = collector.getStatistics();
+ * </code></pre>
+ *
+ * <p>
+ * Plans execute their children with {@link RecordQueryPlan#executePlan}, which wraps the child's cursor in one that
+ * records into this collector. It also wraps the {@link ExecuteState} that the child executes with, so that the keys
+ * and bytes that the scan cursors beneath it report to the {@link ByteScanLimiter} are counted, including those that
+ * are later filtered out or skipped. The root of a plan that is not a {@link RecordQueryPlan} can be recorded by
+ * wrapping its state with {@link #recordScans} and its cursor with {@link #record}. The same collector can be used for several executions of the plan, such as
+ * when it is resumed from a continuation, in which case the statistics are the total for all of them.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class PlanStatisticsCollector {
+    @Nonnull
+    private final QueryPlan<?> plan;
+    @Nonnull
+    private final Map<QueryPlan<?>, Counters> counters;
+
+    public PlanStatisticsCollector(@Nonnull QueryPlan<?> plan) {
+        this.plan = plan;
+        this.counters = new IdentityHashMap<>();
+        addCounters(plan);
+    }
+
+    private void addCounters(@Nonnull QueryPlan<?> node) {
+        counters.put(node, new Counters());
+        for (QueryPlan<?> child : node.getQueryPlanChildren()) {
+            addCounters(child);
+        }
+    }
+
+    /**
+     * Get the plan for which statistics are being collected.
+     * @return the root of the plan
+     */
+    @Nonnull
+    public QueryPlan<?> getPlan() {
+        return plan;
+    }
+
+    /**
+     * Wrap the cursor returned by executing some node of the plan so that statistics for that node are recorded.
+     * If the given plan is not part of the plan for which this collector was created, the cursor is returned as is.
+     * @param node the plan that was executed
+     * @param cursor the cursor returned by executing it
+     * @param <T> the type of elements of the cursor
+     * @return a cursor returning the same results as {@code cursor}
+     * @see RecordQueryPlan#executePlan
+     */
+    @Nonnull
+    public <T> RecordCursor<T> record(@Nonnull QueryPlan<?> node, @Nonnull RecordCursor<T> cursor) {
+        final Counters nodeCounters = counters.get(node);
+        if (nodeCounters == null) {
+            return cursor;
+        }
+        nodeCounters.executions.increment();
+        return new RecordingCursor<>(cursor, nodeCounters);
+    }
+
+    /**
+     * Wrap the state used to execute some node of the plan so that the keys and bytes scanned while executing it,
+     * including by its descendants, are recorded for that node. All scans are still reported to the limiters of
+     * {@code state}, so the wrapped state enforces the same limits.
+     * If the given plan is not part of the plan for which this collector was created, the state is returned as is.
+     * @param node the plan that is to be executed
+     * @param state the state with which it would otherwise be executed
+     * @return a state that records scans for {@code node}
+     * @see RecordQueryPlan#executePlan
+     */
+    @Nonnull
+    public ExecuteState recordScans(@Nonnull QueryPlan<?> node, @Nonnull ExecuteState state) {
+        final Counters nodeCounters = counters.get(node);
+        if (nodeCounters == null) {
+            return state;
+        }
+        return new ExecuteState(state.getRecordScanLimiter(), new RecordingByteScanLimiter(state.getByteScanLimiter(), nodeCounters));
+    }
+
+    /**
+     * Get the statistics recorded so far, as a tree with the same shape as the plan.
+     * @return the statistics for the root of the plan
+     */
+    @Nonnull
+    public PlanStatistics getStatistics() {
+        return getStatistics(plan);
+    }
+
+    @Nonnull
+    private PlanStatistics getStatistics(@Nonnull QueryPlan<?> node) {
+        final List<PlanStatistics> children = new ArrayList<>();
+        long rowsIn = 0;
+        long childKeysScanned = 0;
+        long childBytesScanned = 0;
+        for (QueryPlan<?> child : node.getQueryPlanChildren()) {
+            final PlanStatistics childStatistics = getStatistics(child);
+            children.add(childStatistics);
+            rowsIn += childStatistics.getRowsOut();
+            childKeysScanned += childStatistics.getKeysScanned();
+            childBytesScanned += childStatistics.getBytesScanned();
+        }
+        final Counters nodeCounters = counters.get(node);
+        final long firstStart = nodeCounters.firstStartNanos.get();
+        final long wallTime = firstStart == 0 ? 0 : nodeCounters.lastEndNanos.get() - firstStart;
+        // A node's scan counters include everything scanned beneath it, so take away what its children scanned.
+        return new PlanStatistics(node, nodeCounters.executions.sum(),
+                rowsIn, nodeCounters.rowsOut.sum(),
+                Math.max(nodeCounters.keysScanned.sum() - childKeysScanned, 0),
+                Math.max(nodeCounters.bytesScanned.sum() - childBytesScanned, 0),
+                Math.max(wallTime, 0), nodeCounters.waitNanos.sum(),
+                children);
+    }
+
+    /**
+     * Mutable statistics for one node, shared by all the cursors for executions of that node.
+     * Children of union and intersection plans can run concurrently, so all the counters are thread-safe.
+     */
+    private static class Counters {
+        @Nonnull
+        private final LongAdder executions = new LongAdder();
+        @Nonnull
+        private final LongAdder rowsOut = new LongAdder();
+        @Nonnull
+        private final LongAdder keysScanned = new LongAdder();
+        @Nonnull
+        private final LongAdder bytesScanned = new LongAdder();
+        @Nonnull
+        private final LongAdder waitNanos = new LongAdder();
+        @Nonnull
+        private final AtomicLong firstStartNanos = new AtomicLong();
+        @Nonnull
+        private final AtomicLong lastEndNanos = new AtomicLong();
+
+        void start(long startNanos) {
+            // Zero means not yet started; nanoTime is very unlikely to be exactly zero.
+            firstStartNanos.compareAndSet(0, startNanos);
+        }
+
+        void end(long startNanos, long endNanos, @Nullable RecordCursorResult<?> result) {
+            waitNanos.add(endNanos - startNanos);
+            lastEndNanos.accumulateAndGet(endNanos, Math::max);
+            if (result != null && result.hasNext()) {
+                rowsOut.increment();
+            }
+        }
+    }
+
+    /**
+     * A byte scan limiter that passes everything through to another limiter, counting what is scanned.
+     * Scan cursors register the size of each key-value pair that they read, so each call is also counted as a key.
+     */
+    private static class RecordingByteScanLimiter implements ByteScanLimiter {
+        @Nonnull
+        private final ByteScanLimiter inner;
+        @Nonnull
+        private final Counters counters;
+
+        RecordingByteScanLimiter(@Nonnull ByteScanLimiter inner, @Nonnull Counters counters) {
+            this.inner = inner;
+            this.counters = counters;
+        }
+
+        @Nonnull
+        @Override
+        public ByteScanLimiter reset() {
+            return new RecordingByteScanLimiter(inner.reset(), counters);
+        }
+
+        @Override
+        public boolean isEnforcing() {
+            return inner.isEnforcing();
+        }
+
+        @Override
+        public boolean hasBytesRemaining() {
+            return inner.hasBytesRemaining();
+        }
+
+        @Override
+        public void registerScannedBytes(long bytes) {
+            counters.keysScanned.increment();
+            counters.bytesScanned.add(bytes);
+            inner.registerScannedBytes(bytes);
+        }
+
+        @Override
+        public long getLimit() {
+            return inner.getLimit();
+        }
+
+        @Override
+        public long getBytesScanned() {
+            return inner.getBytesScanned();
+        }
+
+        @Override
+        public String toString() {
+            return inner.toString();
+        }
+    }
+
+    /**
+     * A cursor that passes through the results of another cursor, recording them and how long they took.
+     * @param <T> the type of elements of the cursor
+     */
+    private static class RecordingCursor<T> implements RecordCursor<T> {
+        @Nonnull
+        private final RecordCursor<T> inner;
+        @Nonnull
+        private final Counters counters;
+
+        @Nullable
+        private CompletableFuture<Boolean> hasNextFuture;
+        @Nullable
+        private RecordCursorResult<T> nextResult;
+        // for detecting incorrect cursor usage
+        private boolean mayGetContinuation = false;
+
+        RecordingCursor(@Nonnull RecordCursor<T> inner, @Nonnull Counters counters) {
+            this.inner = inner;
+            this.counters = counters;
+        }
+
+        @Nonnull
+        @Override
+        public CompletableFuture<RecordCursorResult<T>> onNext() {
+            if (nextResult != null && !nextResult.hasNext()) {
+                return CompletableFuture.completedFuture(nextResult);
+            }
+            mayGetContinuation = false;
+            final long startNanos = System.nanoTime();
+            counters.start(startNanos);
+            return inner.onNext().whenComplete((result, err) -> counters.end(startNanos, System.nanoTime(), result))
+                    .thenApply(result -> {
+                        mayGetContinuation = !result.hasNext();
+                        nextResult = result;
+                        return result;
+                    });
+        }
+
+        @Nonnull
+        @Override
+        @Deprecated
+        public CompletableFuture<Boolean> onHasNext() {
+            if (hasNextFuture == null) {
+                hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+            }
+            return hasNextFuture;
+        }
+
+        @Nullable
+        @Override
+        @Deprecated
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNextFuture = null;
+            mayGetContinuation = true;
+            return nextResult.get();
+        }
+
+        @Nullable
+        @Override
+        @Deprecated
+        public byte[] getContinuation() {
+            IllegalContinuationAccessChecker.check(mayGetContinuation);
+            return nextResult.getContinuation().toBytes();
+        }
+
+        @Nonnull
+        @Override
+        @Deprecated
+        public NoNextReason getNoNextReason() {
+            return nextResult.getNoNextReason();
+        }
+
+        @Override
+        public void close() {
+            inner.close();
+        }
+
+        @Nonnull
+        @Override
+        public Executor getExecutor() {
+            return inner.getExecutor();
+        }
+
+        @Override
+        public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+            if (visitor.visitEnter(this)) {
+                inner.accept(visitor);
+            }
+            return visitor.visitLeave(this);
+        }
+    }
+}
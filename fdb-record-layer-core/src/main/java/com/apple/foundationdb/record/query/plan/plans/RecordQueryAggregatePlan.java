@@ -0,0 +1,313 @@
+/*
+ * RecordQueryAggregatePlan.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.PlanHashable;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.cursors.AggregateAccumulator;
+import com.apple.foundationdb.record.cursors.AggregateOperation;
+import com.apple.foundationdb.record.cursors.HashAggregateCursor;
+import com.apple.foundationdb.record.cursors.StreamingAggregateCursor;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.metadata.Key;
+import com.apple.foundationdb.record.metadata.expressions.GroupingKeyExpression;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.plan.temp.AliasMap;
+import com.apple.foundationdb.record.query.plan.temp.CorrelationIdentifier;
+import com.apple.foundationdb.record.query.plan.temp.GroupExpressionRef;
+import com.apple.foundationdb.record.query.plan.temp.Quantifier;
+import com.apple.foundationdb.record.query.plan.temp.RelationalExpression;
+import com.apple.foundationdb.record.query.plan.temp.explain.Attribute;
+import com.apple.foundationdb.record.query.plan.temp.explain.NodeInfo;
+import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
+import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraphRewritable;
+import com.apple.foundationdb.record.query.plan.temp.expressions.RelationalExpressionWithChildren;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A query plan that groups the records returned by its child and computes aggregate values for each group.
+ *
+ * <p>
+ * The grouping key of a record and the values to aggregate are given by a {@link GroupingKeyExpression}: the grouping
+ * columns of its whole key form the group and the grouped columns are the operands of the {@link AggregateOperation}s,
+ * in order. {@link AggregateOperation#COUNT} does not need an operand, so operations at the end of the list may have
+ * no matching grouped column. Each element returned by this plan is a {@link Tuple} of the grouping columns followed by
+ * the result of each operation.
+ * </p>
+ *
+ * <p>
+ * With {@link #STREAMING}, the child must return records ordered by the grouping columns, such as from a scan of a value
+ * index whose key begins with them, and groups are formed from consecutive records (see {@link StreamingAggregateCursor}).
+ * Otherwise, the child can return records in any order and groups are held in a hash table of approximately the given
+ * size, beyond which partial groups are sorted using local files (see {@link HashAggregateCursor}), in the directory
+ * given by {@link com.apple.foundationdb.record.provider.foundationdb.FDBDatabase#getSpillDirectory()}. Either way,
+ * continuations save any partial group, so that a group split across executions is still returned once. Without
+ * {@link #STREAMING}, the child is read in full before any group is returned, and a continuation after the first
+ * group reads it once more, so this plan is best executed with a limit large enough for most results to come in the
+ * first execution.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordQueryAggregatePlan implements QueryPlan<Tuple>, RelationalExpressionWithChildren, PlannerGraphRewritable {
+    /**
+     * Value of {@code maxBytesInMemory} for aggregating consecutive records of a child that is ordered by the grouping columns.
+     */
+    public static final long STREAMING = 0;
+
+    @Nonnull
+    private final Quantifier.Physical inner;
+    @Nonnull
+    private final GroupingKeyExpression groupingKey;
+    @Nonnull
+    private final List<AggregateOperation> operations;
+    private final long maxBytesInMemory;
+
+    public RecordQueryAggregatePlan(@Nonnull RecordQueryPlan plan, @Nonnull GroupingKeyExpression groupingKey,
+                                    @Nonnull List<AggregateOperation> operations, long maxBytesInMemory) {
+        this(Quantifier.physical(GroupExpressionRef.of(plan)), groupingKey, ImmutableList.copyOf(operations), maxBytesInMemory);
+    }
+
+    public RecordQueryAggregatePlan(@Nonnull RecordQueryPlan plan, @Nonnull GroupingKeyExpression groupingKey,
+                                    @Nonnull List<AggregateOperation> operations) {
+        this(plan, groupingKey, operations, STREAMING);
+    }
+
+    private RecordQueryAggregatePlan(@Nonnull Quantifier.Physical inner, @Nonnull GroupingKeyExpression groupingKey,
+                                     @Nonnull List<AggregateOperation> operations, long maxBytesInMemory) {
+        for (int i = groupingKey.getGroupedCount(); i < operations.size(); i++) {
+            if (operations.get(i) != AggregateOperation.COUNT) {
+                throw new RecordCoreArgumentException("aggregate operation does not have a grouped column",
+                        LogMessageKeys.FUNCTION, operations.get(i).getFunctionName(),
+                        LogMessageKeys.KEY_EXPRESSION, groupingKey);
+            }
+        }
+        if (maxBytesInMemory < 0 || maxBytesInMemory == 1) {
+            throw new RecordCoreArgumentException("aggregate memory limit must be STREAMING or at least 2",
+                    LogMessageKeys.LIMIT, maxBytesInMemory);
+        }
+        this.inner = inner;
+        this.groupingKey = groupingKey;
+        this.operations = operations;
+        this.maxBytesInMemory = maxBytesInMemory;
+    }
+
+    @Nonnull
+    @Override
+    public RecordCursor<Tuple> execute(@Nonnull FDBRecordStore store, @Nonnull EvaluationContext context,
+                                       @Nullable byte[] continuation, @Nonnull ExecuteProperties executeProperties) {
+        // Skip and limit apply to the groups, not to the records being aggregated.
+        final ExecuteProperties childExecuteProperties = executeProperties.clearSkipAndLimit();
+        final int groupingCount = groupingKey.getGroupingCount();
+        final Function<byte[], RecordCursor<Key.Evaluated>> inputFunction = childContinuation ->
+                getChild().executePlan(store, context, childContinuation, childExecuteProperties)
+                        .map(groupingKey::evaluateSingleton);
+        final Function<Key.Evaluated, Tuple> groupFunction = evaluated -> evaluated.subKey(0, groupingCount).toTuple();
+        final BiConsumer<AggregateAccumulator, Key.Evaluated> accumulateFunction = (accumulator, evaluated) ->
+                accumulator.accumulate(evaluated.subKey(groupingCount, evaluated.size()).toTupleAppropriateList());
+        final RecordCursor<Tuple> cursor;
+        if (isStreaming()) {
+            cursor = StreamingAggregateCursor.create(groupFunction, accumulateFunction, operations, getChild().isReverse(),
+                    inputFunction, continuation, store.getExecutor(), store.getTimer());
+        } else {
+            cursor = HashAggregateCursor.create(groupFunction, accumulateFunction, operations, maxBytesInMemory,
+                    store.getContext().getDatabase().getSpillDirectory(),
+                    inputFunction, continuation, store.getExecutor(), store.getTimer());
+        }
+        return cursor.skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
+    }
+
+    @Nonnull
+    private RecordQueryPlan getInner() {
+        return inner.getRangesOverPlan();
+    }
+
+    @Nonnull
+    public RecordQueryPlan getChild() {
+        return getInner();
+    }
+
+    @Nonnull
+    public GroupingKeyExpression getGroupingKey() {
+        return groupingKey;
+    }
+
+    @Nonnull
+    public List<AggregateOperation> getOperations() {
+        return operations;
+    }
+
+    public long getMaxBytesInMemory() {
+        return maxBytesInMemory;
+    }
+
+    /**
+     * Get whether this plan aggregates consecutive records of an ordered child rather than using a hash table.
+     * @return {@code true} if groups are formed from consecutive records
+     */
+    public boolean isStreaming() {
+        return maxBytesInMemory == STREAMING;
+    }
+
+    @Override
+    public boolean isReverse() {
+        // The hash table's partial groups are always sorted ascending.
+        return isStreaming() && getChild().isReverse();
+    }
+
+    @Override
+    public boolean hasRecordScan() {
+        return getChild().hasRecordScan();
+    }
+
+    @Override
+    public boolean hasFullRecordScan() {
+        return getChild().hasFullRecordScan();
+    }
+
+    @Override
+    public boolean hasIndexScan(@Nonnull String indexName) {
+        return getChild().hasIndexScan(indexName);
+    }
+
+    @Nonnull
+    @Override
+    public Set<String> getUsedIndexes() {
+        return getChild().getUsedIndexes();
+    }
+
+    @Override
+    public boolean hasLoadBykeys() {
+        return getChild().hasLoadBykeys();
+    }
+
+    @Nonnull
+    @Override
+    public List<? extends QueryPlan<?>> getQueryPlanChildren() {
+        return ImmutableList.of(getChild());
+    }
+
+    @Override
+    public int getRelationalChildCount() {
+        return 1;
+    }
+
+    @Nonnull
+    @Override
+    public List<? extends Quantifier> getQuantifiers() {
+        return ImmutableList.of(inner);
+    }
+
+    @Override
+    public String toString() {
+        return getInner() + " GROUP BY " + groupingKey + " " + operations + (isStreaming() ? "" : " HASHED");
+    }
+
+    @Nonnull
+    @Override
+    public Set<CorrelationIdentifier> getCorrelatedToWithoutChildren() {
+        return ImmutableSet.of();
+    }
+
+    @Nonnull
+    @Override
+    public RecordQueryAggregatePlan rebaseWithRebasedQuantifiers(@Nonnull final AliasMap translationMap,
+                                                                 @Nonnull final List<Quantifier> rebasedQuantifiers) {
+        return new RecordQueryAggregatePlan(Iterables.getOnlyElement(rebasedQuantifiers).narrow(Quantifier.Physical.class),
+                groupingKey, operations, maxBytesInMemory);
+    }
+
+    @Override
+    public boolean equalsWithoutChildren(@Nonnull RelationalExpression otherExpression,
+                                         @Nonnull final AliasMap equivalencesMap) {
+        if (this == otherExpression) {
+            return true;
+        }
+        if (getClass() != otherExpression.getClass()) {
+            return false;
+        }
+        final RecordQueryAggregatePlan other = (RecordQueryAggregatePlan)otherExpression;
+        return groupingKey.equals(other.groupingKey) && operations.equals(other.operations) &&
+               maxBytesInMemory == other.maxBytesInMemory;
+    }
+
+    @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
+    @Override
+    public boolean equals(final Object other) {
+        return semanticEquals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return semanticHashCode();
+    }
+
+    @Override
+    public int hashCodeWithoutChildren() {
+        return Objects.hash(groupingKey, operations, maxBytesInMemory);
+    }
+
+    @Override
+    public int planHash() {
+        return getInner().planHash() + groupingKey.planHash() + PlanHashable.iterablePlanHash(operations) +
+               PlanHashable.objectPlanHash(maxBytesInMemory);
+    }
+
+    @Override
+    public void logPlanStructure(StoreTimer timer) {
+        timer.increment(FDBStoreTimer.Counts.PLAN_AGGREGATE);
+        getInner().logPlanStructure(timer);
+    }
+
+    @Override
+    public int getComplexity() {
+        return 1 + getInner().getComplexity();
+    }
+
+    @Nonnull
+    @Override
+    public PlannerGraph rewritePlannerGraph(@Nonnull final List<? extends PlannerGraph> childGraphs) {
+        return PlannerGraph.fromNodeAndChildGraphs(
+                new PlannerGraph.OperatorNodeWithInfo(this,
+                        NodeInfo.AGGREGATE_OPERATOR,
+                        ImmutableList.of("GROUP BY {{groupingKey}}", "COMPUTE {{operations}}"),
+                        ImmutableMap.of("groupingKey", Attribute.gml(groupingKey.toString()),
+                                "operations", Attribute.gml(operations.toString()))),
+                childGraphs);
+    }
+}
@@ -71,7 +71,7 @@ public class RecordQueryFetchFromPartialRecordPlan implements RecordQueryPlanWit
                                                                          @Nullable final byte[] continuation,
                                                                          @Nonnull final ExecuteProperties executeProperties) {
         // Plan return exactly one (full) record for each (partial) record from inner, so we can preserve all limits.
-        return store.fetchIndexRecords(getChild().execute(store, context, continuation, executeProperties)
+        return store.fetchIndexRecords(getChild().executePlan(store, context, continuation, executeProperties)
                         .map(FDBQueriedRecord::getIndexEntry), IndexOrphanBehavior.ERROR, executeProperties.getState())
                 .map(store::queriedRecord);
     }
@@ -22,8 +22,12 @@ package com.apple.foundationdb.record.query.plan.plans;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.metadata.expressions.FieldKeyExpression;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
+import com.apple.foundationdb.record.metadata.expressions.NestingKeyExpression;
 import com.apple.foundationdb.record.provider.foundationdb.FDBRecord;
 import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
+import com.apple.foundationdb.record.query.expressions.CompiledQueryComponent;
 import com.apple.foundationdb.record.query.expressions.Query;
 import com.apple.foundationdb.record.query.expressions.QueryComponent;
 import com.apple.foundationdb.record.query.plan.temp.AliasMap;
@@ -34,6 +38,7 @@ import com.apple.foundationdb.record.query.plan.temp.RelationalExpression;
 import com.apple.foundationdb.record.query.plan.temp.explain.Attribute;
 import com.apple.foundationdb.record.query.plan.temp.explain.NodeInfo;
 import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
+import com.apple.foundationdb.record.query.plan.visitor.FilterVisitor;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -44,6 +49,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -62,6 +68,13 @@ public class RecordQueryFilterPlan extends RecordQueryFilterPlanBase {
     @Nonnull
     private final QueryComponent filter;
 
+    @Nonnull
+    private final CompiledQueryComponent compiledFilter;
+
+    // The top-level fields that the filter looks at, if they are known, so that lazily loaded records need not be parsed in full.
+    @Nullable
+    private final Set<String> referencedFieldNames;
+
     public RecordQueryFilterPlan(@Nonnull RecordQueryPlan inner, @Nonnull List<QueryComponent> filters) {
         this(Quantifier.physical(GroupExpressionRef.of(inner)), filters);
     }
@@ -75,6 +88,38 @@ public class RecordQueryFilterPlan extends RecordQueryFilterPlanBase {
         super(inner);
         this.filters = ImmutableList.copyOf(filters);
         this.filter = this.filters.size() == 1 ? Iterables.getOnlyElement(this.filters) : Query.and(this.filters);
+        this.compiledFilter = CompiledQueryComponent.compile(this.filter);
+        this.referencedFieldNames = findReferencedFieldNames(this.filter);
+    }
+
+    @Nullable
+    private static Set<String> findReferencedFieldNames(@Nonnull QueryComponent filter) {
+        final Set<KeyExpression> referencedFields = new HashSet<>();
+        if (!FilterVisitor.findFilterReferencedFields(filter, referencedFields)) {
+            return null;
+        }
+        final Set<String> fieldNames = new HashSet<>();
+        for (KeyExpression referencedField : referencedFields) {
+            if (referencedField instanceof FieldKeyExpression) {
+                fieldNames.add(((FieldKeyExpression)referencedField).getFieldName());
+            } else if (referencedField instanceof NestingKeyExpression) {
+                fieldNames.add(((NestingKeyExpression)referencedField).getParent().getFieldName());
+            } else {
+                return null;
+            }
+        }
+        return ImmutableSet.copyOf(fieldNames);
+    }
+
+    /**
+     * Get the message to evaluate the filter against, which only needs the fields that the filter references.
+     */
+    @Nullable
+    private <M extends Message> Message getFilterMessage(@Nullable FDBRecord<M> record) {
+        if (record == null) {
+            return null;
+        }
+        return referencedFieldNames == null ? record.getRecord() : record.getRecordWithFields(referencedFieldNames);
     }
 
     @Override
@@ -87,7 +132,7 @@ public class RecordQueryFilterPlan extends RecordQueryFilterPlanBase {
     protected <M extends Message> Boolean evalFilter(@Nonnull FDBRecordStoreBase<M> store,
                                                      @Nonnull EvaluationContext context,
                                                      @Nullable FDBRecord<M> record) {
-        return filter.eval(store, context, record);
+        return compiledFilter.evalMessage(store, context, record, getFilterMessage(record));
     }
 
     @Nullable
@@ -95,7 +140,7 @@ public class RecordQueryFilterPlan extends RecordQueryFilterPlanBase {
     protected <M extends Message> CompletableFuture<Boolean> evalFilterAsync(@Nonnull FDBRecordStoreBase<M> store,
                                                                              @Nonnull EvaluationContext context,
                                                                              @Nullable FDBRecord<M> record) {
-        return filter.evalAsync(store, context, record);
+        return filter.evalMessageAsync(store, context, record, getFilterMessage(record));
     }
 
     @Override
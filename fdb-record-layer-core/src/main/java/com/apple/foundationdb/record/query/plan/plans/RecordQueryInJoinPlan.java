@@ -83,11 +83,11 @@ public abstract class RecordQueryInJoinPlan implements RecordQueryPlanWithChild
                         return RecordCursor.fromList(store.getExecutor(), values, outerContinuation);
                     }
                 },
-                (outerValue, innerContinuation) -> getInnerPlan().execute(store, context.withBinding(bindingName, outerValue),
+                (outerValue, innerContinuation) -> getInnerPlan().executePlan(store, context.withBinding(bindingName, outerValue),
                         innerContinuation, executeProperties.clearSkipAndLimit()),
                 outerObject -> Tuple.from(ScanComparisons.toTupleItem(outerObject)).pack(),
                 continuation,
-                store.getPipelineSize(PipelineOperation.IN_JOIN))
+                store.getPipelineSizeAdjuster(PipelineOperation.IN_JOIN))
                 .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
     }
 
@@ -134,7 +134,7 @@ public class RecordQueryIntersectionPlan implements RecordQueryPlanWithChildren,
                 quantifiers.stream()
                         .map(Quantifier.Physical::getRangesOverPlan)
                         .map(childPlan -> (Function<byte[], RecordCursor<FDBQueriedRecord<M>>>)
-                                ((byte[] childContinuation) -> childPlan.execute(store, context, childContinuation, childExecuteProperties)))
+                                ((byte[] childContinuation) -> childPlan.executePlan(store, context, childContinuation, childExecuteProperties)))
                         .collect(Collectors.toList()),
                 continuation).skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
     }
@@ -86,7 +86,7 @@ public class RecordQueryLoadByKeysPlan implements RecordQueryPlanWithNoChildren
                         recordScanLimiter.tryRecordScan();
                     }
                     return store.loadRecordAsync(key);
-                }, store.getPipelineSize(PipelineOperation.KEY_TO_RECORD))
+                }, store.getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD))
                 .filter(Objects::nonNull)
                 .map(store::queriedRecord)
                 .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
@@ -105,6 +105,33 @@ public interface RecordQueryPlan extends QueryPlan<FDBQueriedRecord<Message>>, P
         return execute(store, context, null, ExecuteProperties.SERIAL_EXECUTE);
     }
 
+    /**
+     * Execute this query plan, recording statistics about its execution if the context has a
+     * {@link PlanStatisticsCollector}. Plans should execute their children using this method rather than
+     * {@link #execute(FDBRecordStoreBase, EvaluationContext, byte[], ExecuteProperties)}, so that statistics are
+     * gathered for every node in the plan.
+     * @param store record store from which to fetch records
+     * @param context evaluation context containing parameter bindings
+     * @param continuation continuation from a previous execution of this same plan
+     * @param executeProperties limits on execution
+     * @param <M> type used to represent stored records
+     * @return a cursor of records that match the query criteria
+     * @see EvaluationContext#withPlanStatisticsCollector
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default <M extends Message> RecordCursor<FDBQueriedRecord<M>> executePlan(@Nonnull FDBRecordStoreBase<M> store,
+                                                                              @Nonnull EvaluationContext context,
+                                                                              @Nullable byte[] continuation,
+                                                                              @Nonnull ExecuteProperties executeProperties) {
+        final PlanStatisticsCollector collector = context.getPlanStatisticsCollector();
+        if (collector == null) {
+            return execute(store, context, continuation, executeProperties);
+        }
+        final ExecuteProperties recordingProperties = executeProperties.setState(collector.recordScans(this, executeProperties.getState()));
+        return collector.record(this, execute(store, context, continuation, recordingProperties));
+    }
+
     /**
      * Returns the (zero or more) {@code RecordQueryPlan} children of this plan.
      *
@@ -35,6 +35,7 @@ import com.apple.foundationdb.record.query.plan.temp.explain.NodeInfo;
 import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
 import com.apple.foundationdb.record.query.plan.temp.view.Source;
 import com.apple.foundationdb.record.query.plan.temp.view.SourceEntry;
+import com.apple.foundationdb.record.query.predicates.CompiledQueryPredicate;
 import com.apple.foundationdb.record.query.predicates.QueryPredicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -58,6 +59,8 @@ public class RecordQueryPredicateFilterPlan extends RecordQueryFilterPlanBase im
     private final Source baseSource;
     @Nonnull
     private final QueryPredicate filter;
+    @Nonnull
+    private final CompiledQueryPredicate compiledFilter;
 
     public RecordQueryPredicateFilterPlan(@Nonnull Quantifier.Physical inner,
                                           @Nonnull Source baseSource,
@@ -65,6 +68,7 @@ public class RecordQueryPredicateFilterPlan extends RecordQueryFilterPlanBase im
         super(inner);
         this.baseSource = baseSource;
         this.filter = filter;
+        this.compiledFilter = CompiledQueryPredicate.compile(filter);
     }
 
     @Override
@@ -81,7 +85,7 @@ public class RecordQueryPredicateFilterPlan extends RecordQueryFilterPlanBase im
         Boolean result = null;
         Iterator<SourceEntry> entries = baseSource.evalSourceEntriesFor(record.getRecord()).iterator();
         while (entries.hasNext()) {
-            Boolean entryResult = filter.eval(store, context, entries.next());
+            Boolean entryResult = compiledFilter.eval(store, context, entries.next());
             if (entryResult != null && entryResult) {
                 return true;
             } else if (result == null) {
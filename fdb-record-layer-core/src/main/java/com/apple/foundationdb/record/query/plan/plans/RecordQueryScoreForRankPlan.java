@@ -118,7 +118,7 @@ public class RecordQueryScoreForRankPlan implements RecordQueryPlanWithChild {
                                                                          @Nullable byte[] continuation,
                                                                          @Nonnull ExecuteProperties executeProperties) {
         return RecordCursor.mapFuture(store.getExecutor(), bindScores(store, context, executeProperties.getIsolationLevel()), continuation,
-                (innerContext, innerContinuation) -> getChild().execute(store, innerContext, innerContinuation, executeProperties));
+                (innerContext, innerContinuation) -> getChild().executePlan(store, innerContext, innerContinuation, executeProperties));
     }
 
     @Nonnull
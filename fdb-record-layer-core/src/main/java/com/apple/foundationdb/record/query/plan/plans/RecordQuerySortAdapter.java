@@ -0,0 +1,116 @@
+/*
+ * RecordQuerySortAdapter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.metadata.RecordType;
+import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBQueriedRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordVersion;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoredRecord;
+import com.apple.foundationdb.record.sorting.FileSortAdapter;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+
+/**
+ * A {@link FileSortAdapter} for the records returned by the child of a {@link RecordQuerySortPlan} or
+ * a {@link RecordQueryTopKPlan}.
+ * Records written to files or continuations are serialized with the store's {@link RecordSerializer}, so they are subject to
+ * the same transformations (such as encryption) as records saved in the database.
+ * @param <M> type used to represent stored records
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordQuerySortAdapter<M extends Message> implements FileSortAdapter<FDBQueriedRecord<M>> {
+    @Nonnull
+    private final RecordQuerySortKey sortKey;
+    private final long maxBytesInMemory;
+    @Nonnull
+    private final FDBRecordStoreBase<M> store;
+
+    public RecordQuerySortAdapter(@Nonnull RecordQuerySortKey sortKey, long maxBytesInMemory, @Nonnull FDBRecordStoreBase<M> store) {
+        this.sortKey = sortKey;
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.store = store;
+    }
+
+    public RecordQuerySortAdapter(@Nonnull RecordQuerySortKey sortKey, @Nonnull FDBRecordStoreBase<M> store) {
+        this(sortKey, RecordQuerySortPlan.DEFAULT_MAX_BYTES_IN_MEMORY, store);
+    }
+
+    @Nonnull
+    @Override
+    public byte[] getKey(@Nonnull FDBQueriedRecord<M> record) {
+        return sortKey.evaluate(record);
+    }
+
+    @Override
+    public boolean isReverse() {
+        return sortKey.isReverse();
+    }
+
+    @Nonnull
+    @Override
+    public byte[] serializeValue(@Nonnull FDBQueriedRecord<M> record) {
+        final RecordMetaData metaData = store.getRecordMetaData();
+        final byte[] serialized = store.getSerializer().serialize(metaData, record.getRecordType(), record.getRecord(), store.getTimer());
+        final byte[] version = record.hasVersion() ? record.getVersion().toBytes(false) : null;
+        return Tuple.from(record.getPrimaryKey().pack(), serialized, version).pack();
+    }
+
+    @Nonnull
+    @Override
+    public FDBQueriedRecord<M> deserializeValue(@Nonnull byte[] bytes) {
+        final RecordMetaData metaData = store.getRecordMetaData();
+        final Tuple tuple = Tuple.fromBytes(bytes);
+        final Tuple primaryKey = Tuple.fromBytes(tuple.getBytes(0));
+        final M record = store.getSerializer().deserialize(metaData, primaryKey, tuple.getBytes(1), store.getTimer());
+        final RecordType recordType = metaData.getRecordTypeForDescriptor(record.getDescriptorForType());
+        final byte[] version = tuple.getBytes(2);
+        return FDBQueriedRecord.stored(FDBStoredRecord.<M>newBuilder()
+                .setPrimaryKey(primaryKey)
+                .setRecordType(recordType)
+                .setRecord(record)
+                .setVersion(version == null ? null : FDBRecordVersion.fromBytes(version, false))
+                .build());
+    }
+
+    @Override
+    public long getSizeInMemory(@Nonnull FDBQueriedRecord<M> record) {
+        return record.getRecord().getSerializedSize();
+    }
+
+    @Override
+    public long getMaxBytesInMemory() {
+        return maxBytesInMemory;
+    }
+
+    @Nullable
+    @Override
+    public Path getDirectory() {
+        return store.getContext().getDatabase().getSpillDirectory();
+    }
+}
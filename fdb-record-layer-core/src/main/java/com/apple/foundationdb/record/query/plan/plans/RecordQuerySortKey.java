@@ -0,0 +1,93 @@
+/*
+ * RecordQuerySortKey.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.PlanHashable;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecord;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * Defines, logically, how {@link RecordQuerySortPlan} should sort the records.
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordQuerySortKey implements PlanHashable {
+    @Nonnull
+    private final KeyExpression key;
+    private final boolean reverse;
+
+    public RecordQuerySortKey(@Nonnull KeyExpression key, boolean reverse) {
+        this.key = key;
+        this.reverse = reverse;
+    }
+
+    @Nonnull
+    public KeyExpression getKey() {
+        return key;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    /**
+     * Evaluate the sort key for a record.
+     * @param record the record
+     * @param <M> type used to represent stored records
+     * @return the packed sort key, whose unsigned byte order is the (ascending) sort order
+     */
+    @Nonnull
+    public <M extends Message> byte[] evaluate(@Nullable FDBRecord<M> record) {
+        return key.evaluateSingleton(record).toTuple().pack();
+    }
+
+    @Override
+    public int planHash() {
+        return key.planHash() + (reverse ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RecordQuerySortKey that = (RecordQuerySortKey)o;
+        return reverse == that.reverse && key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, reverse);
+    }
+
+    @Override
+    public String toString() {
+        return key + (reverse ? " desc" : "");
+    }
+}
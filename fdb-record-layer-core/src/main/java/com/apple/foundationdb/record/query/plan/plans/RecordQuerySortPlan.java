@@ -0,0 +1,208 @@
+/*
+ * RecordQuerySortPlan.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBQueriedRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.plan.temp.AliasMap;
+import com.apple.foundationdb.record.query.plan.temp.CorrelationIdentifier;
+import com.apple.foundationdb.record.query.plan.temp.GroupExpressionRef;
+import com.apple.foundationdb.record.query.plan.temp.Quantifier;
+import com.apple.foundationdb.record.query.plan.temp.RelationalExpression;
+import com.apple.foundationdb.record.query.plan.temp.explain.Attribute;
+import com.apple.foundationdb.record.query.plan.temp.explain.NodeInfo;
+import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
+import com.apple.foundationdb.record.sorting.FileSortCursor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A query plan that sorts the records returned by its child without the help of an index.
+ *
+ * <p>
+ * All of the child's records are read before any are returned. Records are sorted in memory up to an approximate
+ * size limit, beyond which they are written to local files in sorted runs that are merged as records are returned.
+ * See {@link FileSortCursor} for how continuations of this plan behave.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordQuerySortPlan implements RecordQueryPlanWithChild {
+    /**
+     * The default number of bytes of records to sort in memory before using local files.
+     */
+    public static final long DEFAULT_MAX_BYTES_IN_MEMORY = 16 * 1024 * 1024;
+
+    @Nonnull
+    private final Quantifier.Physical inner;
+    @Nonnull
+    private final RecordQuerySortKey key;
+    private final long maxBytesInMemory;
+
+    public RecordQuerySortPlan(@Nonnull RecordQueryPlan plan, @Nonnull RecordQuerySortKey key, long maxBytesInMemory) {
+        this(Quantifier.physical(GroupExpressionRef.of(plan)), key, maxBytesInMemory);
+    }
+
+    public RecordQuerySortPlan(@Nonnull RecordQueryPlan plan, @Nonnull RecordQuerySortKey key) {
+        this(plan, key, DEFAULT_MAX_BYTES_IN_MEMORY);
+    }
+
+    private RecordQuerySortPlan(@Nonnull Quantifier.Physical inner, @Nonnull RecordQuerySortKey key, long maxBytesInMemory) {
+        this.inner = inner;
+        this.key = key;
+        this.maxBytesInMemory = maxBytesInMemory;
+    }
+
+    @Nonnull
+    @Override
+    public <M extends Message> RecordCursor<FDBQueriedRecord<M>> execute(@Nonnull FDBRecordStoreBase<M> store,
+                                                                         @Nonnull EvaluationContext context,
+                                                                         @Nullable byte[] continuation,
+                                                                         @Nonnull ExecuteProperties executeProperties) {
+        // Skip and limit apply to the sorted results, not to the records being sorted.
+        final ExecuteProperties childExecuteProperties = executeProperties.clearSkipAndLimit();
+        final RecordQuerySortAdapter<M> adapter = new RecordQuerySortAdapter<>(key, maxBytesInMemory, store);
+        return FileSortCursor.create(adapter,
+                childContinuation -> getChild().executePlan(store, context, childContinuation, childExecuteProperties),
+                continuation, store.getExecutor(), store.getTimer())
+                .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
+    }
+
+    @Override
+    public boolean isReverse() {
+        return key.isReverse();
+    }
+
+    @Nonnull
+    private RecordQueryPlan getInner() {
+        return inner.getRangesOverPlan();
+    }
+
+    @Override
+    @Nonnull
+    public RecordQueryPlan getChild() {
+        return getInner();
+    }
+
+    @Nonnull
+    public RecordQuerySortKey getKey() {
+        return key;
+    }
+
+    public long getMaxBytesInMemory() {
+        return maxBytesInMemory;
+    }
+
+    @Nonnull
+    @Override
+    public List<? extends Quantifier> getQuantifiers() {
+        return ImmutableList.of(inner);
+    }
+
+    @Override
+    public String toString() {
+        return getInner() + " ORDER BY " + key;
+    }
+
+    @Nonnull
+    @Override
+    public Set<CorrelationIdentifier> getCorrelatedToWithoutChildren() {
+        return ImmutableSet.of();
+    }
+
+    @Nonnull
+    @Override
+    public RecordQuerySortPlan rebaseWithRebasedQuantifiers(@Nonnull final AliasMap translationMap,
+                                                            @Nonnull final List<Quantifier> rebasedQuantifiers) {
+        return new RecordQuerySortPlan(Iterables.getOnlyElement(rebasedQuantifiers).narrow(Quantifier.Physical.class),
+                key, maxBytesInMemory);
+    }
+
+    @Override
+    public boolean equalsWithoutChildren(@Nonnull RelationalExpression otherExpression,
+                                         @Nonnull final AliasMap equivalencesMap) {
+        if (this == otherExpression) {
+            return true;
+        }
+        if (getClass() != otherExpression.getClass()) {
+            return false;
+        }
+        final RecordQuerySortPlan other = (RecordQuerySortPlan)otherExpression;
+        return key.equals(other.key) && maxBytesInMemory == other.maxBytesInMemory;
+    }
+
+    @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
+    @Override
+    public boolean equals(final Object other) {
+        return structuralEquals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return structuralHashCode();
+    }
+
+    @Override
+    public int hashCodeWithoutChildren() {
+        return Objects.hash(key, maxBytesInMemory);
+    }
+
+    @Override
+    public int planHash() {
+        return getInner().planHash() + key.planHash();
+    }
+
+    @Override
+    public void logPlanStructure(StoreTimer timer) {
+        timer.increment(FDBStoreTimer.Counts.PLAN_SORT);
+        getInner().logPlanStructure(timer);
+    }
+
+    @Override
+    public int getComplexity() {
+        return 1 + getInner().getComplexity();
+    }
+
+    @Nonnull
+    @Override
+    public PlannerGraph rewritePlannerGraph(@Nonnull final List<? extends PlannerGraph> childGraphs) {
+        return PlannerGraph.fromNodeAndChildGraphs(
+                new PlannerGraph.OperatorNodeWithInfo(this,
+                        NodeInfo.SORT_OPERATOR,
+                        ImmutableList.of("BY {{key}}"),
+                        ImmutableMap.of("key", Attribute.gml(key.toString()))),
+                childGraphs);
+    }
+}
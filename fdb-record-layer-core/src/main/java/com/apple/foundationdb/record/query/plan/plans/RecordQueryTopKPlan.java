@@ -0,0 +1,202 @@
+/*
+ * RecordQueryTopKPlan.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBQueriedRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.plan.temp.AliasMap;
+import com.apple.foundationdb.record.query.plan.temp.CorrelationIdentifier;
+import com.apple.foundationdb.record.query.plan.temp.GroupExpressionRef;
+import com.apple.foundationdb.record.query.plan.temp.Quantifier;
+import com.apple.foundationdb.record.query.plan.temp.RelationalExpression;
+import com.apple.foundationdb.record.query.plan.temp.explain.Attribute;
+import com.apple.foundationdb.record.query.plan.temp.explain.NodeInfo;
+import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
+import com.apple.foundationdb.record.sorting.TopKCursor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A query plan that returns the first records returned by its child in sort order, up to a fixed number of them,
+ * without the help of an index.
+ *
+ * <p>
+ * All of the child's records are read before any are returned, but only as many as the limit are held at a time.
+ * This plan is chosen when the number of records that will be read is known at planning time; executing it with a
+ * larger limit still returns no more than the plan's limit. See {@link TopKCursor} for how continuations of this
+ * plan behave.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordQueryTopKPlan implements RecordQueryPlanWithChild {
+    @Nonnull
+    private final Quantifier.Physical inner;
+    @Nonnull
+    private final RecordQuerySortKey key;
+    private final int limit;
+
+    public RecordQueryTopKPlan(@Nonnull RecordQueryPlan plan, @Nonnull RecordQuerySortKey key, int limit) {
+        this(Quantifier.physical(GroupExpressionRef.of(plan)), key, limit);
+    }
+
+    private RecordQueryTopKPlan(@Nonnull Quantifier.Physical inner, @Nonnull RecordQuerySortKey key, int limit) {
+        this.inner = inner;
+        this.key = key;
+        this.limit = limit;
+    }
+
+    @Nonnull
+    @Override
+    public <M extends Message> RecordCursor<FDBQueriedRecord<M>> execute(@Nonnull FDBRecordStoreBase<M> store,
+                                                                         @Nonnull EvaluationContext context,
+                                                                         @Nullable byte[] continuation,
+                                                                         @Nonnull ExecuteProperties executeProperties) {
+        // Skip and limit apply to the sorted results, not to the records being sorted.
+        final ExecuteProperties childExecuteProperties = executeProperties.clearSkipAndLimit();
+        final RecordQuerySortAdapter<M> adapter = new RecordQuerySortAdapter<>(key, store);
+        return TopKCursor.create(adapter, limit,
+                childContinuation -> getChild().executePlan(store, context, childContinuation, childExecuteProperties),
+                continuation, store.getExecutor())
+                .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
+    }
+
+    @Override
+    public boolean isReverse() {
+        return key.isReverse();
+    }
+
+    @Nonnull
+    private RecordQueryPlan getInner() {
+        return inner.getRangesOverPlan();
+    }
+
+    @Override
+    @Nonnull
+    public RecordQueryPlan getChild() {
+        return getInner();
+    }
+
+    @Nonnull
+    public RecordQuerySortKey getKey() {
+        return key;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Nonnull
+    @Override
+    public List<? extends Quantifier> getQuantifiers() {
+        return ImmutableList.of(inner);
+    }
+
+    @Override
+    public String toString() {
+        return getInner() + " ORDER BY " + key + " LIMIT " + limit;
+    }
+
+    @Nonnull
+    @Override
+    public Set<CorrelationIdentifier> getCorrelatedToWithoutChildren() {
+        return ImmutableSet.of();
+    }
+
+    @Nonnull
+    @Override
+    public RecordQueryTopKPlan rebaseWithRebasedQuantifiers(@Nonnull final AliasMap translationMap,
+                                                            @Nonnull final List<Quantifier> rebasedQuantifiers) {
+        return new RecordQueryTopKPlan(Iterables.getOnlyElement(rebasedQuantifiers).narrow(Quantifier.Physical.class),
+                key, limit);
+    }
+
+    @Override
+    public boolean equalsWithoutChildren(@Nonnull RelationalExpression otherExpression,
+                                         @Nonnull final AliasMap equivalencesMap) {
+        if (this == otherExpression) {
+            return true;
+        }
+        if (getClass() != otherExpression.getClass()) {
+            return false;
+        }
+        final RecordQueryTopKPlan other = (RecordQueryTopKPlan)otherExpression;
+        return key.equals(other.key) && limit == other.limit;
+    }
+
+    @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
+    @Override
+    public boolean equals(final Object other) {
+        return structuralEquals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return structuralHashCode();
+    }
+
+    @Override
+    public int hashCodeWithoutChildren() {
+        return Objects.hash(key, limit);
+    }
+
+    @Override
+    public int planHash() {
+        return getInner().planHash() + key.planHash() + limit;
+    }
+
+    @Override
+    public void logPlanStructure(StoreTimer timer) {
+        timer.increment(FDBStoreTimer.Counts.PLAN_TOP_K);
+        getInner().logPlanStructure(timer);
+    }
+
+    @Override
+    public int getComplexity() {
+        return 1 + getInner().getComplexity();
+    }
+
+    @Nonnull
+    @Override
+    public PlannerGraph rewritePlannerGraph(@Nonnull final List<? extends PlannerGraph> childGraphs) {
+        return PlannerGraph.fromNodeAndChildGraphs(
+                new PlannerGraph.OperatorNodeWithInfo(this,
+                        NodeInfo.TOP_K_OPERATOR,
+                        ImmutableList.of("BY {{key}} LIMIT {{limit}}"),
+                        ImmutableMap.of("key", Attribute.gml(key.toString()),
+                                "limit", Attribute.gml(limit))),
+                childGraphs);
+    }
+}
@@ -86,7 +86,7 @@ public class RecordQueryTypeFilterPlan implements RecordQueryPlanWithChild, Type
                                                                          @Nonnull EvaluationContext context,
                                                                          @Nullable byte[] continuation,
                                                                          @Nonnull ExecuteProperties executeProperties) {
-        final RecordCursor<FDBQueriedRecord<M>> results = getInnerPlan().execute(store, context, continuation, executeProperties.clearSkipAndLimit());
+        final RecordCursor<FDBQueriedRecord<M>> results = getInnerPlan().executePlan(store, context, continuation, executeProperties.clearSkipAndLimit());
 
         return results
                 .filterInstrumented(record -> recordTypes.contains(record.getRecordType().getName()), store.getTimer(),
@@ -95,7 +95,7 @@ public abstract class RecordQueryUnionPlanBase implements RecordQueryPlanWithChi
         }
         final List<Function<byte[], RecordCursor<FDBQueriedRecord<M>>>> childCursorFunctions = getChildStream()
                 .map(childPlan -> (Function<byte[], RecordCursor<FDBQueriedRecord<M>>>)
-                        ((byte[] childContinuation) -> childPlan.execute(store, context, childContinuation, childExecuteProperties)))
+                        ((byte[] childContinuation) -> childPlan.executePlan(store, context, childContinuation, childExecuteProperties)))
                 .collect(Collectors.toList());
         return createUnionCursor(store, childCursorFunctions, continuation).skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
     }
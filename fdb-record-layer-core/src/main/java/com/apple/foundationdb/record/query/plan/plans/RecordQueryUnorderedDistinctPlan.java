@@ -38,6 +38,7 @@ import com.apple.foundationdb.record.query.plan.temp.RelationalExpression;
 import com.apple.foundationdb.record.query.plan.temp.explain.Attribute;
 import com.apple.foundationdb.record.query.plan.temp.explain.NodeInfo;
 import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
+import com.apple.foundationdb.record.sorting.FingerprintDistinctCursor;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -56,6 +57,12 @@ import java.util.Set;
 
 /**
  * A query plan that removes duplicates by means of a hash table of previously seen values.
+ *
+ * <p>
+ * By default, every value is held in memory and the table starts empty each time the plan is resumed from a
+ * continuation. If a memory limit is given, fingerprints of the values are kept instead, using local files beyond
+ * the limit, and are carried in the continuation. See {@link FingerprintDistinctCursor}.
+ * </p>
  */
 @API(API.Status.INTERNAL)
 public class RecordQueryUnorderedDistinctPlan implements RecordQueryPlanWithChild {
@@ -73,15 +80,25 @@ public class RecordQueryUnorderedDistinctPlan implements RecordQueryPlanWithChil
     private static final Set<StoreTimer.Count> duplicateCounts =
             ImmutableSet.of(FDBStoreTimer.Counts.QUERY_DISTINCT_PLAN_DUPLICATES, FDBStoreTimer.Counts.QUERY_DISCARDED);
 
+    private final long maxBytesInMemory;
+
     public RecordQueryUnorderedDistinctPlan(@Nonnull final RecordQueryPlan plan,
                                             @Nonnull final KeyExpression comparisonKey) {
-        this(Quantifier.physical(GroupExpressionRef.of(plan)), comparisonKey);
+        this(plan, comparisonKey, RecordQueryUnorderedPrimaryKeyDistinctPlan.UNLIMITED_MEMORY);
+    }
+
+    public RecordQueryUnorderedDistinctPlan(@Nonnull final RecordQueryPlan plan,
+                                            @Nonnull final KeyExpression comparisonKey,
+                                            long maxBytesInMemory) {
+        this(Quantifier.physical(GroupExpressionRef.of(plan)), comparisonKey, maxBytesInMemory);
     }
 
     private RecordQueryUnorderedDistinctPlan(@Nonnull final Quantifier.Physical inner,
-                                             @Nonnull KeyExpression comparisonKey) {
+                                             @Nonnull KeyExpression comparisonKey,
+                                             long maxBytesInMemory) {
         this.inner = inner;
         this.comparisonKey = comparisonKey;
+        this.maxBytesInMemory = maxBytesInMemory;
     }
 
     @Nonnull
@@ -90,8 +107,16 @@ public class RecordQueryUnorderedDistinctPlan implements RecordQueryPlanWithChil
                                                                          @Nonnull EvaluationContext context,
                                                                          @Nullable byte[] continuation,
                                                                          @Nonnull ExecuteProperties executeProperties) {
+        if (maxBytesInMemory != RecordQueryUnorderedPrimaryKeyDistinctPlan.UNLIMITED_MEMORY) {
+            final ExecuteProperties childExecuteProperties = executeProperties.clearSkipAndLimit();
+            return FingerprintDistinctCursor.<FDBQueriedRecord<M>>create(record -> getComparisonKey().evaluateSingleton(record).toTuple().pack(),
+                    maxBytesInMemory, store.getContext().getDatabase().getSpillDirectory(),
+                    childContinuation -> getInner().executePlan(store, context, childContinuation, childExecuteProperties),
+                    continuation, store.getExecutor(), store.getTimer(), uniqueCounts, duplicateCounts)
+                .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
+        }
         final Set<Key.Evaluated> seen = new HashSet<>();
-        return getInner().execute(store, context, continuation, executeProperties.clearSkipAndLimit())
+        return getInner().executePlan(store, context, continuation, executeProperties.clearSkipAndLimit())
             .filterInstrumented(record -> seen.add(getComparisonKey().evaluateSingleton(record)),
                 store.getTimer(), Collections.emptySet(), duringEvents, uniqueCounts, duplicateCounts)
             .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
@@ -118,6 +143,14 @@ public class RecordQueryUnorderedDistinctPlan implements RecordQueryPlanWithChil
         return comparisonKey;
     }
 
+    /**
+     * Get the approximate number of bytes of value fingerprints to hold in memory.
+     * @return the memory limit or {@link RecordQueryUnorderedPrimaryKeyDistinctPlan#UNLIMITED_MEMORY} to hold all values in memory
+     */
+    public long getMaxBytesInMemory() {
+        return maxBytesInMemory;
+    }
+
     @Nonnull
     @Override
     public List<? extends Quantifier> getQuantifiers() {
@@ -140,7 +173,7 @@ public class RecordQueryUnorderedDistinctPlan implements RecordQueryPlanWithChil
     public RecordQueryUnorderedDistinctPlan rebaseWithRebasedQuantifiers(@Nonnull final AliasMap translationMap,
                                                                          @Nonnull final List<Quantifier> rebasedQuantifiers) {
         return new RecordQueryUnorderedDistinctPlan(Iterables.getOnlyElement(rebasedQuantifiers).narrow(Quantifier.Physical.class),
-                getComparisonKey());
+                getComparisonKey(), maxBytesInMemory);
     }
 
     @Override
@@ -152,7 +185,8 @@ public class RecordQueryUnorderedDistinctPlan implements RecordQueryPlanWithChil
         if (getClass() != otherExpression.getClass()) {
             return false;
         }
-        return comparisonKey.equals(((RecordQueryUnorderedDistinctPlan)otherExpression).comparisonKey);
+        final RecordQueryUnorderedDistinctPlan other = (RecordQueryUnorderedDistinctPlan)otherExpression;
+        return comparisonKey.equals(other.comparisonKey) && maxBytesInMemory == other.maxBytesInMemory;
     }
 
     @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
@@ -168,7 +202,7 @@ public class RecordQueryUnorderedDistinctPlan implements RecordQueryPlanWithChil
 
     @Override
     public int hashCodeWithoutChildren() {
-        return Objects.hash(getComparisonKey());
+        return Objects.hash(getComparisonKey(), maxBytesInMemory);
     }
 
     @Override
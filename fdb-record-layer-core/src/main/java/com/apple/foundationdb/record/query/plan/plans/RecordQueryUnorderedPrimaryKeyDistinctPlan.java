@@ -35,6 +35,7 @@ import com.apple.foundationdb.record.query.plan.temp.Quantifier;
 import com.apple.foundationdb.record.query.plan.temp.RelationalExpression;
 import com.apple.foundationdb.record.query.plan.temp.explain.NodeInfo;
 import com.apple.foundationdb.record.query.plan.temp.explain.PlannerGraph;
+import com.apple.foundationdb.record.sorting.FingerprintDistinctCursor;
 import com.apple.foundationdb.tuple.Tuple;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -53,10 +54,20 @@ import java.util.Set;
 
 /**
  * A query plan that removes duplicates by means of a hash table of primary keys already seen.
+ *
+ * <p>
+ * By default, every primary key is held in memory and the table starts empty each time the plan is resumed from a
+ * continuation. If a memory limit is given, fingerprints of the primary keys are kept instead, using local files beyond
+ * the limit, and are carried in the continuation. See {@link FingerprintDistinctCursor}.
+ * </p>
  */
 @API(API.Status.INTERNAL)
 public class RecordQueryUnorderedPrimaryKeyDistinctPlan implements RecordQueryPlanWithChild {
     public static final Logger LOGGER = LoggerFactory.getLogger(RecordQueryUnorderedPrimaryKeyDistinctPlan.class);
+    /**
+     * The memory limit meaning that every primary key seen is held in memory.
+     */
+    public static final long UNLIMITED_MEMORY = 0;
 
     @Nonnull
     private final Quantifier.Physical inner;
@@ -68,12 +79,23 @@ public class RecordQueryUnorderedPrimaryKeyDistinctPlan implements RecordQueryPl
     private static final Set<StoreTimer.Count> duplicateCounts =
             ImmutableSet.of(FDBStoreTimer.Counts.QUERY_PK_DISTINCT_PLAN_DUPLICATES, FDBStoreTimer.Counts.QUERY_DISCARDED);
 
+    private final long maxBytesInMemory;
+
     public RecordQueryUnorderedPrimaryKeyDistinctPlan(@Nonnull RecordQueryPlan innerPlan) {
-        this(Quantifier.physical(GroupExpressionRef.of(innerPlan)));
+        this(innerPlan, UNLIMITED_MEMORY);
+    }
+
+    public RecordQueryUnorderedPrimaryKeyDistinctPlan(@Nonnull RecordQueryPlan innerPlan, long maxBytesInMemory) {
+        this(Quantifier.physical(GroupExpressionRef.of(innerPlan)), maxBytesInMemory);
     }
 
     public RecordQueryUnorderedPrimaryKeyDistinctPlan(@Nonnull Quantifier.Physical inner) {
+        this(inner, UNLIMITED_MEMORY);
+    }
+
+    public RecordQueryUnorderedPrimaryKeyDistinctPlan(@Nonnull Quantifier.Physical inner, long maxBytesInMemory) {
         this.inner = inner;
+        this.maxBytesInMemory = maxBytesInMemory;
     }
 
     @Nonnull
@@ -82,8 +104,16 @@ public class RecordQueryUnorderedPrimaryKeyDistinctPlan implements RecordQueryPl
                                                                          @Nonnull EvaluationContext context,
                                                                          @Nullable byte[] continuation,
                                                                          @Nonnull ExecuteProperties executeProperties) {
+        if (maxBytesInMemory != UNLIMITED_MEMORY) {
+            final ExecuteProperties childExecuteProperties = executeProperties.clearSkipAndLimit();
+            return FingerprintDistinctCursor.<FDBQueriedRecord<M>>create(record -> record.getPrimaryKey().pack(),
+                    maxBytesInMemory, store.getContext().getDatabase().getSpillDirectory(),
+                    childContinuation -> getInner().executePlan(store, context, childContinuation, childExecuteProperties),
+                    continuation, store.getExecutor(), store.getTimer(), uniqueCounts, duplicateCounts)
+                .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
+        }
         final Set<Tuple> seen = new HashSet<>();
-        return getInner().execute(store, context, continuation, executeProperties.clearSkipAndLimit())
+        return getInner().executePlan(store, context, continuation, executeProperties.clearSkipAndLimit())
             .filterInstrumented(record -> seen.add(record.getPrimaryKey()), store.getTimer(),
                 Collections.emptySet(), duringEvents, uniqueCounts, duplicateCounts)
             .skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
@@ -105,6 +135,14 @@ public class RecordQueryUnorderedPrimaryKeyDistinctPlan implements RecordQueryPl
         return getInner();
     }
 
+    /**
+     * Get the approximate number of bytes of primary key fingerprints to hold in memory.
+     * @return the memory limit or {@link #UNLIMITED_MEMORY} to hold all primary keys in memory
+     */
+    public long getMaxBytesInMemory() {
+        return maxBytesInMemory;
+    }
+
     @Nonnull
     @Override
     public List<? extends Quantifier> getQuantifiers() {
@@ -126,7 +164,8 @@ public class RecordQueryUnorderedPrimaryKeyDistinctPlan implements RecordQueryPl
     @Override
     public RecordQueryUnorderedPrimaryKeyDistinctPlan rebaseWithRebasedQuantifiers(@Nonnull final AliasMap translationMap,
                                                                                    @Nonnull final List<Quantifier> rebasedQuantifiers) {
-        return new RecordQueryUnorderedPrimaryKeyDistinctPlan(Iterables.getOnlyElement(rebasedQuantifiers).narrow(Quantifier.Physical.class));
+        return new RecordQueryUnorderedPrimaryKeyDistinctPlan(Iterables.getOnlyElement(rebasedQuantifiers).narrow(Quantifier.Physical.class),
+                maxBytesInMemory);
     }
 
     @Override
@@ -135,7 +174,8 @@ public class RecordQueryUnorderedPrimaryKeyDistinctPlan implements RecordQueryPl
         if (this == otherExpression) {
             return true;
         }
-        return (getClass() == otherExpression.getClass());
+        return (getClass() == otherExpression.getClass()) &&
+               maxBytesInMemory == ((RecordQueryUnorderedPrimaryKeyDistinctPlan)otherExpression).maxBytesInMemory;
     }
 
     @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
@@ -54,6 +54,11 @@ public class NodeInfo {
             NodeIcon.IN_MEMORY_TEMPORARY_DATA,
             "Values",
             "A constant list of values.");
+    public static final NodeInfo AGGREGATE_OPERATOR = new NodeInfo(
+            "AggregateOperator",
+            NodeIcon.COMPUTATION_OPERATOR,
+            "Aggregate",
+            "An aggregate operator groups its input records by the given grouping key and returns one row of aggregate values for each group, either from consecutive records of an ordered input or from a bounded hash table for an unordered input.");
     public static final NodeInfo COVERING_INDEX_SCAN_OPERATOR = new NodeInfo(
             "CoveringIndexScanOperator",
             NodeIcon.DATA_ACCESS_OPERATOR,
@@ -104,6 +109,11 @@ public class NodeInfo {
             NodeIcon.DATA_ACCESS_OPERATOR,
             "Score For Rank",
             "A score for rank operator converts ranks to scores and executes its input plan with the conversion results bound in named parameters.");
+    public static final NodeInfo SORT_OPERATOR = new NodeInfo(
+            "SortOperator",
+            NodeIcon.COMPUTATION_OPERATOR,
+            "Sort",
+            "A sort operator reads all of its input records and returns them ordered by the given sort key. Records that do not fit in memory are written to local files in sorted runs which are then merged.");
     public static final NodeInfo SPATIAL_INDEX_SCAN_OPERATOR = new NodeInfo(
             "SpatialIndexScanOperator",
             NodeIcon.DATA_ACCESS_OPERATOR,
@@ -119,6 +129,11 @@ public class NodeInfo {
             NodeIcon.DATA_ACCESS_OPERATOR,
             "Text Index Scan",
             "A text index scan operator uses a text index to quickly find records in the index for the given full text predicate.");
+    public static final NodeInfo TOP_K_OPERATOR = new NodeInfo(
+            "TopKOperator",
+            NodeIcon.COMPUTATION_OPERATOR,
+            "Top K",
+            "A top-k operator reads all of its input records and returns the first few of them ordered by the given sort key, holding no more than that many records in memory at a time.");
     public static final NodeInfo TYPE_FILTER_OPERATOR = new NodeInfo(
             "TypeFilterOperator",
             NodeIcon.COMPUTATION_OPERATOR,
@@ -192,6 +207,7 @@ public class NodeInfo {
                 INDEX_DATA,
                 TEMPORARY_BUFFER_DATA,
                 VALUES_DATA,
+                AGGREGATE_OPERATOR,
                 COVERING_SPATIAL_INDEX_SCAN_OPERATOR,
                 COVERING_INDEX_SCAN_OPERATOR,
                 INDEX_SCAN_OPERATOR,
@@ -201,9 +217,11 @@ public class NodeInfo {
                 PREDICATE_FILTER_OPERATOR,
                 SCAN_OPERATOR,
                 SCORE_FOR_RANK_OPERATOR,
+                SORT_OPERATOR,
                 SPATIAL_INDEX_SCAN_OPERATOR,
                 TABLE_FUNCTION_OPERATOR,
                 TEXT_INDEX_SCAN_OPERATOR,
+                TOP_K_OPERATOR,
                 TYPE_FILTER_OPERATOR,
                 UNION_OPERATOR,
                 UNORDERED_DISTINCT_OPERATOR,
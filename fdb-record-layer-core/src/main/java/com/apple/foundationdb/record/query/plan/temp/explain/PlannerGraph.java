@@ -20,7 +20,7 @@
 
 package com.apple.foundationdb.record.query.plan.temp.explain;
 
-import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.foundationdb.record.query.plan.plans.QueryPlan;
 import com.apple.foundationdb.record.query.plan.temp.ExpressionRef;
 import com.apple.foundationdb.record.query.plan.temp.Quantifier;
 import com.apple.foundationdb.record.query.plan.temp.RelationalExpression;
@@ -300,25 +300,25 @@ public class PlannerGraph extends AbstractPlannerGraph<PlannerGraph.Node, Planne
     @SuppressWarnings("squid:S2160")
     public static class OperatorNodeWithInfo extends NodeWithInfo implements WithExpression {
         @Nullable
-        private final RecordQueryPlan expression;
+        private final QueryPlan<?> expression;
 
-        public OperatorNodeWithInfo(@Nonnull final RecordQueryPlan recordQueryPlan,
+        public OperatorNodeWithInfo(@Nonnull final QueryPlan<?> queryPlan,
                                     @Nonnull final NodeInfo nodeInfo) {
-            this(recordQueryPlan, nodeInfo, null);
+            this(queryPlan, nodeInfo, null);
         }
 
-        public OperatorNodeWithInfo(@Nonnull final RecordQueryPlan recordQueryPlan,
+        public OperatorNodeWithInfo(@Nonnull final QueryPlan<?> queryPlan,
                                     @Nonnull final NodeInfo nodeInfo,
                                     @Nullable final List<String> details) {
-            this(recordQueryPlan, nodeInfo, details, ImmutableMap.of());
+            this(queryPlan, nodeInfo, details, ImmutableMap.of());
         }
 
-        public OperatorNodeWithInfo(@Nonnull final RecordQueryPlan recordQueryPlan,
+        public OperatorNodeWithInfo(@Nonnull final QueryPlan<?> queryPlan,
                                     @Nonnull final NodeInfo nodeInfo,
                                     @Nullable final List<String> details,
                                     @Nonnull final Map<String, Attribute> additionalAttributes) {
             super(new Object(), nodeInfo, details, additionalAttributes);
-            this.expression = recordQueryPlan;
+            this.expression = queryPlan;
         }
         
         @Nonnull
@@ -334,7 +334,7 @@ public class PlannerGraph extends AbstractPlannerGraph<PlannerGraph.Node, Planne
 
         @Nullable
         @Override
-        public RecordQueryPlan getExpression() {
+        public QueryPlan<?> getExpression() {
             return expression;
         }
     }
@@ -223,8 +223,23 @@ public class PlannerGraphProperty implements PlannerProperty<PlannerGraph> {
      */
     @Nonnull
     public static String exportToDot(@Nonnull final AbstractPlannerGraph<Node, Edge> plannerGraph) {
+        return exportToDot(plannerGraph, Node::getAttributes);
+    }
+
+    /**
+     * Creates a serialized format of this graph as a dot-compatible definition, using custom attributes for nodes.
+     * This allows the caller to decorate the nodes of a graph, for example with statistics gathered while executing
+     * the plan the graph was created for.
+     *
+     * @param plannerGraph the planner graph we should export to dot
+     * @param nodeAttributeProvider function to get the attributes of each node, usually based on {@link Node#getAttributes}
+     * @return the graph as string in dot format.
+     */
+    @Nonnull
+    public static String exportToDot(@Nonnull final AbstractPlannerGraph<Node, Edge> plannerGraph,
+                                     @Nonnull final GraphExporter.ComponentAttributeProvider<Node> nodeAttributeProvider) {
         final ImmutableNetwork<Node, Edge> network = plannerGraph.getNetwork();
-        return exportToDot(plannerGraph, network.nodes(), clusterProvider -> ImmutableList.of());
+        return exportToDot(plannerGraph, network.nodes(), clusterProvider -> ImmutableList.of(), nodeAttributeProvider);
     }
 
     /**
@@ -246,8 +261,16 @@ public class PlannerGraphProperty implements PlannerProperty<PlannerGraph> {
     public static String exportToDot(@Nonnull final AbstractPlannerGraph<Node, Edge> plannerGraph,
                                      @Nonnull final Set<Node> queryPlannerNodes,
                                      @Nonnull final Function<GraphExporter.ClusterProvider<Node, Edge>, Collection<Cluster<Node, Edge>>> clusteringFunction) {
+        return exportToDot(plannerGraph, queryPlannerNodes, clusteringFunction, Node::getAttributes);
+    }
+
+    @Nonnull
+    private static String exportToDot(@Nonnull final AbstractPlannerGraph<Node, Edge> plannerGraph,
+                                      @Nonnull final Set<Node> queryPlannerNodes,
+                                      @Nonnull final Function<GraphExporter.ClusterProvider<Node, Edge>, Collection<Cluster<Node, Edge>>> clusteringFunction,
+                                      @Nonnull final GraphExporter.ComponentAttributeProvider<Node> nodeAttributeProvider) {
         final GraphExporter<Node, Edge> exporter = new DotExporter<>(new CountingIdProvider<>(),
-                Node::getAttributes,
+                nodeAttributeProvider,
                 Edge::getAttributes,
                 ImmutableMap.of("fontname", Attribute.dot("courier"),
                         "rankdir", Attribute.dot("BT"),
@@ -0,0 +1,152 @@
+/*
+ * MessageFieldAccessor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2019 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.temp.view;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.metadata.expressions.TupleFieldsHelper;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gets the value of a named field from many messages, as {@link MessageValue#getFieldOnMessage} does, but without
+ * looking the field up by name each time.
+ *
+ * <p>
+ * The field descriptor is resolved against the type of the first message and kept for as long as messages of that
+ * same type are given; a message of another type resolves it again. This makes an accessor cheap for the usual case of
+ * evaluating the same filter against a stream of records of one type, while still being correct if types are mixed.
+ * An accessor can be shared between threads.
+ * </p>
+ */
+@API(API.Status.INTERNAL)
+public class MessageFieldAccessor {
+    @Nonnull
+    private final String fieldName;
+    @Nullable
+    private volatile ResolvedField resolved;
+
+    public MessageFieldAccessor(@Nonnull String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    @Nonnull
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Get the descriptor of this accessor's field on the given message's type.
+     * @param message a message or builder with the field
+     * @return the field's descriptor
+     * @throws com.apple.foundationdb.record.query.expressions.Query.InvalidExpressionException if there is no such field
+     */
+    @Nonnull
+    public Descriptors.FieldDescriptor getFieldDescriptor(@Nonnull MessageOrBuilder message) {
+        return resolve(message).field;
+    }
+
+    /**
+     * Get the value of this accessor's field on the given message.
+     * @param message a message or builder to extract the field from
+     * @return the value of the field, as described by {@link MessageValue#getFieldOnMessage}
+     */
+    @Nullable
+    public Object getValue(@Nonnull MessageOrBuilder message) {
+        final ResolvedField resolvedField = resolve(message);
+        final Descriptors.FieldDescriptor field = resolvedField.field;
+        if (resolvedField.repeated) {
+            int count = message.getRepeatedFieldCount(field);
+            List<Object> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(message.getRepeatedField(field, i));
+            }
+            return list;
+        }
+        if (resolvedField.hasDefaultValue || message.hasField(field)) {
+            if (resolvedField.tupleField) {
+                return TupleFieldsHelper.fromProto((Message)message.getField(field), field.getMessageType());
+            } else {
+                return message.getField(field);
+            }
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get the value of this accessor's field on the given message, if it is a single nested message.
+     * @param message a message or builder to extract the field from
+     * @return the nested message or {@code null} if the field is missing, repeated, or not a message
+     */
+    @Nullable
+    public Message getMessage(@Nonnull MessageOrBuilder message) {
+        final ResolvedField resolvedField = resolve(message);
+        final Descriptors.FieldDescriptor field = resolvedField.field;
+        if (!resolvedField.repeated && resolvedField.message &&
+                (resolvedField.hasDefaultValue || message.hasField(field))) {
+            return (Message)message.getField(field);
+        }
+        return null;
+    }
+
+    @Nonnull
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    private ResolvedField resolve(@Nonnull MessageOrBuilder message) {
+        final Descriptors.Descriptor descriptor = message.getDescriptorForType();
+        ResolvedField current = resolved;
+        if (current == null || current.descriptor != descriptor) {
+            current = new ResolvedField(descriptor, MessageValue.findFieldDescriptorOnMessage(message, fieldName));
+            resolved = current;
+        }
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        return fieldName;
+    }
+
+    private static class ResolvedField {
+        @Nonnull
+        private final Descriptors.Descriptor descriptor;
+        @Nonnull
+        private final Descriptors.FieldDescriptor field;
+        private final boolean repeated;
+        private final boolean hasDefaultValue;
+        private final boolean message;
+        private final boolean tupleField;
+
+        ResolvedField(@Nonnull Descriptors.Descriptor descriptor, @Nonnull Descriptors.FieldDescriptor field) {
+            this.descriptor = descriptor;
+            this.field = field;
+            this.repeated = field.isRepeated();
+            this.hasDefaultValue = field.hasDefaultValue();
+            this.message = field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE;
+            this.tupleField = message && TupleFieldsHelper.isTupleField(field.getMessageType());
+        }
+    }
+}
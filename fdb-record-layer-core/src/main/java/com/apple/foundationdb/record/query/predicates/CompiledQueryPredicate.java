@@ -0,0 +1,214 @@
+/*
+ * CompiledQueryPredicate.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2019 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.predicates;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
+import com.apple.foundationdb.record.query.expressions.Comparisons;
+import com.apple.foundationdb.record.query.plan.temp.view.Element;
+import com.apple.foundationdb.record.query.plan.temp.view.FieldElement;
+import com.apple.foundationdb.record.query.plan.temp.view.MessageFieldAccessor;
+import com.apple.foundationdb.record.query.plan.temp.view.Source;
+import com.apple.foundationdb.record.query.plan.temp.view.SourceEntry;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A {@link QueryPredicate} compiled for evaluating against many source entries.
+ *
+ * <p>
+ * This is the counterpart of {@link com.apple.foundationdb.record.query.expressions.CompiledQueryComponent} for
+ * predicate trees: the field paths of {@link FieldElement}s are followed with {@link MessageFieldAccessor}s and the
+ * comparisons of {@link ElementPredicate}s are {@link Comparisons#compile compiled}. Other predicates and elements are
+ * evaluated as they are, so the result is always the same as evaluating the predicate.
+ * </p>
+ */
+@API(API.Status.INTERNAL)
+public abstract class CompiledQueryPredicate {
+    /**
+     * Evaluate the compiled predicate.
+     * @param <M> the type of records
+     * @param store the record store from which the record came
+     * @param context context for bound expressions
+     * @param sourceEntry the values of the predicate's sources
+     * @return true/false/null, as for {@link QueryPredicate#eval}
+     */
+    @Nullable
+    public abstract <M extends Message> Boolean eval(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                     @Nonnull SourceEntry sourceEntry);
+
+    /**
+     * Compile a query predicate.
+     * @param predicate the predicate to compile
+     * @return a compiled predicate that evaluates the same as {@code predicate}
+     */
+    @Nonnull
+    public static CompiledQueryPredicate compile(@Nonnull QueryPredicate predicate) {
+        final Class<?> predicateClass = predicate.getClass();
+        if (predicateClass == ElementPredicate.class) {
+            final ElementPredicate elementPredicate = (ElementPredicate)predicate;
+            final Element element = elementPredicate.getElement();
+            if (element.getClass() == FieldElement.class && !((FieldElement)element).getFieldNames().isEmpty()) {
+                final FieldElement fieldElement = (FieldElement)element;
+                return new CompiledFieldPredicate(fieldElement.getSource(), fieldElement.getFieldNames(),
+                        Comparisons.compile(elementPredicate.getComparison()));
+            }
+            return new CompiledElementPredicate(element, Comparisons.compile(elementPredicate.getComparison()));
+        } else if (predicateClass == NotPredicate.class) {
+            return new CompiledNot(compile(((NotPredicate)predicate).getChild()));
+        } else if (predicateClass == AndPredicate.class || predicateClass == OrPredicate.class) {
+            final List<QueryPredicate> children = ((AndOrPredicate)predicate).getChildren();
+            final CompiledQueryPredicate[] compiledChildren = new CompiledQueryPredicate[children.size()];
+            for (int i = 0; i < compiledChildren.length; i++) {
+                compiledChildren[i] = compile(children.get(i));
+            }
+            return new CompiledAndOr(predicateClass == OrPredicate.class, compiledChildren);
+        } else {
+            return new Uncompiled(predicate);
+        }
+    }
+
+    private static class CompiledFieldPredicate extends CompiledQueryPredicate {
+        @Nonnull
+        private final Source source;
+        @Nonnull
+        private final MessageFieldAccessor[] path;
+        @Nonnull
+        private final Comparisons.CompiledComparison comparison;
+
+        CompiledFieldPredicate(@Nonnull Source source, @Nonnull List<String> fieldNames,
+                               @Nonnull Comparisons.CompiledComparison comparison) {
+            this.source = source;
+            this.path = new MessageFieldAccessor[fieldNames.size()];
+            for (int i = 0; i < path.length; i++) {
+                path[i] = new MessageFieldAccessor(fieldNames.get(i));
+            }
+            this.comparison = comparison;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean eval(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                @Nonnull SourceEntry sourceEntry) {
+            return comparison.eval(store, context, getFieldValue(sourceEntry.getValueFor(source)));
+        }
+
+        // Same as FieldElement.eval, following the path as MessageValue.getFieldValue does.
+        @Nullable
+        private Object getFieldValue(@Nullable Object value) {
+            if (!(value instanceof MessageOrBuilder)) {
+                return null;
+            }
+            MessageOrBuilder current = (MessageOrBuilder)value;
+            for (int i = 0; i < path.length - 1; i++) {
+                current = path[i].getMessage(current);
+                if (current == null) {
+                    return null;
+                }
+            }
+            return path[path.length - 1].getValue(current);
+        }
+    }
+
+    private static class CompiledElementPredicate extends CompiledQueryPredicate {
+        @Nonnull
+        private final Element element;
+        @Nonnull
+        private final Comparisons.CompiledComparison comparison;
+
+        CompiledElementPredicate(@Nonnull Element element, @Nonnull Comparisons.CompiledComparison comparison) {
+            this.element = element;
+            this.comparison = comparison;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean eval(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                @Nonnull SourceEntry sourceEntry) {
+            return comparison.eval(store, context, element.eval(sourceEntry));
+        }
+    }
+
+    private static class CompiledNot extends CompiledQueryPredicate {
+        @Nonnull
+        private final CompiledQueryPredicate child;
+
+        CompiledNot(@Nonnull CompiledQueryPredicate child) {
+            this.child = child;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean eval(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                @Nonnull SourceEntry sourceEntry) {
+            final Boolean value = child.eval(store, context, sourceEntry);
+            return value == null ? null : !value;
+        }
+    }
+
+    private static class CompiledAndOr extends CompiledQueryPredicate {
+        private final boolean isOr;
+        @Nonnull
+        private final CompiledQueryPredicate[] children;
+
+        CompiledAndOr(boolean isOr, @Nonnull CompiledQueryPredicate[] children) {
+            this.isOr = isOr;
+            this.children = children;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean eval(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                @Nonnull SourceEntry sourceEntry) {
+            Boolean retVal = !isOr;
+            for (CompiledQueryPredicate child : children) {
+                final Boolean val = child.eval(store, context, sourceEntry);
+                if (val == null) {
+                    retVal = null;
+                } else if (val == isOr) {
+                    return isOr;
+                }
+            }
+            return retVal;
+        }
+    }
+
+    private static class Uncompiled extends CompiledQueryPredicate {
+        @Nonnull
+        private final QueryPredicate predicate;
+
+        Uncompiled(@Nonnull QueryPredicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Nullable
+        @Override
+        public <M extends Message> Boolean eval(@Nonnull FDBRecordStoreBase<M> store, @Nonnull EvaluationContext context,
+                                                @Nonnull SourceEntry sourceEntry) {
+            return predicate.eval(store, context, sourceEntry);
+        }
+    }
+}
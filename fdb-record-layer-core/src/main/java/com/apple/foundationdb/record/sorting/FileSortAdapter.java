@@ -0,0 +1,58 @@
+/*
+ * FileSortAdapter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+
+/**
+ * Provide what {@link FileSortCursor} needs to know about the values that it sorts, including how much of them to
+ * hold in memory.
+ * @param <T> the type of values being sorted
+ */
+@API(API.Status.EXPERIMENTAL)
+public interface FileSortAdapter<T> extends SortAdapter<T> {
+    /**
+     * Get the approximate amount of memory used to hold a value while it is sorted.
+     * @param value the value
+     * @return the approximate size of the value in bytes
+     */
+    long getSizeInMemory(@Nonnull T value);
+
+    /**
+     * Get the approximate number of bytes of values to sort in memory before writing them to a file.
+     * @return the maximum number of bytes to hold in memory
+     */
+    long getMaxBytesInMemory();
+
+    /**
+     * Get the directory in which to create files of sorted values. Each sort creates its own subdirectory of this one,
+     * and a continuation can only refer to such a subdirectory, so this should be the same every time a sort is resumed.
+     * @return the directory for files or {@code null} to use the default temporary-file directory
+     */
+    @Nullable
+    default Path getDirectory() {
+        return null;
+    }
+}
@@ -0,0 +1,640 @@
+/*
+ * FileSortCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.cursors.IllegalContinuationAccessChecker;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A cursor that returns the values of another cursor sorted by a key, using local files when they do not fit in memory.
+ *
+ * <p>
+ * The whole of the input is read before any values are returned. Values are accumulated in memory until their
+ * approximate size exceeds {@link FileSortAdapter#getMaxBytesInMemory()}, at which point they are sorted and written
+ * to a new file as a sorted run. Once the input is exhausted, if nothing was written to a file, the values are returned
+ * straight from memory. Otherwise, the remaining values are written as one more run and the runs are merged as the
+ * values are returned. The sort is stable: values with equal keys are returned in the order they were read.
+ * </p>
+ *
+ * <p>
+ * The runs are written to a new subdirectory of {@link FileSortAdapter#getDirectory()} that belongs to this sort. The
+ * continuation names that subdirectory by a random id and records which runs it needs and where the merge has got to
+ * in each of them, so the files must still be present, on the same host, when the cursor is resumed; no path from
+ * continuation bytes is ever opened. Runs are kept once a result whose continuation refers to them has been returned,
+ * even after the merge is exhausted, so that any earlier continuation can be retried, for instance after a failed
+ * commit, and its continuation can be serialized after the cursor is closed. Runs that no returned continuation
+ * refers to are deleted when the cursor is closed. Runs left by continuations are removed with
+ * {@link #deleteAbandonedRuns} once they have not been used for a while.
+ * </p>
+ *
+ * <p>
+ * A sort that never wrote a file instead records how many values it has returned and is resumed by reading and
+ * sorting the input again. The resumed sort then writes the sorted values to a run and merges from it, so that
+ * however many times the sort is resumed, the input is read at most twice. If the input stops early because of a limit, what has been read is written to a run and
+ * the continuation records where to resume reading, so that a large input can be sorted over several transactions.
+ * </p>
+ *
+ * @param <T> the type of values being sorted
+ */
+@API(API.Status.EXPERIMENTAL)
+public class FileSortCursor<T> implements RecordCursor<T> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String DIRECTORY_PREFIX = "fdb-record-sort-";
+    private static final String FILE_SUFFIX = ".run";
+
+    @Nonnull
+    private final FileSortAdapter<T> adapter;
+    @Nonnull
+    private final Executor executor;
+    @Nullable
+    private final StoreTimer timer;
+    @Nonnull
+    private final Comparator<byte[]> keyComparator;
+
+    // The input, until it has been exhausted.
+    @Nullable
+    private RecordCursor<T> inputCursor;
+    @Nonnull
+    private final SpillDirectory spill;
+    // The numbers of the sorted runs in the spill directory, in the order they were written.
+    @Nonnull
+    private final List<Integer> runIndexes;
+    @Nonnull
+    private final List<Entry<T>> inMemory = new ArrayList<>();
+    private long inMemoryBytes;
+    // Number of sorted values to return from memory or to discard before starting the merge.
+    private long skip;
+    // Set once the input is exhausted and there are runs to merge, one for each run in the same order.
+    @Nullable
+    private List<RunReader> readers;
+    @Nullable
+    private PriorityQueue<RunReader> mergeQueue;
+
+    @Nullable
+    private CompletableFuture<Boolean> hasNextFuture;
+    @Nullable
+    private RecordCursorResult<T> nextResult;
+    // for detecting incorrect cursor usage
+    private boolean mayGetContinuation = false;
+
+    private FileSortCursor(@Nonnull FileSortAdapter<T> adapter, @Nonnull Executor executor, @Nullable StoreTimer timer,
+                           @Nullable RecordCursor<T> inputCursor, @Nonnull SpillDirectory spill,
+                           @Nonnull List<Integer> runIndexes, long skip) {
+        this.adapter = adapter;
+        this.executor = executor;
+        this.timer = timer;
+        this.inputCursor = inputCursor;
+        this.spill = spill;
+        this.runIndexes = new ArrayList<>(runIndexes);
+        this.skip = skip;
+        final Comparator<byte[]> ascending = ByteArrayUtil::compareUnsigned;
+        this.keyComparator = adapter.isReverse() ? ascending.reversed() : ascending;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<T>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        mayGetContinuation = false;
+        final CompletableFuture<Boolean> loaded = inputCursor == null ? AsyncUtil.READY_TRUE : loadInput();
+        return loaded.thenApply(complete -> {
+            if (complete) {
+                nextResult = nextSorted();
+            }
+            mayGetContinuation = !nextResult.hasNext();
+            return nextResult;
+        });
+    }
+
+    /**
+     * Read the whole input, writing sorted runs as memory fills up.
+     * @return a future that completes to {@code true} if the input was exhausted or {@code false} if it stopped early,
+     * in which case {@link #nextResult} is set to the result that stops this cursor
+     */
+    @Nonnull
+    private CompletableFuture<Boolean> loadInput() {
+        return AsyncUtil.whileTrue(() -> inputCursor.onNext().thenCompose(inputResult -> {
+            if (inputResult.hasNext()) {
+                final T value = inputResult.get();
+                final byte[] key = adapter.getKey(value);
+                inMemory.add(new Entry<>(key, value));
+                inMemoryBytes += key.length + adapter.getSizeInMemory(value);
+                if (inMemoryBytes > adapter.getMaxBytesInMemory()) {
+                    return CompletableFuture.supplyAsync(() -> {
+                        writeRun();
+                        return true;
+                    }, executor);
+                }
+                return AsyncUtil.READY_TRUE;
+            }
+            inputCursor.close();
+            inputCursor = null;
+            if (inputResult.getNoNextReason().isSourceExhausted()) {
+                // A sort resumed from memory is written out, so that later continuations need not read the input again.
+                if (!runIndexes.isEmpty() || skip > 0) {
+                    return CompletableFuture.runAsync(this::startMerge, executor).thenApply(vignore -> false);
+                }
+                inMemory.sort((e1, e2) -> keyComparator.compare(e1.key, e2.key));
+                return AsyncUtil.READY_FALSE;
+            } else {
+                return CompletableFuture.runAsync(() -> {
+                    if (!inMemory.isEmpty()) {
+                        writeRun();
+                    }
+                    nextResult = RecordCursorResult.withoutNextValue(
+                            new Continuation(inputResult.getContinuation().toBytes(), null, skip),
+                            inputResult.getNoNextReason());
+                }, executor).thenApply(vignore -> false);
+            }
+        }), executor).thenApply(vignore -> inputCursor == null && (nextResult == null || nextResult.hasNext()));
+    }
+
+    private void writeRun() {
+        inMemory.sort((e1, e2) -> keyComparator.compare(e1.key, e2.key));
+        try {
+            final int index = spill.addFile();
+            runIndexes.add(index);
+            try (RunWriter writer = new RunWriter(spill.getFile(index))) {
+                for (Entry<T> entry : inMemory) {
+                    writer.write(entry.key, adapter.serializeValue(entry.value));
+                }
+            }
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to write sorted run", ex);
+        }
+        if (timer != null) {
+            timer.increment(FDBStoreTimer.Counts.SORT_FILE_RUNS);
+            timer.increment(FDBStoreTimer.Counts.SORT_FILE_RECORDS, inMemory.size());
+        }
+        inMemory.clear();
+        inMemoryBytes = 0;
+    }
+
+    private void startMerge() {
+        if (!inMemory.isEmpty()) {
+            writeRun();
+        }
+        final long[] positions = new long[runIndexes.size()];
+        openReaders(positions);
+        while (skip > 0 && !mergeQueue.isEmpty()) {
+            advanceMerge();
+            skip--;
+        }
+        skip = 0;
+    }
+
+    private void openReaders(@Nonnull long[] positions) {
+        readers = new ArrayList<>(positions.length);
+        mergeQueue = new PriorityQueue<>(Math.max(positions.length, 1), (r1, r2) -> {
+            final int compare = keyComparator.compare(r1.headKey, r2.headKey);
+            // Earlier runs hold values that were read earlier.
+            return compare != 0 ? compare : Integer.compare(r1.index, r2.index);
+        });
+        try {
+            for (int i = 0; i < positions.length; i++) {
+                final RunReader reader = new RunReader(i, spill.getFile(runIndexes.get(i)), positions[i]);
+                readers.add(reader);
+                if (reader.advance()) {
+                    mergeQueue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            throw new RecordCoreException("sorted run file no longer exists", ex)
+                    .addLogInfo(LogMessageKeys.FILE_NAME, ex.getFile());
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to read sorted run", ex);
+        }
+    }
+
+    @Nonnull
+    private RunReader advanceMerge() {
+        final RunReader reader = mergeQueue.poll();
+        try {
+            if (reader.advance()) {
+                mergeQueue.add(reader);
+            } else {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to read sorted run", ex);
+        }
+        return reader;
+    }
+
+    @Nonnull
+    private RecordCursorResult<T> nextSorted() {
+        if (readers == null) {
+            if (skip < inMemory.size()) {
+                final T value = inMemory.get((int)skip).value;
+                skip++;
+                return RecordCursorResult.withNextValue(value, new Continuation(null, null, skip));
+            }
+            inMemory.clear();
+            return RecordCursorResult.exhausted();
+        }
+        if (mergeQueue.isEmpty()) {
+            // The runs are kept for any earlier continuation that is retried.
+            return RecordCursorResult.exhausted();
+        }
+        final RunReader reader = mergeQueue.peek();
+        final T value = adapter.deserializeValue(reader.headValue);
+        advanceMerge();
+        final long[] positions = new long[readers.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = readers.get(i).position;
+        }
+        return RecordCursorResult.withNextValue(value, new Continuation(null, positions, 0));
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public CompletableFuture<Boolean> onHasNext() {
+        if (hasNextFuture == null) {
+            hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+        }
+        return hasNextFuture;
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNextFuture = null;
+        mayGetContinuation = true;
+        return nextResult.get();
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public byte[] getContinuation() {
+        IllegalContinuationAccessChecker.check(mayGetContinuation);
+        return nextResult.getContinuation().toBytes();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public NoNextReason getNoNextReason() {
+        return nextResult.getNoNextReason();
+    }
+
+    @Override
+    public void close() {
+        if (inputCursor != null) {
+            inputCursor.close();
+        }
+        if (readers != null) {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        spill.close();
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this) && inputCursor != null) {
+            inputCursor.accept(visitor);
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Create a sort cursor.
+     * @param adapter the adapter giving the sort key and serialization of values
+     * @param inputFunction a function to produce the input cursor from a continuation
+     * @param continuation any continuation from a previous sort cursor
+     * @param executor the executor used to write files and compose futures
+     * @param timer the timer used to count sorted runs
+     * @param <T> the type of values being sorted
+     * @return a cursor returning the values of the input cursor in sorted order
+     */
+    @SuppressWarnings("PMD.PreserveStackTrace")
+    @Nonnull
+    public static <T> FileSortCursor<T> create(@Nonnull FileSortAdapter<T> adapter,
+                                               @Nonnull Function<byte[], RecordCursor<T>> inputFunction,
+                                               @Nullable byte[] continuation,
+                                               @Nonnull Executor executor,
+                                               @Nullable StoreTimer timer) {
+        if (continuation == null) {
+            return new FileSortCursor<>(adapter, executor, timer, inputFunction.apply(null),
+                    SpillDirectory.create(adapter.getDirectory(), DIRECTORY_PREFIX, FILE_SUFFIX), Collections.emptyList(), 0);
+        }
+        final RecordCursorProto.FileSortContinuation parsed;
+        try {
+            parsed = RecordCursorProto.FileSortContinuation.parseFrom(continuation);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RecordCoreException("invalid continuation", ex)
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+        }
+        int previousIndex = -1;
+        for (int index : parsed.getRunIndexesList()) {
+            if (index <= previousIndex || index >= parsed.getRunCount()) {
+                throw new RecordCoreException("invalid continuation (run indexes out of order or range)")
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+            previousIndex = index;
+        }
+        final SpillDirectory spill = parsed.getRunCount() > 0
+                                     ? SpillDirectory.open(adapter.getDirectory(), DIRECTORY_PREFIX, FILE_SUFFIX, parsed.getSpillId(), parsed.getRunCount())
+                                     : SpillDirectory.create(adapter.getDirectory(), DIRECTORY_PREFIX, FILE_SUFFIX);
+        if (!parsed.getLoadComplete()) {
+            final byte[] inputContinuation = parsed.hasChildContinuation() ? parsed.getChildContinuation().toByteArray() : null;
+            return new FileSortCursor<>(adapter, executor, timer, inputFunction.apply(inputContinuation), spill,
+                    parsed.getRunIndexesList(), parsed.getSkip());
+        }
+        if (parsed.getPositionsCount() != parsed.getRunIndexesCount()) {
+            throw new RecordCoreException("invalid continuation (position count does not match runs)")
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+        }
+        final FileSortCursor<T> cursor = new FileSortCursor<>(adapter, executor, timer, null, spill, parsed.getRunIndexesList(), 0);
+        final long[] positions = new long[parsed.getPositionsCount()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = parsed.getPositions(i);
+        }
+        cursor.openReaders(positions);
+        return cursor;
+    }
+
+    /**
+     * Delete the sorted runs left in a directory by continuations that were never resumed.
+     * @param directory the directory given by {@link FileSortAdapter#getDirectory()}
+     * @param maxAgeMillis how long since runs were last written before they are taken to be abandoned
+     * @return the number of sorts whose runs were deleted
+     */
+    public static int deleteAbandonedRuns(@Nullable Path directory, long maxAgeMillis) {
+        return SpillDirectory.deleteAbandoned(directory, DIRECTORY_PREFIX, maxAgeMillis);
+    }
+
+    private static class Entry<T> {
+        @Nonnull
+        private final byte[] key;
+        @Nonnull
+        private final T value;
+
+        Entry(@Nonnull byte[] key, @Nonnull T value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Writes a run as a sequence of length-prefixed keys and values.
+     */
+    private static class RunWriter implements Closeable {
+        @Nonnull
+        private final FileChannel channel;
+        @Nonnull
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        RunWriter(@Nonnull Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void write(@Nonnull byte[] key, @Nonnull byte[] value) throws IOException {
+            writeBytes(key);
+            writeBytes(value);
+        }
+
+        private void writeBytes(@Nonnull byte[] bytes) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush();
+            }
+            buffer.putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                final int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a run written by {@link RunWriter}, keeping the entry at the head of the run.
+     */
+    private static class RunReader implements Closeable {
+        private final int index;
+        @Nonnull
+        private final FileChannel channel;
+        @Nonnull
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final long size;
+        // The offset of the head entry, or of the end of the file once there are no more entries.
+        private long position;
+        // The offset of the first byte that has not been consumed from the buffer.
+        private long readPosition;
+        private byte[] headKey;
+        private byte[] headValue;
+
+        RunReader(int index, @Nonnull Path file, long position) throws IOException {
+            this.index = index;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.size = channel.size();
+            this.position = position;
+            this.readPosition = position;
+            channel.position(position);
+            buffer.limit(0);
+        }
+
+        /**
+         * Move to the next entry. Before the first call, this reads the entry at the starting position.
+         * @return {@code true} if there is a head entry or {@code false} if the run is exhausted
+         * @throws IOException if the file cannot be read
+         */
+        boolean advance() throws IOException {
+            position = readPosition;
+            if (readPosition >= size) {
+                headKey = null;
+                headValue = null;
+                return false;
+            }
+            headKey = readBytes();
+            headValue = readBytes();
+            return true;
+        }
+
+        @Nonnull
+        private byte[] readBytes() throws IOException {
+            final int length = ByteBuffer.wrap(read(Integer.BYTES)).getInt();
+            return read(length);
+        }
+
+        @Nonnull
+        private byte[] read(int length) throws IOException {
+            final byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("unexpected end of sorted run");
+                    }
+                    buffer.flip();
+                }
+                final int count = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, count);
+                offset += count;
+            }
+            readPosition += length;
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                throw new RecordCoreException("unable to close sorted run", ex);
+            }
+        }
+    }
+
+    /**
+     * The state of the cursor as of one result. Any runs it refers to are handed off when it is made, so that
+     * serializing it has no side effects, even once the cursor is closed.
+     */
+    private class Continuation implements RecordCursorContinuation {
+        @Nullable
+        private final byte[] inputContinuation;
+        private final int nextRunIndex;
+        @Nonnull
+        private final int[] runIndexes;
+        @Nullable
+        private final long[] positions;
+        private final long skip;
+        @Nullable
+        private byte[] cachedBytes;
+
+        Continuation(@Nullable byte[] inputContinuation, @Nullable long[] positions, long skip) {
+            this.inputContinuation = inputContinuation;
+            this.runIndexes = FileSortCursor.this.runIndexes.stream().mapToInt(Integer::intValue).toArray();
+            if (runIndexes.length > 0) {
+                spill.handOff();
+            }
+            this.nextRunIndex = spill.getNextIndex();
+            this.positions = positions;
+            this.skip = skip;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            if (cachedBytes == null) {
+                final RecordCursorProto.FileSortContinuation.Builder builder = RecordCursorProto.FileSortContinuation.newBuilder();
+                if (runIndexes.length > 0) {
+                    builder.setSpillId(spill.getId()).setRunCount(nextRunIndex);
+                    for (int index : runIndexes) {
+                        builder.addRunIndexes(index);
+                    }
+                }
+                if (positions != null) {
+                    builder.setLoadComplete(true);
+                    for (long position : positions) {
+                        builder.addPositions(position);
+                    }
+                } else {
+                    if (inputContinuation != null) {
+                        builder.setChildContinuation(ByteString.copyFrom(inputContinuation));
+                    }
+                    if (skip > 0) {
+                        builder.setSkip(skip);
+                    }
+                }
+                cachedBytes = builder.build().toByteArray();
+            }
+            return cachedBytes;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,750 @@
+/*
+ * FingerprintDistinctCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.cursors.IllegalContinuationAccessChecker;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A cursor that removes duplicates from the values of another cursor using a bounded amount of memory.
+ *
+ * <p>
+ * Each value's key is reduced to a 64-bit hash, its fingerprint, and a value is a duplicate if its fingerprint has
+ * been seen before. So distinct keys are very occasionally taken to be the same: the chance of that happening at all
+ * is about {@code n * n / 2^65} for {@code n} distinct keys. Fingerprints are held in memory in an open-addressed hash
+ * table until it would exceed {@code maxBytesInMemory}, after which the table starts again empty. Fingerprints are
+ * also written to local files as sorted runs, with a Bloom filter of each run kept in memory, so that a fingerprint
+ * that is no longer in the table only rarely needs to be looked up in the files.
+ * </p>
+ *
+ * <p>
+ * The continuation holds the fingerprints seen so far, so that no duplicates are returned when the cursor is resumed.
+ * At most {@link #MAX_INLINE_FINGERPRINTS} of them are included directly. Whenever more than that have been seen since
+ * the last run was written, the cursor writes them to a new run before returning its next result, so every
+ * continuation stays small and serializing one never does any I/O. Runs of similar size are merged as they are
+ * written, so that there are only logarithmically many of them to look in.
+ * </p>
+ *
+ * <p>
+ * As with {@link FileSortCursor}, the files are written to a subdirectory that belongs to this cursor, which the
+ * continuation names by a random id rather than by path, and they must still be present, on the same host, when the
+ * cursor is resumed. Files that the continuation of a result refers to are kept even once the cursor is exhausted or
+ * closed, so that the continuation can still be serialized and retried, for instance after a failed commit. Other
+ * files written by this cursor are deleted when it is closed. Kept files must be removed with
+ * {@link #deleteAbandonedRuns} once no continuation that refers to them will be resumed.
+ * </p>
+ *
+ * @param <T> the type of values
+ */
+@API(API.Status.EXPERIMENTAL)
+public class FingerprintDistinctCursor<T> implements RecordCursor<T> {
+    /**
+     * The largest number of fingerprints to include in a continuation instead of writing them to a file.
+     */
+    public static final int MAX_INLINE_FINGERPRINTS = 128;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final double BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final String DIRECTORY_PREFIX = "fdb-record-distinct-";
+    private static final String FILE_SUFFIX = ".fps";
+    // The value used for an empty slot in the hash table. A fingerprint that hashes to it is changed to 1.
+    private static final long EMPTY = 0;
+
+    @Nonnull
+    private final RecordCursor<T> inputCursor;
+    @Nonnull
+    private final Function<T, byte[]> keyFunction;
+    private final long maxBytesInMemory;
+    @Nonnull
+    private final SpillDirectory spill;
+    @Nonnull
+    private final Executor executor;
+    @Nullable
+    private final StoreTimer timer;
+    @Nonnull
+    private final Set<StoreTimer.Count> uniqueCounts;
+    @Nonnull
+    private final Set<StoreTimer.Count> duplicateCounts;
+
+    // Open-addressed hash table of fingerprints, with linear probing, kept no more than half full.
+    @Nonnull
+    private long[] table;
+    private int tableSize;
+    // The fingerprints not yet written to a run, in the order they were added. Entries before logSize are never
+    // changed, so that continuations can share the array.
+    @Nonnull
+    private long[] log;
+    private int logSize;
+    // Replaced rather than changed when a run is added, so that continuations can share the list.
+    @Nonnull
+    private List<Run> runs;
+    // Runs all of whose fingerprints are also in the table, so that they need not be looked in.
+    @Nonnull
+    private final Set<Run> runsInTable = new HashSet<>();
+
+    @Nullable
+    private CompletableFuture<Boolean> hasNextFuture;
+    @Nullable
+    private RecordCursorResult<T> nextResult;
+    // for detecting incorrect cursor usage
+    private boolean mayGetContinuation = false;
+
+    @SuppressWarnings("squid:S00107")
+    private FingerprintDistinctCursor(@Nonnull RecordCursor<T> inputCursor, @Nonnull Function<T, byte[]> keyFunction,
+                                      long maxBytesInMemory, @Nonnull SpillDirectory spill,
+                                      @Nonnull Executor executor, @Nullable StoreTimer timer,
+                                      @Nonnull Set<StoreTimer.Count> uniqueCounts, @Nonnull Set<StoreTimer.Count> duplicateCounts,
+                                      @Nonnull List<Run> runs) {
+        this.inputCursor = inputCursor;
+        this.keyFunction = keyFunction;
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.spill = spill;
+        this.executor = executor;
+        this.timer = timer;
+        this.uniqueCounts = uniqueCounts;
+        this.duplicateCounts = duplicateCounts;
+        this.runs = runs;
+        this.table = new long[INITIAL_CAPACITY * 2];
+        this.log = new long[MAX_INLINE_FINGERPRINTS + 1];
+        countAllocated(table.length + log.length);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<T>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        mayGetContinuation = false;
+        return AsyncUtil.whileTrue(() -> inputCursor.onNext().thenCompose(inputResult -> {
+            if (!inputResult.hasNext()) {
+                if (inputResult.getNoNextReason().isSourceExhausted()) {
+                    // The runs are kept, since earlier continuations that refer to them may still be retried.
+                    closeRuns();
+                    nextResult = RecordCursorResult.exhausted();
+                    return AsyncUtil.READY_FALSE;
+                }
+                return continuation(inputResult.getContinuation()).thenApply(continuation -> {
+                    nextResult = RecordCursorResult.withoutNextValue(continuation, inputResult.getNoNextReason());
+                    return false;
+                });
+            }
+            final T value = inputResult.get();
+            final long fingerprint = fingerprint(keyFunction.apply(value));
+            return isDuplicate(fingerprint).thenCompose(duplicate -> {
+                if (duplicate) {
+                    increment(duplicateCounts);
+                    return AsyncUtil.READY_TRUE;
+                }
+                increment(uniqueCounts);
+                return add(fingerprint)
+                        .thenCompose(vignore -> continuation(inputResult.getContinuation()))
+                        .thenApply(continuation -> {
+                            nextResult = RecordCursorResult.withNextValue(value, continuation);
+                            return false;
+                        });
+            });
+        }), executor).thenApply(vignore -> {
+            mayGetContinuation = !nextResult.hasNext();
+            return nextResult;
+        });
+    }
+
+    static long fingerprint(@Nonnull byte[] key) {
+        final long fingerprint = Hashing.murmur3_128().hashBytes(key).asLong();
+        return fingerprint == EMPTY ? 1 : fingerprint;
+    }
+
+    /**
+     * Get the continuation for the next result, first writing the fingerprints not yet in a run to a new one if there
+     * are too many to include. The runs it refers to are handed off straight away, so that it can still be serialized
+     * after the cursor is closed.
+     */
+    @Nonnull
+    private CompletableFuture<RecordCursorContinuation> continuation(@Nonnull RecordCursorContinuation inputContinuation) {
+        if (logSize > MAX_INLINE_FINGERPRINTS) {
+            return CompletableFuture.supplyAsync(() -> {
+                writeLog();
+                return handOff(inputContinuation);
+            }, executor);
+        }
+        return CompletableFuture.completedFuture(handOff(inputContinuation));
+    }
+
+    @Nonnull
+    private RecordCursorContinuation handOff(@Nonnull RecordCursorContinuation inputContinuation) {
+        spill.handOff();
+        return new Continuation(inputContinuation, spill.getNextIndex());
+    }
+
+    @Nonnull
+    private CompletableFuture<Boolean> isDuplicate(long fingerprint) {
+        if (tableContains(fingerprint)) {
+            return AsyncUtil.READY_TRUE;
+        }
+        final List<Run> candidates = new ArrayList<>();
+        for (Run run : runs) {
+            if (!runsInTable.contains(run) && run.bloomFilter.mightContain(fingerprint)) {
+                candidates.add(run);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return AsyncUtil.READY_FALSE;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            for (Run run : candidates) {
+                if (timer != null) {
+                    timer.increment(FDBStoreTimer.Counts.QUERY_DISTINCT_FILE_LOOKUPS);
+                }
+                if (run.contains(fingerprint)) {
+                    return true;
+                }
+            }
+            return false;
+        }, executor);
+    }
+
+    private boolean tableContains(long fingerprint) {
+        final int mask = table.length - 1;
+        for (int i = slot(fingerprint, mask); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int slot(long fingerprint, int mask) {
+        return (int)(fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    /**
+     * Add a new fingerprint, first starting the table again if growing it would take too much memory.
+     */
+    @Nonnull
+    private CompletableFuture<Void> add(long fingerprint) {
+        if (tableSize > 0 && tableNeedsToGrow() && table.length * 2L * Long.BYTES > maxBytesInMemory) {
+            return CompletableFuture.runAsync(() -> {
+                clearTable();
+                addToMemory(fingerprint);
+            }, executor);
+        }
+        addToMemory(fingerprint);
+        return AsyncUtil.DONE;
+    }
+
+    private boolean tableNeedsToGrow() {
+        return (tableSize + 1) * 2 > table.length;
+    }
+
+    /**
+     * Start the hash table again empty, first writing any fingerprints that are only in memory to a run.
+     */
+    private void clearTable() {
+        if (logSize > 0) {
+            writeLog();
+        }
+        table = new long[INITIAL_CAPACITY * 2];
+        tableSize = 0;
+        runsInTable.clear();
+        countAllocated(table.length);
+    }
+
+    private void addToMemory(long fingerprint) {
+        if (tableNeedsToGrow()) {
+            final long[] oldTable = table;
+            table = new long[oldTable.length * 2];
+            for (long existing : oldTable) {
+                if (existing != EMPTY) {
+                    insert(existing);
+                }
+            }
+            countAllocated(table.length);
+        }
+        insert(fingerprint);
+        tableSize++;
+        if (logSize == log.length) {
+            log = Arrays.copyOf(log, log.length * 2);
+            countAllocated(log.length);
+        }
+        log[logSize++] = fingerprint;
+    }
+
+    private void insert(long fingerprint) {
+        final int mask = table.length - 1;
+        int i = slot(fingerprint, mask);
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = fingerprint;
+    }
+
+    private void countAllocated(int longs) {
+        if (timer != null) {
+            timer.increment(FDBStoreTimer.Counts.QUERY_DISTINCT_MEMORY_BYTES, longs * Long.BYTES);
+        }
+    }
+
+    private void increment(@Nonnull Set<StoreTimer.Count> counts) {
+        if (timer != null) {
+            timer.increment(counts);
+        }
+    }
+
+    /**
+     * Write the fingerprints not yet in a run to a new one, then merge it with earlier runs that are no bigger.
+     */
+    private void writeLog() {
+        final long[] sorted = Arrays.copyOf(log, logSize);
+        Arrays.sort(sorted);
+        final int[] next = {0};
+        final Run run = writeRun(sorted.length, () -> sorted[next[0]++]);
+        runsInTable.add(run);
+        // Continuations may still refer to the old array.
+        log = new long[MAX_INLINE_FINGERPRINTS + 1];
+        logSize = 0;
+        countAllocated(log.length);
+
+        final List<Run> newRuns = new ArrayList<>(runs);
+        newRuns.add(run);
+        while (newRuns.size() > 1 && newRuns.get(newRuns.size() - 2).count <= newRuns.get(newRuns.size() - 1).count) {
+            final Run last = newRuns.remove(newRuns.size() - 1);
+            final Run previous = newRuns.remove(newRuns.size() - 1);
+            newRuns.add(mergeRuns(previous, last));
+        }
+        runs = ImmutableList.copyOf(newRuns);
+    }
+
+    @Nonnull
+    private Run mergeRuns(@Nonnull Run run1, @Nonnull Run run2) {
+        final Run merged;
+        try (DataInputStream in1 = run1.openSequential(); DataInputStream in2 = run2.openSequential()) {
+            final long[] remaining = {run1.count, run2.count};
+            final long[] heads = {remaining[0] > 0 ? in1.readLong() : 0, remaining[1] > 0 ? in2.readLong() : 0};
+            merged = writeRun(run1.count + run2.count, () -> {
+                // The runs never share a fingerprint, since each one is only added once.
+                final int from = remaining[1] == 0 || (remaining[0] > 0 && heads[0] < heads[1]) ? 0 : 1;
+                final long fingerprint = heads[from];
+                if (--remaining[from] > 0) {
+                    heads[from] = (from == 0 ? in1 : in2).readLong();
+                }
+                return fingerprint;
+            });
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to merge distinct fingerprints", ex);
+        }
+        final boolean inTable1 = runsInTable.remove(run1);
+        final boolean inTable2 = runsInTable.remove(run2);
+        if (inTable1 && inTable2) {
+            runsInTable.add(merged);
+        }
+        for (Run run : new Run[] {run1, run2}) {
+            run.close();
+            // Only deleted if no continuation has been handed off that refers to it.
+            spill.deleteFile(run.index);
+        }
+        return merged;
+    }
+
+    /**
+     * Supplies the fingerprints to write to a run, in order.
+     */
+    @FunctionalInterface
+    private interface FingerprintSource {
+        long next() throws IOException;
+    }
+
+    /**
+     * Write the given number of sorted fingerprints to a new file as a run.
+     * The file holds the number of fingerprints, then the fingerprints in order, then the Bloom filter.
+     */
+    @Nonnull
+    private Run writeRun(long count, @Nonnull FingerprintSource fingerprints) {
+        final BloomFilter<Long> bloomFilter = BloomFilter.create(Funnels.longFunnel(), Math.max(count, 1), BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY);
+        final int index;
+        final Path file;
+        try {
+            index = spill.addFile();
+            file = spill.getFile(index);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeLong(count);
+                for (long i = 0; i < count; i++) {
+                    final long fingerprint = fingerprints.next();
+                    out.writeLong(fingerprint);
+                    bloomFilter.put(fingerprint);
+                }
+                bloomFilter.writeTo(out);
+            }
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to write distinct fingerprints", ex);
+        }
+        if (timer != null) {
+            timer.increment(FDBStoreTimer.Counts.QUERY_DISTINCT_SPILLED_RUNS);
+            timer.increment(FDBStoreTimer.Counts.QUERY_DISTINCT_SPILLED_FINGERPRINTS, (int)count);
+        }
+        return new Run(index, file, count, bloomFilter);
+    }
+
+    private void closeRuns() {
+        for (Run run : runs) {
+            run.close();
+        }
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public CompletableFuture<Boolean> onHasNext() {
+        if (hasNextFuture == null) {
+            hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+        }
+        return hasNextFuture;
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNextFuture = null;
+        mayGetContinuation = true;
+        return nextResult.get();
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public byte[] getContinuation() {
+        IllegalContinuationAccessChecker.check(mayGetContinuation);
+        return nextResult.getContinuation().toBytes();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public NoNextReason getNoNextReason() {
+        return nextResult.getNoNextReason();
+    }
+
+    @Override
+    public void close() {
+        inputCursor.close();
+        closeRuns();
+        spill.close();
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this)) {
+            inputCursor.accept(visitor);
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Create a distinct cursor.
+     * @param keyFunction a function giving the key by which values are compared
+     * @param maxBytesInMemory the approximate number of bytes of fingerprints to hold in memory before looking them up in files instead
+     * @param directory the directory in which to create files or {@code null} to use the default temporary-file directory
+     * @param inputFunction a function to produce the input cursor from a continuation
+     * @param continuation any continuation from a previous distinct cursor
+     * @param executor the executor used to access files and compose futures
+     * @param timer the timer used to count unique and duplicate values and the resources used to find them
+     * @param uniqueCounts counts to increment for each value returned
+     * @param duplicateCounts counts to increment for each value discarded as a duplicate
+     * @param <T> the type of values
+     * @return a cursor returning the values of the input cursor whose keys have not been seen before
+     */
+    @SuppressWarnings({"squid:S00107", "PMD.PreserveStackTrace"})
+    @Nonnull
+    public static <T> FingerprintDistinctCursor<T> create(@Nonnull Function<T, byte[]> keyFunction,
+                                                          long maxBytesInMemory,
+                                                          @Nullable Path directory,
+                                                          @Nonnull Function<byte[], RecordCursor<T>> inputFunction,
+                                                          @Nullable byte[] continuation,
+                                                          @Nonnull Executor executor,
+                                                          @Nullable StoreTimer timer,
+                                                          @Nonnull Set<StoreTimer.Count> uniqueCounts,
+                                                          @Nonnull Set<StoreTimer.Count> duplicateCounts) {
+        if (maxBytesInMemory <= 0) {
+            throw new RecordCoreArgumentException("memory limit for distinct must be positive",
+                    LogMessageKeys.LIMIT, maxBytesInMemory);
+        }
+        if (continuation == null) {
+            return new FingerprintDistinctCursor<>(inputFunction.apply(null), keyFunction, maxBytesInMemory,
+                    SpillDirectory.create(directory, DIRECTORY_PREFIX, FILE_SUFFIX),
+                    executor, timer, uniqueCounts, duplicateCounts, ImmutableList.of());
+        }
+        final RecordCursorProto.FingerprintDistinctContinuation parsed;
+        try {
+            parsed = RecordCursorProto.FingerprintDistinctContinuation.parseFrom(continuation);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RecordCoreException("invalid continuation", ex)
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+        }
+        final ByteBuffer fingerprints = parsed.getFingerprints().asReadOnlyByteBuffer();
+        if (fingerprints.remaining() % Long.BYTES != 0) {
+            throw new RecordCoreException("invalid continuation (fingerprints not a whole number of longs)")
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+        }
+        int previousIndex = -1;
+        for (int index : parsed.getRunIndexesList()) {
+            if (index <= previousIndex || index >= parsed.getRunCount()) {
+                throw new RecordCoreException("invalid continuation (run indexes out of order or range)")
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+            previousIndex = index;
+        }
+        final SpillDirectory spill = parsed.getRunCount() > 0
+                                     ? SpillDirectory.open(directory, DIRECTORY_PREFIX, FILE_SUFFIX, parsed.getSpillId(), parsed.getRunCount())
+                                     : SpillDirectory.create(directory, DIRECTORY_PREFIX, FILE_SUFFIX);
+        final ImmutableList.Builder<Run> runs = ImmutableList.builder();
+        for (int index : parsed.getRunIndexesList()) {
+            runs.add(Run.open(index, spill.getFile(index)));
+        }
+        final byte[] inputContinuation = parsed.hasChildContinuation() ? parsed.getChildContinuation().toByteArray() : null;
+        final FingerprintDistinctCursor<T> cursor = new FingerprintDistinctCursor<>(inputFunction.apply(inputContinuation),
+                keyFunction, maxBytesInMemory, spill, executor, timer, uniqueCounts, duplicateCounts, runs.build());
+        while (fingerprints.hasRemaining()) {
+            cursor.addToMemory(fingerprints.getLong());
+        }
+        return cursor;
+    }
+
+    /**
+     * Delete the files of fingerprints left in a directory for continuations, once they will no longer be resumed.
+     * @param directory the directory given to {@link #create}
+     * @param maxAgeMillis how long since files were last written or resumed from before they are taken to be abandoned
+     * @return the number of cursors whose files were deleted
+     */
+    public static int deleteAbandonedRuns(@Nullable Path directory, long maxAgeMillis) {
+        return SpillDirectory.deleteAbandoned(directory, DIRECTORY_PREFIX, maxAgeMillis);
+    }
+
+    /**
+     * A file of sorted fingerprints.
+     */
+    private static class Run implements Closeable {
+        private static final long HEADER_SIZE = Long.BYTES;
+
+        private final int index;
+        @Nonnull
+        private final Path file;
+        private final long count;
+        @Nonnull
+        private final BloomFilter<Long> bloomFilter;
+        @Nullable
+        private FileChannel channel;
+
+        Run(int index, @Nonnull Path file, long count, @Nonnull BloomFilter<Long> bloomFilter) {
+            this.index = index;
+            this.file = file;
+            this.count = count;
+            this.bloomFilter = bloomFilter;
+        }
+
+        @Nonnull
+        static Run open(int index, @Nonnull Path file) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long count = readLong(channel, 0);
+                channel.position(HEADER_SIZE + count * Long.BYTES);
+                final InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+                return new Run(index, file, count, BloomFilter.readFrom(in, Funnels.longFunnel()));
+            } catch (IOException ex) {
+                throw new RecordCoreException("unable to read distinct fingerprints", ex)
+                        .addLogInfo(LogMessageKeys.FILE_NAME, file);
+            }
+        }
+
+        /**
+         * Open the fingerprints for reading in order.
+         * @return a stream positioned at the first fingerprint
+         * @throws IOException if the file cannot be read
+         */
+        @Nonnull
+        DataInputStream openSequential() throws IOException {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            in.readLong();
+            return in;
+        }
+
+        boolean contains(long fingerprint) {
+            try {
+                if (channel == null) {
+                    channel = FileChannel.open(file, StandardOpenOption.READ);
+                }
+                long low = 0;
+                long high = count - 1;
+                while (low <= high) {
+                    final long mid = (low + high) >>> 1;
+                    final long value = readLong(channel, HEADER_SIZE + mid * Long.BYTES);
+                    if (value < fingerprint) {
+                        low = mid + 1;
+                    } else if (value > fingerprint) {
+                        high = mid - 1;
+                    } else {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (IOException ex) {
+                throw new RecordCoreException("unable to read distinct fingerprints", ex)
+                        .addLogInfo(LogMessageKeys.FILE_NAME, file);
+            }
+        }
+
+        private static long readLong(@Nonnull FileChannel channel, long position) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of file");
+                }
+            }
+            buffer.flip();
+            return buffer.getLong();
+        }
+
+        @Override
+        public void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    throw new RecordCoreException("unable to close distinct fingerprints", ex)
+                            .addLogInfo(LogMessageKeys.FILE_NAME, file);
+                }
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * The state of the cursor as of one result, captured when the result is made so that serializing it does no I/O.
+     */
+    private class Continuation implements RecordCursorContinuation {
+        @Nonnull
+        private final RecordCursorContinuation inputContinuation;
+        private final int nextFileIndex;
+        @Nonnull
+        private final List<Run> runs;
+        @Nonnull
+        private final long[] log;
+        private final int logSize;
+        @Nullable
+        private byte[] cachedBytes;
+
+        Continuation(@Nonnull RecordCursorContinuation inputContinuation, int nextFileIndex) {
+            this.inputContinuation = inputContinuation;
+            this.nextFileIndex = nextFileIndex;
+            this.runs = FingerprintDistinctCursor.this.runs;
+            this.log = FingerprintDistinctCursor.this.log;
+            this.logSize = FingerprintDistinctCursor.this.logSize;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            if (isEnd()) {
+                return null;
+            }
+            if (cachedBytes == null) {
+                final RecordCursorProto.FingerprintDistinctContinuation.Builder builder = RecordCursorProto.FingerprintDistinctContinuation.newBuilder();
+                final byte[] inputBytes = inputContinuation.toBytes();
+                if (inputBytes != null) {
+                    builder.setChildContinuation(ByteString.copyFrom(inputBytes));
+                }
+                if (nextFileIndex > 0) {
+                    builder.setSpillId(spill.getId()).setRunCount(nextFileIndex);
+                    for (Run run : runs) {
+                        builder.addRunIndexes(run.index);
+                    }
+                }
+                if (logSize > 0) {
+                    final ByteBuffer fingerprints = ByteBuffer.allocate(logSize * Long.BYTES);
+                    for (int i = 0; i < logSize; i++) {
+                        fingerprints.putLong(log[i]);
+                    }
+                    fingerprints.flip();
+                    builder.setFingerprints(ByteString.copyFrom(fingerprints));
+                }
+                cachedBytes = builder.build().toByteArray();
+            }
+            return cachedBytes;
+        }
+
+        @Override
+        public boolean isEnd() {
+            // Once the input has nothing more, neither does this.
+            return inputContinuation.isEnd();
+        }
+    }
+}
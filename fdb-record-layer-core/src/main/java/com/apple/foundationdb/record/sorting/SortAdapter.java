@@ -0,0 +1,63 @@
+/*
+ * SortAdapter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Provide the sort key and serialized form of the values being sorted by a cursor in this package.
+ * @param <T> the type of values being sorted
+ */
+@API(API.Status.EXPERIMENTAL)
+public interface SortAdapter<T> {
+    /**
+     * Get the sort key for a value. Values are sorted by comparing their keys as unsigned bytes, as with packed
+     * {@link com.apple.foundationdb.tuple.Tuple}s.
+     * @param value the value
+     * @return the key bytes for the value
+     */
+    @Nonnull
+    byte[] getKey(@Nonnull T value);
+
+    /**
+     * Get whether values are returned in descending order of their keys.
+     * @return {@code true} if sorted in descending order
+     */
+    boolean isReverse();
+
+    /**
+     * Convert a value to bytes so that it can be written to a file or a continuation.
+     * @param value the value
+     * @return the value's serialized form
+     */
+    @Nonnull
+    byte[] serializeValue(@Nonnull T value);
+
+    /**
+     * Convert bytes written by {@link #serializeValue} back into a value.
+     * @param bytes the serialized form
+     * @return the value
+     */
+    @Nonnull
+    T deserializeValue(@Nonnull byte[] bytes);
+}
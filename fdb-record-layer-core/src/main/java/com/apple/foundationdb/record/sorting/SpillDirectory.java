@@ -0,0 +1,277 @@
+/*
+ * SpillDirectory.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * A directory of numbered files written by one cursor, such as the sorted runs of a {@link FileSortCursor}.
+ *
+ * <p>
+ * Each cursor that needs files creates its own subdirectory of the configured directory, named by a random id.
+ * A continuation records only that id and the numbers of the files it needs, and a resumed cursor can only open files
+ * in a subdirectory with that name, so no path from continuation bytes is ever opened. A resumed cursor writes its
+ * own files in the same subdirectory, skipping numbers already taken, since the same continuation may be resumed more
+ * than once.
+ * </p>
+ *
+ * <p>
+ * A cursor hands off its files when it makes a result whose continuation may refer to them, so that the
+ * continuation can be serialized, and retried, however long afterwards. Files written by this cursor that were never
+ * handed off are deleted when it is closed. Files that were handed off, and files that came from a continuation, are
+ * left for whoever holds a continuation, even once the cursor is exhausted, since an earlier continuation may yet be
+ * retried after a failed commit. Subdirectories that have not been written or resumed from for a while are removed
+ * with {@link #deleteAbandoned}.
+ * </p>
+ */
+class SpillDirectory {
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{32}");
+
+    @Nonnull
+    private final String id;
+    @Nonnull
+    private final Path path;
+    @Nonnull
+    private final String suffix;
+    // Whether the subdirectory was named by a continuation, in which case others may be using it.
+    private final boolean inherited;
+    // The number to try for the next file.
+    private int nextIndex;
+    // The numbers of the files written by this cursor, in order.
+    @Nonnull
+    private final List<Integer> written = new ArrayList<>();
+    // Written files before this may be referenced by a continuation.
+    private int handedOffCount;
+    private boolean closed;
+
+    private SpillDirectory(@Nonnull String id, @Nonnull Path path, @Nonnull String suffix, boolean inherited, int nextIndex) {
+        this.id = id;
+        this.path = path;
+        this.suffix = suffix;
+        this.inherited = inherited;
+        this.nextIndex = nextIndex;
+    }
+
+    /**
+     * Get a new spill directory. Nothing is created on disk until the first file is added.
+     * @param parent the directory in which to create the spill directory or {@code null} to use the default temporary-file directory
+     * @param prefix the prefix of the spill directory's name
+     * @param suffix the suffix of the names of its files
+     * @return a new spill directory
+     */
+    @Nonnull
+    static SpillDirectory create(@Nullable Path parent, @Nonnull String prefix, @Nonnull String suffix) {
+        final String id = UUID.randomUUID().toString().replace("-", "");
+        return new SpillDirectory(id, resolve(parent, prefix, id), suffix, false, 0);
+    }
+
+    /**
+     * Get a spill directory written by an earlier cursor.
+     * @param parent the directory in which the spill directory was created
+     * @param prefix the prefix of the spill directory's name
+     * @param suffix the suffix of the names of its files
+     * @param id the id of the spill directory, from a continuation
+     * @param nextIndex the number of files written to it when the continuation was made, from the continuation
+     * @return the existing spill directory
+     * @throws RecordCoreException if the id is malformed or there is no such directory on this host
+     * @throws RecordCoreException if the directory cannot be marked as in use
+     */
+    @Nonnull
+    static SpillDirectory open(@Nullable Path parent, @Nonnull String prefix, @Nonnull String suffix,
+                               @Nonnull String id, int nextIndex) {
+        if (!ID_PATTERN.matcher(id).matches() || nextIndex < 0) {
+            throw new RecordCoreException("invalid continuation (malformed spill directory)")
+                    .addLogInfo(LogMessageKeys.DIR_NAME, id);
+        }
+        final Path path = resolve(parent, prefix, id);
+        if (!Files.isDirectory(path)) {
+            throw new RecordCoreException("spilled files no longer exist; a continuation can only be resumed on the host that wrote it, before it is abandoned")
+                    .addLogInfo(LogMessageKeys.DIR_NAME, path);
+        }
+        // So that it is not taken to be abandoned while it is still being resumed from.
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to mark spilled files as in use", ex)
+                    .addLogInfo(LogMessageKeys.DIR_NAME, path);
+        }
+        return new SpillDirectory(id, path, suffix, true, nextIndex);
+    }
+
+    @Nonnull
+    private static Path resolve(@Nullable Path parent, @Nonnull String prefix, @Nonnull String id) {
+        final Path directory = parent == null ? Paths.get(System.getProperty("java.io.tmpdir")) : parent;
+        return directory.resolve(prefix + id);
+    }
+
+    @Nonnull
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Get the number to record in a continuation, above which a resumed cursor starts numbering its own files.
+     * @return one more than the highest number of any file written so far
+     */
+    synchronized int getNextIndex() {
+        return nextIndex;
+    }
+
+    @Nonnull
+    Path getFile(int index) {
+        return path.resolve(index + suffix);
+    }
+
+    /**
+     * Create a new empty file, numbered after any already in this directory.
+     * @return the number of the new file
+     * @throws IOException if the file cannot be created
+     */
+    synchronized int addFile() throws IOException {
+        if (closed) {
+            throw new RecordCoreException("spill directory already closed")
+                    .addLogInfo(LogMessageKeys.DIR_NAME, path);
+        }
+        Files.createDirectories(path);
+        while (true) {
+            final int index = nextIndex++;
+            try {
+                Files.createFile(getFile(index));
+            } catch (FileAlreadyExistsException ex) {
+                // Written by another cursor resumed from the same continuation.
+                continue;
+            }
+            written.add(index);
+            return index;
+        }
+    }
+
+    /**
+     * Note that a continuation that may refer to any of the files written so far has been made, so that closing the
+     * cursor keeps them. This is done when the result holding the continuation is made, not when it is serialized.
+     * @throws RecordCoreException if the cursor has already deleted some of them
+     */
+    synchronized void handOff() {
+        if (handedOffCount == written.size()) {
+            return;
+        }
+        if (closed) {
+            throw new RecordCoreException("spilled files handed off after the cursor was closed")
+                    .addLogInfo(LogMessageKeys.DIR_NAME, path);
+        }
+        handedOffCount = written.size();
+    }
+
+    /**
+     * Delete a file that is no longer needed by this cursor, if it wrote it and no continuation may refer to it.
+     * @param index the number of the file
+     */
+    synchronized void deleteFile(int index) {
+        final int position = written.indexOf(index);
+        if (position < handedOffCount) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(getFile(index));
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to delete spilled file", ex)
+                    .addLogInfo(LogMessageKeys.FILE_NAME, getFile(index));
+        }
+        written.remove(position);
+    }
+
+    /**
+     * Delete the files written by this cursor that no continuation refers to.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            while (written.size() > handedOffCount) {
+                Files.deleteIfExists(getFile(written.remove(written.size() - 1)));
+            }
+            if (!inherited && handedOffCount == 0) {
+                // No continuation has the id, so nothing else can be using the directory.
+                Files.deleteIfExists(path);
+            }
+        } catch (DirectoryNotEmptyException ex) {
+            // Something else has been put there; leave it.
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to delete spilled files", ex)
+                    .addLogInfo(LogMessageKeys.DIR_NAME, path);
+        }
+    }
+
+    /**
+     * Delete spill directories that have not been modified for a while, left by continuations that were never resumed.
+     * @param parent the directory in which spill directories were created or {@code null} for the default temporary-file directory
+     * @param prefix the prefix of the spill directories' names
+     * @param maxAgeMillis how long since a spill directory was last modified before it is deleted
+     * @return the number of spill directories deleted
+     */
+    static int deleteAbandoned(@Nullable Path parent, @Nonnull String prefix, long maxAgeMillis) {
+        final Path directory = parent == null ? Paths.get(System.getProperty("java.io.tmpdir")) : parent;
+        final FileTime cutoff = FileTime.fromMillis(System.currentTimeMillis() - maxAgeMillis);
+        int count = 0;
+        try (DirectoryStream<Path> spills = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path spill : spills) {
+                if (!ID_PATTERN.matcher(spill.getFileName().toString().substring(prefix.length())).matches() ||
+                        !Files.isDirectory(spill) || Files.getLastModifiedTime(spill).compareTo(cutoff) > 0) {
+                    continue;
+                }
+                try {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(spill)) {
+                        for (Path file : files) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                    Files.deleteIfExists(spill);
+                    count++;
+                } catch (NoSuchFileException ex) {
+                    // Another process removed it first.
+                }
+            }
+        } catch (IOException ex) {
+            throw new RecordCoreException("unable to delete abandoned spilled files", ex)
+                    .addLogInfo(LogMessageKeys.DIR_NAME, directory);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * TopKCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.cursors.IllegalContinuationAccessChecker;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A cursor that returns the first values of another cursor sorted by a key, up to a fixed number of them.
+ *
+ * <p>
+ * The whole of the input is read before any values are returned, but only the best {@code limit} values seen so far
+ * are kept, in a bounded heap whose root is the value that would be evicted next. So memory use is proportional to
+ * the limit rather than to the size of the input. The sort is stable: values with equal keys are returned in the
+ * order they were read, and a later value never displaces an earlier one with the same key.
+ * </p>
+ *
+ * <p>
+ * Since the limit is expected to be small, the continuation holds the serialized values kept so far. If the input
+ * stops early because of a limit, it also records where to resume reading. Once the input is exhausted, it holds
+ * the values that remain to be returned, so resuming never reads the input again.
+ * </p>
+ *
+ * @param <T> the type of values being sorted
+ */
+@API(API.Status.EXPERIMENTAL)
+public class TopKCursor<T> implements RecordCursor<T> {
+    @Nonnull
+    private final SortAdapter<T> adapter;
+    private final int limit;
+    @Nonnull
+    private final Executor executor;
+    // Orders entries as they are to be returned.
+    @Nonnull
+    private final Comparator<Entry<T>> entryComparator;
+
+    // The input, until it has been exhausted.
+    @Nullable
+    private RecordCursor<T> inputCursor;
+    // The best values so far, worst first, while reading the input.
+    @Nonnull
+    private final PriorityQueue<Entry<T>> heap;
+    private long nextSequence;
+    // Set once the input is exhausted.
+    @Nullable
+    private List<Entry<T>> sorted;
+    private int position;
+
+    @Nullable
+    private CompletableFuture<Boolean> hasNextFuture;
+    @Nullable
+    private RecordCursorResult<T> nextResult;
+    // for detecting incorrect cursor usage
+    private boolean mayGetContinuation = false;
+
+    private TopKCursor(@Nonnull SortAdapter<T> adapter, int limit, @Nonnull Executor executor,
+                       @Nullable RecordCursor<T> inputCursor, @Nonnull List<T> values) {
+        this.adapter = adapter;
+        this.limit = limit;
+        this.executor = executor;
+        this.inputCursor = inputCursor;
+        final Comparator<byte[]> ascending = ByteArrayUtil::compareUnsigned;
+        final Comparator<byte[]> keyComparator = adapter.isReverse() ? ascending.reversed() : ascending;
+        this.entryComparator = Comparator.<Entry<T>, byte[]>comparing(e -> e.key, keyComparator)
+                .thenComparingLong(e -> e.sequence);
+        this.heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, entryComparator.reversed());
+        // Values from a continuation are already in order and were all read before any that come after.
+        final List<Entry<T>> entries = new ArrayList<>(values.size());
+        for (T value : values) {
+            entries.add(new Entry<>(adapter.getKey(value), value, nextSequence++));
+        }
+        if (inputCursor == null) {
+            sorted = entries;
+        } else {
+            heap.addAll(entries);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<T>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        mayGetContinuation = false;
+        final CompletableFuture<Boolean> loaded = inputCursor == null ? AsyncUtil.READY_TRUE : loadInput();
+        return loaded.thenApply(complete -> {
+            if (complete) {
+                nextResult = nextSorted();
+            }
+            mayGetContinuation = !nextResult.hasNext();
+            return nextResult;
+        });
+    }
+
+    /**
+     * Read the whole input, keeping only the best values.
+     * @return a future that completes to {@code true} if the input was exhausted or {@code false} if it stopped early,
+     * in which case {@link #nextResult} is set to the result that stops this cursor
+     */
+    @Nonnull
+    private CompletableFuture<Boolean> loadInput() {
+        return AsyncUtil.whileTrue(() -> inputCursor.onNext().thenApply(inputResult -> {
+            if (inputResult.hasNext()) {
+                final T value = inputResult.get();
+                final Entry<T> entry = new Entry<>(adapter.getKey(value), value, nextSequence++);
+                if (heap.size() < limit) {
+                    heap.add(entry);
+                } else if (entryComparator.compare(entry, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(entry);
+                }
+                return true;
+            }
+            inputCursor.close();
+            inputCursor = null;
+            final List<Entry<T>> entries = new ArrayList<>(heap);
+            heap.clear();
+            entries.sort(entryComparator);
+            if (inputResult.getNoNextReason().isSourceExhausted()) {
+                sorted = entries;
+            } else {
+                nextResult = RecordCursorResult.withoutNextValue(
+                        new Continuation<>(adapter, false, inputResult.getContinuation().toBytes(), entries),
+                        inputResult.getNoNextReason());
+            }
+            return false;
+        }), executor).thenApply(vignore -> sorted != null);
+    }
+
+    @Nonnull
+    private RecordCursorResult<T> nextSorted() {
+        if (position < sorted.size()) {
+            final T value = sorted.get(position).value;
+            position++;
+            return RecordCursorResult.withNextValue(value,
+                    new Continuation<>(adapter, true, null, sorted.subList(position, sorted.size())));
+        }
+        return RecordCursorResult.exhausted();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public CompletableFuture<Boolean> onHasNext() {
+        if (hasNextFuture == null) {
+            hasNextFuture = onNext().thenApply(RecordCursorResult::hasNext);
+        }
+        return hasNextFuture;
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNextFuture = null;
+        mayGetContinuation = true;
+        return nextResult.get();
+    }
+
+    @Nullable
+    @Override
+    @Deprecated
+    public byte[] getContinuation() {
+        IllegalContinuationAccessChecker.check(mayGetContinuation);
+        return nextResult.getContinuation().toBytes();
+    }
+
+    @Nonnull
+    @Override
+    @Deprecated
+    public NoNextReason getNoNextReason() {
+        return nextResult.getNoNextReason();
+    }
+
+    @Override
+    public void close() {
+        if (inputCursor != null) {
+            inputCursor.close();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this) && inputCursor != null) {
+            inputCursor.accept(visitor);
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Create a top-K cursor.
+     * @param adapter the adapter giving the sort key and serialization of values
+     * @param limit the maximum number of values to return
+     * @param inputFunction a function to produce the input cursor from a continuation
+     * @param continuation any continuation from a previous top-K cursor
+     * @param executor the executor used to compose futures
+     * @param <T> the type of values being sorted
+     * @return a cursor returning the first {@code limit} values of the input cursor in sorted order
+     */
+    @SuppressWarnings("PMD.PreserveStackTrace")
+    @Nonnull
+    public static <T> TopKCursor<T> create(@Nonnull SortAdapter<T> adapter,
+                                           int limit,
+                                           @Nonnull Function<byte[], RecordCursor<T>> inputFunction,
+                                           @Nullable byte[] continuation,
+                                           @Nonnull Executor executor) {
+        if (limit <= 0) {
+            throw new RecordCoreArgumentException("top-k limit must be positive",
+                    LogMessageKeys.LIMIT, limit);
+        }
+        if (continuation == null) {
+            return new TopKCursor<>(adapter, limit, executor, inputFunction.apply(null), new ArrayList<>());
+        }
+        final RecordCursorProto.TopKContinuation parsed;
+        try {
+            parsed = RecordCursorProto.TopKContinuation.parseFrom(continuation);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RecordCoreException("invalid continuation", ex)
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+        }
+        if (parsed.getValuesCount() > limit) {
+            throw new RecordCoreException("invalid continuation (more values than limit)")
+                    .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation))
+                    .addLogInfo(LogMessageKeys.LIMIT, limit);
+        }
+        final List<T> values = new ArrayList<>(parsed.getValuesCount());
+        for (ByteString value : parsed.getValuesList()) {
+            values.add(adapter.deserializeValue(value.toByteArray()));
+        }
+        final RecordCursor<T> inputCursor;
+        if (parsed.getLoadComplete()) {
+            inputCursor = null;
+        } else {
+            inputCursor = inputFunction.apply(parsed.hasChildContinuation() ? parsed.getChildContinuation().toByteArray() : null);
+        }
+        return new TopKCursor<>(adapter, limit, executor, inputCursor, values);
+    }
+
+    private static class Entry<T> {
+        @Nonnull
+        private final byte[] key;
+        @Nonnull
+        private final T value;
+        // Order in which values were read, to keep the sort stable.
+        private final long sequence;
+
+        Entry(@Nonnull byte[] key, @Nonnull T value, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Continuation<T> implements RecordCursorContinuation {
+        @Nonnull
+        private final SortAdapter<T> adapter;
+        private final boolean loadComplete;
+        @Nullable
+        private final byte[] inputContinuation;
+        @Nonnull
+        private final List<Entry<T>> entries;
+        @Nullable
+        private byte[] cachedBytes;
+
+        Continuation(@Nonnull SortAdapter<T> adapter, boolean loadComplete, @Nullable byte[] inputContinuation,
+                     @Nonnull List<Entry<T>> entries) {
+            this.adapter = adapter;
+            this.loadComplete = loadComplete;
+            this.inputContinuation = inputContinuation;
+            this.entries = entries;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            if (cachedBytes == null) {
+                final RecordCursorProto.TopKContinuation.Builder builder = RecordCursorProto.TopKContinuation.newBuilder();
+                if (loadComplete) {
+                    builder.setLoadComplete(true);
+                } else if (inputContinuation != null) {
+                    builder.setChildContinuation(ByteString.copyFrom(inputContinuation));
+                }
+                for (Entry<T> entry : entries) {
+                    builder.addValues(ByteString.copyFrom(adapter.serializeValue(entry.value)));
+                }
+                cachedBytes = builder.build().toByteArray();
+            }
+            return cachedBytes;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+}
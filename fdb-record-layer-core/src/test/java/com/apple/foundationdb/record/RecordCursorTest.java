@@ -26,6 +26,7 @@ import com.apple.foundationdb.record.cursors.FilterCursor;
 import com.apple.foundationdb.record.cursors.FirableCursor;
 import com.apple.foundationdb.record.cursors.LazyCursor;
 import com.apple.foundationdb.record.cursors.MapCursor;
+import com.apple.foundationdb.record.cursors.PipelineSizeAdjuster;
 import com.apple.foundationdb.record.cursors.RowLimitedCursor;
 import com.apple.foundationdb.record.cursors.SkipCursor;
 import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
@@ -38,6 +39,7 @@ import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -72,6 +74,7 @@ import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.oneOf;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -794,6 +797,95 @@ public class RecordCursorTest {
         assertEquals(2, (int)RecordCursor.fromList(Arrays.asList(0, 1, 2), lastContinuation.toBytes()).onNext().get().get());
     }
 
+    /**
+     * An adjuster whose size is set by the test and which remembers what it was told.
+     */
+    static class RecordingAdjuster implements PipelineSizeAdjuster {
+        int pipelineSize;
+        final List<Object> values = new ArrayList<>();
+        final List<Boolean> outOfOrder = new ArrayList<>();
+        int releaseCount;
+
+        RecordingAdjuster(int pipelineSize) {
+            this.pipelineSize = pipelineSize;
+        }
+
+        @Override
+        public synchronized int getPipelineSize() {
+            return pipelineSize;
+        }
+
+        @Override
+        public synchronized void entryCompleted(@Nullable Object value, long latencyNanos, long waitNanos, boolean completedOutOfOrder) {
+            assertThat(waitNanos, greaterThanOrEqualTo(0L));
+            assertThat(latencyNanos, greaterThanOrEqualTo(waitNanos));
+            values.add(value);
+            outOfOrder.add(completedOutOfOrder);
+        }
+
+        @Override
+        public synchronized void release() {
+            releaseCount++;
+        }
+    }
+
+    @Test
+    public void mapPipelinedWithAdjuster() throws ExecutionException, InterruptedException {
+        final List<CompletableFuture<Integer>> futures = IntStream.range(0, 10).mapToObj(i -> new CompletableFuture<Integer>()).collect(Collectors.toList());
+        final List<Integer> started = new ArrayList<>();
+        final RecordingAdjuster adjuster = new RecordingAdjuster(2);
+        RecordCursor<Integer> cursor = RecordCursor.fromList(IntStream.range(0, 10).boxed().collect(Collectors.toList()))
+                .mapPipelined(i -> {
+                    started.add(i);
+                    return futures.get(i);
+                }, adjuster);
+
+        CompletableFuture<RecordCursorResult<Integer>> resultFuture = cursor.onNext();
+        assertFalse(resultFuture.isDone());
+        assertEquals(Arrays.asList(0, 1), started);
+        futures.get(1).complete(1);
+        futures.get(0).complete(0);
+        assertEquals(0, (int)resultFuture.get().get());
+        assertEquals(Collections.singletonList(0), adjuster.values);
+        assertEquals(Collections.singletonList(true), adjuster.outOfOrder);
+
+        // With the head of the pipeline ready, only one more entry is started.
+        adjuster.pipelineSize = 5;
+        assertEquals(1, (int)cursor.onNext().get().get());
+        assertEquals(Arrays.asList(0, 1, 2), started);
+        assertEquals(Arrays.asList(true, false), adjuster.outOfOrder);
+
+        // Otherwise, the pipeline fills to its new size.
+        resultFuture = cursor.onNext();
+        assertFalse(resultFuture.isDone());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), started);
+
+        for (int i = 2; i < futures.size(); i++) {
+            futures.get(i).complete(i);
+        }
+        assertEquals(2, (int)resultFuture.get().get());
+        assertEquals(IntStream.range(3, 10).boxed().collect(Collectors.toList()), cursor.asList().get());
+        assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), adjuster.values);
+        assertThat(adjuster.releaseCount, greaterThan(0));
+    }
+
+    @Test
+    public void flatMapPipelinedWithAdjuster() throws ExecutionException, InterruptedException {
+        final RecordingAdjuster adjuster = new RecordingAdjuster(2);
+        RecordCursor<Integer> cursor = RecordCursor.flatMapPipelined(
+                cont -> RecordCursor.fromList(Arrays.asList(0, 1, 2, 3, 4), cont),
+                (i, cont) -> RecordCursor.fromList(Arrays.asList(i * 10, i * 10 + 1), cont).mapPipelined(n -> delayedFuture(n, 1), 1),
+                null, null, adjuster);
+        assertEquals(Arrays.asList(0, 1, 10, 11, 20, 21, 30, 31, 40, 41), cursor.asList().get());
+        // Each entry is reported by the first result of its inner cursor.
+        assertEquals(Arrays.asList(0, 10, 20, 30, 40), adjuster.values);
+        assertThat(adjuster.releaseCount, greaterThan(0));
+
+        adjuster.releaseCount = 0;
+        cursor.close();
+        assertThat(adjuster.releaseCount, greaterThan(0));
+    }
+
     @Test
     public void lazyCursorTest() {
         RecordCursorIterator<Integer> cursor = new LazyCursor<>(
@@ -1165,6 +1257,81 @@ public class RecordCursorTest {
         }
     }
 
+    @Test
+    public void batchAdapterTest() {
+        final List<Integer> list = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+        RecordCursor<Integer> cursor = new AsyncCountdown(10);
+        RecordCursorBatch<Integer> batch = cursor.onNextBatch(4).join();
+        assertEquals(Arrays.asList(10, 9, 8, 7), batch.getValues());
+        assertFalse(batch.hasStopped());
+        assertEquals(6, ByteBuffer.wrap(batch.getContinuation().toBytes()).getInt());
+        batch = cursor.onNextBatch(100).join();
+        assertEquals(Arrays.asList(6, 5, 4, 3, 2, 1), batch.getValues());
+        assertTrue(batch.hasStopped());
+        assertEquals(RecordCursor.NoNextReason.SOURCE_EXHAUSTED, batch.getNoNextReason());
+        assertTrue(batch.getContinuation().isEnd());
+
+        final RecordCursor<Integer> listCursor = RecordCursor.fromList(list);
+        batch = listCursor.onNextBatch(3).join();
+        assertEquals(Arrays.asList(0, 1, 2), batch.getValues());
+        assertEquals(3, listCursor.getNext().get());
+        batch = listCursor.onNextBatch(3).join();
+        assertEquals(Arrays.asList(4, 5, 6), batch.getValues());
+        assertThrows(RecordCoreArgumentException.class, () -> listCursor.onNextBatch(0));
+    }
+
+    @ParameterizedTest(name = "batchedCursorsTest [batchSize = {0}]")
+    @ValueSource(ints = {1, 2, 3, 5, 7, 100})
+    public void batchedCursorsTest(int batchSize) {
+        final List<Integer> list = IntStream.range(0, 50).boxed().collect(Collectors.toList());
+        // Cursors that count from the start (skip and limits) cannot simply be resumed with the same parameters.
+        final List<Pair<Function<byte[], RecordCursor<Integer>>, Boolean>> cursorFunctions = Arrays.asList(
+                Pair.of(continuation -> RecordCursor.fromList(list, continuation).map(i -> i * 2), true),
+                Pair.of(continuation -> RecordCursor.fromList(list, continuation).filter(i -> i % 3 == 0), true),
+                Pair.of(continuation -> RecordCursor.fromList(list, continuation).filter(i -> i > 40), true),
+                Pair.of(continuation -> RecordCursor.fromList(list, continuation).filter(i -> i > 100), true),
+                Pair.of(continuation -> RecordCursor.fromList(list, continuation).skip(7), false),
+                Pair.of(continuation -> RecordCursor.fromList(list, continuation).limitRowsTo(13), false),
+                Pair.of(continuation -> RecordCursor.fromList(list, continuation).filter(i -> i % 2 == 1).map(i -> i + 1).skipThenLimit(3, 11), false),
+                Pair.of(continuation -> new FakeOutOfBandCursor<>(RecordCursor.fromList(list, continuation), 6), false)
+        );
+        for (Pair<Function<byte[], RecordCursor<Integer>>, Boolean> cursorFunction : cursorFunctions) {
+            final List<Integer> expectedValues = new ArrayList<>();
+            final RecordCursorResult<Integer> expectedResult;
+            try (RecordCursor<Integer> cursor = cursorFunction.getLeft().apply(null)) {
+                expectedResult = cursor.forEachResult(result -> expectedValues.add(result.get())).join();
+            }
+
+            final List<Integer> values = new ArrayList<>();
+            RecordCursorBatch<Integer> batch;
+            try (RecordCursor<Integer> cursor = cursorFunction.getLeft().apply(null)) {
+                do {
+                    batch = cursor.onNextBatch(batchSize).join();
+                    assertThat(batch.size(), Matchers.lessThanOrEqualTo(batchSize));
+                    values.addAll(batch.getValues());
+                    if (!batch.hasStopped()) {
+                        assertFalse(batch.isEmpty());
+                        assertEquals(values.get(values.size() - 1), batch.getLastResult().get());
+                        if (cursorFunction.getRight()) {
+                            // Resuming from the batch's continuation produces exactly the rest of the values.
+                            final List<Integer> resumed = new ArrayList<>(values);
+                            try (RecordCursor<Integer> continuedCursor = cursorFunction.getLeft().apply(batch.getContinuation().toBytes())) {
+                                continuedCursor.forEachBatch(batchSize, rest -> resumed.addAll(rest.getValues())).join();
+                            }
+                            assertEquals(expectedValues, resumed);
+                        }
+                    }
+                } while (!batch.hasStopped());
+                // Once stopped, stays stopped.
+                assertEquals(expectedResult.getNoNextReason(), cursor.getNext().getNoNextReason());
+                assertTrue(cursor.onNextBatch(batchSize).join().isEmpty());
+            }
+            assertEquals(expectedValues, values);
+            assertEquals(expectedResult.getNoNextReason(), batch.getNoNextReason());
+            assertArrayEquals(expectedResult.getContinuation().toBytes(), batch.getContinuation().toBytes());
+        }
+    }
+
     @Test
     public void hasNextErrorStack() throws Exception {
         final Iterator<String> erring = new BrokenCursor();
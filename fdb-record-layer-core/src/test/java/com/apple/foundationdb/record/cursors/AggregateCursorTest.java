@@ -0,0 +1,261 @@
+/*
+ * AggregateCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.sorting.FileSortCursor;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link StreamingAggregateCursor} and {@link HashAggregateCursor}.
+ */
+public class AggregateCursorTest {
+    private static final Executor EXECUTOR = ForkJoinPool.commonPool();
+    private static final List<AggregateOperation> OPERATIONS = Arrays.asList(
+            AggregateOperation.SUM, AggregateOperation.MIN, AggregateOperation.MAX, AggregateOperation.AVG,
+            AggregateOperation.COUNT_NOT_NULL, AggregateOperation.COUNT);
+    private static final Function<Tuple, Tuple> GROUP_FUNCTION = row -> Tuple.from(row.get(0));
+    private static final BiConsumer<AggregateAccumulator, Tuple> ACCUMULATE_FUNCTION = (accumulator, row) -> {
+        final List<Object> values = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS.size() - 1; i++) {
+            values.add(row.get(1));
+        }
+        accumulator.accumulate(values);
+    };
+
+    private Path directory;
+    private FDBStoreTimer timer;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("aggregate-test");
+        timer = new FDBStoreTimer();
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Rows of a group number and a value, which is sometimes {@code null}.
+     */
+    @Nonnull
+    private static List<Tuple> input() {
+        final Random random = new Random(2020);
+        final List<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(Tuple.from(random.nextInt(100), random.nextInt(10) == 0 ? null : (long)random.nextInt(1000)));
+        }
+        return rows;
+    }
+
+    @Nonnull
+    private static List<Tuple> expected(@Nonnull List<Tuple> input, boolean reverse) {
+        final Map<Long, List<Long>> groups = new TreeMap<>(reverse ? Comparator.<Long>reverseOrder() : Comparator.<Long>naturalOrder());
+        for (Tuple row : input) {
+            groups.computeIfAbsent(row.getLong(0), k -> new ArrayList<>()).add(row.get(1) == null ? null : row.getLong(1));
+        }
+        final List<Tuple> results = new ArrayList<>();
+        for (Map.Entry<Long, List<Long>> entry : groups.entrySet()) {
+            final List<Long> values = entry.getValue().stream().filter(v -> v != null).collect(Collectors.toList());
+            final Long sum = values.isEmpty() ? null : values.stream().mapToLong(Long::longValue).sum();
+            results.add(Tuple.from(entry.getKey(),
+                    sum,
+                    values.isEmpty() ? null : Collections.min(values),
+                    values.isEmpty() ? null : Collections.max(values),
+                    values.isEmpty() ? null : (double)sum / values.size(),
+                    (long)values.size(),
+                    (long)entry.getValue().size()));
+        }
+        return results;
+    }
+
+    @Nonnull
+    private static List<Tuple> collect(@Nonnull Function<byte[], RecordCursor<Tuple>> cursorFunction, int outputLimit) {
+        final List<Tuple> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            final RecordCursor<Tuple> cursor = cursorFunction.apply(continuation).limitRowsTo(outputLimit);
+            RecordCursorResult<Tuple> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                results.add(result.get());
+            }
+            continuation = result.getContinuation().toBytes();
+            cursor.close();
+        } while (continuation != null);
+        return results;
+    }
+
+    static Stream<Arguments> streamingParameters() {
+        return Stream.of(false, true).flatMap(reverse ->
+                Stream.of(Integer.MAX_VALUE, 37).flatMap(inputLimit ->
+                        Stream.of(Integer.MAX_VALUE, 1, 7).map(outputLimit -> Arguments.of(reverse, inputLimit, outputLimit))));
+    }
+
+    @ParameterizedTest(name = "streaming [reverse = {0}, inputLimit = {1}, outputLimit = {2}]")
+    @MethodSource("streamingParameters")
+    public void streaming(boolean reverse, int inputLimit, int outputLimit) {
+        final List<Tuple> input = input();
+        final List<Tuple> sorted = new ArrayList<>(input);
+        sorted.sort(Comparator.comparing(GROUP_FUNCTION));
+        if (reverse) {
+            Collections.reverse(sorted);
+        }
+        final List<Tuple> results = collect(continuation -> StreamingAggregateCursor.create(GROUP_FUNCTION, ACCUMULATE_FUNCTION,
+                OPERATIONS, reverse,
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, sorted, inputContinuation).limitRowsTo(inputLimit),
+                continuation, EXECUTOR, timer), outputLimit);
+        final List<Tuple> expected = expected(input, reverse);
+        assertEquals(expected, results);
+        assertEquals(expected.size(), timer.getCount(FDBStoreTimer.Counts.QUERY_AGGREGATE_GROUPS));
+    }
+
+    @Test
+    public void streamingUnordered() {
+        final List<Tuple> input = input();
+        assertThrows(RecordCoreException.class, () -> collect(continuation -> StreamingAggregateCursor.create(GROUP_FUNCTION, ACCUMULATE_FUNCTION,
+                OPERATIONS, false,
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation),
+                continuation, EXECUTOR, timer), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void streamingEmpty() {
+        final List<Tuple> results = collect(continuation -> StreamingAggregateCursor.create(GROUP_FUNCTION, ACCUMULATE_FUNCTION,
+                OPERATIONS, false, inputContinuation -> RecordCursor.empty(), continuation, EXECUTOR, timer), Integer.MAX_VALUE);
+        assertEquals(Collections.emptyList(), results);
+    }
+
+    static Stream<Arguments> hashParameters() {
+        return Stream.of(1_000_000L, 2_000L).flatMap(maxBytesInMemory ->
+                Stream.of(Integer.MAX_VALUE, 37).flatMap(inputLimit ->
+                        Stream.of(Integer.MAX_VALUE, 1, 7).map(outputLimit -> Arguments.of(maxBytesInMemory, inputLimit, outputLimit))));
+    }
+
+    @ParameterizedTest(name = "hash [maxBytesInMemory = {0}, inputLimit = {1}, outputLimit = {2}]")
+    @MethodSource("hashParameters")
+    public void hash(long maxBytesInMemory, int inputLimit, int outputLimit) throws IOException {
+        final List<Tuple> input = input();
+        final List<Tuple> results = collect(continuation -> HashAggregateCursor.create(GROUP_FUNCTION, ACCUMULATE_FUNCTION,
+                OPERATIONS, maxBytesInMemory, directory,
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation).limitRowsTo(inputLimit),
+                continuation, EXECUTOR, timer), outputLimit);
+        assertEquals(expected(input, false), results);
+        if (maxBytesInMemory < 10_000) {
+            assertTrue(timer.getCount(FDBStoreTimer.Counts.QUERY_AGGREGATE_PARTIAL_FLUSHES) > 0);
+            assertTrue(timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RUNS) > 0);
+            // Files are kept in case an earlier continuation is retried, until abandoned.
+            assertEquals(1, FileSortCursor.deleteAbandonedRuns(directory, 0L));
+        } else {
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.QUERY_AGGREGATE_PARTIAL_FLUSHES));
+            // Only written when resuming after some groups have been returned from memory.
+            assertEquals(outputLimit == Integer.MAX_VALUE ? 0 : 1, timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RUNS));
+            assertEquals(outputLimit == Integer.MAX_VALUE ? 0 : 1, FileSortCursor.deleteAbandonedRuns(directory, 0L));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void hashPagesReadInputTwice() {
+        final List<Tuple> input = input();
+        final AtomicInteger inputReads = new AtomicInteger();
+        final List<Tuple> results = collect(continuation -> HashAggregateCursor.create(GROUP_FUNCTION, ACCUMULATE_FUNCTION,
+                OPERATIONS, 1_000_000, directory,
+                inputContinuation -> {
+                    inputReads.incrementAndGet();
+                    return RecordCursor.fromList(EXECUTOR, input, inputContinuation);
+                },
+                continuation, EXECUTOR, timer), 1);
+        assertEquals(expected(input, false), results);
+        // Once on the first page and once more on the second, after which the groups are resumed from a file.
+        assertEquals(2, inputReads.get());
+    }
+
+    @Test
+    public void accumulatorState() {
+        final AggregateAccumulator accumulator = new AggregateAccumulator(OPERATIONS);
+        accumulator.accumulate(Arrays.asList(3L, 3L, 3L, 3L, 3L));
+        final AggregateAccumulator other = new AggregateAccumulator(OPERATIONS);
+        other.accumulate(Arrays.asList(1.5, 1.5, 1.5, 1.5, 1.5));
+        other.accumulate(Collections.emptyList());
+        final AggregateAccumulator restored = new AggregateAccumulator(OPERATIONS, Tuple.fromBytes(accumulator.getState().pack()));
+        restored.merge(other);
+        assertEquals(Arrays.asList(4.5, 1.5, 3L, 2.25, 2L, 3L), restored.getResults());
+    }
+
+    @Test
+    public void sumOverflow() {
+        final List<AggregateOperation> operations = Arrays.asList(AggregateOperation.SUM, AggregateOperation.MAX);
+        final AggregateAccumulator accumulator = new AggregateAccumulator(operations);
+        accumulator.accumulate(Arrays.asList(Long.MAX_VALUE, Long.MAX_VALUE));
+        accumulator.accumulate(Arrays.asList(Long.MAX_VALUE, 1L));
+        final BigInteger expected = BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.valueOf(2));
+        assertEquals(Arrays.asList(expected, Long.MAX_VALUE), accumulator.getResults());
+        // The state survives a round trip through a tuple, and the sum comes back into range.
+        final AggregateAccumulator restored = new AggregateAccumulator(operations, Tuple.fromBytes(accumulator.getState().pack()));
+        final AggregateAccumulator other = new AggregateAccumulator(operations);
+        other.accumulate(Arrays.asList(Long.MIN_VALUE, 0L));
+        other.accumulate(Arrays.asList(Long.MIN_VALUE, 0L));
+        restored.merge(other);
+        assertEquals(Arrays.asList(-2L, Long.MAX_VALUE), restored.getResults());
+    }
+}
@@ -31,8 +31,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -78,4 +81,43 @@ public class AutoContinuingCursorTest extends FDBTestBase {
                 Arrays.asList(3, 6, 9)
         );
     }
+
+    @Test
+    public void testAutoContinuingPublisher() {
+        try (FDBDatabaseRunner runner = database.newRunner()) {
+            final List<Integer> returnedList = new ArrayList<>();
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            final RecordCursorPublisher<Integer> publisher = RecordCursorPublisher.autoContinuing(runner,
+                    (context, continuation) -> new ListCursor<>(list, continuation).limitRowsTo(3), 1);
+            publisher.subscribe(new RecordCursorPublisher.Subscriber<Integer>() {
+                private RecordCursorPublisher.Subscription subscription;
+
+                @Override
+                public void onSubscribe(@Nonnull RecordCursorPublisher.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(2);
+                }
+
+                @Override
+                public void onNext(@Nonnull Integer item) {
+                    returnedList.add(item);
+                    if (returnedList.size() % 2 == 0) {
+                        subscription.request(2);
+                    }
+                }
+
+                @Override
+                public void onError(@Nonnull Throwable throwable) {
+                    done.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    done.complete(null);
+                }
+            });
+            done.join();
+            assertEquals(list, returnedList);
+        }
+    }
 }
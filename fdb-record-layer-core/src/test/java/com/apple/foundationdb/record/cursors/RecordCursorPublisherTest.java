@@ -0,0 +1,245 @@
+/*
+ * RecordCursorPublisherTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link RecordCursorPublisher}.
+ */
+public class RecordCursorPublisherTest {
+    private static final List<Integer> LIST = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+
+    private static class TestSubscriber<T> implements RecordCursorPublisher.Subscriber<T> {
+        private final List<T> items = Collections.synchronizedList(new ArrayList<>());
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final Consumer<RecordCursorPublisher.Subscription> onNextAction;
+        private RecordCursorPublisher.Subscription subscription;
+
+        TestSubscriber() {
+            this(subscription -> { });
+        }
+
+        TestSubscriber(@Nonnull Consumer<RecordCursorPublisher.Subscription> onNextAction) {
+            this.onNextAction = onNextAction;
+        }
+
+        @Override
+        public void onSubscribe(@Nonnull RecordCursorPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(@Nonnull T item) {
+            assertFalse(done.isDone(), "onNext after termination");
+            items.add(item);
+            onNextAction.accept(subscription);
+        }
+
+        @Override
+        public void onError(@Nonnull Throwable throwable) {
+            assertTrue(done.completeExceptionally(throwable), "terminated twice");
+        }
+
+        @Override
+        public void onComplete() {
+            assertTrue(done.complete(null), "terminated twice");
+        }
+    }
+
+    /**
+     * A cursor over {@link #LIST} that counts how many elements have been pulled and notes when it is closed.
+     */
+    @Nonnull
+    private static RecordCursor<Integer> countingCursor(@Nonnull AtomicInteger pulled, @Nonnull AtomicBoolean closed) {
+        return new MapCursor<Integer, Integer>(RecordCursor.fromList(LIST), item -> {
+            pulled.incrementAndGet();
+            return item;
+        }) {
+            @Override
+            public void close() {
+                closed.set(true);
+                super.close();
+            }
+        };
+    }
+
+    @Test
+    public void unboundedDemand() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(
+                () -> countingCursor(new AtomicInteger(), closed), 10);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.done.join();
+        assertEquals(LIST, subscriber.items);
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void demandAndPrefetch() {
+        final AtomicInteger pulled = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(() -> countingCursor(pulled, closed), 2);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        // Nothing is read until the first request.
+        assertEquals(0, pulled.get());
+
+        subscriber.subscription.request(3);
+        assertEquals(LIST.subList(0, 3), subscriber.items);
+        assertEquals(5, pulled.get());
+
+        subscriber.subscription.request(1);
+        assertEquals(LIST.subList(0, 4), subscriber.items);
+        assertEquals(6, pulled.get());
+
+        subscriber.subscription.request(LIST.size());
+        subscriber.done.join();
+        assertEquals(LIST, subscriber.items);
+        assertEquals(LIST.size(), pulled.get());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void requestFromOnNext() {
+        final List<Integer> list = IntStream.range(0, 100_000).boxed().collect(Collectors.toList());
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(() -> RecordCursor.fromList(list), 0);
+        // Requesting one at a time from within onNext must not recurse for each element.
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>(subscription -> subscription.request(1));
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.done.join();
+        assertEquals(list, subscriber.items);
+    }
+
+    @Test
+    public void cancel() {
+        final AtomicInteger pulled = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(() -> countingCursor(pulled, closed), 0);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(5);
+        subscriber.subscription.cancel();
+        assertTrue(closed.get());
+        subscriber.subscription.request(5);
+        assertEquals(LIST.subList(0, 5), subscriber.items);
+        assertEquals(5, pulled.get());
+        assertFalse(subscriber.done.isDone());
+    }
+
+    @Test
+    public void cancelWhilePulling() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final FirableCursor<Integer> firable = new FirableCursor<>(countingCursor(new AtomicInteger(), closed));
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(() -> firable, 0);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        // Not closed until the outstanding read completes.
+        assertFalse(closed.get());
+        firable.fire();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!closed.get() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(closed.get());
+        assertEquals(Collections.emptyList(), subscriber.items);
+    }
+
+    @Test
+    public void asynchronous() {
+        final CompletableFuture<Void> gate = new CompletableFuture<>();
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(() -> RecordCursor.fromList(LIST)
+                .mapPipelined(item -> gate.thenApplyAsync(vignore -> item, ForkJoinPool.commonPool()), 1), 5);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(LIST.size() / 2);
+        subscriber.subscription.request(LIST.size() / 2);
+        assertEquals(Collections.emptyList(), subscriber.items);
+        gate.complete(null);
+        subscriber.done.join();
+        assertEquals(LIST, subscriber.items);
+    }
+
+    @Test
+    public void error() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(() ->
+                new MapCursor<Integer, Integer>(RecordCursor.fromList(LIST), item -> {
+                    if (item == 10) {
+                        throw new RecordCoreException("ten");
+                    }
+                    return item;
+                }) {
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                        super.close();
+                    }
+                }, 3);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        final ExecutionException err = assertThrows(ExecutionException.class, subscriber.done::get);
+        assertEquals("ten", err.getCause().getMessage());
+        assertEquals(LIST.subList(0, 10), subscriber.items);
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void nonPositiveRequest() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final RecordCursorPublisher<Integer> publisher = new RecordCursorPublisher<>(
+                () -> countingCursor(new AtomicInteger(), closed), 0);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        final ExecutionException err = assertThrows(ExecutionException.class, subscriber.done::get);
+        assertTrue(err.getCause() instanceof RecordCoreArgumentException);
+        assertTrue(closed.get());
+    }
+}
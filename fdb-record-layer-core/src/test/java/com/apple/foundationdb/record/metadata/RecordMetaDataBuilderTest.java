@@ -49,6 +49,7 @@ import com.apple.foundationdb.record.TestUnionDefaultNameProto;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.VersionKeyExpression;
 import com.apple.foundationdb.record.provider.foundationdb.MetaDataProtoEditor;
+import com.apple.foundationdb.record.provider.foundationdb.SplitHelper;
 import com.apple.test.BooleanSource;
 import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
@@ -491,6 +492,22 @@ public class RecordMetaDataBuilderTest {
         assertEquals("Record type MyNoPrimaryKeyRecord must have a primary key", e.getMessage());
     }
 
+    @Test
+    public void splitRecordSize() {
+        RecordMetaDataBuilder builder = RecordMetaData.newBuilder().setRecords(TestRecords1Proto.getDescriptor());
+        builder.setSplitLongRecords(true);
+        builder.getRecordType("MySimpleRecord").setSplitRecordSize(10_000);
+        assertThrows(MetaDataException.class, () -> builder.getRecordType("MyOtherRecord").setSplitRecordSize(-1));
+        assertThrows(MetaDataException.class, () -> builder.getRecordType("MyOtherRecord").setSplitRecordSize(SplitHelper.SPLIT_RECORD_SIZE + 1));
+        RecordMetaData metaData = builder.getRecordMetaData();
+        assertEquals(10_000, metaData.getRecordType("MySimpleRecord").getSplitRecordSize());
+        assertEquals(0, metaData.getRecordType("MyOtherRecord").getSplitRecordSize());
+
+        RecordMetaData fromProto = RecordMetaData.build(metaData.toProto());
+        assertEquals(10_000, fromProto.getRecordType("MySimpleRecord").getSplitRecordSize());
+        assertEquals(0, fromProto.getRecordType("MyOtherRecord").getSplitRecordSize());
+    }
+
     @Test
     public void updateRecords() {
         RecordMetaDataBuilder builder = RecordMetaData.newBuilder().setRecords(TestRecords1Proto.getDescriptor());
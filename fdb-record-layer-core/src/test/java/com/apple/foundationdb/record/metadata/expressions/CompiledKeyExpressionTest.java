@@ -0,0 +1,226 @@
+/*
+ * CompiledKeyExpressionTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2019 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.metadata.expressions;
+
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.TestRecordsTupleFieldsProto;
+import com.apple.foundationdb.record.UnstoredRecord;
+import com.apple.foundationdb.record.metadata.ExpressionTestsProto.Customer;
+import com.apple.foundationdb.record.metadata.ExpressionTestsProto.NestedField;
+import com.apple.foundationdb.record.metadata.ExpressionTestsProto.TestScalarFieldAccess;
+import com.apple.foundationdb.record.metadata.Key;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.apple.foundationdb.record.metadata.Key.Expressions.concat;
+import static com.apple.foundationdb.record.metadata.Key.Expressions.concatenateFields;
+import static com.apple.foundationdb.record.metadata.Key.Expressions.field;
+import static com.apple.foundationdb.record.metadata.Key.Expressions.keyWithValue;
+import static com.apple.foundationdb.record.metadata.Key.Expressions.list;
+import static com.apple.foundationdb.record.metadata.Key.Expressions.value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link CompiledKeyExpression}, which must always agree with evaluating the expression itself.
+ */
+public class CompiledKeyExpressionTest {
+    private static final List<NestedField> NESTED_RECORDS = Arrays.asList(
+            NestedField.getDefaultInstance(),
+            NestedField.newBuilder().setRegularOldField("top").setRegularIntField(1).build(),
+            NestedField.newBuilder()
+                    .setRegularOldField("outer")
+                    .addRepeatedField("r1").addRepeatedField("r2")
+                    .setNesty(NestedField.newBuilder()
+                            .setRegularIntField(2)
+                            .setNesty(NestedField.newBuilder().setRegularOldField("deep")))
+                    .setNesty2(NestedField.OtherNested.newBuilder()
+                            .setNesty3(NestedField.OtherNested.ThirdNested.newBuilder().setLastField("last")))
+                    .build());
+
+    private static final List<TestScalarFieldAccess> SCALAR_RECORDS = Arrays.asList(
+            TestScalarFieldAccess.getDefaultInstance(),
+            TestScalarFieldAccess.newBuilder().setField("Plants").addRepeatMe("Boxes").addRepeatMe("Bowls").build(),
+            TestScalarFieldAccess.newBuilder().setField("numbers")
+                    .addRepeatMe("one").addRepeatMe("two").addRepeatMe("three")
+                    .addRepeatMe("four").addRepeatMe("five").addRepeatMe("six").build());
+
+    private static final List<NestedField> DOLL_RECORDS = Arrays.asList(
+            NestedField.getDefaultInstance(),
+            NestedField.newBuilder()
+                    .setRegularOldField("Grandmother")
+                    .setNesty(NestedField.newBuilder()
+                            .setRegularOldField("Mother")
+                            .setRegularIntField(1066)
+                            .addRepeatedField("lily").addRepeatedField("rose"))
+                    .addRepeatedNesty(NestedField.newBuilder()
+                            .setRegularOldField("Daughter")
+                            .addRepeatedField("daffodil"))
+                    .addRepeatedNesty(NestedField.newBuilder()
+                            .setRegularOldField("Sister")
+                            .addRepeatedField("orchid").addRepeatedField("morning glory"))
+                    .build(),
+            NestedField.newBuilder()
+                    .setRegularOldField("Lonely")
+                    .setNesty(NestedField.newBuilder())
+                    .addRepeatedNesty(NestedField.newBuilder())
+                    .addRepeatedNesty(NestedField.newBuilder())
+                    .build());
+
+    private static final List<Customer> CUSTOMER_RECORDS = Arrays.asList(
+            Customer.newBuilder().setId("the void").build(),
+            Customer.newBuilder()
+                    .setId("customer1").setFirstName("1 first name").setLastName("1 last name")
+                    .addOrder(Customer.Order.newBuilder()
+                            .setId("order1")
+                            .addItem(Customer.Order.Item.newBuilder().setId("i1").setName("a1"))
+                            .addItem(Customer.Order.Item.newBuilder().setId("j1").setName("a2")))
+                    .addOrder(Customer.Order.newBuilder()
+                            .setId("order2")
+                            .addItem(Customer.Order.Item.newBuilder().setId("i2").setName("b1")))
+                    .build(),
+            Customer.newBuilder()
+                    .setId("aleph_numbers").setFirstName("Infinity")
+                    .addOrder(Customer.Order.newBuilder().setId("aleph null"))
+                    .build());
+
+    /**
+     * The kinds of expression that {@link com.apple.foundationdb.record.metadata.KeyExpressionTest} evaluates, with records like the ones it uses.
+     * @return arguments of the expression, whether it can be compiled, and the records to evaluate it on
+     */
+    static Stream<Arguments> keyExpressions() {
+        return Stream.of(
+                Arguments.of(field("field"), true, SCALAR_RECORDS),
+                Arguments.of(field("repeat_me", KeyExpression.FanType.Concatenate), true, SCALAR_RECORDS),
+                Arguments.of(concat(field("field"), field("repeat_me", KeyExpression.FanType.Concatenate)), true, SCALAR_RECORDS),
+                Arguments.of(field("repeat_me", KeyExpression.FanType.FanOut), false, SCALAR_RECORDS),
+                Arguments.of(concat(field("field"), field("repeat_me", KeyExpression.FanType.FanOut)), false, SCALAR_RECORDS),
+                Arguments.of(concat(field("repeat_me", KeyExpression.FanType.FanOut), field("field")), false, SCALAR_RECORDS),
+                Arguments.of(list(field("field"), field("repeat_me", KeyExpression.FanType.Concatenate)), true, SCALAR_RECORDS),
+                Arguments.of(field("repeat_me", KeyExpression.FanType.FanOut).split(3), false,
+                        Arrays.asList(SCALAR_RECORDS.get(0), SCALAR_RECORDS.get(2))),
+                Arguments.of(concat(field("field"), field("repeat_me", KeyExpression.FanType.FanOut).split(3)), false,
+                        Arrays.asList(SCALAR_RECORDS.get(0), SCALAR_RECORDS.get(2))),
+                Arguments.of(field("nesty").nest("regular_old_field"), true, DOLL_RECORDS),
+                Arguments.of(field("repeated_nesty", KeyExpression.FanType.FanOut).nest("regular_old_field"), false, DOLL_RECORDS),
+                Arguments.of(field("nesty").nest("repeated_field", KeyExpression.FanType.FanOut), false, DOLL_RECORDS),
+                Arguments.of(field("nesty").nest("repeated_field", KeyExpression.FanType.Concatenate), true, DOLL_RECORDS),
+                Arguments.of(field("nesty").nest(concatenateFields("regular_old_field", "regular_int_field")), true, DOLL_RECORDS),
+                Arguments.of(concat(field("regular_old_field"),
+                        field("repeated_nesty", KeyExpression.FanType.FanOut).nest("regular_old_field")), false, DOLL_RECORDS),
+                Arguments.of(field("repeated_nesty", KeyExpression.FanType.FanOut).nest(
+                        field("regular_old_field"), field("repeated_field", KeyExpression.FanType.FanOut)), false, DOLL_RECORDS),
+                Arguments.of(concat(field("id"),
+                        field("order", KeyExpression.FanType.FanOut).nest(
+                                field("id"),
+                                field("item", KeyExpression.FanType.FanOut).nest(field("id"), field("name")))), false, CUSTOMER_RECORDS),
+                Arguments.of(concatenateFields("id", "first_name", "last_name"), true, CUSTOMER_RECORDS));
+    }
+
+    @ParameterizedTest(name = "sameAsKeyExpressionTest [expression = {0}]")
+    @MethodSource("keyExpressions")
+    public void sameAsKeyExpressionTest(@Nonnull KeyExpression expression, boolean compiled,
+                                        @Nonnull List<? extends Message> records) {
+        assertSameEvaluation(expression, compiled, records);
+    }
+
+    private static void assertSameEvaluation(@Nonnull KeyExpression expression, boolean compiled,
+                                             @Nonnull List<? extends Message> records) {
+        final CompiledKeyExpression compiledExpression = CompiledKeyExpression.compile(expression);
+        assertEquals(compiled, compiledExpression.isCompiled(), expression::toString);
+        assertEquals(expression.evaluate(null), compiledExpression.evaluate(null));
+        for (Message record : records) {
+            assertEquals(expression.evaluate(new UnstoredRecord<>(record)), compiledExpression.evaluate(new UnstoredRecord<>(record)),
+                    () -> expression + " on " + record);
+        }
+    }
+
+    @Test
+    public void singleValued() {
+        assertSameEvaluation(field("regular_old_field"), true, NESTED_RECORDS);
+        assertSameEvaluation(field("regular_int_field", KeyExpression.FanType.None, Key.Evaluated.NullStandin.NOT_NULL), true, NESTED_RECORDS);
+        assertSameEvaluation(field("regular_int_field", KeyExpression.FanType.None, Key.Evaluated.NullStandin.NULL_UNIQUE), true, NESTED_RECORDS);
+        assertSameEvaluation(field("repeated_field", KeyExpression.FanType.Concatenate), true, NESTED_RECORDS);
+        assertSameEvaluation(concatenateFields("regular_old_field", "regular_int_field"), true, NESTED_RECORDS);
+        assertSameEvaluation(field("nesty").nest("regular_int_field"), true, NESTED_RECORDS);
+        assertSameEvaluation(field("nesty").nest(field("nesty").nest("regular_old_field")), true, NESTED_RECORDS);
+        assertSameEvaluation(field("nesty", KeyExpression.FanType.None, Key.Evaluated.NullStandin.NOT_NULL).nest("regular_int_field"), true, NESTED_RECORDS);
+        assertSameEvaluation(concat(field("regular_old_field"),
+                field("nesty").nest(concatenateFields("regular_int_field", "regular_old_field")),
+                field("nesty2").nest(field("nesty3").nest("last_field"))), true, NESTED_RECORDS);
+        assertSameEvaluation(concat(field("regular_old_field"), value("literal")), true, NESTED_RECORDS);
+        assertSameEvaluation(field("regular_old_field").groupBy(field("regular_int_field")), true, NESTED_RECORDS);
+        assertSameEvaluation(keyWithValue(concatenateFields("regular_old_field", "regular_int_field"), 1), true, NESTED_RECORDS);
+    }
+
+    @Test
+    public void fannedOut() {
+        assertSameEvaluation(field("repeated_field", KeyExpression.FanType.FanOut), false, NESTED_RECORDS);
+        assertSameEvaluation(concat(field("regular_old_field"), field("repeated_field", KeyExpression.FanType.FanOut)), false, NESTED_RECORDS);
+        assertSameEvaluation(field("repeated_nesty", KeyExpression.FanType.FanOut).nest("regular_old_field"), false, NESTED_RECORDS);
+    }
+
+    @Test
+    public void tupleFields() {
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> records = Arrays.asList(
+                TestRecordsTupleFieldsProto.MyFieldsRecord.getDefaultInstance(),
+                TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder()
+                        .setFint64(TupleFieldsHelper.toProto(17L))
+                        .setFstring(TupleFieldsHelper.toProto("hello"))
+                        .setFdouble(TupleFieldsHelper.toProto(2.5))
+                        .build());
+        assertSameEvaluation(concatenateFields("fint64", "fstring", "fdouble"), true, records);
+    }
+
+    @Test
+    public void mixedRecordTypes() {
+        final List<Message> records = Arrays.asList(
+                TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(1).setNumValue2(10).build(),
+                TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(2).setNumValue2(20).build(),
+                TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(3).setStrValueIndexed("x").build(),
+                TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(4).build());
+        // A field missing from one of the types evaluates to null there.
+        assertSameEvaluation(concatenateFields("num_value_2", "rec_no", "str_value_indexed"), true, records);
+    }
+
+    @Test
+    public void invalidEvaluation() {
+        // Repeated field without fan type is still an error.
+        final CompiledKeyExpression compiled = CompiledKeyExpression.compile(field("repeated_field"));
+        assertTrue(compiled.isCompiled());
+        final UnstoredRecord<NestedField> record = new UnstoredRecord<>(NESTED_RECORDS.get(2));
+        final Exception expected = assertThrows(Exception.class, () -> field("repeated_field").evaluate(record));
+        final Exception actual = assertThrows(Exception.class, () -> compiled.evaluate(record));
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertFalse(CompiledKeyExpression.compile(field("repeated_field", KeyExpression.FanType.FanOut)).isCompiled());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * ChunkedBytesTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link ChunkedBytes}.
+ */
+public class ChunkedBytesTest {
+    private static final byte[] BYTES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+    private static ChunkedBytes split() {
+        return new ChunkedBytes(Arrays.asList(new byte[] {0, 1, 2}, new byte[0], new byte[] {3}, new byte[] {4, 5, 6, 7, 8, 9}));
+    }
+
+    private static byte[] readAll(ChunkedBytes bytes, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = bytes.newInputStream()) {
+            byte[] buffer = new byte[bufferSize];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void contents() throws IOException {
+        ChunkedBytes bytes = split();
+        assertEquals(10, bytes.size());
+        assertEquals(4, bytes.getChunkCount());
+        for (int i = 0; i < BYTES.length; i++) {
+            assertEquals(BYTES[i], bytes.byteAt(i));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> bytes.byteAt(10));
+        assertArrayEquals(BYTES, bytes.toByteArray());
+        assertArrayEquals(BYTES, readAll(bytes, 1));
+        assertArrayEquals(BYTES, readAll(bytes, 4));
+        assertEquals(ChunkedBytes.wrap(BYTES), bytes);
+        assertEquals(ChunkedBytes.wrap(BYTES).hashCode(), bytes.hashCode());
+        assertNotEquals(ChunkedBytes.wrap(new byte[] {0, 1, 2}), bytes);
+
+        ChunkedBytes empty = new ChunkedBytes(Collections.emptyList());
+        assertEquals(0, empty.size());
+        assertEquals(1, empty.getChunkCount());
+        assertArrayEquals(new byte[0], readAll(empty, 4));
+    }
+
+    @Test
+    public void wrapDoesNotCopy() {
+        assertSame(BYTES, ChunkedBytes.wrap(BYTES).toByteArray());
+    }
+
+    @Test
+    public void slice() throws IOException {
+        ChunkedBytes bytes = split();
+        for (int start = 0; start <= BYTES.length; start++) {
+            ChunkedBytes slice = bytes.slice(start);
+            byte[] expected = Arrays.copyOfRange(BYTES, start, BYTES.length);
+            assertEquals(expected.length, slice.size());
+            assertArrayEquals(expected, slice.toByteArray());
+            assertArrayEquals(expected, readAll(slice, 3));
+            if (start < BYTES.length) {
+                assertEquals(BYTES[start], slice.byteAt(0));
+            }
+        }
+        assertEquals(2, bytes.slice(3).getChunkCount());
+        assertEquals(1, bytes.slice(5).getChunkCount());
+        assertEquals(1, bytes.slice(5).getChunkOffset(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> bytes.slice(11));
+    }
+}
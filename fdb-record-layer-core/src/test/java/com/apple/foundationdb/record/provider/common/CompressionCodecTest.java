@@ -0,0 +1,201 @@
+/*
+ * CompressionCodecTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.test.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link CompressionCodec} implementations.
+ */
+public class CompressionCodecTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressionCodecTest.class);
+
+    private static final List<CompressionCodec> CODECS = Arrays.asList(
+            DeflateCompressionCodec.DEFAULT, new DeflateCompressionCodec(Deflater.BEST_SPEED), LZ4CompressionCodec.INSTANCE);
+
+    /**
+     * Data with a mix of runs, repeated phrases and noise, somewhat like a serialized record.
+     */
+    @Nonnull
+    private static byte[] sampleData(@Nonnull Random r, int length) {
+        final byte[] data = new byte[length];
+        final String[] words = {"record", "layer", "foundation", "index", "key", "value", "\u0008\u0001\u0012\u0005"};
+        int i = 0;
+        while (i < length) {
+            switch (r.nextInt(4)) {
+                case 0:
+                    final byte b = (byte)r.nextInt();
+                    for (int n = r.nextInt(40); n > 0 && i < length; n--) {
+                        data[i++] = b;
+                    }
+                    break;
+                case 1:
+                    for (int n = r.nextInt(8); n > 0 && i < length; n--) {
+                        data[i++] = (byte)r.nextInt();
+                    }
+                    break;
+                default:
+                    for (byte w : words[r.nextInt(words.length)].getBytes()) {
+                        if (i < length) {
+                            data[i++] = w;
+                        }
+                    }
+                    break;
+            }
+        }
+        return data;
+    }
+
+    private static byte[] roundTrip(@Nonnull CompressionCodec codec, @Nonnull byte[] data, int offset, int length) throws DataFormatException {
+        final byte[] compressed = new byte[length + 3];
+        final int compressedLength = codec.compress(data, offset, length, compressed, 3, length);
+        if (compressedLength < 0) {
+            return null;
+        }
+        assertTrue(compressedLength < length);
+        final byte[] decompressed = new byte[length + 2];
+        codec.decompress(compressed, 3, compressedLength, decompressed, 2, length);
+        return Arrays.copyOfRange(decompressed, 2, length + 2);
+    }
+
+    @Test
+    public void roundTrips() throws DataFormatException {
+        final Random r = new Random(0x5eed);
+        for (CompressionCodec codec : CODECS) {
+            int compressedCount = 0;
+            for (int length : new int[] {0, 1, 5, 12, 13, 17, 64, 100, 1000, 70_000, 200_000}) {
+                for (int trial = 0; trial < 5; trial++) {
+                    final byte[] data = sampleData(r, length + 10);
+                    final byte[] decompressed = roundTrip(codec, data, 5, length);
+                    if (decompressed != null) {
+                        assertArrayEquals(Arrays.copyOfRange(data, 5, length + 5), decompressed);
+                        compressedCount++;
+                    }
+                }
+            }
+            assertTrue(compressedCount > 20, "most samples should compress");
+
+            // Random data does not compress.
+            final byte[] noise = new byte[1000];
+            r.nextBytes(noise);
+            assertEquals(-1, codec.compress(noise, 0, noise.length, new byte[noise.length], 0, noise.length));
+        }
+    }
+
+    @Test
+    public void lz4LongRuns() throws DataFormatException {
+        // Long literal and match lengths need extra length bytes, and runs need overlapping matches.
+        final Random r = new Random(0xfdb);
+        final byte[] data = new byte[100_000];
+        r.nextBytes(data);
+        Arrays.fill(data, 1000, 60_000, (byte)7);
+        System.arraycopy(data, 0, data, 80_000, 1000);
+        final byte[] compressed = new byte[data.length];
+        final int compressedLength = LZ4CompressionCodec.INSTANCE.compress(data, 0, data.length, compressed, 0, compressed.length);
+        assertTrue(compressedLength > 0 && compressedLength < 45_000);
+        final byte[] decompressed = new byte[data.length];
+        LZ4CompressionCodec.INSTANCE.decompress(compressed, 0, compressedLength, decompressed, 0, decompressed.length);
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    public void lz4CorruptData() throws DataFormatException {
+        final Random r = new Random(0xbad);
+        final byte[] data = sampleData(r, 2000);
+        final byte[] compressed = new byte[data.length];
+        final int compressedLength = LZ4CompressionCodec.INSTANCE.compress(data, 0, data.length, compressed, 0, compressed.length);
+        assertTrue(compressedLength > 0);
+
+        assertThrows(DataFormatException.class, () -> LZ4CompressionCodec.INSTANCE.decompress(compressed, 0, compressedLength - 1, new byte[data.length], 0, data.length));
+        assertThrows(DataFormatException.class, () -> LZ4CompressionCodec.INSTANCE.decompress(compressed, 0, compressedLength, new byte[data.length + 1], 0, data.length + 1));
+        assertThrows(DataFormatException.class, () -> LZ4CompressionCodec.INSTANCE.decompress(compressed, 0, compressedLength, new byte[data.length - 1], 0, data.length - 1));
+
+        // Arbitrary corruption must not get out of bounds, even if it is not detected.
+        for (int trial = 0; trial < 1000; trial++) {
+            final byte[] corrupted = Arrays.copyOf(compressed, compressedLength);
+            corrupted[r.nextInt(compressedLength)] = (byte)r.nextInt();
+            try {
+                LZ4CompressionCodec.INSTANCE.decompress(corrupted, 0, compressedLength, new byte[data.length], 0, data.length);
+            } catch (DataFormatException e) {
+                // Expected mostly.
+            }
+        }
+    }
+
+    @Tag(Tags.Performance)
+    @Test
+    public void codecPerformance() throws DataFormatException {
+        final Random r = new Random();
+        final int count = 10_000;
+        final byte[][] records = new byte[count][];
+        long totalLength = 0;
+        for (int i = 0; i < count; i++) {
+            records[i] = sampleData(r, 200 + r.nextInt(2000));
+            totalLength += records[i].length;
+        }
+        final byte[] compressed = new byte[2200];
+        final byte[] decompressed = new byte[2200];
+        for (CompressionCodec codec : CODECS) {
+            long compressedTotal = 0;
+            long compressNanos = 0;
+            long decompressNanos = 0;
+            // First pass is warm up.
+            for (int pass = 0; pass < 3; pass++) {
+                compressedTotal = 0;
+                compressNanos = 0;
+                decompressNanos = 0;
+                for (byte[] record : records) {
+                    final long start = System.nanoTime();
+                    final int compressedLength = codec.compress(record, 0, record.length, compressed, 0, record.length);
+                    final long mid = System.nanoTime();
+                    if (compressedLength < 0) {
+                        compressedTotal += record.length;
+                        continue;
+                    }
+                    codec.decompress(compressed, 0, compressedLength, decompressed, 0, record.length);
+                    final long end = System.nanoTime();
+                    compressedTotal += compressedLength;
+                    compressNanos += mid - start;
+                    decompressNanos += end - mid;
+                }
+            }
+            LOGGER.info("{} {}: {} bytes to {} bytes, compress {} ms, decompress {} ms",
+                    codec.getClass().getSimpleName(), codec.getCodecId(), totalLength, compressedTotal,
+                    compressNanos * 1e-6, decompressNanos * 1e-6);
+        }
+    }
+}
@@ -23,27 +23,40 @@ package com.apple.foundationdb.record.provider.common;
 import com.apple.foundationdb.record.RecordMetaData;
 import com.apple.foundationdb.record.TestRecords1Proto;
 import com.apple.foundationdb.tuple.Tuple;
+import com.apple.test.Tags;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Message;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 import java.util.function.UnaryOperator;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests for {@link DynamicMessageRecordSerializer}.
  */
 public class DynamicMessageRecordSerializerTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamicMessageRecordSerializerTest.class);
+
     @Nonnull private static RecordMetaData metaData;
     @Nonnull private static DynamicMessageRecordSerializer serializer;
 
@@ -147,4 +160,90 @@ public class DynamicMessageRecordSerializerTest {
         assertThat(ex.getMessage(), containsString("there are no fields"));
         assertThat((Collection<?>)ex.getLogInfo().get("fields"), empty());
     }
+
+    @Nonnull
+    private static TestRecords1Proto.MySimpleRecord largeRecord(long recNo, int size) {
+        final TestRecords1Proto.MySimpleRecord.Builder builder = TestRecords1Proto.MySimpleRecord.newBuilder()
+                .setRecNo(recNo)
+                .setStrValueIndexed(Strings.repeat("x", size / 2))
+                .setNumValueUnique((int)recNo)
+                .setNumValue2((int)recNo % 7);
+        for (int i = 0; i < size / 4; i++) {
+            builder.addRepeater(i * 1000);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void deserializePartial() {
+        final TestRecords1Proto.MySimpleRecord record = largeRecord(1066L, 100);
+        final byte[] serialized = serializer.serialize(metaData, metaData.getRecordType("MySimpleRecord"), record, null);
+
+        final Message partial = serializer.deserializePartial(metaData, Tuple.from(1066L), serialized, ImmutableSet.of("num_value_2", "repeater", "no_such_field"), null);
+        final TestRecords1Proto.MySimpleRecord partialRecord = TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(partial).build();
+        assertEquals(record.getNumValue2(), partialRecord.getNumValue2());
+        assertEquals(record.getRepeaterList(), partialRecord.getRepeaterList());
+        assertFalse(partialRecord.hasRecNo());
+        assertFalse(partialRecord.hasStrValueIndexed());
+
+        final Message typeOnly = serializer.deserializePartial(metaData, Tuple.from(1066L), serialized, Collections.emptySet(), null);
+        assertEquals(TestRecords1Proto.MySimpleRecord.getDescriptor().getFullName(), typeOnly.getDescriptorForType().getFullName());
+        assertTrue(typeOnly.getAllFields().isEmpty());
+
+        final Set<String> allFields = ImmutableSet.of("rec_no", "str_value_indexed", "num_value_unique", "num_value_2", "num_value_3_indexed", "repeater");
+        assertEquals(serializer.deserialize(metaData, Tuple.from(1066L), serialized, null),
+                serializer.deserializePartial(metaData, Tuple.from(1066L), serialized, allFields, null));
+
+        // A missing required field is not a problem.
+        final TestRecords1Proto.MyOtherRecord otherRecord = TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(1413L).setNumValue2(5).build();
+        final byte[] otherSerialized = serializer.serialize(metaData, metaData.getRecordType("MyOtherRecord"), otherRecord, null);
+        final Message otherPartial = serializer.deserializePartial(metaData, Tuple.from(1413L), otherSerialized, ImmutableSet.of("num_value_2"), null);
+        assertEquals(5, otherPartial.getField(otherPartial.getDescriptorForType().findFieldByName("num_value_2")));
+    }
+
+    @Test
+    public void deserializePartialWithBadUnion() {
+        final Message message = TestRecords1Proto.RecordTypeUnion.newBuilder()
+                .setMySimpleRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(1066L).build())
+                .setMyOtherRecord(TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(1413L).build())
+                .build();
+        RecordSerializationException ex = assertThrows(RecordSerializationException.class,
+                () -> serializer.deserializePartial(metaData, Tuple.from(1066L), message.toByteArray(), ImmutableSet.of("rec_no"), null));
+        assertThat(ex.getMessage(), containsString("there are extra known fields"));
+
+        final byte[] truncated = new byte[] { 0x0a, 0x10, 0x08 };
+        assertThrows(RecordSerializationException.class,
+                () -> serializer.deserializePartial(metaData, Tuple.from(1066L), truncated, ImmutableSet.of("rec_no"), null));
+    }
+
+    @Tag(Tags.Performance)
+    @Test
+    public void partialDeserializationPerformance() {
+        final int count = 5_000;
+        final byte[][] records = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            records[i] = serializer.serialize(metaData, metaData.getRecordType("MySimpleRecord"), largeRecord(i, 4000), null);
+        }
+        final Set<String> fieldNames = ImmutableSet.of("num_value_2", "num_value_unique");
+        long fullNanos = 0;
+        long partialNanos = 0;
+        long total = 0;
+        // First pass is warm up.
+        for (int pass = 0; pass < 3; pass++) {
+            fullNanos = 0;
+            partialNanos = 0;
+            for (int i = 0; i < count; i++) {
+                final long start = System.nanoTime();
+                final Message full = serializer.deserialize(metaData, Tuple.from(i), records[i], null);
+                final long mid = System.nanoTime();
+                final Message partial = serializer.deserializePartial(metaData, Tuple.from(i), records[i], fieldNames, null);
+                final long end = System.nanoTime();
+                total += full.getAllFields().size() + partial.getAllFields().size();
+                fullNanos += mid - start;
+                partialNanos += end - mid;
+            }
+        }
+        LOGGER.info("{} records of {} bytes: full {} ms, partial {} ms ({})",
+                count, records[0].length, fullNanos * 1e-6, partialNanos * 1e-6, total);
+    }
 }
@@ -27,11 +27,13 @@ import com.apple.foundationdb.record.TestRecords1Proto.MySimpleRecord;
 import com.apple.foundationdb.record.TestRecords1Proto.RecordTypeUnion;
 import com.apple.foundationdb.record.logging.KeyValueLogMessage;
 import com.apple.foundationdb.tuple.Tuple;
+import com.apple.test.Tags;
 import com.google.common.base.Strings;
 import com.google.common.primitives.Bytes;
 import com.google.protobuf.Message;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,15 +44,21 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.zip.Deflater;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -209,6 +217,235 @@ public class TransformedRecordSerializerTest {
         assertThat(e.getMessage(), containsString("decompression error"));
     }
 
+    @Test
+    public void deserializePartial() {
+        TransformedRecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .build();
+
+        MySimpleRecord record = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(SONNET_108).setNumValue2(42).build();
+        byte[] serialized = serialize(serializer, record);
+        assertEquals(TransformedRecordSerializer.ENCODING_COMPRESSED, serialized[0]);
+        Message partial = serializer.deserializePartial(metaData, Tuple.from(1066L), serialized, Collections.singleton("num_value_2"), storeTimer);
+        assertEquals(MySimpleRecord.newBuilder().setNumValue2(42).build(), partial);
+        assertEquals(1, storeTimer.getCount(RecordSerializer.Events.DECOMPRESS_SERIALIZED_RECORD));
+        assertEquals(1, storeTimer.getCount(RecordSerializer.Events.DESERIALIZE_PARTIAL_PROTOBUF_RECORD));
+        assertEquals(0, storeTimer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+    }
+
+    @Test
+    public void toCleartext() throws Exception {
+        TransformedRecordSerializer<Message> serializer = TransformedRecordSerializerJCE.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .setEncryptWhenSerializing(true)
+                .setEncryptionKey(aesKey())
+                .build();
+
+        MySimpleRecord record = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(SONNET_108).setNumValue2(42).build();
+        byte[] serialized = serialize(serializer, record);
+        byte[] cleartext = serializer.toCleartext(metaData, Tuple.from(1066L), serialized, storeTimer);
+        RecordSerializer<Message> cleartextSerializer = serializer.getCleartextSerializer();
+        assertEquals(MySimpleRecord.newBuilder().setNumValue2(42).build(),
+                cleartextSerializer.deserializePartial(metaData, Tuple.from(1066L), cleartext, Collections.singleton("num_value_2"), storeTimer));
+        assertEquals(record, cleartextSerializer.deserialize(metaData, Tuple.from(1066L), cleartext, storeTimer));
+        // Transformed back only once, however many times it is then parsed.
+        assertEquals(1, storeTimer.getCount(RecordSerializer.Events.DECRYPT_SERIALIZED_RECORD));
+        assertEquals(1, storeTimer.getCount(RecordSerializer.Events.DECOMPRESS_SERIALIZED_RECORD));
+
+        RecordSerializer<Message> plain = DynamicMessageRecordSerializer.instance();
+        assertSame(serialized, plain.toCleartext(metaData, Tuple.from(1066L), serialized, storeTimer));
+        assertSame(plain, plain.getCleartextSerializer());
+    }
+
+    @Nonnull
+    private static ChunkedBytes chunks(@Nonnull byte[] serialized, int chunkSize) {
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < serialized.length; i += chunkSize) {
+            chunks.add(Arrays.copyOfRange(serialized, i, Math.min(i + chunkSize, serialized.length)));
+        }
+        return new ChunkedBytes(chunks);
+    }
+
+    @Test
+    public void deserializeChunks() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(128);
+        List<TransformedRecordSerializer<Message>> serializers = Arrays.asList(
+                TransformedRecordSerializer.newDefaultBuilder().build(),
+                TransformedRecordSerializer.newDefaultBuilder().setCompressWhenSerializing(true).build(),
+                TransformedRecordSerializer.newDefaultBuilder().setCompressWhenSerializing(true).setCompressionCodec(LZ4CompressionCodec.INSTANCE).build(),
+                TransformedRecordSerializerJCE.newDefaultBuilder().setEncryptWhenSerializing(true).setEncryptionKey(keyGen.generateKey()).build());
+
+        MySimpleRecord record = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(SONNET_108).build();
+        for (TransformedRecordSerializer<Message> serializer : serializers) {
+            byte[] serialized = serialize(serializer, record);
+            for (int chunkSize : new int[] {1, 7, 100, serialized.length}) {
+                assertEquals(record, serializer.deserialize(metaData, Tuple.from(1066L), chunks(serialized, chunkSize), storeTimer));
+                if (!serializer.encryptWhenSerializing) {
+                    assertEquals(record, serializer.widen().deserialize(metaData, Tuple.from(1066L), chunks(serialized, chunkSize), storeTimer));
+                }
+            }
+        }
+
+        // Compressed data that is cut short is an error, however it is split.
+        byte[] compressed = serialize(serializers.get(1), record);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length - 10);
+        RecordSerializationException e = assertThrows(RecordSerializationException.class,
+                () -> serializers.get(1).deserialize(metaData, Tuple.from(1066L), chunks(truncated, 50), storeTimer));
+        assertThat(e.getMessage(), containsString("decompression error"));
+    }
+
+    @Test
+    public void compressWithLZ4() {
+        TransformedRecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .setCompressionCodec(LZ4CompressionCodec.INSTANCE)
+                .build();
+
+        for (String value : Arrays.asList(Strings.repeat("foo", 1000), SONNET_108)) {
+            MySimpleRecord record = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(value).build();
+            int rawLength = RecordTypeUnion.newBuilder().setMySimpleRecord(record).build().toByteArray().length;
+            byte[] serialized = serialize(serializer, record);
+            assertEquals(TransformedRecordSerializer.ENCODING_COMPRESSED, serialized[0]);
+            assertEquals(LZ4CompressionCodec.CODEC_ID, serialized[1]);
+            assertEquals(rawLength, ByteBuffer.wrap(serialized, 2, 4).order(ByteOrder.BIG_ENDIAN).getInt());
+            assertEquals(record, deserialize(serializer, Tuple.from(1066L), serialized));
+
+            logMetrics("metrics with LZ4 compression", "raw_length", rawLength, "compressed_length", serialized.length);
+
+            // A serializer that has not been told about the codec cannot read the record.
+            TransformedRecordSerializer<Message> deflateSerializer = TransformedRecordSerializer.newDefaultBuilder().setCompressWhenSerializing(true).build();
+            RecordSerializationException e = assertThrows(RecordSerializationException.class,
+                    () -> deserialize(deflateSerializer, Tuple.from(1066L), serialized));
+            assertThat(e.getMessage(), containsString("unknown compression version"));
+            TransformedRecordSerializer<Message> readingSerializer = TransformedRecordSerializer.newDefaultBuilder()
+                    .setCompressWhenSerializing(true)
+                    .addDecompressionCodec(LZ4CompressionCodec.INSTANCE)
+                    .build();
+            assertEquals(record, deserialize(readingSerializer, Tuple.from(1066L), serialized));
+            assertEquals(record, deserialize(readingSerializer.widen(), Tuple.from(1066L), serialized));
+
+            // And the LZ4 serializer can still read records compressed with DEFLATE.
+            byte[] deflated = serialize(deflateSerializer, record);
+            assertEquals(DeflateCompressionCodec.CODEC_ID, deflated[1]);
+            assertEquals(record, deserialize(serializer, Tuple.from(1066L), deflated));
+        }
+    }
+
+    @Test
+    public void customCompressionCodec() {
+        // A codec that just copies, to check that the serializer uses the codec and its id.
+        CompressionCodec copyCodec = new CompressionCodec() {
+            @Override
+            public int getCodecId() {
+                return 100;
+            }
+
+            @Override
+            public int compress(@Nonnull byte[] input, int inputOffset, int inputLength, @Nonnull byte[] output, int outputOffset, int maxOutputLength) {
+                if (inputLength > maxOutputLength - 1) {
+                    return -1;
+                }
+                System.arraycopy(input, inputOffset, output, outputOffset, inputLength);
+                return inputLength;
+            }
+
+            @Override
+            public void decompress(@Nonnull byte[] input, int inputOffset, int inputLength, @Nonnull byte[] output, int outputOffset, int outputLength) {
+                System.arraycopy(input, inputOffset, output, outputOffset, outputLength);
+            }
+        };
+        assertThrows(RecordCoreArgumentException.class, () -> TransformedRecordSerializer.newDefaultBuilder().setCompressionCodec(new LZ4CompressionCodec() {
+            @Override
+            public int getCodecId() {
+                return 128;
+            }
+        }));
+
+        TransformedRecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .setCompressionCodec(copyCodec)
+                .build();
+        // Never smaller, so never used.
+        MySimpleRecord record = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(SONNET_108).build();
+        byte[] serialized = serialize(serializer, record);
+        assertEquals(TransformedRecordSerializer.ENCODING_CLEAR, serialized[0]);
+
+        // But can read a record it might have written.
+        byte[] raw = RecordTypeUnion.newBuilder().setMySimpleRecord(record).build().toByteArray();
+        byte[] handMade = new byte[raw.length + 6];
+        handMade[0] = TransformedRecordSerializer.ENCODING_COMPRESSED;
+        handMade[1] = 100;
+        ByteBuffer.wrap(handMade, 2, 4).order(ByteOrder.BIG_ENDIAN).putInt(raw.length);
+        System.arraycopy(raw, 0, handMade, 6, raw.length);
+        assertEquals(record, deserialize(serializer, Tuple.from(1066L), handMade));
+    }
+
+    @Nonnull
+    private static MySimpleRecord sampleRecord(long recNo) {
+        return MySimpleRecord.newBuilder()
+                .setRecNo(recNo)
+                .setStrValueIndexed("customer/" + (recNo % 7) + "/region/north-america/status/active")
+                .setNumValue2((int)recNo * 3)
+                .setNumValueUnique((int)recNo)
+                .build();
+    }
+
+    @Test
+    public void compressWithDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (long i = 0; i < 100; i++) {
+            samples.add(RecordTypeUnion.newBuilder().setMySimpleRecord(sampleRecord(i)).build().toByteArray());
+        }
+        byte[] data = CompressionDictionaryTrainer.train(samples, CompressionDictionaryTrainer.DEFAULT_MAX_DICTIONARY_SIZE);
+        assertThat(data.length, greaterThan(0));
+        CompressionDictionaryCache dictionaries = new CompressionDictionaryCache();
+        dictionaries.add(new CompressionDictionary(17, "MySimpleRecord", data));
+
+        TransformedRecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .setCompressionDictionaries(dictionaries)
+                .build();
+        TransformedRecordSerializer<Message> plainSerializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .build();
+        MySimpleRecord record = sampleRecord(1066L);
+        byte[] serialized = serialize(serializer, record);
+        assertEquals(TransformedRecordSerializer.ENCODING_COMPRESSED, serialized[0]);
+        assertEquals(TransformedRecordSerializer.DICTIONARY_COMPRESSION_VERSION, serialized[1]);
+        assertEquals(17, ByteBuffer.wrap(serialized, 6, 4).order(ByteOrder.BIG_ENDIAN).getInt());
+        assertEquals(record, deserialize(serializer, Tuple.from(1066L), serialized));
+        // Plain DEFLATE cannot do anything with such a small record.
+        byte[] plainSerialized = serialize(plainSerializer, record);
+        assertEquals(TransformedRecordSerializer.ENCODING_CLEAR, plainSerialized[0]);
+        assertThat(serialized.length, lessThan(plainSerialized.length));
+        logMetrics("metrics with dictionary compression",
+                "plain_length", plainSerialized.length, "compressed_length", serialized.length, "dictionary_length", data.length);
+
+        // Later dictionaries are used for new records, but old ones are still readable.
+        dictionaries.add(new CompressionDictionary(18, "MySimpleRecord", Arrays.copyOf(data, data.length / 2)));
+        assertEquals(18, ByteBuffer.wrap(serialize(serializer, record), 6, 4).order(ByteOrder.BIG_ENDIAN).getInt());
+        assertEquals(record, deserialize(serializer, Tuple.from(1066L), serialized));
+
+        // Other types are compressed as before, which does nothing for small records.
+        TestRecords1Proto.MyOtherRecord otherRecord = TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(1066L).setNumValue2(3).build();
+        byte[] otherSerialized = serializer.serialize(metaData, metaData.getRecordType("MyOtherRecord"), otherRecord, storeTimer);
+        assertEquals(TransformedRecordSerializer.ENCODING_CLEAR, otherSerialized[0]);
+
+        RecordSerializationException e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(plainSerializer, Tuple.from(1066L), serialized));
+        assertThat(e.getMessage(), containsString("unknown compression dictionary"));
+
+        CompressionDictionaryCache wrongDictionaries = new CompressionDictionaryCache();
+        wrongDictionaries.add(new CompressionDictionary(17, "MySimpleRecord", "not the dictionary".getBytes()));
+        TransformedRecordSerializer<Message> wrongSerializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressionDictionaries(wrongDictionaries)
+                .build();
+        e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(wrongSerializer, Tuple.from(1066L), serialized));
+        assertThat(e.getMessage(), containsString("decompression error"));
+    }
+
     @Test
     public void buildWithoutSettingEncryption() {
         assertThrows(RecordCoreArgumentException.class, () -> TransformedRecordSerializer.newDefaultBuilder().setEncryptWhenSerializing(true).build());
@@ -258,4 +495,122 @@ public class TransformedRecordSerializerTest {
         Message deserialized = deserialize(serializer, Tuple.from(1066L), serialized);
         assertEquals(mediumRecord, deserialized);
     }
+
+    @Nonnull
+    private static SecretKey aesKey() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(128);
+        return keyGen.generateKey();
+    }
+
+    @Test
+    public void encryptWithKeyRotation() throws Exception {
+        SecretKey legacyKey = aesKey();
+        SecretKey key1 = aesKey();
+        SecretKey key2 = aesKey();
+        TransformedRecordSerializer<Message> legacySerializer = TransformedRecordSerializerJCE.newDefaultBuilder()
+                .setEncryptWhenSerializing(true)
+                .setEncryptionKey(legacyKey)
+                .build();
+        TransformedRecordSerializer<Message> serializer1 = TransformedRecordSerializerJCE.newDefaultBuilder()
+                .setEncryptWhenSerializing(true)
+                .addEncryptionKey(1, key1)
+                .setEncryptionKeyId(1)
+                .build();
+        TransformedRecordSerializer<Message> serializer2 = TransformedRecordSerializerJCE.newDefaultBuilder()
+                .setEncryptWhenSerializing(true)
+                .setCompressWhenSerializing(true)
+                .setEncryptionKey(legacyKey)
+                .addEncryptionKey(1, key1)
+                .addEncryptionKey(300, key2)
+                .setEncryptionKeyId(300)
+                .build();
+
+        MySimpleRecord mediumRecord = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(SONNET_108).build();
+        byte[] serializedLegacy = serialize(legacySerializer, mediumRecord);
+        assertEquals(TransformedRecordSerializer.ENCODING_ENCRYPTED, serializedLegacy[0]);
+        byte[] serialized1 = serialize(serializer1, mediumRecord);
+        assertEquals(TransformedRecordSerializer.ENCODING_ENCRYPTED | TransformedRecordSerializer.ENCODING_KEYED_ENCRYPTION, serialized1[0]);
+        assertEquals(1, serialized1[1]);
+        assertFalse(Bytes.indexOf(serialized1, "brain".getBytes()) >= 0, "should not contain clear text");
+        // Key id, IV and authentication tag, but no padding.
+        assertEquals(1 + 1 + TransformedRecordSerializerJCE.KEYED_IV_SIZE + serialize(DynamicMessageRecordSerializer.instance(), mediumRecord).length + 16,
+                serialized1.length);
+        byte[] serialized2 = serialize(serializer2, mediumRecord);
+        assertEquals(TransformedRecordSerializer.ENCODING_ENCRYPTED | TransformedRecordSerializer.ENCODING_KEYED_ENCRYPTION | TransformedRecordSerializer.ENCODING_COMPRESSED,
+                serialized2[0]);
+        assertArrayEquals(new byte[] {(byte)0xac, 0x02}, Arrays.copyOfRange(serialized2, 1, 3));
+        assertThat(serialized2.length, lessThan(serialized1.length));
+
+        // The rotated serializer reads records encrypted with all of its keys.
+        for (byte[] serialized : Arrays.asList(serializedLegacy, serialized1, serialized2)) {
+            assertEquals(mediumRecord, deserialize(serializer2, Tuple.from(1066L), serialized));
+        }
+        assertEquals(mediumRecord, deserialize(serializer1, Tuple.from(1066L), serialized1));
+
+        RecordSerializationException e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(serializer1, Tuple.from(1066L), serialized2));
+        assertThat(e.getMessage(), containsString("missing encryption key"));
+        assertEquals(300, e.getLogInfo().get("keyId"));
+        e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(serializer1, Tuple.from(1066L), serializedLegacy));
+        assertThat(e.getMessage(), containsString("missing encryption key"));
+        e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(legacySerializer, Tuple.from(1066L), serialized1));
+        assertThat(e.getMessage(), containsString("missing encryption key"));
+
+        // Any change is detected.
+        for (int i : new int[] {2, 3 + TransformedRecordSerializerJCE.KEYED_IV_SIZE, serialized1.length - 1}) {
+            byte[] tampered = Arrays.copyOf(serialized1, serialized1.length);
+            tampered[i] ^= 1;
+            e = assertThrows(RecordSerializationException.class, () -> deserialize(serializer1, Tuple.from(1066L), tampered));
+            assertThat(e.getMessage(), containsString("decryption error"));
+        }
+        e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(serializer1, Tuple.from(1066L), Arrays.copyOf(serialized1, 6)));
+        assertThat(e.getMessage(), containsString("too short"));
+    }
+
+    @Test
+    public void buildWithInvalidKeyId() throws Exception {
+        SecretKey key = aesKey();
+        assertThrows(RecordCoreArgumentException.class, () -> TransformedRecordSerializerJCE.newDefaultBuilder().addEncryptionKey(-1, key));
+        assertThrows(RecordCoreArgumentException.class, () -> TransformedRecordSerializerJCE.newDefaultBuilder()
+                .setEncryptWhenSerializing(true)
+                .addEncryptionKey(1, key)
+                .setEncryptionKeyId(2)
+                .build());
+    }
+
+    @Tag(Tags.Performance)
+    @Test
+    public void encryptionPerformance() throws Exception {
+        SecretKey key = aesKey();
+        List<TransformedRecordSerializer<Message>> serializers = Arrays.asList(
+                TransformedRecordSerializerJCE.newDefaultBuilder().setEncryptWhenSerializing(true).setEncryptionKey(key).build(),
+                TransformedRecordSerializerJCE.newDefaultBuilder().setEncryptWhenSerializing(true).addEncryptionKey(1, key).setEncryptionKeyId(1).build());
+        Random random = new Random();
+        List<MySimpleRecord> records = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            records.add(MySimpleRecord.newBuilder().setRecNo(i).setStrValueIndexed(SONNET_108.substring(random.nextInt(SONNET_108.length()))).build());
+        }
+        // Alternate between the serializers so that each pass sees the same conditions; the first passes are warm up.
+        for (int pass = 0; pass < 5; pass++) {
+            for (TransformedRecordSerializer<Message> serializer : serializers) {
+                List<byte[]> serialized = new ArrayList<>(records.size());
+                long start = System.nanoTime();
+                for (MySimpleRecord record : records) {
+                    serialized.add(serialize(serializer, record));
+                }
+                long mid = System.nanoTime();
+                for (int i = 0; i < records.size(); i++) {
+                    deserialize(serializer, Tuple.from(i), serialized.get(i));
+                }
+                long end = System.nanoTime();
+                resetTimer();
+                LOGGER.info("pass {} {}: serialize {} ms, deserialize {} ms", pass,
+                        serializer == serializers.get(0) ? "CBC" : "GCM", (mid - start) * 1e-6, (end - mid) * 1e-6);
+            }
+        }
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * AdaptivePipelineSizerTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.PipelineOperation;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.cursors.PipelineSizeAdjuster;
+import com.apple.test.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link AdaptivePipelineSizer}.
+ */
+@Tag(Tags.RequiresFDB)
+public class AdaptivePipelineSizerTest extends FDBRecordStoreTestBase {
+
+    @Test
+    public void invalidBounds() {
+        assertThrows(RecordCoreArgumentException.class, () -> new AdaptivePipelineSizer(1, 0, 10, 0));
+        assertThrows(RecordCoreArgumentException.class, () -> new AdaptivePipelineSizer(5, 6, 5, 0));
+        assertThrows(RecordCoreArgumentException.class, () -> new AdaptivePipelineSizer(11, 1, 10, 0));
+        assertThrows(RecordCoreArgumentException.class, () -> new AdaptivePipelineSizer(5, 1, 10, -1));
+    }
+
+    @Test
+    public void growsAndShrinks() {
+        final AdaptivePipelineSizer sizer = new AdaptivePipelineSizer(4, 2, 20, 0);
+        try (FDBRecordContext context = openContext()) {
+            final PipelineSizeAdjuster adjuster = sizer.getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD, context);
+            assertEquals(4, adjuster.getPipelineSize());
+
+            // Waiting for half the latency, in order, means the pipeline needs to be twice as deep.
+            adjuster.entryCompleted(null, 1000, 500, false);
+            assertEquals(8, adjuster.getPipelineSize());
+            // Out of order, it only grows by one.
+            adjuster.entryCompleted(null, 1000, 500, true);
+            assertEquals(9, adjuster.getPipelineSize());
+            // Never more than doubling, nor beyond the maximum.
+            adjuster.entryCompleted(null, 1000, 1000, false);
+            assertEquals(18, adjuster.getPipelineSize());
+            adjuster.entryCompleted(null, 1000, 1000, false);
+            assertEquals(20, adjuster.getPipelineSize());
+            // Waiting a tiny amount does not count.
+            adjuster.entryCompleted(null, 1000, 50, false);
+            assertEquals(20, adjuster.getPipelineSize());
+
+            // A full pipeline of ready entries shrinks by one, down to the minimum.
+            for (int i = 0; i < 19; i++) {
+                adjuster.entryCompleted(null, 1000, 0, false);
+            }
+            assertEquals(19, adjuster.getPipelineSize());
+            for (int i = 0; i < 1000; i++) {
+                adjuster.entryCompleted(null, 1000, 0, false);
+            }
+            assertEquals(2, adjuster.getPipelineSize());
+
+            // What is learned is per operation.
+            assertEquals(2, sizer.getPipelineSize(PipelineOperation.KEY_TO_RECORD));
+            assertEquals(4, sizer.getPipelineSize(PipelineOperation.INDEX_TO_RECORD));
+            assertEquals(1000, sizer.getAverageLatencyNanos(PipelineOperation.KEY_TO_RECORD));
+        }
+    }
+
+    @Test
+    public void outstandingBytesBudget() {
+        final AdaptivePipelineSizer sizer = new AdaptivePipelineSizer(10, 1, 100, 1000) {
+            @Override
+            protected long estimateSize(@Nullable Object value) {
+                return 100;
+            }
+        };
+        try (FDBRecordContext context1 = openContext(); FDBRecordContext context2 = openContext()) {
+            final PipelineSizeAdjuster adjuster1 = sizer.getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD, context1);
+            // Nothing is known about sizes until some entry completes.
+            assertEquals(10, adjuster1.getPipelineSize());
+            adjuster1.entryCompleted(null, 1000, 0, false);
+            assertEquals(100, sizer.getAverageBytes(PipelineOperation.KEY_TO_RECORD));
+            assertEquals(10, adjuster1.reservePipelineSize());
+
+            // The first pipeline has used the whole budget for this transaction, but not for another one.
+            final PipelineSizeAdjuster adjuster2 = sizer.getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD, context1);
+            assertEquals(1, adjuster2.getPipelineSize());
+            assertEquals(1, adjuster2.reservePipelineSize());
+            final PipelineSizeAdjuster adjuster3 = sizer.getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD, context2);
+            assertEquals(10, adjuster3.reservePipelineSize());
+
+            // The first pipeline now only gets what the second left.
+            assertEquals(9, adjuster1.getPipelineSize());
+            assertEquals(9, adjuster1.reservePipelineSize());
+            adjuster1.release();
+            assertEquals(10, adjuster2.getPipelineSize());
+
+            // Only reserving takes from the budget, so asking for the size again gives the same answer.
+            final PipelineSizeAdjuster adjuster4 = sizer.getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD, context2);
+            assertEquals(1, adjuster4.getPipelineSize());
+            assertEquals(1, adjuster4.getPipelineSize());
+            adjuster3.release();
+            assertEquals(10, adjuster4.getPipelineSize());
+            assertEquals(10, adjuster4.getPipelineSize());
+            final PipelineSizeAdjuster adjuster5 = sizer.getPipelineSizeAdjuster(PipelineOperation.KEY_TO_RECORD, context2);
+            assertEquals(10, adjuster5.getPipelineSize());
+        }
+    }
+
+    @Test
+    public void loadIndexedRecords() throws Exception {
+        final AdaptivePipelineSizer sizer = new AdaptivePipelineSizer();
+        try (FDBRecordContext context = openContext()) {
+            recordStore = getStoreBuilder(context, simpleMetaData(NO_HOOK))
+                    .setPipelineSizer(sizer)
+                    .createOrOpen();
+            for (int i = 0; i < 100; i++) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(i)
+                        .setNumValue3Indexed(i % 10)
+                        .build());
+            }
+            final List<Long> recNos = recordStore.scanIndexRecords("MySimpleRecord$num_value_3_indexed")
+                    .map(rec -> TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(rec.getRecord()).getRecNo())
+                    .asList().get();
+            assertEquals(100, recNos.size());
+            assertEquals(recNos.stream().sorted().collect(Collectors.toList()),
+                    recNos.stream().sorted().distinct().collect(Collectors.toList()));
+            assertThat(sizer.getAverageBytes(PipelineOperation.INDEX_TO_RECORD), greaterThan(0L));
+            assertThat(sizer.getAverageLatencyNanos(PipelineOperation.INDEX_TO_RECORD), greaterThan(0L));
+            commit(context);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * FDBRecordStoreCompressionDictionaryTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.ScanProperties;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.common.CompressionDictionary;
+import com.apple.foundationdb.record.provider.common.CompressionDictionaryCache;
+import com.apple.foundationdb.record.provider.common.CompressionDictionaryTrainer;
+import com.apple.foundationdb.record.provider.common.TransformedRecordSerializer;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.test.Tags;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for training and using compression dictionaries with a record store.
+ */
+@Tag(Tags.RequiresFDB)
+public class FDBRecordStoreCompressionDictionaryTest extends FDBRecordStoreTestBase {
+
+    private void openStore(@Nonnull FDBRecordContext context, @Nonnull CompressionDictionaryCache dictionaries) {
+        recordStore = getStoreBuilder(context, simpleMetaData(NO_HOOK))
+                .setSerializer(TransformedRecordSerializer.newDefaultBuilder()
+                        .setCompressWhenSerializing(true)
+                        .setCompressionDictionaries(dictionaries)
+                        .build())
+                .createOrOpen();
+    }
+
+    @Nonnull
+    private static TestRecords1Proto.MySimpleRecord sampleRecord(long recNo) {
+        return TestRecords1Proto.MySimpleRecord.newBuilder()
+                .setRecNo(recNo)
+                .setStrValueIndexed("account:" + (recNo % 5) + ":tier:premium:region:eu-west")
+                .setNumValue2((int)recNo % 3)
+                .build();
+    }
+
+    @Test
+    public void trainAndUseDictionary() {
+        final CompressionDictionaryCache dictionaries = new CompressionDictionaryCache();
+        try (FDBRecordContext context = openContext()) {
+            openStore(context, dictionaries);
+            // Nothing to train from yet.
+            final CompletionException e = assertThrows(CompletionException.class, () -> recordStore.trainCompressionDictionaryAsync("MySimpleRecord", 100,
+                    CompressionDictionaryTrainer.DEFAULT_MAX_DICTIONARY_SIZE).join());
+            assertThat(e.getCause(), instanceOf(RecordCoreException.class));
+            for (long i = 0; i < 50; i++) {
+                recordStore.saveRecord(sampleRecord(i));
+            }
+            commit(context);
+        }
+
+        final long sizeBefore;
+        try (FDBRecordContext context = openContext()) {
+            openStore(context, dictionaries);
+            sizeBefore = recordStore.loadRecord(Tuple.from(1L)).getValueSize();
+            final CompressionDictionary dictionary = recordStore.trainCompressionDictionaryAsync("MySimpleRecord", 100,
+                    CompressionDictionaryTrainer.DEFAULT_MAX_DICTIONARY_SIZE).join();
+            assertEquals(1, dictionary.getId());
+            commit(context);
+            dictionaries.add(dictionary);
+        }
+
+        try (FDBRecordContext context = openContext()) {
+            openStore(context, dictionaries);
+            for (long i = 0; i < 50; i++) {
+                recordStore.saveRecord(sampleRecord(i));
+            }
+            assertThat((long)recordStore.loadRecord(Tuple.from(1L)).getValueSize(), lessThan(sizeBefore));
+            final CompressionDictionary second = recordStore.trainCompressionDictionaryAsync("MySimpleRecord", 10,
+                    CompressionDictionaryTrainer.DEFAULT_MAX_DICTIONARY_SIZE).join();
+            assertEquals(2, second.getId());
+            commit(context);
+        }
+
+        // A fresh cache loaded from the store can read the records.
+        final CompressionDictionaryCache loaded = new CompressionDictionaryCache();
+        try (FDBRecordContext context = openContext()) {
+            openStore(context, loaded);
+            final List<CompressionDictionary> stored = recordStore.loadCompressionDictionariesAsync().join();
+            assertEquals(2, stored.size());
+            loaded.addAll(stored);
+            for (long i = 0; i < 50; i++) {
+                final Message record = recordStore.loadRecord(Tuple.from(i)).getRecord();
+                assertEquals(sampleRecord(i), TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(record).build());
+            }
+            commit(context);
+        }
+
+        // But one without the dictionaries cannot.
+        try (FDBRecordContext context = openContext()) {
+            openStore(context, new CompressionDictionaryCache());
+            final CompletionException e = assertThrows(CompletionException.class, () -> recordStore.loadRecordAsync(Tuple.from(1L)).join());
+            assertThat(e.getCause(), instanceOf(RecordCoreException.class));
+        }
+    }
+
+    @Test
+    public void sampleAcrossTransactions() {
+        final CompressionDictionaryCache dictionaries = new CompressionDictionaryCache();
+        try (FDBRecordContext context = openContext()) {
+            openStore(context, dictionaries);
+            // The primary key has no record type prefix, so the sampling scan has to skip over the other type.
+            for (long i = 0; i < 60; i++) {
+                if (i % 2 == 0) {
+                    recordStore.saveRecord(sampleRecord(i));
+                } else {
+                    recordStore.saveRecord(TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(i).setNumValue2((int)i).build());
+                }
+            }
+            commit(context);
+        }
+
+        final ScanProperties scanProperties = new ScanProperties(ExecuteProperties.newBuilder()
+                .setScannedRecordsLimit(7)
+                .build());
+        final List<byte[]> samples = new ArrayList<>();
+        byte[] continuation = null;
+        int transactions = 0;
+        do {
+            try (FDBRecordContext context = openContext()) {
+                openStore(context, dictionaries);
+                try (RecordCursor<byte[]> cursor = recordStore.scanCompressionDictionarySamples("MySimpleRecord", continuation, scanProperties)) {
+                    RecordCursorResult<byte[]> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        samples.add(result.get());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+                transactions++;
+            }
+        } while (continuation != null);
+        assertThat(transactions, greaterThan(1));
+        assertEquals(30, samples.size());
+
+        try (FDBRecordContext context = openContext()) {
+            openStore(context, dictionaries);
+            final CompressionDictionary dictionary = recordStore.trainCompressionDictionaryAsync("MySimpleRecord", samples,
+                    CompressionDictionaryTrainer.DEFAULT_MAX_DICTIONARY_SIZE).join();
+            assertEquals(1, dictionary.getId());
+            assertEquals("MySimpleRecord", dictionary.getRecordTypeName());
+            commit(context);
+        }
+    }
+}
@@ -33,6 +33,9 @@ import com.google.protobuf.Message;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.core.Is.is;
@@ -337,6 +340,66 @@ public class FDBRecordStoreCrudTest extends FDBRecordStoreTestBase {
         }
     }
 
+    @Test
+    public void preloadMany() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            for (long recNo : new long[] {1L, 2L, 3L, 5L, 6L, 100L}) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(recNo)
+                        .setStrValueIndexed("value_" + recNo)
+                        .build());
+            }
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            timer.reset();
+            // 4 and 4488 do not exist, and 3 is repeated.
+            final List<Tuple> primaryKeys = Arrays.asList(Tuple.from(100L), Tuple.from(3L), Tuple.from(1L), Tuple.from(2L),
+                    Tuple.from(3L), Tuple.from(4L), Tuple.from(5L), Tuple.from(6L), Tuple.from(4488L));
+            recordStore.preloadRecordsAsync(primaryKeys).get();
+            // 1 to 6 are read together.
+            assertEquals(1, timer.getCount(FDBStoreTimer.Counts.PRELOAD_RECORDS_RANGE_READ));
+            context.ensureActive().cancel(); // ensure no more I/O done through the transaction
+
+            for (Tuple primaryKey : primaryKeys) {
+                final long recNo = primaryKey.getLong(0);
+                final FDBStoredRecord<Message> record = recordStore.loadRecord(primaryKey);
+                if (recNo == 4L || recNo == 4488L) {
+                    assertNull(record);
+                } else {
+                    assertNotNull(record);
+                    assertEquals("value_" + recNo, TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(record.getRecord()).getStrValueIndexed());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void preloadManyMaxBytes() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            for (long recNo : new long[] {1L, 3L, 5L}) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(recNo)
+                        .build());
+            }
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            // Reads wait for each other once the first record is over the limit, but none are dropped.
+            recordStore.preloadRecordsAsync(Arrays.asList(Tuple.from(1L), Tuple.from(3L), Tuple.from(5L), Tuple.from(7L)), 1).get();
+            context.ensureActive().cancel(); // ensure no more I/O done through the transaction
+
+            assertNotNull(recordStore.loadRecord(Tuple.from(1L)));
+            assertNotNull(recordStore.loadRecord(Tuple.from(3L)));
+            assertNotNull(recordStore.loadRecord(Tuple.from(5L)));
+            assertNull(recordStore.loadRecord(Tuple.from(7L)));
+        }
+    }
+
     @Test
     public void delete() throws Exception {
         try (FDBRecordContext context = openContext()) {
@@ -23,6 +23,7 @@ package com.apple.foundationdb.record.provider.foundationdb;
 import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.IndexState;
 import com.apple.foundationdb.record.IsolationLevel;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
 import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordCursorIterator;
 import com.apple.foundationdb.record.RecordMetaData;
@@ -617,6 +618,50 @@ public class FDBRecordStoreSplitRecordsTest extends FDBRecordStoreTestBase {
         deleteAndCheckSplitSimpleRecord(recno);
     }
 
+    @Test
+    public void splitRecordSize() {
+        final String value = Strings.repeat("x", 25_000);
+        final RecordMetaDataHook typeSizeHook = md -> {
+            TEST_SPLIT_HOOK.apply(md);
+            md.getRecordType("MySimpleRecord").setSplitRecordSize(4_000);
+        };
+        try (FDBRecordContext context = openContext()) {
+            recordStore = getStoreBuilder(context, simpleMetaData(TEST_SPLIT_HOOK))
+                    .setFormatVersion(FDBRecordStore.SPLIT_RECORD_SIZE_FORMAT_VERSION - 1)
+                    .create();
+            assertThrows(RecordCoreException.class, () -> recordStore.setSplitRecordSize(10_000));
+
+            recordStore = recordStore.asBuilder().setFormatVersion(FDBRecordStore.SPLIT_RECORD_SIZE_FORMAT_VERSION).open();
+            assertEquals(0, recordStore.getStoreSplitRecordSize());
+            assertEquals(1, recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(1L).setStrValueIndexed(value).build()).getKeyCount());
+
+            assertThrows(RecordCoreArgumentException.class, () -> recordStore.setSplitRecordSize(SplitHelper.SPLIT_RECORD_SIZE + 1));
+            assertTrue(recordStore.setSplitRecordSize(10_000));
+            assertFalse(recordStore.setSplitRecordSize(10_000));
+            assertEquals(10_000, recordStore.getStoreSplitRecordSize());
+            assertEquals(3, recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(2L).setStrValueIndexed(value).build()).getKeyCount());
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, typeSizeHook);
+            assertEquals(10_000, recordStore.getStoreSplitRecordSize());
+            assertEquals(7, recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(3L).setStrValueIndexed(value).build()).getKeyCount());
+            assertEquals(10_000, recordStore.getSplitRecordSize(recordStore.getRecordMetaData().getRecordType("MyOtherRecord")));
+
+            // Records split with any of the sizes read back the same.
+            for (long recNo = 1L; recNo <= 3L; recNo++) {
+                final FDBStoredRecord<Message> stored = recordStore.loadRecord(Tuple.from(recNo));
+                assertNotNull(stored);
+                assertEquals(value, TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(stored.getRecord()).getStrValueIndexed());
+            }
+            assertEquals(3, recordStore.scanRecords(null, ScanProperties.FORWARD_SCAN).getCount().join().intValue());
+
+            assertTrue(recordStore.setSplitRecordSize(0));
+            assertEquals(7, recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(2L).setStrValueIndexed(value).build()).getKeyCount());
+            commit(context);
+        }
+    }
+
     private void saveAndCheckSplitSimpleRecord(long recno, String strValue, int numValue) {
         FDBStoredRecord<Message> savedRecord = saveAndSplitSimpleRecord(recno, strValue, numValue);
         try (FDBRecordContext context = openContext()) {
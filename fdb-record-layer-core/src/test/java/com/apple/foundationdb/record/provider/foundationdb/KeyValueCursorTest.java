@@ -26,6 +26,7 @@ import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.ExecuteState;
 import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorBatch;
 import com.apple.foundationdb.record.RecordCursorIterator;
 import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.RecordScanLimiter;
@@ -41,12 +42,15 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -294,6 +298,64 @@ public class KeyValueCursorTest extends FDBTestBase {
         });
     }
 
+    @Test
+    public void batches() {
+        fdb.run(context -> {
+            KeyValueCursor cursor = KeyValueCursor.Builder.withSubspace(subspace)
+                    .setContext(context)
+                    .setRange(TupleRange.ALL)
+                    .setContinuation(null)
+                    .setScanProperties(ScanProperties.FORWARD_SCAN.with(props -> props.setReturnedRowLimit(17)))
+                    .build();
+            List<Tuple> values = new ArrayList<>();
+            RecordCursorBatch<KeyValue> batch = cursor.onNextBatch(4).join();
+            assertFalse(batch.hasStopped());
+            assertThat(batch.size(), lessThanOrEqualTo(4));
+            batch.getValues().forEach(kv -> values.add(Tuple.fromBytes(kv.getValue())));
+            // Batches and single results can be mixed.
+            values.add(Tuple.fromBytes(cursor.getNext().get().getValue()));
+            batch = cursor.forEachBatch(100, rest -> rest.getValues().forEach(kv -> values.add(Tuple.fromBytes(kv.getValue())))).join();
+            assertEquals(RecordCursor.NoNextReason.RETURN_LIMIT_REACHED, batch.getNoNextReason());
+            assertEquals(17, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals(Tuple.from(i / 5, i % 5), values.get(i));
+            }
+
+            cursor = KeyValueCursor.Builder.withSubspace(subspace)
+                    .setContext(context)
+                    .setRange(TupleRange.ALL)
+                    .setContinuation(batch.getContinuation().toBytes())
+                    .setScanProperties(ScanProperties.FORWARD_SCAN)
+                    .build();
+            batch = cursor.forEachBatch(3, rest -> rest.getValues().forEach(kv -> values.add(Tuple.fromBytes(kv.getValue())))).join();
+            assertEquals(RecordCursor.NoNextReason.SOURCE_EXHAUSTED, batch.getNoNextReason());
+            assertNull(batch.getContinuation().toBytes());
+            assertEquals(25, values.size());
+            assertEquals(Tuple.from(4, 4), values.get(24));
+
+            return null;
+        });
+    }
+
+    @Test
+    public void batchesWithScanLimit() {
+        fdb.run(context -> {
+            RecordScanLimiter limiter = RecordScanLimiterFactory.enforce(7);
+            KeyValueCursor cursor = KeyValueCursor.Builder.withSubspace(subspace)
+                    .setContext(context)
+                    .setRange(TupleRange.ALL)
+                    .setScanProperties(forwardScanWithLimiter(limiter))
+                    .build();
+            List<KeyValue> values = new ArrayList<>();
+            RecordCursorBatch<KeyValue> batch = cursor.forEachBatch(100, rest -> values.addAll(rest.getValues())).join();
+            assertEquals(7, values.size());
+            assertEquals(RecordCursor.NoNextReason.SCAN_LIMIT_REACHED, batch.getNoNextReason());
+            assertArrayEquals(subspace.unpack(values.get(6).getKey()).pack(), batch.getContinuation().toBytes());
+
+            return null;
+        });
+    }
+
     private ScanProperties forwardScanWithLimiter(RecordScanLimiter limiter) {
         return new ScanProperties(ExecuteProperties.SERIAL_EXECUTE.setState(new ExecuteState(limiter, null)));
     }
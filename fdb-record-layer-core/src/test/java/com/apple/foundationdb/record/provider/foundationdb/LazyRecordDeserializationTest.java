@@ -0,0 +1,169 @@
+/*
+ * LazyRecordDeserializationTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.record.provider.common.TransformedRecordSerializer;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.expressions.Query;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.test.Tags;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link FDBRecordStore.Builder#setLazyRecordDeserialization}.
+ */
+@Tag(Tags.RequiresFDB)
+public class LazyRecordDeserializationTest extends FDBRecordStoreTestBase {
+
+    private void openLazyRecordStore(FDBRecordContext context) {
+        recordStore = getStoreBuilder(context, simpleMetaData(NO_HOOK))
+                .setLazyRecordDeserialization(true)
+                .createOrOpen();
+    }
+
+    private void saveRecords() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            for (int i = 0; i < 50; i++) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(i)
+                        .setStrValueIndexed(Strings.repeat("abc", 100 + i))
+                        .setNumValue2(i % 5)
+                        .addRepeater(i)
+                        .build());
+            }
+            commit(context);
+        }
+    }
+
+    @Test
+    public void loadRecord() throws Exception {
+        saveRecords();
+        try (FDBRecordContext context = openContext()) {
+            openLazyRecordStore(context);
+            timer.reset();
+            final FDBStoredRecord<Message> stored = recordStore.loadRecord(Tuple.from(7L));
+            assertNotNull(stored);
+            assertEquals("MySimpleRecord", stored.getRecordType().getName());
+            assertFalse(stored.isRecordDeserialized());
+
+            final Message partial = stored.getRecordWithFields(ImmutableSet.of("num_value_2"));
+            assertEquals(2, TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(partial).getNumValue2());
+            assertFalse(stored.isRecordDeserialized());
+            assertEquals(0, timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+
+            final TestRecords1Proto.MySimpleRecord record = TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(stored.getRecord()).build();
+            assertTrue(stored.isRecordDeserialized());
+            assertEquals(7L, record.getRecNo());
+            assertEquals(Strings.repeat("abc", 107), record.getStrValueIndexed());
+            assertEquals(1, timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+
+            // Once deserialized, the whole record is returned.
+            assertEquals(stored.getRecord(), stored.getRecordWithFields(ImmutableSet.of("num_value_2")));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void compressedRecord() throws Exception {
+        final RecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .build();
+        try (FDBRecordContext context = openContext()) {
+            recordStore = getStoreBuilder(context, simpleMetaData(NO_HOOK))
+                    .setSerializer(serializer)
+                    .createOrOpen();
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                    .setRecNo(1066L)
+                    .setStrValueIndexed(Strings.repeat("abc", 1000))
+                    .setNumValue2(42)
+                    .build());
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            recordStore = getStoreBuilder(context, simpleMetaData(NO_HOOK))
+                    .setSerializer(serializer)
+                    .setLazyRecordDeserialization(true)
+                    .createOrOpen();
+            timer.reset();
+            final FDBStoredRecord<Message> stored = recordStore.loadRecord(Tuple.from(1066L));
+            assertNotNull(stored);
+            for (int i = 0; i < 3; i++) {
+                final Message partial = stored.getRecordWithFields(ImmutableSet.of("num_value_2"));
+                assertEquals(42, TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(partial).getNumValue2());
+            }
+            assertEquals(Strings.repeat("abc", 1000),
+                    TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(stored.getRecord()).getStrValueIndexed());
+            // Decompressed once when loaded, not again for each parse.
+            assertEquals(1, timer.getCount(RecordSerializer.Events.DECOMPRESS_SERIALIZED_RECORD));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void filterQuery() throws Exception {
+        saveRecords();
+        final RecordQuery query = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("num_value_2").equalsValue(3))
+                .build();
+        final List<Long> expected;
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            expected = recordStore.executeQuery(query)
+                    .map(rec -> TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(rec.getRecord()).getRecNo())
+                    .asList().get();
+            commit(context);
+        }
+        assertEquals(10, expected.size());
+
+        try (FDBRecordContext context = openContext()) {
+            openLazyRecordStore(context);
+            timer.reset();
+            final List<FDBQueriedRecord<Message>> results = recordStore.executeQuery(query).asList().get();
+            // Once to get each record's type when loading it and once to get the field for the filter.
+            assertEquals(100, timer.getCount(RecordSerializer.Events.DESERIALIZE_PARTIAL_PROTOBUF_RECORD));
+            assertEquals(0, timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+            for (FDBQueriedRecord<Message> result : results) {
+                assertFalse(result.getStoredRecord().isRecordDeserialized());
+            }
+            assertEquals(expected, results.stream()
+                    .map(rec -> TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(rec.getRecord()).getRecNo())
+                    .collect(Collectors.toList()));
+            assertEquals(expected.size(), timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+            commit(context);
+        }
+    }
+}
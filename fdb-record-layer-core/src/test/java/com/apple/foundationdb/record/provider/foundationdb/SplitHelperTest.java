@@ -41,9 +41,12 @@ import com.google.common.collect.Lists;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -53,6 +56,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
@@ -76,6 +80,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
  */
 @Tag(Tags.RequiresFDB)
 public class SplitHelperTest extends FDBRecordStoreTestBase {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SplitHelperTest.class);
 
     // From the traditional nursery rhyme
     private static final byte[] HUMPTY_DUMPTY =
@@ -306,6 +311,128 @@ public class SplitHelperTest extends FDBRecordStoreTestBase {
         }
     }
 
+    @Nonnull
+    private FDBRawRecord saveChangedSplits(@Nonnull FDBRecordContext context, @Nonnull Tuple key, @Nonnull byte[] serialized,
+                                           @Nullable FDBRecordVersion version, int expectedUnchanged) throws Exception {
+        final FDBRawRecord previous = SplitHelper.loadWithSplit(context.ensureActive(), context, subspace, key, true, false, null).get();
+        assertNotNull(previous);
+        timer.reset();
+        final SplitHelper.SizeInfo sizeInfo = new SplitHelper.SizeInfo();
+        SplitHelper.saveWithSplit(context, subspace, key, serialized, version, true, false, true, previous, previous.getRawRecordChunks(), sizeInfo);
+        assertEquals(expectedUnchanged, timer.getCount(FDBStoreTimer.Counts.SAVE_RECORD_UNCHANGED_SPLIT_KEY));
+        final FDBRawRecord saved = loadWithSplit(context, key, true, false, sizeInfo, serialized, version);
+        assertNotNull(saved);
+        return saved;
+    }
+
+    @BooleanSource
+    @ParameterizedTest(name = "saveChangedSplits [withVersion = {0}]")
+    public void saveChangedSplits(boolean withVersion) throws Exception {
+        final byte[] globalVersion = "-waterloo-".getBytes(Charsets.US_ASCII);
+        try (FDBRecordContext context = openContext()) {
+            final Tuple key = Tuple.from(1815L);
+            saveWithSplit(context, key, VERY_LONG_STRING, withVersion ? FDBRecordVersion.complete(globalVersion, context.claimLocalVersion()) : null, true, false);
+            assertEquals(3, SplitHelper.loadWithSplit(context.ensureActive(), context, subspace, key, true, false, null).get().getRawRecordChunks().getChunkCount());
+
+            // A change in the last chunk leaves the others alone.
+            final byte[] changed = Arrays.copyOf(VERY_LONG_STRING, VERY_LONG_STRING.length);
+            changed[changed.length - 1] ^= 1;
+            saveChangedSplits(context, key, changed, withVersion ? FDBRecordVersion.complete(globalVersion, context.claimLocalVersion()) : null, 2);
+
+            // A shorter record with the same start trims the rest.
+            final FDBRawRecord shorter = saveChangedSplits(context, key, LONG_STRING, null, 1);
+            assertEquals(2, shorter.getKeyCount());
+
+            // A longer one writes the new chunk and the changed last one.
+            saveChangedSplits(context, key, VERY_LONG_STRING, withVersion ? FDBRecordVersion.incomplete(context.claimLocalVersion()) : null, 1);
+
+            commit(context);
+        }
+    }
+
+    @Nonnull
+    private FDBRawRecord saveWithSplitRecordSize(@Nonnull FDBRecordContext context, @Nonnull Tuple key, @Nonnull byte[] serialized,
+                                                 @Nullable FDBRecordVersion version, int splitRecordSize, boolean changedOnly) throws Exception {
+        final FDBRawRecord previous = SplitHelper.loadWithSplit(context.ensureActive(), context, subspace, key, true, false, null).get();
+        final SplitHelper.SizeInfo sizeInfo = new SplitHelper.SizeInfo();
+        SplitHelper.saveWithSplit(context, subspace, key, serialized, version, true, false, true, previous,
+                changedOnly && previous != null ? previous.getRawRecordChunks() : null, splitRecordSize, sizeInfo);
+        final int dataKeyCount = (serialized.length - 1) / splitRecordSize + 1;
+        assertEquals(dataKeyCount + (version != null ? 1 : 0), sizeInfo.getKeyCount());
+        assertEquals(dataKeyCount > 1, sizeInfo.isSplit());
+        final FDBRawRecord saved = loadWithSplit(context, key, true, false, sizeInfo, serialized, version);
+        assertNotNull(saved);
+        assertEquals(dataKeyCount, saved.getRawRecordChunks().getChunkCount());
+        return saved;
+    }
+
+    @BooleanSource
+    @ParameterizedTest(name = "saveWithSplitRecordSize [changedOnly = {0}]")
+    public void saveWithSplitRecordSize(boolean changedOnly) throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            final Tuple key = Tuple.from(1642L);
+            // Each save reads back whatever size the previous one used.
+            saveWithSplitRecordSize(context, key, VERY_LONG_STRING, null, SplitHelper.SPLIT_RECORD_SIZE, changedOnly);
+            saveWithSplitRecordSize(context, key, VERY_LONG_STRING, FDBRecordVersion.incomplete(context.claimLocalVersion()), 10_000, changedOnly);
+            saveWithSplitRecordSize(context, key, VERY_LONG_STRING, null, 25_000, changedOnly);
+            saveWithSplitRecordSize(context, key, MEDIUM_STRING, null, 100, changedOnly);
+            saveWithSplitRecordSize(context, key, MEDIUM_STRING, null, MEDIUM_LEGNTH, changedOnly);
+            saveWithSplitRecordSize(context, key, LONG_STRING, null, SplitHelper.SPLIT_RECORD_SIZE, changedOnly);
+
+            for (int splitRecordSize : new int[] {0, SplitHelper.SPLIT_RECORD_SIZE + 1}) {
+                assertThrows(RecordCoreArgumentException.class, () -> SplitHelper.saveWithSplit(context, subspace, key, LONG_STRING, null, true, false,
+                        false, null, null, splitRecordSize, null));
+            }
+            // Only records being split use a smaller size.
+            RecordCoreException err = assertThrows(RecordCoreException.class, () -> SplitHelper.saveWithSplit(context, subspace, Tuple.from(1643L), LONG_STRING, null, false, false,
+                    false, null, null, 100, null));
+            assertThat(err.getMessage(), containsString("Record is too long"));
+            final SplitHelper.SizeInfo unsplitSizeInfo = new SplitHelper.SizeInfo();
+            SplitHelper.saveWithSplit(context, subspace, Tuple.from(1643L), MEDIUM_STRING, null, false, false,
+                    false, null, null, 100, unsplitSizeInfo);
+            assertThat(unsplitSizeInfo.isSplit(), is(false));
+            assertNotNull(loadWithSplit(context, Tuple.from(1643L), false, false, unsplitSizeInfo, MEDIUM_STRING));
+
+            commit(context);
+        }
+    }
+
+    @Tag(Tags.Performance)
+    @Test
+    public void splitRecordSizePerformance() throws Exception {
+        final int recordCount = 50;
+        final byte[] contents = new byte[1_000_000];
+        new Random(0x5eed).nextBytes(contents);
+        for (int splitRecordSize : new int[] {5_000, 10_000, 25_000, 50_000, SplitHelper.SPLIT_RECORD_SIZE}) {
+            long writeNanos = 0;
+            long readNanos = 0;
+            // First pass is warm up.
+            for (int pass = 0; pass < 2; pass++) {
+                writeNanos = 0;
+                readNanos = 0;
+                for (int i = 0; i < recordCount; i++) {
+                    final Tuple key = Tuple.from(splitRecordSize, i);
+                    long start = System.nanoTime();
+                    try (FDBRecordContext context = openContext()) {
+                        SplitHelper.saveWithSplit(context, subspace, key, contents, null, true, false,
+                                false, null, null, splitRecordSize, null);
+                        commit(context);
+                    }
+                    writeNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    try (FDBRecordContext context = openContext()) {
+                        final FDBRawRecord rawRecord = SplitHelper.loadWithSplit(context.ensureActive(), context, subspace, key, true, false, null).get();
+                        assertNotNull(rawRecord);
+                        assertEquals(contents.length, rawRecord.getRawRecordChunks().size());
+                    }
+                    readNanos += System.nanoTime() - start;
+                }
+            }
+            LOGGER.info("split record size {}: {} records of {} bytes, write {} ms per record, read {} ms per record",
+                    splitRecordSize, recordCount, contents.length, writeNanos * 1e-6 / recordCount, readNanos * 1e-6 / recordCount);
+        }
+    }
+
     @MethodSource("splitAndSuffixArgs")
     @ParameterizedTest(name = "saveWithSplitAndIncompleteVersions [splitLongRecords = {0}, omitUnsplitSuffix = {1}]")
     public void saveWithSplitAndIncompleteVersions(boolean splitLongRecords, boolean omitUnsplitSuffix) throws Exception {
@@ -567,11 +694,19 @@ public class SplitHelperTest extends FDBRecordStoreTestBase {
     @Nullable
     private FDBRawRecord loadWithSplit(@Nonnull FDBRecordContext context, @Nonnull Tuple key, boolean splitLongRecords, boolean omitUnsplitSuffix,
                                        @Nullable FDBStoredSizes expectedSizes, @Nullable byte[] expectedContents, @Nullable FDBRecordVersion expectedVersion) {
+        return loadWithSplit(context, key, splitLongRecords, omitUnsplitSuffix, expectedSizes, expectedContents, expectedVersion, 1);
+    }
+
+    @Nullable
+    @SuppressWarnings("squid:S00107") // too many parameters
+    private FDBRawRecord loadWithSplit(@Nonnull FDBRecordContext context, @Nonnull Tuple key, boolean splitLongRecords, boolean omitUnsplitSuffix,
+                                       @Nullable FDBStoredSizes expectedSizes, @Nullable byte[] expectedContents, @Nullable FDBRecordVersion expectedVersion,
+                                       int readConcurrency) {
         final ReadTransaction tr = context.ensureActive();
         SplitHelper.SizeInfo sizeInfo = new SplitHelper.SizeInfo();
         FDBRawRecord rawRecord;
         try {
-            rawRecord = SplitHelper.loadWithSplit(tr, context, subspace, key, splitLongRecords, omitUnsplitSuffix, sizeInfo).get();
+            rawRecord = SplitHelper.loadWithSplit(tr, context, subspace, key, splitLongRecords, omitUnsplitSuffix, sizeInfo, readConcurrency).get();
         } catch (InterruptedException | ExecutionException e) {
             throw FDBExceptions.wrapException(e);
         }
@@ -648,6 +783,36 @@ public class SplitHelperTest extends FDBRecordStoreTestBase {
         }
     }
 
+    @MethodSource("splitAndSuffixArgs")
+    @ParameterizedTest(name = "loadWithSplitConcurrently [splitLongRecords = {0}, omitUnsplitSuffix = {1}]")
+    public void loadWithSplitConcurrently(boolean splitLongRecords, boolean omitUnsplitSuffix) throws Exception {
+        loadSingleRecords(splitLongRecords, omitUnsplitSuffix,
+                (context, key, expectedSizes, expectedContents, version) -> loadWithSplit(context, key, splitLongRecords, omitUnsplitSuffix, expectedSizes, expectedContents, version, 3));
+    }
+
+    @BooleanSource
+    @ParameterizedTest(name = "loadManySplitsConcurrently [withVersion = {0}]")
+    public void loadManySplitsConcurrently(boolean withVersion) throws Exception {
+        final int splits = 20;
+        final ByteBuffer contents = ByteBuffer.allocate(HUMPTY_DUMPTY.length * splits);
+        for (int i = 0; i < splits; i++) {
+            contents.put(HUMPTY_DUMPTY);
+        }
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordVersion version = withVersion ? FDBRecordVersion.complete("-agincourt".getBytes(Charsets.US_ASCII), context.claimLocalVersion()) : null;
+            final FDBStoredSizes sizes = writeDummyRecord(context, Tuple.from(1415L), version, splits, false);
+            for (int readConcurrency : new int[] {1, 2, 4, 100}) {
+                timer.reset();
+                loadWithSplit(context, Tuple.from(1415L), true, false, sizes, contents.array(), version, readConcurrency);
+                // The first three keys and the last are read separately.
+                final int middle = splits - (withVersion ? 2 : 3) - 1;
+                assertEquals(readConcurrency > 1 ? Math.min(readConcurrency, middle) : 0,
+                        timer.getCount(FDBStoreTimer.Counts.LOAD_SPLIT_RECORD_CONCURRENT_RANGE_READ));
+            }
+            commit(context);
+        }
+    }
+
     private FDBRawRecord scanSingleRecord(@Nonnull FDBRecordContext context, boolean reverse, @Nonnull Tuple key, @Nullable FDBStoredSizes expectedSizes, @Nullable byte[] expectedContents, @Nullable FDBRecordVersion version) {
         final ScanProperties scanProperties = reverse ? ScanProperties.REVERSE_SCAN : ScanProperties.FORWARD_SCAN;
         KeyValueCursor kvCursor = KeyValueCursor.Builder.withSubspace(subspace)
@@ -672,6 +837,8 @@ public class SplitHelperTest extends FDBRecordStoreTestBase {
             assertNotNull(rawRecord);
             assertEquals(key, rawRecord.getPrimaryKey());
             assertArrayEquals(expectedContents, rawRecord.getRawRecord());
+            // Each value is kept as it was read rather than being joined.
+            assertEquals(rawRecord.getKeyCount() - (rawRecord.isVersionedInline() ? 1 : 0), rawRecord.getRawRecordChunks().getChunkCount());
             assertEquals(expectedSizes.getKeyCount(), rawRecord.getKeyCount());
             assertEquals(expectedSizes.getKeySize(), rawRecord.getKeySize());
             assertEquals(expectedSizes.getValueSize(), rawRecord.getValueSize());
@@ -0,0 +1,189 @@
+/*
+ * TransactionRecordCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.test.Tags;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for {@link FDBRecordStore.Builder#setTransactionRecordCacheSize}.
+ */
+@Tag(Tags.RequiresFDB)
+public class TransactionRecordCacheTest extends FDBRecordStoreTestBase {
+
+    private void openCachingRecordStore(FDBRecordContext context, int cacheSize) {
+        recordStore = getStoreBuilder(context, simpleMetaData(NO_HOOK))
+                .setTransactionRecordCacheSize(cacheSize)
+                .createOrOpen();
+    }
+
+    private void saveRecords() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            for (int i = 0; i < 20; i++) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(i)
+                        .setStrValueIndexed("value_" + i)
+                        .build());
+            }
+            commit(context);
+        }
+    }
+
+    private static String strValue(FDBStoredRecord<Message> stored) {
+        return TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(stored.getRecord()).getStrValueIndexed();
+    }
+
+    @Test
+    public void loadTwice() throws Exception {
+        saveRecords();
+        try (FDBRecordContext context = openContext()) {
+            openCachingRecordStore(context, 10);
+            timer.reset();
+            final FDBStoredRecord<Message> first = recordStore.loadRecord(Tuple.from(3L));
+            assertNotNull(first);
+            assertNull(recordStore.loadRecord(Tuple.from(1066L)));
+            assertEquals(2, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS));
+            assertEquals(1, timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+
+            assertSame(first, recordStore.loadRecord(Tuple.from(3L)));
+            assertNull(recordStore.loadRecord(Tuple.from(1066L)));
+            // A snapshot read can use the result of a regular read.
+            assertSame(first, recordStore.loadRecord(Tuple.from(3L), true));
+            assertEquals(3, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_HIT));
+            assertEquals(2, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS));
+            assertEquals(1, timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void snapshotThenRegular() throws Exception {
+        saveRecords();
+        try (FDBRecordContext context = openContext()) {
+            openCachingRecordStore(context, 10);
+            timer.reset();
+            final FDBStoredRecord<Message> snapshot = recordStore.loadRecord(Tuple.from(3L), true);
+            // A regular read must add a read conflict, so it cannot use the result of a snapshot read.
+            final FDBStoredRecord<Message> regular = recordStore.loadRecord(Tuple.from(3L));
+            assertNotSame(snapshot, regular);
+            assertSame(regular, recordStore.loadRecord(Tuple.from(3L)));
+            assertEquals(1, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_HIT));
+            assertEquals(2, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void saveAndDelete() throws Exception {
+        saveRecords();
+        try (FDBRecordContext context = openContext()) {
+            openCachingRecordStore(context, 10);
+            assertEquals("value_3", strValue(recordStore.loadRecord(Tuple.from(3L))));
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                    .setRecNo(3L)
+                    .setStrValueIndexed("changed")
+                    .build());
+            assertEquals("changed", strValue(recordStore.loadRecord(Tuple.from(3L))));
+
+            assertNull(recordStore.loadRecord(Tuple.from(1066L)));
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                    .setRecNo(1066L)
+                    .setStrValueIndexed("new")
+                    .build());
+            assertEquals("new", strValue(recordStore.loadRecord(Tuple.from(1066L))));
+
+            recordStore.deleteRecord(Tuple.from(3L));
+            assertNull(recordStore.loadRecord(Tuple.from(3L)));
+
+            assertNotNull(recordStore.loadRecord(Tuple.from(4L)));
+            recordStore.deleteAllRecords();
+            assertNull(recordStore.loadRecord(Tuple.from(4L)));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void deltaWriteNotCountedAsMiss() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            recordStore = getStoreBuilder(context, simpleMetaData(md -> md.setSplitLongRecords(true)))
+                    .setTransactionRecordCacheSize(10)
+                    .setSplitRecordDeltaWrites(true)
+                    .createOrOpen();
+            timer.reset();
+            // Saving reads the old record without looking in the cache, since it needs the raw form.
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                    .setRecNo(3L)
+                    .setStrValueIndexed("first")
+                    .build());
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                    .setRecNo(3L)
+                    .setStrValueIndexed("second")
+                    .build());
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS));
+            assertEquals("second", strValue(recordStore.loadRecord(Tuple.from(3L))));
+            assertEquals(1, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        saveRecords();
+        try (FDBRecordContext context = openContext()) {
+            openCachingRecordStore(context, 5);
+            timer.reset();
+            for (int i = 0; i < 20; i++) {
+                recordStore.loadRecord(Tuple.from((long)i));
+            }
+            // Only the last five loaded are still there.
+            for (int i = 19; i >= 0; i--) {
+                recordStore.loadRecord(Tuple.from((long)i));
+            }
+            assertEquals(5, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_HIT));
+            assertEquals(35, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        saveRecords();
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            timer.reset();
+            assertNotSame(recordStore.loadRecord(Tuple.from(3L)), recordStore.loadRecord(Tuple.from(3L)));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.TRANSACTION_RECORD_CACHE_MISS));
+            commit(context);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * VersionedRecordCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.test.Tags;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link FDBVersionedRecordCache}.
+ */
+@Tag(Tags.RequiresFDB)
+public class VersionedRecordCacheTest extends FDBRecordStoreTestBase {
+
+    private final FDBVersionedRecordCache versionedRecordCache = new FDBVersionedRecordCache(100);
+
+    private static final RecordMetaDataHook VERSIONS_HOOK = metaData -> metaData.setStoreRecordVersions(true);
+
+    private void openCachingRecordStore(FDBRecordContext context, @Nullable RecordMetaDataHook hook) {
+        recordStore = getStoreBuilder(context, simpleMetaData(hook))
+                .setVersionedRecordCache(versionedRecordCache)
+                .createOrOpen();
+    }
+
+    private void saveRecord(long recNo, String value, @Nullable RecordMetaDataHook hook) {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, hook);
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                    .setRecNo(recNo)
+                    .setStrValueIndexed(value)
+                    .build());
+            commit(context);
+        }
+    }
+
+    @Nullable
+    private FDBStoredRecord<Message> loadRecord(long recNo, @Nullable RecordMetaDataHook hook) {
+        try (FDBRecordContext context = openContext()) {
+            openCachingRecordStore(context, hook);
+            final FDBStoredRecord<Message> stored = recordStore.loadRecord(Tuple.from(recNo));
+            commit(context);
+            return stored;
+        }
+    }
+
+    private static String strValue(FDBStoredRecord<Message> stored) {
+        return TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(stored.getRecord()).getStrValueIndexed();
+    }
+
+    @Test
+    public void validatedByVersion() throws Exception {
+        saveRecord(1066L, "first", VERSIONS_HOOK);
+        timer.reset();
+        final FDBStoredRecord<Message> first = loadRecord(1066L, VERSIONS_HOOK);
+        assertNotNull(first);
+        assertEquals(1, versionedRecordCache.size());
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.VERSIONED_RECORD_CACHE_MISS));
+
+        timer.reset();
+        assertSame(first, loadRecord(1066L, VERSIONS_HOOK));
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.VERSIONED_RECORD_CACHE_HIT));
+        assertEquals(0, timer.getCount(FDBStoreTimer.Counts.LOAD_RECORD_KEY));
+        assertEquals(0, timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+
+        // A change made elsewhere changes the version.
+        saveRecord(1066L, "second", VERSIONS_HOOK);
+        timer.reset();
+        final FDBStoredRecord<Message> second = loadRecord(1066L, VERSIONS_HOOK);
+        assertNotNull(second);
+        assertEquals("second", strValue(second));
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.VERSIONED_RECORD_CACHE_MISS));
+        assertSame(second, loadRecord(1066L, VERSIONS_HOOK));
+
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, VERSIONS_HOOK);
+            recordStore.deleteRecord(Tuple.from(1066L));
+            commit(context);
+        }
+        assertNull(loadRecord(1066L, VERSIONS_HOOK));
+    }
+
+    @Test
+    public void changedInTransaction() throws Exception {
+        saveRecord(1066L, "first", VERSIONS_HOOK);
+        assertNotNull(loadRecord(1066L, VERSIONS_HOOK));
+        try (FDBRecordContext context = openContext()) {
+            openCachingRecordStore(context, VERSIONS_HOOK);
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                    .setRecNo(1066L)
+                    .setStrValueIndexed("second")
+                    .build());
+            final FDBStoredRecord<Message> stored = recordStore.loadRecord(Tuple.from(1066L));
+            assertNotNull(stored);
+            assertEquals("second", strValue(stored));
+            // Not committed, so not cached.
+        }
+        assertEquals("first", strValue(loadRecord(1066L, VERSIONS_HOOK)));
+    }
+
+    @Test
+    public void lazilyLoaded() throws Exception {
+        saveRecord(1066L, "first", VERSIONS_HOOK);
+        final FDBStoredRecord<Message> first;
+        try (FDBRecordContext context = openContext()) {
+            recordStore = getStoreBuilder(context, simpleMetaData(VERSIONS_HOOK))
+                    .setVersionedRecordCache(versionedRecordCache)
+                    .setLazyRecordDeserialization(true)
+                    .createOrOpen();
+            first = recordStore.loadRecord(Tuple.from(1066L));
+            commit(context);
+        }
+        assertNotNull(first);
+        // Cached fully deserialized, rather than keeping the deserializer and so the store that loaded it.
+        assertTrue(first.isRecordDeserialized());
+        timer.reset();
+        final FDBStoredRecord<Message> cached = loadRecord(1066L, VERSIONS_HOOK);
+        assertSame(first, cached);
+        assertEquals("first", strValue(cached));
+        assertEquals(0, timer.getCount(RecordSerializer.Events.DESERIALIZE_PROTOBUF_RECORD));
+    }
+
+    @Test
+    public void withoutVersions() throws Exception {
+        saveRecord(1066L, "first", NO_HOOK);
+        final FDBStoredRecord<Message> first = loadRecord(1066L, NO_HOOK);
+        assertNotNull(first);
+        assertEquals(0, versionedRecordCache.size());
+        assertNotSame(first, loadRecord(1066L, NO_HOOK));
+    }
+}
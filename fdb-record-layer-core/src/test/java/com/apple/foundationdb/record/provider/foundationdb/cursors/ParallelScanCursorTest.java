@@ -0,0 +1,210 @@
+/*
+ * ParallelScanCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.record.EndpointType;
+import com.apple.foundationdb.record.ParallelScanProperties;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ParallelScanCursor}.
+ */
+public class ParallelScanCursorTest {
+    private static final Executor EXECUTOR = ForkJoinPool.commonPool();
+    private static final List<Tuple> ELEMENTS = IntStream.range(0, 100).mapToObj(Tuple::from).collect(Collectors.toList());
+    private static final List<Tuple> BOUNDARIES = Arrays.asList(
+            Tuple.from(-5), Tuple.from(10), Tuple.from(25), Tuple.from(25), Tuple.from(50), Tuple.from(75), Tuple.from(80), Tuple.from(200));
+
+    static Stream<Arguments> scanParameters() {
+        return Stream.of(1, 2, 8).flatMap(parallelism ->
+                Stream.of(true, false).flatMap(ordered ->
+                        Stream.of(false, true).flatMap(reverse ->
+                                Stream.of(false, true).map(async -> Arguments.of(parallelism, ordered, reverse, async)))));
+    }
+
+    /**
+     * Partition cursor over the elements that fall within the given range.
+     */
+    @Nonnull
+    private static RecordCursor<Tuple> partition(@Nonnull TupleRange range, @Nullable byte[] continuation,
+                                                 boolean reverse, boolean async, int limit) {
+        final Range keyRange = range.toRange();
+        final List<Tuple> inRange = ELEMENTS.stream()
+                .filter(t -> ByteArrayUtil.compareUnsigned(keyRange.begin, t.pack()) <= 0 && ByteArrayUtil.compareUnsigned(t.pack(), keyRange.end) < 0)
+                .collect(Collectors.toList());
+        if (reverse) {
+            Collections.reverse(inRange);
+        }
+        RecordCursor<Tuple> cursor = RecordCursor.fromList(EXECUTOR, inRange, continuation).limitRowsTo(limit);
+        if (async) {
+            cursor = cursor.mapPipelined(t -> CompletableFuture.supplyAsync(() -> t, EXECUTOR), 1);
+        }
+        return cursor;
+    }
+
+    @Nonnull
+    private static List<Tuple> scanAll(@Nonnull TupleRange range, @Nonnull ParallelScanProperties parallelScanProperties,
+                                       boolean reverse, boolean async, int partitionLimit, int outerLimit,
+                                       @Nonnull AtomicInteger boundaryRequests) {
+        final List<Tuple> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            final RecordCursor<Tuple> cursor = ParallelScanCursor.create(range,
+                    () -> {
+                        boundaryRequests.incrementAndGet();
+                        return CompletableFuture.completedFuture(BOUNDARIES);
+                    },
+                    (partitionRange, partitionContinuation) -> partition(partitionRange, partitionContinuation, reverse, async, partitionLimit),
+                    t -> 10,
+                    parallelScanProperties, reverse, continuation, EXECUTOR)
+                    .limitRowsTo(outerLimit);
+            RecordCursorResult<Tuple> result;
+            do {
+                result = cursor.getNext();
+                if (result.hasNext()) {
+                    results.add(result.get());
+                }
+            } while (result.hasNext());
+            cursor.close();
+            continuation = result.getContinuation().toBytes();
+        } while (continuation != null);
+        return results;
+    }
+
+    private static void assertScanned(@Nonnull List<Tuple> expected, @Nonnull List<Tuple> actual, boolean ordered, boolean reverse) {
+        if (ordered) {
+            final List<Tuple> expectedOrder = new ArrayList<>(expected);
+            if (reverse) {
+                Collections.reverse(expectedOrder);
+            }
+            assertEquals(expectedOrder, actual);
+        } else {
+            final List<Tuple> sorted = new ArrayList<>(actual);
+            sorted.sort(Tuple::compareTo);
+            assertEquals(expected, sorted);
+        }
+    }
+
+    @ParameterizedTest(name = "scan [parallelism = {0}, ordered = {1}, reverse = {2}, async = {3}]")
+    @MethodSource("scanParameters")
+    public void scan(int parallelism, boolean ordered, boolean reverse, boolean async) {
+        final ParallelScanProperties parallelScanProperties = new ParallelScanProperties(parallelism, ParallelScanProperties.DEFAULT_BUFFERED_BYTES_LIMIT, ordered);
+        final AtomicInteger boundaryRequests = new AtomicInteger();
+        final List<Tuple> results = scanAll(TupleRange.ALL, parallelScanProperties, reverse, async, Integer.MAX_VALUE, Integer.MAX_VALUE, boundaryRequests);
+        assertScanned(ELEMENTS, results, ordered, reverse);
+        assertEquals(1, boundaryRequests.get());
+    }
+
+    @ParameterizedTest(name = "resumeAfterPartitionLimits [parallelism = {0}, ordered = {1}, reverse = {2}, async = {3}]")
+    @MethodSource("scanParameters")
+    public void resumeAfterPartitionLimits(int parallelism, boolean ordered, boolean reverse, boolean async) {
+        final ParallelScanProperties parallelScanProperties = new ParallelScanProperties(parallelism, ParallelScanProperties.DEFAULT_BUFFERED_BYTES_LIMIT, ordered);
+        final AtomicInteger boundaryRequests = new AtomicInteger();
+        final List<Tuple> results = scanAll(TupleRange.ALL, parallelScanProperties, reverse, async, 3, Integer.MAX_VALUE, boundaryRequests);
+        assertScanned(ELEMENTS, results, ordered, reverse);
+        // The partitions are taken from the first continuation afterwards.
+        assertEquals(1, boundaryRequests.get());
+    }
+
+    @ParameterizedTest(name = "resumeAfterEachRecord [parallelism = {0}, ordered = {1}, reverse = {2}, async = {3}]")
+    @MethodSource("scanParameters")
+    public void resumeAfterEachRecord(int parallelism, boolean ordered, boolean reverse, boolean async) {
+        final ParallelScanProperties parallelScanProperties = new ParallelScanProperties(parallelism, 0, ordered);
+        final AtomicInteger boundaryRequests = new AtomicInteger();
+        final TupleRange range = new TupleRange(Tuple.from(5), Tuple.from(90), EndpointType.RANGE_EXCLUSIVE, EndpointType.RANGE_INCLUSIVE);
+        final List<Tuple> results = scanAll(range, parallelScanProperties, reverse, async, Integer.MAX_VALUE, 1, boundaryRequests);
+        assertScanned(ELEMENTS.subList(6, 91), results, ordered, reverse);
+        assertEquals(1, boundaryRequests.get());
+    }
+
+    @Test
+    public void splitPoints() {
+        assertEquals(Arrays.asList(-5L, 10L, 25L, 50L, 75L, 80L, 200L),
+                splitPointValues(TupleRange.ALL));
+        assertEquals(Arrays.asList(25L, 50L, 75L),
+                splitPointValues(new TupleRange(Tuple.from(10), Tuple.from(80), EndpointType.RANGE_INCLUSIVE, EndpointType.RANGE_EXCLUSIVE)));
+        assertEquals(Arrays.asList(50L, 75L, 80L),
+                splitPointValues(new TupleRange(Tuple.from(25), Tuple.from(80), EndpointType.RANGE_EXCLUSIVE, EndpointType.RANGE_INCLUSIVE)));
+        assertEquals(Collections.emptyList(),
+                splitPointValues(TupleRange.allOf(Tuple.from(50))));
+        assertEquals(Collections.emptyList(),
+                splitPointValues(TupleRange.prefixedBy("a")));
+    }
+
+    @Test
+    public void invalidContinuation() {
+        final byte[] continuation = RecordCursorProto.ParallelScanContinuation.newBuilder()
+                .setNextPartition(3)
+                .build().toByteArray();
+        assertThrows(RecordCoreArgumentException.class, () -> ParallelScanCursor.create(TupleRange.ALL,
+                () -> CompletableFuture.completedFuture(BOUNDARIES),
+                (partitionRange, partitionContinuation) -> partition(partitionRange, partitionContinuation, false, false, Integer.MAX_VALUE),
+                t -> 10, ParallelScanProperties.ORDERED, false, continuation, EXECUTOR));
+    }
+
+    @Test
+    public void partitionCount() {
+        final ParallelScanCursor<Tuple> cursor = ParallelScanCursor.create(TupleRange.ALL,
+                () -> CompletableFuture.completedFuture(BOUNDARIES),
+                (partitionRange, partitionContinuation) -> partition(partitionRange, partitionContinuation, false, false, Integer.MAX_VALUE),
+                t -> 10, ParallelScanProperties.UNORDERED, false, null, EXECUTOR);
+        assertEquals(-1, cursor.getPartitionCount());
+        assertTrue(cursor.getNext().hasNext());
+        assertEquals(8, cursor.getPartitionCount());
+        cursor.close();
+    }
+
+    @Nonnull
+    private static List<Long> splitPointValues(@Nonnull TupleRange range) {
+        return ParallelScanCursor.splitPoints(range, BOUNDARIES).stream()
+                .map(bytes -> Tuple.fromBytes(bytes).getLong(0))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * TournamentTreeTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.test.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link TournamentTree} and the merge cursors that use it.
+ */
+public class TournamentTreeTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TournamentTreeTest.class);
+
+    @Test
+    public void winnerAfterUpdates() {
+        final Random r = new Random(0x5eed);
+        for (int size = 1; size <= 17; size++) {
+            final int[] keys = new int[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = r.nextInt(10);
+            }
+            final TournamentTree tree = new TournamentTree(size, (i, j) -> Integer.compare(keys[i], keys[j]));
+            for (int step = 0; step < 100; step++) {
+                final int entry = r.nextInt(size);
+                keys[entry] = r.nextInt(10);
+                tree.update(entry);
+                final int min = minOf(keys);
+                assertEquals(min, keys[tree.winner()]);
+
+                final List<Integer> equal = new ArrayList<>();
+                tree.forEachLessThan(tree.winner(), true, equal::add);
+                final List<Integer> expectedEqual = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    if (keys[i] == min) {
+                        expectedEqual.add(i);
+                    }
+                }
+                Collections.sort(equal);
+                assertEquals(expectedEqual, equal);
+                // Ties go to the lowest index, wherever it is in the tree.
+                assertEquals(expectedEqual.get(0).intValue(), tree.winner());
+
+                final List<Integer> less = new ArrayList<>();
+                tree.forEachLessThan(entry, false, less::add);
+                final List<Integer> expectedLess = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    if (keys[i] < keys[entry]) {
+                        expectedLess.add(i);
+                    }
+                }
+                Collections.sort(less);
+                assertEquals(expectedLess, less);
+            }
+        }
+    }
+
+    private static int minOf(@Nonnull int[] keys) {
+        int min = Integer.MAX_VALUE;
+        for (int key : keys) {
+            min = Math.min(min, key);
+        }
+        return min;
+    }
+
+    @Nonnull
+    private static List<List<Long>> randomChildren(@Nonnull Random r, int count, int size, long range) {
+        final List<List<Long>> children = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final TreeSet<Long> values = new TreeSet<>();
+            while (values.size() < size) {
+                values.add((long)r.nextInt((int)range));
+            }
+            children.add(new ArrayList<>(values));
+        }
+        return children;
+    }
+
+    @Nonnull
+    private static List<Function<byte[], RecordCursor<Long>>> cursorFunctions(@Nonnull List<List<Long>> children, boolean reverse) {
+        return children.stream().map(child -> {
+            final List<Long> ordered = new ArrayList<>(child);
+            if (reverse) {
+                Collections.reverse(ordered);
+            }
+            return (Function<byte[], RecordCursor<Long>>)continuation -> RecordCursor.fromList(ordered, continuation);
+        }).collect(Collectors.toList());
+    }
+
+    @Nonnull
+    private static List<Object> key(@Nonnull Long value) {
+        return Collections.singletonList(value);
+    }
+
+    @Nonnull
+    private static List<Long> drain(@Nonnull Function<byte[], RecordCursor<Long>> cursorFunction, int limit) {
+        final List<Long> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            try (RecordCursor<Long> cursor = cursorFunction.apply(continuation).limitRowsTo(limit)) {
+                RecordCursorResult<Long> result;
+                while ((result = cursor.getNext()).hasNext()) {
+                    results.add(result.get());
+                }
+                continuation = result.getContinuation().toBytes();
+            }
+        } while (continuation != null);
+        return results;
+    }
+
+    @Test
+    public void unionMatchesLinearMerge() {
+        final Random r = new Random(0xfdb);
+        for (int count : new int[] {2, 3, 7, 16}) {
+            for (boolean reverse : new boolean[] {false, true}) {
+                final List<List<Long>> children = randomChildren(r, count, 50, 200);
+                final TreeSet<Long> expected = new TreeSet<>();
+                children.forEach(expected::addAll);
+                final List<Long> expectedList = new ArrayList<>(reverse ? expected.descendingSet() : expected);
+                final List<Function<byte[], RecordCursor<Long>>> functions = cursorFunctions(children, reverse);
+                for (int limit : new int[] {Integer.MAX_VALUE, 1, 7}) {
+                    assertEquals(expectedList, drain(continuation ->
+                            UnionCursor.create(TournamentTreeTest::key, reverse, functions, continuation, null), limit));
+                }
+            }
+        }
+    }
+
+    /**
+     * When several children have the same key, the union returns the value from the first of them, as the linear
+     * merge did. The values here are the key times 100 plus the child's index, so the one returned can be told apart.
+     */
+    @Test
+    public void unionDuplicatesFromFirstChild() {
+        final Random r = new Random(0xd0b);
+        for (int count : new int[] {2, 3, 5, 6, 7, 11}) {
+            for (boolean reverse : new boolean[] {false, true}) {
+                final List<List<Long>> children = randomChildren(r, count, 15, 20);
+                final TreeMap<Long, Long> expected = new TreeMap<>();
+                for (int i = 0; i < count; i++) {
+                    for (ListIterator<Long> iter = children.get(i).listIterator(); iter.hasNext(); ) {
+                        final long key = iter.next();
+                        final long value = key * 100 + i;
+                        iter.set(value);
+                        expected.putIfAbsent(key, value);
+                    }
+                }
+                final List<Long> expectedList = new ArrayList<>(reverse ? expected.descendingMap().values() : expected.values());
+                final List<Function<byte[], RecordCursor<Long>>> functions = cursorFunctions(children, reverse);
+                for (int limit : new int[] {Integer.MAX_VALUE, 1, 4}) {
+                    assertEquals(expectedList, drain(continuation ->
+                            UnionCursor.create(value -> key(value / 100), reverse, functions, continuation, null), limit));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void intersectionMatchesLinearMerge() {
+        final Random r = new Random(0xfdb);
+        for (int count : new int[] {2, 3, 7, 16}) {
+            for (boolean reverse : new boolean[] {false, true}) {
+                final List<List<Long>> children = randomChildren(r, count, 150, 200);
+                final TreeSet<Long> expected = new TreeSet<>(children.get(0));
+                children.forEach(expected::retainAll);
+                final List<Long> expectedList = new ArrayList<>(reverse ? expected.descendingSet() : expected);
+                final List<Function<byte[], RecordCursor<Long>>> functions = cursorFunctions(children, reverse);
+                for (int limit : new int[] {Integer.MAX_VALUE, 1, 3}) {
+                    assertEquals(expectedList, drain(continuation ->
+                            IntersectionCursor.create(TournamentTreeTest::key, reverse, functions, continuation, null), limit));
+                }
+            }
+        }
+    }
+
+    /**
+     * The merge step as done before the tournament tree: a linear scan over all the children for the minimum.
+     * Returns the number of elements merged, so that the work cannot be optimized away.
+     */
+    private static long linearMerge(@Nonnull List<List<Long>> children) {
+        final int[] positions = new int[children.size()];
+        long merged = 0;
+        while (true) {
+            List<Object> minKey = null;
+            for (int i = 0; i < children.size(); i++) {
+                if (positions[i] < children.get(i).size()) {
+                    final List<Object> childKey = key(children.get(i).get(positions[i]));
+                    if (minKey == null || KeyComparisons.KEY_COMPARATOR.compare(childKey, minKey) < 0) {
+                        minKey = childKey;
+                    }
+                }
+            }
+            if (minKey == null) {
+                return merged;
+            }
+            for (int i = 0; i < children.size(); i++) {
+                if (positions[i] < children.get(i).size() && KeyComparisons.KEY_COMPARATOR.compare(key(children.get(i).get(positions[i])), minKey) == 0) {
+                    positions[i]++;
+                }
+            }
+            merged++;
+        }
+    }
+
+    private static long tournamentMerge(@Nonnull List<List<Long>> children) {
+        final int[] positions = new int[children.size()];
+        final List<List<Object>> keys = new ArrayList<>(children.size());
+        for (List<Long> child : children) {
+            keys.add(child.isEmpty() ? null : key(child.get(0)));
+        }
+        final TournamentTree tree = new TournamentTree(children.size(), (i, j) -> compareNullsLast(keys.get(i), keys.get(j)));
+        final List<Integer> chosen = new ArrayList<>();
+        long merged = 0;
+        while (keys.get(tree.winner()) != null) {
+            chosen.clear();
+            tree.forEachLessThan(tree.winner(), true, chosen::add);
+            for (int i : chosen) {
+                positions[i]++;
+                keys.set(i, positions[i] < children.get(i).size() ? key(children.get(i).get(positions[i])) : null);
+                tree.update(i);
+            }
+            merged++;
+        }
+        return merged;
+    }
+
+    private static int compareNullsLast(@Nullable List<Object> key1, @Nullable List<Object> key2) {
+        if (key1 == null) {
+            return key2 == null ? 0 : 1;
+        } else if (key2 == null) {
+            return -1;
+        } else {
+            return KeyComparisons.KEY_COMPARATOR.compare(key1, key2);
+        }
+    }
+
+    @Tag(Tags.Performance)
+    @Test
+    public void mergePerformance() {
+        final Random r = new Random();
+        for (int count : new int[] {2, 8, 32, 128}) {
+            final List<List<Long>> children = randomChildren(r, count, 100_000 / count, 1_000_000_000L);
+            // Warm up both before timing either.
+            for (int i = 0; i < 5; i++) {
+                assertEquals(linearMerge(children), tournamentMerge(children));
+            }
+            final long linearStart = System.nanoTime();
+            final long linearMerged = linearMerge(children);
+            final long linearEnd = System.nanoTime();
+            final long tournamentMerged = tournamentMerge(children);
+            final long tournamentEnd = System.nanoTime();
+            assertEquals(linearMerged, tournamentMerged);
+            LOGGER.info("merged {} elements from {} children: linear {} ms, tournament {} ms",
+                    linearMerged, count, (linearEnd - linearStart) * 1e-6, (tournamentEnd - linearEnd) * 1e-6);
+        }
+    }
+}
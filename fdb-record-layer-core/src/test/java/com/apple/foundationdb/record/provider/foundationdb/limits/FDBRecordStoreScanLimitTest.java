@@ -24,6 +24,7 @@ import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.IndexScanType;
 import com.apple.foundationdb.record.IsolationLevel;
+import com.apple.foundationdb.record.ParallelScanProperties;
 import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordCursor;
 import com.apple.foundationdb.record.RecordCursorIterator;
@@ -73,10 +74,13 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -358,6 +362,50 @@ public class FDBRecordStoreScanLimitTest extends FDBRecordStoreLimitTestBase {
         assertEquals(createdRecords, scannedRecords);
     }
 
+    static Stream<Arguments> scanRecordsParallelByContinuation() {
+        return Stream.of(false, true).flatMap(ordered ->
+                Stream.of(false, true).map(rowLimit -> Arguments.of(ordered, rowLimit)));
+    }
+
+    @ParameterizedTest(name = "scanRecordsParallelByContinuation [ordered = {0}, rowLimit = {1}]")
+    @MethodSource
+    public void scanRecordsParallelByContinuation(boolean ordered, boolean rowLimit) throws Exception {
+        final ExecuteProperties executeProperties = rowLimit
+                                                    ? ExecuteProperties.newBuilder().setReturnedRowLimit(7).build()
+                                                    : ExecuteProperties.newBuilder().setScannedRecordsLimit(7).build();
+        final ParallelScanProperties parallelScanProperties = new ParallelScanProperties(4, 1024, ordered);
+        final List<Long> recNos = new ArrayList<>();
+        byte[] continuation = null;
+        int transactions = 0;
+        do {
+            // Each page in its own transaction, resuming from the continuation of the last.
+            try (FDBRecordContext context = openContext()) {
+                openSimpleRecordStore(context);
+                try (RecordCursor<FDBStoredRecord<Message>> cursor = recordStore.scanRecordsParallel(TupleRange.ALL, continuation,
+                        new ScanProperties(executeProperties), parallelScanProperties)) {
+                    RecordCursorResult<FDBStoredRecord<Message>> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        recNos.add(TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(result.get().getRecord()).getRecNo());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+                commit(context);
+            }
+            transactions++;
+        } while (continuation != null);
+        assertThat(transactions, greaterThan(1));
+
+        final List<Long> expected = LongStream.range(0, 100).boxed().collect(Collectors.toList());
+        if (ordered) {
+            assertEquals(expected, recNos);
+        } else {
+            // No record missing and none returned twice.
+            final List<Long> sorted = new ArrayList<>(recNos);
+            Collections.sort(sorted);
+            assertEquals(expected, sorted);
+        }
+    }
+
     @ParameterizedTest
     @ValueSource(ints = {2, 5, 10, 20}) // for this test, the scan limit must divide 100
     public void testExecuteStateReset(int scanLimit) throws Exception {
@@ -20,9 +20,12 @@
 
 package com.apple.foundationdb.record.provider.foundationdb.query;
 
+import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.IndexScanType;
+import com.apple.foundationdb.record.RecordCursor;
 import com.apple.foundationdb.record.RecordCursorIterator;
+import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.TestRecords1Proto;
 import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.expressions.KeyWithValueExpression;
@@ -33,11 +36,15 @@ import com.apple.foundationdb.record.query.expressions.OrComponent;
 import com.apple.foundationdb.record.query.expressions.Query;
 import com.apple.foundationdb.record.query.expressions.QueryComponent;
 import com.apple.foundationdb.record.query.plan.PlannableIndexTypes;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlanner;
 import com.apple.foundationdb.record.query.plan.ScanComparisons;
+import com.apple.foundationdb.record.query.plan.plans.PlanStatistics;
+import com.apple.foundationdb.record.query.plan.plans.PlanStatisticsCollector;
 import com.apple.foundationdb.record.query.plan.plans.QueryPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryIndexPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryUnionPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryUnorderedPrimaryKeyDistinctPlan;
 import com.apple.foundationdb.record.query.plan.temp.CascadesPlanner;
 import com.apple.foundationdb.record.query.plan.temp.ExpressionRefTraversal;
 import com.apple.foundationdb.record.query.plan.temp.GroupExpressionRef;
@@ -62,6 +69,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import javax.annotation.Nonnull;
 import java.util.Arrays;
@@ -89,7 +97,9 @@ import static com.apple.foundationdb.record.query.plan.match.PlanMatchers.unorde
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThan;
@@ -641,6 +651,52 @@ public class FDBOrQueryToUnionTest extends FDBRecordStoreQueryTestBase {
         }
     }
 
+    /**
+     * Verify that an unordered union with a memory limit on removing duplicates does not return any record twice,
+     * even across continuations.
+     */
+    @ParameterizedTest(name = "testOrQuery5WithBoundedDistinct [limit = {0}]")
+    @ValueSource(ints = {1, 7, 100})
+    public void testOrQuery5WithBoundedDistinct(int limit) throws Exception {
+        RecordMetaDataHook hook = complexQuerySetupHook();
+        complexQuerySetup(hook);
+        RecordQuery query = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.or(
+                        Query.field("str_value_indexed").lessThan("m"),
+                        Query.field("num_value_3_indexed").greaterThan(3)))
+                .setRemoveDuplicates(true)
+                .build();
+        RecordQueryPlanner recordQueryPlanner = (RecordQueryPlanner) planner;
+        recordQueryPlanner.setConfiguration(recordQueryPlanner.getConfiguration()
+                .asBuilder()
+                .setDistinctMaxBytesInMemory(256)
+                .build());
+        RecordQueryPlan plan = planner.plan(query);
+        assertThat(plan, primaryKeyDistinct(unorderedUnion(
+                indexScan(allOf(indexName("MySimpleRecord$str_value_indexed"), bounds(hasTupleString("([null],[m])")))),
+                indexScan(allOf(indexName("MySimpleRecord$num_value_3_indexed"), bounds(hasTupleString("([3],>"))))
+        )));
+        assertEquals(256, ((RecordQueryUnorderedPrimaryKeyDistinctPlan) plan).getMaxBytesInMemory());
+
+        final Set<Tuple> uniqueKeys = new HashSet<>();
+        byte[] continuation = null;
+        do {
+            try (FDBRecordContext context = openContext()) {
+                openSimpleRecordStore(context, hook);
+                try (RecordCursor<FDBQueriedRecord<Message>> cursor = recordStore.executeQuery(plan, continuation,
+                        ExecuteProperties.newBuilder().setReturnedRowLimit(limit).build())) {
+                    RecordCursorResult<FDBQueriedRecord<Message>> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        assertThat(uniqueKeys.add(result.get().getPrimaryKey()), is(true));
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+            }
+        } while (continuation != null);
+        assertEquals(50 + 10, uniqueKeys.size());
+    }
+
     /**
      * Verify that a complex query with an OR of an AND produces a union plan if appropriate indexes are defined.
      * In particular, verify that it can use the last field of an index and does not require primary key ordering
@@ -1204,4 +1260,61 @@ public class FDBOrQueryToUnionTest extends FDBRecordStoreQueryTestBase {
                 filter(Query.field("num_value_3_indexed").lessThanOrEquals(18),
                         coveringIndexScan(indexScan(allOf(indexName("coveringIndex"), bounds(hasTupleString("[[26],>")))))))))));
     }
+
+    /**
+     * Verify that executing a union with a statistics collector records statistics for each of its index scans.
+     */
+    @Test
+    public void unionPlanStatistics() throws Exception {
+        RecordMetaDataHook hook = complexQuerySetupHook();
+        complexQuerySetup(hook);
+        RecordQuery query = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.or(
+                        Query.field("str_value_indexed").equalsValue("odd"),
+                        Query.field("num_value_3_indexed").equalsValue(0)))
+                .setSort(null, true)
+                .setRemoveDuplicates(true)
+                .build();
+        setDeferFetchAfterUnionAndIntersection(false);
+        RecordQueryPlan plan = planner.plan(query);
+        assertThat(plan, union(
+                indexScan(allOf(indexName("MySimpleRecord$str_value_indexed"), bounds(hasTupleString("[[odd],[odd]]")))),
+                indexScan(allOf(indexName("MySimpleRecord$num_value_3_indexed"), bounds(hasTupleString("[[0],[0]]"))))));
+
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, hook);
+            final PlanStatisticsCollector collector = new PlanStatisticsCollector(plan);
+            final int count = plan.executePlan(recordStore, EvaluationContext.EMPTY.withPlanStatisticsCollector(collector),
+                    null, ExecuteProperties.SERIAL_EXECUTE).getCount().join();
+            assertEquals(60, count);
+
+            final PlanStatistics statistics = collector.getStatistics();
+            assertEquals(plan, statistics.getPlan());
+            assertEquals(1, statistics.getExecutions());
+            assertEquals(count, statistics.getRowsOut());
+            assertEquals(70, statistics.getRowsIn());
+            assertEquals(2, statistics.getChildren().size());
+            final PlanStatistics oddStatistics = statistics.getChildren().get(0);
+            assertEquals(50, oddStatistics.getRowsOut());
+            final PlanStatistics zeroStatistics = statistics.getChildren().get(1);
+            assertEquals(20, zeroStatistics.getRowsOut());
+            for (PlanStatistics child : statistics.getChildren()) {
+                assertEquals(1, child.getExecutions());
+                assertEquals(0, child.getRowsIn());
+                // Each record is at least one key, plus one for its index entry.
+                assertThat(child.getKeysScanned(), greaterThanOrEqualTo(2 * child.getRowsOut()));
+                assertThat(child.getBytesScanned(), greaterThan(child.getKeysScanned()));
+                assertThat(child.getWaitTimeNanos(), greaterThan(0L));
+                assertThat(statistics.getWaitTimeNanos(), greaterThanOrEqualTo(child.getWaitTimeNanos()));
+            }
+            assertEquals(oddStatistics.getKeysScanned() + zeroStatistics.getKeysScanned(), statistics.getKeysScanned());
+            assertEquals(oddStatistics.getBytesScanned() + zeroStatistics.getBytesScanned(), statistics.getBytesScanned());
+
+            final String dot = statistics.exportToDot();
+            assertThat(dot, containsString("rows out: 50"));
+            assertThat(dot, containsString("rows out: 20"));
+            assertThat(dot, containsString("rows out: 60"));
+        }
+    }
 }
@@ -23,12 +23,15 @@ package com.apple.foundationdb.record.provider.foundationdb.query;
 import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
 import com.apple.foundationdb.record.RecordCursorIterator;
+import com.apple.foundationdb.record.RecordCursorResult;
 import com.apple.foundationdb.record.RecordMetaData;
 import com.apple.foundationdb.record.RecordMetaDataBuilder;
 import com.apple.foundationdb.record.TestHelpers;
 import com.apple.foundationdb.record.TestRecords1Proto;
 import com.apple.foundationdb.record.TestRecordsWithHeaderProto;
+import com.apple.foundationdb.record.cursors.AggregateOperation;
 import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.IndexOptions;
 import com.apple.foundationdb.record.metadata.IndexTypes;
@@ -37,14 +40,21 @@ import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression.FanType;
 import com.apple.foundationdb.record.provider.foundationdb.FDBQueriedRecord;
 import com.apple.foundationdb.record.provider.foundationdb.FDBRecordContext;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore;
 import com.apple.foundationdb.record.provider.foundationdb.IndexMaintainerFactory;
 import com.apple.foundationdb.record.provider.foundationdb.indexes.ValueIndexMaintainerFactory;
 import com.apple.foundationdb.record.query.RecordQuery;
 import com.apple.foundationdb.record.query.expressions.Query;
 import com.apple.foundationdb.record.query.expressions.QueryComponent;
 import com.apple.foundationdb.record.query.plan.PlannableIndexTypes;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlanner;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryAggregatePlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQuerySortPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryTopKPlan;
 import com.apple.foundationdb.record.query.predicates.match.PredicateMatchers;
+import com.apple.foundationdb.tuple.Tuple;
 import com.apple.test.BooleanSource;
 import com.apple.test.Tags;
 import com.google.auto.service.AutoService;
@@ -58,10 +68,15 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static com.apple.foundationdb.record.TestHelpers.assertDiscardedAtMost;
@@ -87,8 +102,10 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -573,6 +590,197 @@ public class FDBSortQueryIndexSelectionTest extends FDBRecordStoreQueryTestBase
         }
     }
 
+    /**
+     * Verify that a sort that no index provides is planned as a sort of the unsorted plan when that is allowed, and
+     * that the sort can be resumed across transactions when it has written runs to files.
+     */
+    @ParameterizedTest(name = "sortWithoutIndex() [{0}]")
+    @BooleanSource
+    public void sortWithoutIndex(boolean reverse) throws Exception {
+        complexQuerySetup(NO_HOOK);
+        RecordQuery query = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("str_value_indexed").equalsValue("odd"))
+                .setSort(field("num_value_2"), reverse)
+                .build();
+        assertThrows(RecordCoreException.class, () -> planner.plan(query));
+
+        RecordQueryPlanner recordQueryPlanner = (RecordQueryPlanner) planner;
+        recordQueryPlanner.setConfiguration(recordQueryPlanner.getConfiguration()
+                .asBuilder()
+                .setAllowNonIndexSort(true)
+                .setSortMaxBytesInMemory(100)
+                .build());
+        RecordQueryPlan plan = planner.plan(query);
+        assertTrue(plan instanceof RecordQuerySortPlan, "plan should sort without an index");
+        assertThat(((RecordQuerySortPlan) plan).getChild(),
+                indexScan(allOf(indexName("MySimpleRecord$str_value_indexed"), bounds(hasTupleString("[[odd],[odd]]")))));
+        assertEquals(reverse, plan.isReverse());
+
+        final List<Long> recNos = new ArrayList<>();
+        int lastNumValue2 = reverse ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        byte[] continuation = null;
+        do {
+            try (FDBRecordContext context = openContext()) {
+                openSimpleRecordStore(context, NO_HOOK);
+                try (RecordCursor<FDBQueriedRecord<Message>> cursor = recordStore.executeQuery(plan, continuation,
+                        ExecuteProperties.newBuilder().setReturnedRowLimit(7).build())) {
+                    RecordCursorResult<FDBQueriedRecord<Message>> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        TestRecords1Proto.MySimpleRecord myrec = TestRecords1Proto.MySimpleRecord.newBuilder()
+                                .mergeFrom(result.get().getRecord()).build();
+                        assertEquals("odd", myrec.getStrValueIndexed());
+                        if (reverse) {
+                            assertThat(myrec.getNumValue2(), lessThanOrEqualTo(lastNumValue2));
+                        } else {
+                            assertThat(myrec.getNumValue2(), greaterThanOrEqualTo(lastNumValue2));
+                        }
+                        lastNumValue2 = myrec.getNumValue2();
+                        recNos.add(myrec.getRecNo());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+            }
+        } while (continuation != null);
+        assertEquals(50, recNos.size());
+        assertEquals(50, new HashSet<>(recNos).size());
+    }
+
+    /**
+     * Verify that a sort without an index is planned as a top-K sort when the limit is known and small enough.
+     */
+    @ParameterizedTest(name = "topKSortWithoutIndex() [{0}]")
+    @BooleanSource
+    public void topKSortWithoutIndex(boolean reverse) throws Exception {
+        complexQuerySetup(NO_HOOK);
+        RecordQuery query = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("str_value_indexed").equalsValue("odd"))
+                .setSort(field("num_value_2"), reverse)
+                .build();
+
+        RecordQueryPlanner recordQueryPlanner = (RecordQueryPlanner) planner;
+        recordQueryPlanner.setConfiguration(recordQueryPlanner.getConfiguration()
+                .asBuilder()
+                .setTopKSortMaxLimit(10)
+                .build());
+        assertThrows(RecordCoreException.class, () -> recordQueryPlanner.plan(query));
+        assertThrows(RecordCoreException.class, () -> recordQueryPlanner.plan(query, 11));
+        RecordQueryPlan plan = recordQueryPlanner.plan(query, 10);
+        assertTrue(plan instanceof RecordQueryTopKPlan, "plan should keep the top records without an index");
+        assertEquals(10, ((RecordQueryTopKPlan) plan).getLimit());
+        assertThat(((RecordQueryTopKPlan) plan).getChild(),
+                indexScan(allOf(indexName("MySimpleRecord$str_value_indexed"), bounds(hasTupleString("[[odd],[odd]]")))));
+        assertEquals(reverse, plan.isReverse());
+
+        // Records with equal sort keys stay in the order of the index scan.
+        final int numValue2 = reverse ? 2 : 0;
+        final List<Long> expected = LongStream.range(0, 100)
+                .filter(i -> (i & 1) == 1 && i % 3 == numValue2)
+                .limit(10)
+                .boxed()
+                .collect(Collectors.toList());
+        final List<Long> recNos = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            try (FDBRecordContext context = openContext()) {
+                openSimpleRecordStore(context, NO_HOOK);
+                try (RecordCursor<FDBQueriedRecord<Message>> cursor = recordStore.executeQuery(plan, continuation,
+                        ExecuteProperties.newBuilder().setReturnedRowLimit(4).build())) {
+                    RecordCursorResult<FDBQueriedRecord<Message>> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        TestRecords1Proto.MySimpleRecord myrec = TestRecords1Proto.MySimpleRecord.newBuilder()
+                                .mergeFrom(result.get().getRecord()).build();
+                        assertEquals(numValue2, myrec.getNumValue2());
+                        recNos.add(myrec.getRecNo());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+            }
+        } while (continuation != null);
+        assertEquals(expected, recNos);
+    }
+
+    /**
+     * Verify that a record store plans a top-K sort for a known limit with its planner configuration.
+     */
+    @Test
+    public void topKSortThroughStore() throws Exception {
+        complexQuerySetup(NO_HOOK);
+        RecordQuery query = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("str_value_indexed").equalsValue("odd"))
+                .setSort(field("num_value_2"))
+                .build();
+
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, NO_HOOK);
+            assertThrows(RecordCoreException.class, () -> recordStore.planQuery(query, 10));
+            final FDBRecordStore configuredStore = recordStore.asBuilder()
+                    .setPlannerConfiguration(RecordQueryPlannerConfiguration.builder().setTopKSortMaxLimit(10).build())
+                    .open();
+            assertThrows(RecordCoreException.class, () -> configuredStore.planQuery(query));
+            RecordQueryPlan plan = configuredStore.planQuery(query, 10);
+            assertTrue(plan instanceof RecordQueryTopKPlan, "plan should keep the top records without an index");
+            assertEquals(10, (int) configuredStore.executeQuery(plan).getCount().join());
+        }
+    }
+
+    /**
+     * Verify that records can be grouped and aggregated without an aggregate index, either by streaming an index scan
+     * ordered by the grouping field or by hashing an unordered scan, and that partial groups survive continuations.
+     */
+    @ParameterizedTest(name = "aggregateWithoutIndex() [{0}]")
+    @BooleanSource
+    public void aggregateWithoutIndex(boolean streaming) throws Exception {
+        complexQuerySetup(NO_HOOK);
+        RecordQuery.Builder queryBuilder = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord");
+        if (streaming) {
+            queryBuilder.setSort(field("num_value_3_indexed"));
+        }
+        RecordQueryPlan childPlan = planner.plan(queryBuilder.build());
+        RecordQueryAggregatePlan plan = new RecordQueryAggregatePlan(childPlan,
+                field("num_value_2").groupBy(field("num_value_3_indexed")),
+                Arrays.asList(AggregateOperation.SUM, AggregateOperation.MIN, AggregateOperation.MAX,
+                        AggregateOperation.AVG, AggregateOperation.COUNT),
+                streaming ? RecordQueryAggregatePlan.STREAMING : 200);
+        if (streaming) {
+            assertThat(childPlan, indexScan(allOf(indexName("MySimpleRecord$num_value_3_indexed"), unbounded())));
+        }
+        assertEquals(streaming, plan.hasIndexScan("MySimpleRecord$num_value_3_indexed"));
+        // Plans that aggregate differently must not accept each other's continuations.
+        assertNotEquals(plan.planHash(), new RecordQueryAggregatePlan(childPlan, plan.getGroupingKey(), plan.getOperations(),
+                streaming ? 200 : 400).planHash());
+
+        final List<Tuple> expected = new ArrayList<>();
+        for (long group = 0; group < 5; group++) {
+            final long numValue3 = group;
+            final List<Long> values = LongStream.range(0, 100).filter(i -> i % 5 == numValue3).map(i -> i % 3)
+                    .boxed().collect(Collectors.toList());
+            final long sum = values.stream().mapToLong(Long::longValue).sum();
+            expected.add(Tuple.from(group, sum, Collections.min(values), Collections.max(values),
+                    (double)sum / values.size(), (long)values.size()));
+        }
+        final List<Tuple> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            try (FDBRecordContext context = openContext()) {
+                openSimpleRecordStore(context, NO_HOOK);
+                // Stop in the middle of groups as well as between them.
+                try (RecordCursor<Tuple> cursor = plan.execute(recordStore, EvaluationContext.EMPTY, continuation,
+                        ExecuteProperties.newBuilder().setReturnedRowLimit(2).setScannedRecordsLimit(15).build())) {
+                    RecordCursorResult<Tuple> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        results.add(result.get());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+            }
+        } while (continuation != null);
+        assertEquals(expected, results);
+    }
+
     /**
      * Verify that sorts on nested fields are implemented using nested record field indexes.
      */
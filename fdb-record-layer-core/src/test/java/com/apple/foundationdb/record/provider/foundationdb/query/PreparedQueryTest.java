@@ -0,0 +1,166 @@
+/*
+ * PreparedQueryTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.query;
+
+import com.apple.foundationdb.record.Bindings;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.foundationdb.FDBQueriedRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordContext;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.PreparedQuery;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.expressions.Query;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.test.Tags;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.apple.foundationdb.record.query.plan.match.PlanMatchers.indexName;
+import static com.apple.foundationdb.record.query.plan.match.PlanMatchers.indexScan;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link PreparedQuery}.
+ */
+@Tag(Tags.RequiresFDB)
+public class PreparedQueryTest extends FDBRecordStoreQueryTestBase {
+
+    @Nonnull
+    private static PreparedQuery prepareNumValue3Query() {
+        return new PreparedQuery(RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("num_value_3_indexed").equalsParameter("p"))
+                .build());
+    }
+
+    private List<Long> executeForRecNos(@Nonnull PreparedQuery preparedQuery, int value) {
+        return preparedQuery.execute(recordStore, Bindings.newBuilder().set("p", value).build())
+                .map(FDBQueriedRecord::getRecord)
+                .map(rec -> TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(rec).getRecNo())
+                .asList().join();
+    }
+
+    @Nullable
+    private byte[] executePage(@Nonnull PreparedQuery preparedQuery, int value, @Nullable byte[] continuation, @Nonnull List<Long> recNos) {
+        final ExecuteProperties executeProperties = ExecuteProperties.newBuilder().setReturnedRowLimit(7).build();
+        try (RecordCursor<FDBQueriedRecord<Message>> cursor = preparedQuery.execute(recordStore,
+                Bindings.newBuilder().set("p", value).build(), continuation, executeProperties)) {
+            RecordCursorResult<FDBQueriedRecord<Message>> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                recNos.add(TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(result.get().getRecord()).getRecNo());
+            }
+            return result.getContinuation().toBytes();
+        }
+    }
+
+    @Test
+    public void executeWithBindings() throws Exception {
+        complexQuerySetup(NO_HOOK);
+        final PreparedQuery preparedQuery = prepareNumValue3Query();
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final RecordQueryPlan plan = preparedQuery.getPlan(recordStore);
+            assertThat(plan, indexScan(indexName("MySimpleRecord$num_value_3_indexed")));
+            for (int value = 0; value < 5; value++) {
+                final List<Long> recNos = executeForRecNos(preparedQuery, value);
+                assertEquals(20, recNos.size());
+                for (Long recNo : recNos) {
+                    assertEquals(value, recNo % 5);
+                }
+            }
+            assertSame(plan, preparedQuery.getPlan(recordStore));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.PREPARED_QUERY_REPLAN));
+        }
+    }
+
+    @Test
+    public void replanWhenIndexNotReadable() throws Exception {
+        complexQuerySetup(NO_HOOK);
+        final PreparedQuery preparedQuery = prepareNumValue3Query();
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            assertThat(preparedQuery.getPlan(recordStore), indexScan(indexName("MySimpleRecord$num_value_3_indexed")));
+            assertEquals(20, executeForRecNos(preparedQuery, 3).size());
+            recordStore.markIndexDisabled("MySimpleRecord$num_value_3_indexed").join();
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final List<Long> recNos = executeForRecNos(preparedQuery, 3);
+            assertEquals(20, recNos.size());
+            assertTrue(recNos.stream().allMatch(recNo -> recNo % 5 == 3));
+            assertThat(preparedQuery.getPlan(recordStore), not(indexScan(indexName("MySimpleRecord$num_value_3_indexed"))));
+            assertEquals(1, timer.getCount(FDBStoreTimer.Counts.PREPARED_QUERY_REPLAN));
+        }
+    }
+
+    @Test
+    public void continuationAcrossPages() throws Exception {
+        complexQuerySetup(NO_HOOK);
+        final PreparedQuery preparedQuery = prepareNumValue3Query();
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final List<Long> recNos = new ArrayList<>();
+            byte[] continuation = null;
+            do {
+                continuation = executePage(preparedQuery, 2, continuation, recNos);
+            } while (continuation != null);
+            assertEquals(20, recNos.size());
+            assertTrue(recNos.stream().allMatch(recNo -> recNo % 5 == 2));
+        }
+    }
+
+    @Test
+    public void continuationFromReplannedQuery() throws Exception {
+        complexQuerySetup(NO_HOOK);
+        final PreparedQuery preparedQuery = prepareNumValue3Query();
+        final byte[] continuation;
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            continuation = executePage(preparedQuery, 2, null, new ArrayList<>());
+            assertNotNull(continuation);
+            recordStore.markIndexDisabled("MySimpleRecord$num_value_3_indexed").join();
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            assertThrows(RecordCoreException.class, () -> executePage(preparedQuery, 2, continuation, new ArrayList<>()));
+            assertNull(executePage(preparedQuery, 2, null, new ArrayList<>()));
+        }
+    }
+}
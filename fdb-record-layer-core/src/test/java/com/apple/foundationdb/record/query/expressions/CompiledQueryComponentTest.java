@@ -0,0 +1,198 @@
+/*
+ * CompiledQueryComponentTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.expressions;
+
+import com.apple.foundationdb.record.Bindings;
+import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.TestRecordsTupleFieldsProto;
+import com.apple.foundationdb.record.UnstoredRecord;
+import com.apple.foundationdb.record.metadata.ExpressionTestsProto;
+import com.apple.foundationdb.record.metadata.expressions.TupleFieldsHelper;
+import com.apple.foundationdb.record.query.plan.temp.view.RecordTypeSource;
+import com.apple.foundationdb.record.query.plan.temp.view.Source;
+import com.apple.foundationdb.record.query.plan.temp.view.SourceEntry;
+import com.apple.foundationdb.record.query.predicates.CompiledQueryPredicate;
+import com.apple.foundationdb.record.query.predicates.QueryPredicate;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link CompiledQueryComponent} and {@link CompiledQueryPredicate}, which must always agree with evaluating
+ * the component or predicate itself.
+ */
+public class CompiledQueryComponentTest {
+    private static final Source SOURCE = new RecordTypeSource("MyFieldsRecord");
+
+    private static void assertSameEvaluation(@Nonnull QueryComponent component, @Nonnull Bindings bindings,
+                                             @Nonnull List<? extends Message> records) {
+        final EvaluationContext context = EvaluationContext.forBindings(bindings);
+        final CompiledQueryComponent compiled = CompiledQueryComponent.compile(component);
+        final QueryPredicate predicate = component.normalizeForPlanner(SOURCE);
+        final CompiledQueryPredicate compiledPredicate = CompiledQueryPredicate.compile(predicate);
+        for (Message record : records) {
+            final Boolean expected = component.eval(null, context, new UnstoredRecord<>(record));
+            assertEquals(expected, compiled.evalMessage(null, context, new UnstoredRecord<>(record), record),
+                    () -> component + " on " + record);
+            final SourceEntry sourceEntry = SourceEntry.from(SOURCE, record);
+            assertEquals(predicate.eval(null, context, sourceEntry), compiledPredicate.eval(null, context, sourceEntry),
+                    () -> predicate + " on " + record);
+        }
+    }
+
+    private static void assertSameEvaluation(@Nonnull QueryComponent component, @Nonnull List<? extends Message> records) {
+        assertSameEvaluation(component, Bindings.EMPTY_BINDINGS, records);
+    }
+
+    @Nonnull
+    private static List<QueryComponent> allComparisons(@Nonnull String fieldName, @Nonnull Object comparand) {
+        final Field field = Query.field(fieldName);
+        return Arrays.asList(
+                field.equalsValue(comparand),
+                field.notEquals(comparand),
+                field.lessThan(comparand),
+                field.lessThanOrEquals(comparand),
+                field.greaterThan(comparand),
+                field.greaterThanOrEquals(comparand));
+    }
+
+    @Nonnull
+    private static <T> List<TestRecordsTupleFieldsProto.MyFieldsRecord> fieldsRecords(@Nonnull List<T> values,
+                                                                                      @Nonnull Function<T, TestRecordsTupleFieldsProto.MyFieldsRecord.Builder> setter) {
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> records = new ArrayList<>();
+        for (T value : values) {
+            records.add(setter.apply(value).build());
+        }
+        // A record without the field.
+        records.add(TestRecordsTupleFieldsProto.MyFieldsRecord.getDefaultInstance());
+        return records;
+    }
+
+    @Test
+    public void specializedComparisons() {
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> longRecords = fieldsRecords(Arrays.asList(Long.MIN_VALUE, -1L, 0L, 1L, 42L, Long.MAX_VALUE),
+                v -> TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder().setFint64(TupleFieldsHelper.toProto(v)));
+        for (QueryComponent component : allComparisons("fint64", 1L)) {
+            assertSameEvaluation(component, longRecords);
+        }
+
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> intRecords = fieldsRecords(Arrays.asList(Integer.MIN_VALUE, -1, 0, 7, Integer.MAX_VALUE),
+                v -> TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder().setFint32(TupleFieldsHelper.toProto(v)));
+        for (QueryComponent component : allComparisons("fint32", 7)) {
+            assertSameEvaluation(component, intRecords);
+        }
+
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> doubleRecords = fieldsRecords(Arrays.asList(Double.NEGATIVE_INFINITY, -0.0, 0.0, 1.5, Double.NaN),
+                v -> TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder().setFdouble(TupleFieldsHelper.toProto(v)));
+        for (double comparand : new double[] {0.0, -0.0, 1.5, Double.NaN}) {
+            for (QueryComponent component : allComparisons("fdouble", comparand)) {
+                assertSameEvaluation(component, doubleRecords);
+            }
+        }
+
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> floatRecords = fieldsRecords(Arrays.asList(-0.0f, 0.0f, 2.5f, Float.NaN, Float.POSITIVE_INFINITY),
+                v -> TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder().setFfloat(TupleFieldsHelper.toProto(v)));
+        for (float comparand : new float[] {0.0f, 2.5f, Float.NaN}) {
+            for (QueryComponent component : allComparisons("ffloat", comparand)) {
+                assertSameEvaluation(component, floatRecords);
+            }
+        }
+
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> stringRecords = fieldsRecords(Arrays.asList("", "a", "apple", "b", "\u00e9"),
+                v -> TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder().setFstring(TupleFieldsHelper.toProto(v)));
+        for (QueryComponent component : allComparisons("fstring", "apple")) {
+            assertSameEvaluation(component, stringRecords);
+        }
+
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> boolRecords = fieldsRecords(Arrays.asList(false, true),
+                v -> TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder().setFbool(TupleFieldsHelper.toProto(v)));
+        for (boolean comparand : new boolean[] {false, true}) {
+            for (QueryComponent component : allComparisons("fbool", comparand)) {
+                assertSameEvaluation(component, boolRecords);
+            }
+        }
+    }
+
+    @Test
+    public void logicalOperators() {
+        final List<TestRecordsTupleFieldsProto.MyFieldsRecord> records = new ArrayList<>();
+        for (Long fint64 : Arrays.asList(null, 1L, 5L)) {
+            for (String fstring : Arrays.asList(null, "x", "y")) {
+                final TestRecordsTupleFieldsProto.MyFieldsRecord.Builder builder = TestRecordsTupleFieldsProto.MyFieldsRecord.newBuilder();
+                if (fint64 != null) {
+                    builder.setFint64(TupleFieldsHelper.toProto(fint64));
+                }
+                if (fstring != null) {
+                    builder.setFstring(TupleFieldsHelper.toProto(fstring));
+                }
+                records.add(builder.build());
+            }
+        }
+        final QueryComponent longComponent = Query.field("fint64").greaterThan(2L);
+        final QueryComponent stringComponent = Query.field("fstring").equalsValue("x");
+        assertSameEvaluation(Query.and(longComponent, stringComponent), records);
+        assertSameEvaluation(Query.or(longComponent, stringComponent), records);
+        assertSameEvaluation(Query.not(Query.and(longComponent, Query.not(stringComponent))), records);
+        assertSameEvaluation(Query.or(Query.field("fint64").isNull(), Query.field("fstring").notNull()), records);
+        assertSameEvaluation(Query.and(Query.field("fint64").equalsParameter("p"), stringComponent),
+                Bindings.newBuilder().set("p", 5L).build(), records);
+        assertSameEvaluation(Query.field("fstring").in(Arrays.asList("x", "z")), records);
+    }
+
+    @Test
+    public void nestedFields() {
+        final List<ExpressionTestsProto.NestedField> records = Arrays.asList(
+                ExpressionTestsProto.NestedField.getDefaultInstance(),
+                ExpressionTestsProto.NestedField.newBuilder()
+                        .setNesty(ExpressionTestsProto.NestedField.newBuilder().setRegularIntField(3))
+                        .build(),
+                ExpressionTestsProto.NestedField.newBuilder()
+                        .setNesty(ExpressionTestsProto.NestedField.newBuilder()
+                                .setRegularIntField(10)
+                                .setNesty(ExpressionTestsProto.NestedField.newBuilder().setRegularOldField("deep")))
+                        .build());
+        assertSameEvaluation(Query.field("nesty").matches(Query.field("regular_int_field").greaterThan(5)), records);
+        assertSameEvaluation(Query.field("nesty").matches(Query.field("nesty").matches(Query.field("regular_old_field").equalsValue("deep"))), records);
+        assertSameEvaluation(Query.field("nesty").matches(Query.and(
+                Query.field("regular_int_field").lessThan(5), Query.field("regular_old_field").isNull())), records);
+    }
+
+    @Test
+    public void mixedRecordTypes() {
+        final List<Message> records = Arrays.asList(
+                TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(1).setNumValue2(1).build(),
+                TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(2).setNumValue2(2).build(),
+                TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(3).setNumValue2(3).build(),
+                TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(4).build());
+        // Evaluate the same compiled component against alternating types, so that the field is resolved again each time.
+        for (QueryComponent component : allComparisons("num_value_2", 2)) {
+            assertSameEvaluation(component, records);
+        }
+    }
+}
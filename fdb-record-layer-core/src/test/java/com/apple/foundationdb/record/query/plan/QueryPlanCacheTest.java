@@ -0,0 +1,134 @@
+/*
+ * QueryPlanCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan;
+
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.record.IndexState;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.RecordMetaDataBuilder;
+import com.apple.foundationdb.record.RecordStoreState;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.expressions.Query;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link QueryPlanCache}.
+ */
+public class QueryPlanCacheTest {
+    private static final RecordMetaData METADATA = RecordMetaData.build(TestRecords1Proto.getDescriptor());
+
+    private final FDBStoreTimer timer = new FDBStoreTimer();
+
+    private static RecordQuery query(String value) {
+        return RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.and(
+                        Query.field("str_value_indexed").equalsValue(value),
+                        Query.field("num_value_2").equalsParameter("p")))
+                .build();
+    }
+
+    private static RecordQueryPlanner planner(RecordMetaData metaData, RecordStoreState recordStoreState) {
+        return new RecordQueryPlanner(metaData, recordStoreState);
+    }
+
+    @Test
+    public void samePlan() {
+        final QueryPlanCache cache = new QueryPlanCache();
+        final RecordStoreState recordStoreState = new RecordStoreState(null, null);
+        final RecordQueryPlan plan = cache.plan(planner(METADATA, recordStoreState), query("a"), timer);
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_MISS));
+
+        // An equal query with a new planner and store state.
+        assertSame(plan, cache.plan(planner(METADATA, new RecordStoreState(null, null)), query("a"), timer));
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_HIT));
+
+        // A different value is a different query.
+        final RecordQueryPlan otherPlan = cache.plan(planner(METADATA, recordStoreState), query("b"), timer);
+        assertNotSame(plan, otherPlan);
+        assertEquals(2, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_MISS));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void indexStates() {
+        final QueryPlanCache cache = new QueryPlanCache();
+        final RecordQueryPlan plan = cache.plan(planner(METADATA, new RecordStoreState(null, null)), query("a"), timer);
+        final RecordStoreState disabled = new RecordStoreState(null, ImmutableMap.of("MySimpleRecord$str_value_indexed", IndexState.DISABLED));
+        final RecordQueryPlan disabledPlan = cache.plan(planner(METADATA, disabled), query("a"), timer);
+        assertNotEquals(plan, disabledPlan);
+        assertEquals(2, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_MISS));
+        assertSame(disabledPlan, cache.plan(planner(METADATA, disabled), query("a"), timer));
+        assertSame(plan, cache.plan(planner(METADATA, new RecordStoreState(null, null)), query("a"), timer));
+        assertEquals(2, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_HIT));
+    }
+
+    @Test
+    public void metaDataVersionAndConfiguration() {
+        final QueryPlanCache cache = new QueryPlanCache();
+        final RecordStoreState recordStoreState = new RecordStoreState(null, null);
+        cache.plan(planner(METADATA, recordStoreState), query("a"), timer);
+
+        final RecordMetaDataBuilder builder = RecordMetaData.newBuilder().setRecords(TestRecords1Proto.getDescriptor());
+        builder.setVersion(METADATA.getVersion() + 1);
+        cache.plan(planner(builder.getRecordMetaData(), recordStoreState), query("a"), timer);
+        assertEquals(2, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_MISS));
+
+        final RecordQueryPlanner configured = planner(METADATA, recordStoreState);
+        configured.setConfiguration(configured.getConfiguration().asBuilder().setAttemptFailedInJoinAsOr(false).build());
+        cache.plan(configured, query("a"), timer);
+        assertEquals(3, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_MISS));
+        assertEquals(0, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_HIT));
+    }
+
+    @Test
+    public void rowLimit() {
+        final QueryPlanCache cache = new QueryPlanCache();
+        final RecordStoreState recordStoreState = new RecordStoreState(null, null);
+        final RecordQueryPlan plan = cache.plan(planner(METADATA, recordStoreState), query("a"), timer);
+        assertSame(plan, cache.plan(planner(METADATA, recordStoreState), query("a"), ReadTransaction.ROW_LIMIT_UNLIMITED, timer));
+        cache.plan(planner(METADATA, recordStoreState), query("a"), 10, timer);
+        assertEquals(2, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_MISS));
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.PLAN_CACHE_HIT));
+    }
+
+    @Test
+    public void bounded() {
+        final QueryPlanCache cache = new QueryPlanCache(10);
+        final RecordStoreState recordStoreState = new RecordStoreState(null, null);
+        for (int i = 0; i < 100; i++) {
+            cache.plan(planner(METADATA, recordStoreState), query("v" + i), timer);
+        }
+        assertTrue(cache.size() <= 10);
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * PlanStatisticsCollectorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.plans;
+
+import com.apple.foundationdb.record.ByteScanLimiter;
+import com.apple.foundationdb.record.ByteScanLimiterFactory;
+import com.apple.foundationdb.record.ExecuteState;
+import com.apple.foundationdb.record.IndexScanType;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordScanLimiterFactory;
+import com.apple.foundationdb.record.query.expressions.Query;
+import com.apple.foundationdb.record.query.plan.ScanComparisons;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for {@link PlanStatisticsCollector} over cursors that stand in for the plan's execution.
+ */
+public class PlanStatisticsCollectorTest {
+    private final RecordQueryPlan scan = new RecordQueryScanPlan(ScanComparisons.EMPTY, false);
+    private final RecordQueryPlan filter = new RecordQueryFilterPlan(scan, Query.field("num_value").equalsValue(0));
+    private final RecordQueryPlan index = new RecordQueryIndexPlan("an_index", IndexScanType.BY_VALUE, ScanComparisons.EMPTY, false);
+    private final RecordQueryPlan union = RecordQueryUnorderedUnionPlan.from(filter, index);
+
+    // A scan that reports each entry to the state's limiter, as the real scan cursors do.
+    @Nonnull
+    private static RecordCursor<Integer> scanCursor(@Nonnull ExecuteState state, @Nonnull List<Integer> values, long bytesEach) {
+        final ByteScanLimiter limiter = state.getByteScanLimiter();
+        return RecordCursor.fromList(values).map(value -> {
+            limiter.registerScannedBytes(bytesEach);
+            return value;
+        });
+    }
+
+    @Nonnull
+    private RecordCursor<Integer> execute(@Nonnull PlanStatisticsCollector collector, @Nonnull ExecuteState rootState) {
+        final ExecuteState unionState = collector.recordScans(union, rootState);
+        final ExecuteState filterState = collector.recordScans(filter, unionState);
+        final ExecuteState scanState = collector.recordScans(scan, filterState);
+        final ExecuteState indexState = collector.recordScans(index, unionState);
+        final RecordCursor<Integer> scanned = collector.record(scan, scanCursor(scanState, Arrays.asList(1, 2, 3, 4, 5, 6), 10));
+        final RecordCursor<Integer> filtered = collector.record(filter, scanned.filter(value -> value % 3 == 0));
+        final RecordCursor<Integer> indexed = collector.record(index, scanCursor(indexState, Arrays.asList(7, 8), 4));
+        final RecordCursor<Integer> concatenated = RecordCursor.flatMapPipelined(
+                outerContinuation -> RecordCursor.fromList(Arrays.asList(filtered, indexed)),
+                (child, innerContinuation) -> child, null, 1);
+        return collector.record(union, concatenated);
+    }
+
+    @Test
+    public void countsWhatIsScanned() {
+        final PlanStatisticsCollector collector = new PlanStatisticsCollector(union);
+        final ExecuteState rootState = new ExecuteState(RecordScanLimiterFactory.tracking(), ByteScanLimiterFactory.tracking());
+        assertEquals(Arrays.asList(3, 6, 7, 8), execute(collector, rootState).asList().join());
+        // Everything was still reported to the limiter that enforces the limits.
+        assertEquals(68, rootState.getBytesScanned());
+
+        final PlanStatistics unionStatistics = collector.getStatistics();
+        assertSame(union, unionStatistics.getPlan());
+        assertEquals(1, unionStatistics.getExecutions());
+        assertEquals(4, unionStatistics.getRowsIn());
+        assertEquals(4, unionStatistics.getRowsOut());
+        assertEquals(8, unionStatistics.getKeysScanned());
+        assertEquals(68, unionStatistics.getBytesScanned());
+
+        final PlanStatistics filterStatistics = unionStatistics.getChildren().get(0);
+        assertSame(filter, filterStatistics.getPlan());
+        assertEquals(6, filterStatistics.getRowsIn());
+        assertEquals(2, filterStatistics.getRowsOut());
+
+        // The scan is charged for the entries that the filter rejected as well as the ones it kept.
+        final PlanStatistics scanStatistics = filterStatistics.getChildren().get(0);
+        assertSame(scan, scanStatistics.getPlan());
+        assertEquals(6, scanStatistics.getRowsOut());
+        assertEquals(6, scanStatistics.getKeysScanned());
+        assertEquals(60, scanStatistics.getBytesScanned());
+        assertEquals(scanStatistics.getKeysScanned(), filterStatistics.getKeysScanned());
+        assertEquals(scanStatistics.getBytesScanned(), filterStatistics.getBytesScanned());
+
+        final PlanStatistics indexStatistics = unionStatistics.getChildren().get(1);
+        assertSame(index, indexStatistics.getPlan());
+        assertEquals(2, indexStatistics.getKeysScanned());
+        assertEquals(8, indexStatistics.getBytesScanned());
+    }
+
+    @Test
+    public void totalAcrossExecutions() {
+        final PlanStatisticsCollector collector = new PlanStatisticsCollector(union);
+        execute(collector, new ExecuteState()).asList().join();
+        execute(collector, new ExecuteState()).asList().join();
+
+        final PlanStatistics statistics = collector.getStatistics();
+        assertEquals(2, statistics.getExecutions());
+        assertEquals(8, statistics.getRowsOut());
+        assertEquals(16, statistics.getKeysScanned());
+        assertEquals(136, statistics.getBytesScanned());
+        assertEquals(12, statistics.getChildren().get(0).getChildren().get(0).getKeysScanned());
+    }
+
+    @Test
+    public void scansStillLimited() {
+        final PlanStatisticsCollector collector = new PlanStatisticsCollector(union);
+        final ExecuteState rootState = new ExecuteState(RecordScanLimiterFactory.untracked(), ByteScanLimiterFactory.enforce(20));
+        final ExecuteState scanState = collector.recordScans(scan, collector.recordScans(union, rootState));
+        final ByteScanLimiter limiter = scanState.getByteScanLimiter();
+        limiter.registerScannedBytes(30);
+        assertFalse(limiter.hasBytesRemaining());
+        assertFalse(rootState.getByteScanLimiter().hasBytesRemaining());
+        assertEquals(30, collector.getStatistics().getBytesScanned());
+    }
+
+    @Test
+    public void otherPlansUnchanged() {
+        final PlanStatisticsCollector collector = new PlanStatisticsCollector(index);
+        final ExecuteState state = new ExecuteState();
+        assertSame(state, collector.recordScans(scan, state));
+        final RecordCursor<Integer> cursor = RecordCursor.fromList(Collections.singletonList(1));
+        assertSame(cursor, collector.record(scan, cursor));
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * FileSortCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link FileSortCursor}.
+ */
+public class FileSortCursorTest {
+    private static final Executor EXECUTOR = ForkJoinPool.commonPool();
+
+    private Path directory;
+    private FDBStoreTimer timer;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("file-sort-test");
+        timer = new FDBStoreTimer();
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Sorts strings by their first character only, so that the stability of the sort can be checked.
+     */
+    private class FirstCharAdapter implements FileSortAdapter<String> {
+        private final boolean reverse;
+        private final long maxBytesInMemory;
+
+        FirstCharAdapter(boolean reverse, long maxBytesInMemory) {
+            this.reverse = reverse;
+            this.maxBytesInMemory = maxBytesInMemory;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] getKey(@Nonnull String value) {
+            return Tuple.from(value.substring(0, 1)).pack();
+        }
+
+        @Override
+        public boolean isReverse() {
+            return reverse;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeValue(@Nonnull String value) {
+            return Tuple.from(value).pack();
+        }
+
+        @Nonnull
+        @Override
+        public String deserializeValue(@Nonnull byte[] bytes) {
+            return Tuple.fromBytes(bytes).getString(0);
+        }
+
+        @Override
+        public long getSizeInMemory(@Nonnull String value) {
+            return value.length();
+        }
+
+        @Override
+        public long getMaxBytesInMemory() {
+            return maxBytesInMemory;
+        }
+
+        @Nullable
+        @Override
+        public Path getDirectory() {
+            return directory;
+        }
+    }
+
+    @Nonnull
+    private static List<String> input() {
+        final Random random = new Random(2020);
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            values.add((char)('a' + random.nextInt(26)) + "-" + i);
+        }
+        return values;
+    }
+
+    @Nonnull
+    private static List<String> expected(@Nonnull List<String> input, boolean reverse) {
+        Comparator<String> comparator = Comparator.comparing(s -> s.charAt(0));
+        if (reverse) {
+            comparator = comparator.reversed();
+        }
+        // List.sort is stable.
+        final List<String> sorted = new ArrayList<>(input);
+        sorted.sort(comparator);
+        return sorted;
+    }
+
+    /**
+     * Sort in pages of the given size, resuming from a continuation each time, with the input read in pages of the given
+     * size as well, so that some continuations are taken while loading the input.
+     */
+    @Nonnull
+    private List<String> sort(@Nonnull List<String> input, @Nonnull FileSortAdapter<String> adapter,
+                              int inputLimit, int outputLimit) {
+        final List<String> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            final RecordCursor<String> cursor = FileSortCursor.create(adapter,
+                    inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation).limitRowsTo(inputLimit),
+                    continuation, EXECUTOR, timer)
+                    .limitRowsTo(outputLimit);
+            RecordCursorResult<String> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                results.add(result.get());
+            }
+            continuation = result.getContinuation().toBytes();
+            cursor.close();
+        } while (continuation != null);
+        return results;
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            // Not counting the directory itself.
+            return files.count() - 1;
+        }
+    }
+
+    static Stream<Arguments> sortParameters() {
+        return Stream.of(false, true).flatMap(reverse ->
+                Stream.of(Integer.MAX_VALUE, 37).flatMap(inputLimit ->
+                        Stream.of(Integer.MAX_VALUE, 1, 23).map(outputLimit -> Arguments.of(reverse, inputLimit, outputLimit))));
+    }
+
+    @ParameterizedTest(name = "inMemory [reverse = {0}, inputLimit = {1}, outputLimit = {2}]")
+    @MethodSource("sortParameters")
+    public void inMemory(boolean reverse, int inputLimit, int outputLimit) throws IOException {
+        final List<String> input = input();
+        final List<String> results = sort(input, new FirstCharAdapter(reverse, 1_000_000), inputLimit, outputLimit);
+        assertEquals(expected(input, reverse), results);
+        if (inputLimit == Integer.MAX_VALUE && outputLimit == Integer.MAX_VALUE) {
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RUNS));
+            assertEquals(0, fileCount());
+        } else {
+            if (inputLimit == Integer.MAX_VALUE) {
+                // Resuming from memory writes the sorted values once.
+                assertEquals(1, timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RUNS));
+            }
+            // Stopping while loading writes what has been read so far.
+            assertEquals(1, FileSortCursor.deleteAbandonedRuns(directory, 0L));
+            assertEquals(0, fileCount());
+        }
+    }
+
+    @Test
+    public void inMemoryPagesReadInputTwice() {
+        final List<String> input = input();
+        final AtomicInteger inputReads = new AtomicInteger();
+        final List<String> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            final RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 1_000_000),
+                    inputContinuation -> {
+                        inputReads.incrementAndGet();
+                        return RecordCursor.fromList(EXECUTOR, input, inputContinuation);
+                    },
+                    continuation, EXECUTOR, timer)
+                    .limitRowsTo(10);
+            RecordCursorResult<String> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                results.add(result.get());
+            }
+            continuation = result.getContinuation().toBytes();
+            cursor.close();
+        } while (continuation != null);
+        assertEquals(expected(input, false), results);
+        // Once on the first page and once more on the second, after which the merge is resumed from the file.
+        assertEquals(2, inputReads.get());
+    }
+
+    @ParameterizedTest(name = "withFiles [reverse = {0}, inputLimit = {1}, outputLimit = {2}]")
+    @MethodSource("sortParameters")
+    public void withFiles(boolean reverse, int inputLimit, int outputLimit) throws IOException {
+        final List<String> input = input();
+        final List<String> results = sort(input, new FirstCharAdapter(reverse, 200), inputLimit, outputLimit);
+        assertEquals(expected(input, reverse), results);
+        assertTrue(timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RUNS) > 1);
+        assertEquals(input.size(), timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RECORDS));
+        // Files are kept once the merge is exhausted, in case an earlier continuation is retried, until abandoned.
+        assertTrue(fileCount() > 0);
+        assertEquals(1, FileSortCursor.deleteAbandonedRuns(directory, 0L));
+        assertEquals(0, fileCount());
+    }
+
+    @Nonnull
+    private List<String> resume(@Nonnull List<String> input, @Nullable byte[] continuation) {
+        final List<String> results = new ArrayList<>();
+        try (RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation),
+                continuation, EXECUTOR, timer)) {
+            RecordCursorResult<String> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                results.add(result.get());
+            }
+            assertTrue(result.getContinuation().isEnd());
+        }
+        return results;
+    }
+
+    @Test
+    public void retryAfterExhausted() throws IOException {
+        final List<String> input = input();
+        final RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation),
+                null, EXECUTOR, timer);
+        final RecordCursorResult<String> first = cursor.getNext();
+        assertTrue(first.hasNext());
+        final byte[] continuation = first.getContinuation().toBytes();
+        cursor.close();
+        // The runs and the sort's own directory.
+        assertEquals(timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RUNS) + 1, fileCount());
+
+        final List<String> expected = expected(input, false);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            final List<String> results = new ArrayList<>();
+            results.add(first.get());
+            results.addAll(resume(input, continuation));
+            assertEquals(expected, results);
+        }
+        assertEquals(timer.getCount(FDBStoreTimer.Counts.SORT_FILE_RUNS) + 1, fileCount());
+    }
+
+    @Test
+    public void retryWhileLoading() throws IOException {
+        final List<String> input = input();
+        final RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation).limitRowsTo(100),
+                null, EXECUTOR, timer);
+        final RecordCursorResult<String> stopped = cursor.getNext();
+        assertFalse(stopped.hasNext());
+        final byte[] continuation = stopped.getContinuation().toBytes();
+        cursor.close();
+
+        // Each attempt writes its own runs for the rest of the input, alongside the other's.
+        final List<String> expected = expected(input, false);
+        assertEquals(expected, resume(input, continuation));
+        assertEquals(expected, resume(input, continuation));
+    }
+
+    @Test
+    public void continuationAfterClose() throws IOException {
+        final List<String> input = input();
+        final RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation),
+                null, EXECUTOR, timer);
+        final RecordCursorResult<String> first = cursor.getNext();
+        assertTrue(first.hasNext());
+        cursor.close();
+        // The result was returned, so its runs were kept.
+        assertTrue(fileCount() > 0);
+        final List<String> results = new ArrayList<>();
+        results.add(first.get());
+        results.addAll(resume(input, first.getContinuation().toBytes()));
+        assertEquals(expected(input, false), results);
+    }
+
+    @Test
+    public void filesDeletedOnClose() throws IOException {
+        final List<String> input = input();
+        final RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation).map(value -> {
+                    if (value.endsWith("-300")) {
+                        throw new IllegalStateException("input failed");
+                    }
+                    return value;
+                }),
+                null, EXECUTOR, timer);
+        assertThrows(RuntimeException.class, cursor::getNext);
+        assertTrue(fileCount() > 0);
+        cursor.close();
+        // No result was returned, so nothing can resume from the runs.
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void abandonedRuns() throws IOException {
+        final List<String> input = input();
+        final RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation),
+                null, EXECUTOR, timer);
+        final RecordCursorResult<String> first = cursor.getNext();
+        assertTrue(first.hasNext());
+        first.getContinuation().toBytes();
+        cursor.close();
+        assertTrue(fileCount() > 0);
+        assertEquals(0, FileSortCursor.deleteAbandonedRuns(directory, 60_000L));
+        assertEquals(1, FileSortCursor.deleteAbandonedRuns(directory, 0L));
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void continuationDoesNotNamePaths() throws IOException {
+        final Path outside = Files.createTempFile(directory, "outside", ".run");
+        for (String spillId : new String[] {"../" + directory.relativize(outside), outside.toString(), "0123456789abcdef0123456789abcdef"}) {
+            final byte[] continuation = RecordCursorProto.FileSortContinuation.newBuilder()
+                    .setLoadComplete(true)
+                    .setSpillId(spillId)
+                    .setRunCount(1)
+                    .addRunIndexes(0)
+                    .addPositions(0)
+                    .build().toByteArray();
+            assertThrows(RecordCoreException.class, () -> FileSortCursor.create(new FirstCharAdapter(false, 200),
+                    inputContinuation -> RecordCursor.empty(), continuation, EXECUTOR, timer));
+        }
+        final byte[] outOfRange = RecordCursorProto.FileSortContinuation.newBuilder()
+                .setLoadComplete(true)
+                .setSpillId("0123456789abcdef0123456789abcdef")
+                .setRunCount(1)
+                .addRunIndexes(1)
+                .addPositions(0)
+                .build().toByteArray();
+        assertThrows(RecordCoreException.class, () -> FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.empty(), outOfRange, EXECUTOR, timer));
+    }
+
+    @Test
+    public void empty() throws IOException {
+        final RecordCursor<String> cursor = FileSortCursor.create(new FirstCharAdapter(false, 200),
+                inputContinuation -> RecordCursor.empty(),
+                null, EXECUTOR, timer);
+        assertFalse(cursor.getNext().hasNext());
+        assertEquals(0, fileCount());
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * FingerprintDistinctCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link FingerprintDistinctCursor}.
+ */
+public class FingerprintDistinctCursorTest {
+    private static final Executor EXECUTOR = ForkJoinPool.commonPool();
+
+    private Path directory;
+    private FDBStoreTimer timer;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("distinct-test");
+        timer = new FDBStoreTimer();
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Nonnull
+    private static List<Integer> input() {
+        final Random random = new Random(2020);
+        final List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            values.add(random.nextInt(500));
+        }
+        return values;
+    }
+
+    @Nonnull
+    private RecordCursor<Integer> create(@Nonnull List<Integer> input, long maxBytesInMemory, int inputLimit,
+                                         @Nullable byte[] continuation) {
+        return FingerprintDistinctCursor.<Integer>create(value -> Tuple.from(value).pack(),
+                maxBytesInMemory, directory,
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation).limitRowsTo(inputLimit),
+                continuation, EXECUTOR, timer,
+                Collections.singleton(FDBStoreTimer.Counts.QUERY_DISTINCT_PLAN_UNIQUES),
+                Collections.singleton(FDBStoreTimer.Counts.QUERY_DISTINCT_PLAN_DUPLICATES));
+    }
+
+    @Nonnull
+    private List<Integer> distinct(@Nonnull List<Integer> input, long maxBytesInMemory, int inputLimit, int outputLimit) {
+        final List<Integer> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            final RecordCursor<Integer> cursor = create(input, maxBytesInMemory, inputLimit, continuation)
+                    .limitRowsTo(outputLimit);
+            RecordCursorResult<Integer> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                results.add(result.get());
+            }
+            continuation = result.getContinuation().toBytes();
+            cursor.close();
+        } while (continuation != null);
+        return results;
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            // Not counting the directory itself.
+            return files.count() - 1;
+        }
+    }
+
+    static Stream<Arguments> distinctParameters() {
+        return Stream.of(1_000_000L, 512L).flatMap(maxBytesInMemory ->
+                Stream.of(Integer.MAX_VALUE, 37).flatMap(inputLimit ->
+                        Stream.of(Integer.MAX_VALUE, 1, 200).map(outputLimit -> Arguments.of(maxBytesInMemory, inputLimit, outputLimit))));
+    }
+
+    @ParameterizedTest(name = "distinct [maxBytesInMemory = {0}, inputLimit = {1}, outputLimit = {2}]")
+    @MethodSource("distinctParameters")
+    public void distinct(long maxBytesInMemory, int inputLimit, int outputLimit) throws IOException {
+        final List<Integer> input = input();
+        final List<Integer> expected = new ArrayList<>(new LinkedHashSet<>(input));
+        final List<Integer> results = distinct(input, maxBytesInMemory, inputLimit, outputLimit);
+        assertEquals(expected, results);
+        assertEquals(expected.size(), timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_PLAN_UNIQUES));
+        assertEquals(input.size() - expected.size(), timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_PLAN_DUPLICATES));
+        assertTrue(timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_MEMORY_BYTES) > 0);
+        // Too many fingerprints to include in a continuation.
+        assertTrue(timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_SPILLED_RUNS) > 1);
+        if (maxBytesInMemory < 1000) {
+            assertTrue(timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_FILE_LOOKUPS) > 0);
+        } else if (inputLimit == Integer.MAX_VALUE && outputLimit == Integer.MAX_VALUE) {
+            // Everything written to files was still in memory.
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_FILE_LOOKUPS));
+        }
+        // Files that continuations refer to are kept until they are abandoned.
+        assertTrue(fileCount() > 0);
+        assertEquals(1, FingerprintDistinctCursor.deleteAbandonedRuns(directory, 0L));
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void inlineContinuation() throws IOException {
+        final List<Integer> input = input();
+        final RecordCursor<Integer> cursor = FingerprintDistinctCursor.<Integer>create(value -> Tuple.from(value).pack(),
+                1_000_000L, directory,
+                inputContinuation -> RecordCursor.fromList(EXECUTOR, input, inputContinuation),
+                null, EXECUTOR, timer, Collections.emptySet(), Collections.emptySet());
+        RecordCursorResult<Integer> result = null;
+        for (int i = 0; i < FingerprintDistinctCursor.MAX_INLINE_FINGERPRINTS; i++) {
+            result = cursor.getNext();
+            assertTrue(result.hasNext());
+        }
+        cursor.close();
+        assertFalse(result.getContinuation().isEnd());
+        result.getContinuation().toBytes();
+        // Only a few fingerprints, so they go in the continuation itself.
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void continuationsBounded() throws IOException {
+        final List<Integer> input = input();
+        final List<Integer> results = new ArrayList<>();
+        final RecordCursor<Integer> cursor = create(input, 1_000_000L, Integer.MAX_VALUE, null);
+        RecordCursorResult<Integer> result = null;
+        for (int i = 0; i < FingerprintDistinctCursor.MAX_INLINE_FINGERPRINTS * 3; i++) {
+            result = cursor.getNext();
+            assertTrue(result.hasNext());
+            results.add(result.get());
+            final long filesBefore = fileCount();
+            final byte[] continuation = result.getContinuation().toBytes();
+            // Serializing does no I/O, and never includes more than the maximum number of fingerprints.
+            assertEquals(filesBefore, fileCount());
+            assertTrue(continuation.length < (FingerprintDistinctCursor.MAX_INLINE_FINGERPRINTS + 16) * Long.BYTES);
+        }
+        assertTrue(timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_SPILLED_RUNS) > 1);
+        // Runs of the same size are merged, and those merged as soon as written are not kept.
+        assertTrue(fileCount() - 1 < timer.getCount(FDBStoreTimer.Counts.QUERY_DISTINCT_SPILLED_RUNS));
+        cursor.close();
+
+        // A continuation can still be serialized after the cursor is closed.
+        final RecordCursor<Integer> resumed = create(input, 1_000_000L, Integer.MAX_VALUE, result.getContinuation().toBytes());
+        while ((result = resumed.getNext()).hasNext()) {
+            results.add(result.get());
+        }
+        resumed.close();
+        assertEquals(new ArrayList<>(new LinkedHashSet<>(input)), results);
+    }
+
+    @Test
+    public void retryAfterExhausted() throws IOException {
+        final List<Integer> input = input();
+        final List<Integer> expected = new ArrayList<>(new LinkedHashSet<>(input));
+        final RecordCursor<Integer> cursor = create(input, 512L, Integer.MAX_VALUE, null);
+        final List<Integer> results = new ArrayList<>();
+        byte[] continuation = null;
+        RecordCursorResult<Integer> result;
+        while ((result = cursor.getNext()).hasNext()) {
+            results.add(result.get());
+            if (results.size() == 300) {
+                continuation = result.getContinuation().toBytes();
+            }
+        }
+        cursor.close();
+        assertEquals(expected, results);
+
+        // Resuming from an earlier continuation, as after a failed commit, still finds its files.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            final List<Integer> retried = new ArrayList<>(expected.subList(0, 300));
+            final RecordCursor<Integer> resumed = create(input, 512L, Integer.MAX_VALUE, continuation);
+            while ((result = resumed.getNext()).hasNext()) {
+                retried.add(result.get());
+            }
+            resumed.close();
+            assertEquals(expected, retried);
+        }
+        assertEquals(0, FingerprintDistinctCursor.deleteAbandonedRuns(directory, 60_000L));
+        assertEquals(1, FingerprintDistinctCursor.deleteAbandonedRuns(directory, 0L));
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void continuationDoesNotNamePaths() throws IOException {
+        final Path outside = Files.createTempFile(directory, "outside", ".fps");
+        for (String spillId : new String[] {"../" + directory.relativize(outside), outside.toString(), "0123456789abcdef0123456789abcdef"}) {
+            final byte[] continuation = RecordCursorProto.FingerprintDistinctContinuation.newBuilder()
+                    .setSpillId(spillId)
+                    .setRunCount(1)
+                    .build().toByteArray();
+            assertThrows(RecordCoreException.class, () -> create(input(), 1_000_000L, Integer.MAX_VALUE, continuation));
+        }
+        final byte[] outOfRange = RecordCursorProto.FingerprintDistinctContinuation.newBuilder()
+                .setSpillId("0123456789abcdef0123456789abcdef")
+                .setRunCount(1)
+                .addRunIndexes(1)
+                .build().toByteArray();
+        assertThrows(RecordCoreException.class, () -> create(input(), 1_000_000L, Integer.MAX_VALUE, outOfRange));
+    }
+
+    @Test
+    public void invalidLimit() {
+        assertThrows(RecordCoreArgumentException.class, () -> FingerprintDistinctCursor.<Integer>create(value -> Tuple.from(value).pack(),
+                0, directory, inputContinuation -> RecordCursor.empty(), null, EXECUTOR, timer,
+                Collections.emptySet(), Collections.emptySet()));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * TopKCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2020 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link TopKCursor}.
+ */
+public class TopKCursorTest {
+    private static final Executor EXECUTOR = ForkJoinPool.commonPool();
+
+    /**
+     * Sorts strings by their first character only, so that the stability of the sort can be checked.
+     */
+    private static class FirstCharAdapter implements SortAdapter<String> {
+        private final boolean reverse;
+
+        FirstCharAdapter(boolean reverse) {
+            this.reverse = reverse;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] getKey(@Nonnull String value) {
+            return Tuple.from(value.substring(0, 1)).pack();
+        }
+
+        @Override
+        public boolean isReverse() {
+            return reverse;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeValue(@Nonnull String value) {
+            return Tuple.from(value).pack();
+        }
+
+        @Nonnull
+        @Override
+        public String deserializeValue(@Nonnull byte[] bytes) {
+            return Tuple.fromBytes(bytes).getString(0);
+        }
+    }
+
+    @Nonnull
+    private static List<String> input() {
+        final Random random = new Random(2020);
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            values.add((char)('a' + random.nextInt(26)) + "-" + i);
+        }
+        return values;
+    }
+
+    @Nonnull
+    private static List<String> expected(@Nonnull List<String> input, boolean reverse, int limit) {
+        Comparator<String> comparator = Comparator.comparing(s -> s.charAt(0));
+        if (reverse) {
+            comparator = comparator.reversed();
+        }
+        // List.sort is stable.
+        final List<String> sorted = new ArrayList<>(input);
+        sorted.sort(comparator);
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    @Nonnull
+    private static List<String> topK(@Nonnull List<String> input, boolean reverse, int limit,
+                                     int inputLimit, int outputLimit, @Nonnull AtomicInteger inputReads) {
+        final List<String> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            final RecordCursor<String> cursor = TopKCursor.create(new FirstCharAdapter(reverse), limit,
+                    inputContinuation -> {
+                        inputReads.incrementAndGet();
+                        return RecordCursor.fromList(EXECUTOR, input, inputContinuation).limitRowsTo(inputLimit);
+                    },
+                    continuation, EXECUTOR)
+                    .limitRowsTo(outputLimit);
+            RecordCursorResult<String> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                results.add(result.get());
+            }
+            cursor.close();
+            continuation = result.getContinuation().toBytes();
+        } while (continuation != null);
+        return results;
+    }
+
+    static Stream<Arguments> topKParameters() {
+        return Stream.of(false, true).flatMap(reverse ->
+                Stream.of(1, 20, 1000).flatMap(limit ->
+                        Stream.of(Integer.MAX_VALUE, 37).flatMap(inputLimit ->
+                                Stream.of(Integer.MAX_VALUE, 3).map(outputLimit -> Arguments.of(reverse, limit, inputLimit, outputLimit)))));
+    }
+
+    @ParameterizedTest(name = "topK [reverse = {0}, limit = {1}, inputLimit = {2}, outputLimit = {3}]")
+    @MethodSource("topKParameters")
+    public void topK(boolean reverse, int limit, int inputLimit, int outputLimit) {
+        final List<String> input = input();
+        final AtomicInteger inputReads = new AtomicInteger();
+        final List<String> results = topK(input, reverse, limit, inputLimit, outputLimit, inputReads);
+        assertEquals(expected(input, reverse, limit), results);
+        // Resuming after the input has been exhausted does not read it again.
+        assertEquals((input.size() - 1L + inputLimit) / inputLimit, inputReads.get());
+    }
+
+    @Test
+    public void empty() {
+        final RecordCursor<String> cursor = TopKCursor.create(new FirstCharAdapter(false), 10,
+                inputContinuation -> RecordCursor.empty(), null, EXECUTOR);
+        assertFalse(cursor.getNext().hasNext());
+    }
+
+    @Test
+    public void invalidLimit() {
+        assertThrows(RecordCoreArgumentException.class, () -> TopKCursor.create(new FirstCharAdapter(false), 0,
+                inputContinuation -> RecordCursor.empty(), null, EXECUTOR));
+    }
+}